@@ -0,0 +1,42 @@
+package fax.play.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line, e.g. {@code java -jar calcite-bench/target/benchmarks.jar Planning
+ * -p tables=5}, with two defaults: the allocation profiler, reporting the bytes allocated by each operation
+ * ({@code gc.alloc.rate.norm}) next to the distribution of its latency, and the results written as JSON, to be compared
+ * with the ones of the previous release.
+ */
+public final class Benchmarks {
+
+   private Benchmarks() {
+   }
+
+   public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+      CommandLineOptions options = new CommandLineOptions(args);
+      if (options.shouldHelp()) {
+         options.showHelp();
+         return;
+      }
+      ChainedOptionsBuilder builder = new OptionsBuilder().parent(options).addProfiler(GCProfiler.class);
+      if (!options.getResultFormat().hasValue()) {
+         builder.resultFormat(ResultFormatType.JSON);
+      }
+      Runner runner = new Runner(builder.build());
+      if (options.shouldList()) {
+         runner.list();
+      } else {
+         runner.run();
+      }
+   }
+}
@@ -0,0 +1,77 @@
+package fax.play.bench;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.commons.dataconversion.internal.Json;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fax.play.service.BulkBodyWriter;
+import fax.play.service.SearchService;
+
+/**
+ * The construction of the body of a {@code _bulk} request of {@link SearchService#bulkIndexing(String, Map)}, for
+ * documents shaped as the ones of the chain join, without sending it.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkBodyBenchmark {
+
+   @Param({"1000", "10000"})
+   public int rows;
+
+   private Map<String, Json> documents;
+   private BulkBodyWriter writer;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      Random random = new Random(42);
+      documents = new LinkedHashMap<>(rows);
+      for (int id = 1; id <= rows; id++) {
+         documents.put(id + "", Json.object("id", id, "table_1_id", random.nextInt(rows + 1)));
+      }
+      writer = new BulkBodyWriter(1 << 16);
+   }
+
+   /**
+    * @return the size of the body, the buffer of the writer is reused by the next invocation as by the indexer
+    */
+   @Benchmark
+   public int bulkBody() throws IOException {
+      writer.reset();
+      for (Map.Entry<String, Json> entry : documents.entrySet()) {
+         writer.add("table_2", entry.getKey(), entry.getValue());
+      }
+      return (int) writer.entity().getContentLength();
+   }
+
+   /**
+    * @return the size of the body of a new writer, whose buffer grows from its initial capacity
+    */
+   @Benchmark
+   public int bulkBodyFirstRequest() throws IOException {
+      BulkBodyWriter first = new BulkBodyWriter(1 << 16);
+      for (Map.Entry<String, Json> entry : documents.entrySet()) {
+         first.add("table_2", entry.getKey(), entry.getValue());
+      }
+      return (int) first.entity().getContentLength();
+   }
+}
@@ -0,0 +1,120 @@
+package fax.play.bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.ViewTable;
+import org.apache.calcite.util.Closer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import fax.play.resource.StubSearchServer;
+import fax.play.service.CalciteSearch;
+import fax.play.service.SearchService;
+
+/**
+ * The tables of the chain join of {@code JoinQueryTests}, served by an in-process {@link StubSearchServer}:
+ * {@code table_1} has an {@code id}, each following {@code table_i} an {@code id} and a {@code table_<i-1>_id}
+ * referencing the previous table.
+ * <p>
+ * The foreign keys are drawn from a seeded random, so that the runs of a benchmark join the same rows.
+ */
+@State(Scope.Benchmark)
+public class ChainJoinBackend {
+
+   private static final ObjectMapper MAPPER = new ObjectMapper();
+
+   @Param({"2", "5"})
+   public int tables;
+
+   @Param({"1000", "10000"})
+   public int rows;
+
+   public StubSearchServer stub;
+   public SearchService searchService;
+   public CalciteSearch calciteSearch;
+
+   private final Closer closer = new Closer();
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      stub = closer.add(StubSearchServer.start());
+      Random random = new Random(42);
+      for (int i = 1; i <= tables; i++) {
+         String index = "table_" + i;
+         ObjectNode properties = MAPPER.createObjectNode();
+         properties.putObject("id").put("type", "integer");
+         if (i > 1) {
+            properties.putObject(foreignKey(i)).put("type", "integer");
+         }
+         stub.createIndex(index, properties);
+
+         for (int id = 1; id <= rows; id++) {
+            ObjectNode document = MAPPER.createObjectNode().put("id", id);
+            if (i > 1) {
+               document.put(foreignKey(i), random.nextInt(rows + 1));
+            }
+            stub.index(index, id + "", document);
+         }
+      }
+
+      searchService = closer.add(new SearchService("admin", "admin", stub.host()));
+      calciteSearch = closer.add(new CalciteSearch(searchService.getRestClient(), this::defineViews));
+   }
+
+   /**
+    * The stub keeps all the requests it is sent: they are dropped between iterations, not to weigh on the next ones.
+    */
+   @TearDown(Level.Iteration)
+   public void clearRequests() {
+      stub.clearRequests();
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      closer.close();
+   }
+
+   /**
+    * @return the chain join of all the tables, up to the bound of {@code WHERE t1.id <= }
+    */
+   public String joinQuery(String projection) {
+      StringBuilder query = new StringBuilder("SELECT " + projection + " FROM table_1 AS t1 ");
+      for (int i = 2; i <= tables; i++) {
+         // INNER JOIN table_2 AS t2 ON t1.id = t2.table_1_id
+         query.append("inner join table_").append(i).append(" as t").append(i)
+               .append(" on t").append(i - 1).append(".id = t").append(i).append('.').append(foreignKey(i))
+               .append(' ');
+      }
+      return query.append("WHERE t1.id <= ").toString();
+   }
+
+   public void defineViews(SchemaPlus root) {
+      // the columns of the typed schema are typed after the mappings, no cast is needed
+      for (int i = 1; i <= tables; i++) {
+         String tableName = "table_" + i;
+         String viewSql = i == 1
+               ? "select \"id\" from \"typed\".\"table_1\""
+               : "select \"" + foreignKey(i) + "\", \"id\" from \"typed\".\"" + tableName + "\"";
+
+         root.add(tableName,
+               ViewTable.viewMacro(root, viewSql,
+                     Collections.singletonList("typed"),
+                     Arrays.asList("typed", "view"), false));
+      }
+   }
+
+   private static String foreignKey(int table) {
+      return "table_" + (table - 1) + "_id";
+   }
+}
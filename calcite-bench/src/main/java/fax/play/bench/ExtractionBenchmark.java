@@ -0,0 +1,87 @@
+package fax.play.bench;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fax.play.service.CalciteSearch;
+import fax.play.service.ColumnBatch;
+
+/**
+ * The extractors of {@link CalciteSearch}, on the rows of the last table of the chain fetched once and replayed from
+ * memory, so that nothing but the extraction is measured: the typed columns of its view, and the {@code _MAP} column
+ * of its table in the elastic schema for the map extractors.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractionBenchmark {
+
+   private CachedRowSet rows;
+   private CachedRowSet maps;
+
+   @Setup(Level.Trial)
+   public void setUp(ChainJoinBackend backend) throws SQLException {
+      rows = fetch(backend, "select * from table_" + backend.tables);
+      maps = fetch(backend, "select * from elastic.table_" + backend.tables);
+   }
+
+   @Benchmark
+   public List<?> columnExtractor() throws SQLException {
+      return CalciteSearch.columnExtractor(cursor(rows));
+   }
+
+   @Benchmark
+   public List<List<Object>> multipleColumnExtraction() throws SQLException {
+      return CalciteSearch.multipleColumnExtraction(cursor(rows));
+   }
+
+   @Benchmark
+   public List<ColumnBatch> columnarExtraction() throws SQLException {
+      return CalciteSearch.columnarExtraction(cursor(rows));
+   }
+
+   @Benchmark
+   public List<Map<String, Object>> singleColumnMapExtraction() throws SQLException {
+      return CalciteSearch.singleColumnMapExtraction(cursor(maps));
+   }
+
+   private static CachedRowSet fetch(ChainJoinBackend backend, String sql) throws SQLException {
+      CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+      try (Connection connection = backend.calciteSearch.createConnection();
+           Statement statement = connection.createStatement();
+           ResultSet resultSet = statement.executeQuery(sql)) {
+         rows.populate(resultSet);
+      }
+      return rows;
+   }
+
+   /**
+    * @return a cursor on the rows, sharing them with the other cursors
+    */
+   private static ResultSet cursor(CachedRowSet rows) throws SQLException {
+      return (ResultSet) rows.createShared();
+   }
+}
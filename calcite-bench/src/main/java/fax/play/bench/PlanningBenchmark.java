@@ -0,0 +1,68 @@
+package fax.play.bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fax.play.service.CalciteSearch;
+import fax.play.service.PlanCache;
+
+/**
+ * The preparation of the chain join of all the tables: parsing, validation, optimization and code generation on a
+ * connection without plan cache, and the lookup of the plan in the {@link PlanCache} of the pooled connections.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class PlanningBenchmark {
+
+   private String query;
+   private Connection uncached;
+
+   @Setup(Level.Trial)
+   public void setUp(ChainJoinBackend backend) throws SQLException {
+      query = backend.joinQuery("count(*)") + "?";
+      // the views of the backend, on a connection of the default Calcite driver
+      uncached = backend.calciteSearch.createConnectionWith(backend::defineViews);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws SQLException {
+      uncached.close();
+   }
+
+   @Benchmark
+   public int prepare() throws SQLException {
+      try (PreparedStatement statement = uncached.prepareStatement(query)) {
+         return statement.getMetaData().getColumnCount();
+      }
+   }
+
+   /**
+    * @see CalciteSearch#prepare(String)
+    */
+   @Benchmark
+   public int prepareCached(ChainJoinBackend backend) throws SQLException {
+      try (Connection connection = backend.calciteSearch.createConnection();
+           PreparedStatement statement = connection.prepareStatement(query)) {
+         return statement.getMetaData().getColumnCount();
+      }
+   }
+}
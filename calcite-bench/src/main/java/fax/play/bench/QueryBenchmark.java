@@ -0,0 +1,64 @@
+package fax.play.bench;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fax.play.service.CalciteSearch;
+
+/**
+ * The queries of {@code JoinQueryTests}, end to end: the plans are cached after the first execution, so they measure
+ * the requests to the stub backend, the execution of the plans and the extraction of the rows.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark {
+
+   private String joins;
+   private String joinsCount;
+
+   @Setup(Level.Trial)
+   public void setUp(ChainJoinBackend backend) {
+      joins = backend.joinQuery("*") + 10;
+      joinsCount = backend.joinQuery("count(*)") + 10;
+   }
+
+   @Benchmark
+   public List<?> scan(ChainJoinBackend backend) throws SQLException {
+      return backend.calciteSearch.executeQuery("select * from table_1");
+   }
+
+   @Benchmark
+   public List<?> joins(ChainJoinBackend backend) throws SQLException {
+      return backend.calciteSearch.executeQuery(joins);
+   }
+
+   @Benchmark
+   public List<?> joinsCount(ChainJoinBackend backend) throws SQLException {
+      return backend.calciteSearch.executeQuery(joinsCount);
+   }
+
+   /**
+    * @see CalciteSearch#executeQueryAsync(String)
+    */
+   @Benchmark
+   public List<?> joinsAsync(ChainJoinBackend backend) {
+      return backend.calciteSearch.executeQueryAsync(joins).join();
+   }
+}
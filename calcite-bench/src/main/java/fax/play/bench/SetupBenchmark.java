@@ -0,0 +1,56 @@
+package fax.play.bench;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fax.play.search.SearchOptions;
+import fax.play.service.CalciteSearch;
+import fax.play.service.SchemaCatalog;
+
+/**
+ * The setup of the connections: the catalog read from the server with its views, a new {@link CalciteSearch} and
+ * its first connection, and a connection taken from the pool of a warm one.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SetupBenchmark {
+
+   private static final ObjectMapper MAPPER = new ObjectMapper();
+
+   @Benchmark
+   public SchemaCatalog schemaCatalog(ChainJoinBackend backend) {
+      return SchemaCatalog.build(backend.searchService.getRestClient(), MAPPER, SearchOptions.defaults(),
+            backend::defineViews);
+   }
+
+   @Benchmark
+   public void firstConnection(ChainJoinBackend backend, Blackhole blackhole) throws SQLException {
+      try (CalciteSearch calciteSearch = new CalciteSearch(backend.searchService.getRestClient(),
+            backend::defineViews);
+           Connection connection = calciteSearch.createConnection()) {
+         blackhole.consume(connection);
+      }
+   }
+
+   @Benchmark
+   public void pooledConnection(ChainJoinBackend backend, Blackhole blackhole) throws SQLException {
+      try (Connection connection = backend.calciteSearch.createConnection()) {
+         blackhole.consume(connection);
+      }
+   }
+}
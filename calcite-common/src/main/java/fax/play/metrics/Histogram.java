@@ -0,0 +1,87 @@
+package fax.play.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values, e.g. durations in nanoseconds or sizes in bytes, recorded concurrently without
+ * locks.
+ * <p>
+ * Each power of two is split in {@value #SUB_BUCKETS} buckets, so the percentiles are off by at most an eighth of the
+ * value, whatever its magnitude.
+ */
+public class Histogram {
+
+   private static final int SUB_BUCKETS = 8;
+   private static final int SUB_BITS = 3;
+
+   private final AtomicLongArray buckets = new AtomicLongArray(SUB_BUCKETS * (Long.SIZE - SUB_BITS + 1));
+   private final LongAdder count = new LongAdder();
+   private final LongAdder sum = new LongAdder();
+   private final AtomicLong max = new AtomicLong();
+
+   public void record(long value) {
+      long positive = Math.max(value, 0);
+      buckets.incrementAndGet(bucket(positive));
+      count.increment();
+      sum.add(positive);
+      max.accumulateAndGet(positive, Math::max);
+   }
+
+   public long count() {
+      return count.sum();
+   }
+
+   public long total() {
+      return sum.sum();
+   }
+
+   public long max() {
+      return max.get();
+   }
+
+   public double mean() {
+      long count = count();
+      return count == 0 ? 0 : (double) total() / count;
+   }
+
+   /**
+    * @param quantile  in [0, 1], e.g. 0.99 for the 99th percentile
+    * @return the upper bound of the bucket of the quantile, 0 if nothing is recorded
+    */
+   public long percentile(double quantile) {
+      if (quantile < 0 || quantile > 1) {
+         throw new IllegalArgumentException("quantile must be in [0, 1]: " + quantile);
+      }
+      long target = Math.max((long) Math.ceil(quantile * count()), 1);
+      long seen = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+         seen += buckets.get(i);
+         if (seen >= target) {
+            return Math.min(upperBound(i), max());
+         }
+      }
+      return max();
+   }
+
+   private static int bucket(long value) {
+      if (value < SUB_BUCKETS) {
+         return (int) value;
+      }
+      int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+      int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+   }
+
+   private static long upperBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+         return bucket;
+      }
+      int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+      long sub = bucket % SUB_BUCKETS;
+      long upper = (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+      // the last bucket overflows
+      return upper <= 0 ? Long.MAX_VALUE : upper - 1;
+   }
+}
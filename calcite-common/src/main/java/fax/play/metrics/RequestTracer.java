@@ -0,0 +1,297 @@
+package fax.play.metrics;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.RestClient;
+
+/**
+ * The requests sent by a {@link RestClient} to the server, intercepted by its HTTP client: each of them is tagged with
+ * its operation and its index, and its latency, its payloads and its status are recorded in the {@link Stats} of both.
+ * <p>
+ * The interceptors run on the I/O reactor of the client, where the query sending a request is unknown: the requests
+ * of a query are tagged with its id in the {@value #OPAQUE_ID} header, and the ones of the queries traced by
+ * {@link #trace(String)} are collected for them. The header also identifies the query in the tasks and the slow logs
+ * of the server. The requests of a client that does not tag them, e.g. the Elasticsearch adapter of Calcite, can only
+ * be collected all together, see {@link #window()}.
+ * <p>
+ * There is at most one instance per {@link RestClient}, see {@link #of(RestClient)}.
+ */
+public final class RequestTracer implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+   /**
+    * The header tagging the requests of a query with its id.
+    */
+   public static final String OPAQUE_ID = "X-Opaque-Id";
+
+   private static final Map<RestClient, RequestTracer> INSTANCES = new WeakHashMap<>();
+
+   private static final String SENT = RequestTracer.class.getName() + ".sent";
+
+   private final Map<Target, Stats> stats = new ConcurrentHashMap<>();
+   private final Map<String, Trace> traces = new ConcurrentHashMap<>();
+   private final Set<Trace> windows = ConcurrentHashMap.newKeySet();
+
+   /**
+    * @return the tracer of the requests of the client, null if they are not traced
+    */
+   public static RequestTracer of(RestClient restClient) {
+      synchronized (INSTANCES) {
+         return INSTANCES.get(restClient);
+      }
+   }
+
+   /**
+    * Installs the interceptors on the HTTP client of a {@link RestClient} being built.
+    */
+   public HttpAsyncClientBuilder instrument(HttpAsyncClientBuilder httpClientBuilder) {
+      return httpClientBuilder
+            .addInterceptorLast((HttpRequestInterceptor) this)
+            .addInterceptorLast((HttpResponseInterceptor) this);
+   }
+
+   /**
+    * Makes this the tracer of a client built with {@link #instrument(HttpAsyncClientBuilder)}.
+    */
+   public RestClient attach(RestClient restClient) {
+      synchronized (INSTANCES) {
+         INSTANCES.put(restClient, this);
+      }
+      return restClient;
+   }
+
+   /**
+    * Collects the requests tagged with the id of a query, until the trace is closed.
+    */
+   public Trace trace(String queryId) {
+      Trace trace = new Trace(queryId);
+      traces.put(queryId, trace);
+      return trace;
+   }
+
+   /**
+    * Collects all the requests of the client answered until the window is closed, whatever the query or the thread
+    * sending them: they are the requests of a single query only if no other one runs meanwhile.
+    */
+   public Trace window() {
+      Trace window = new Trace(null);
+      windows.add(window);
+      return window;
+   }
+
+   /**
+    * @return the stats of the requests of an operation, null if none was sent
+    */
+   public Stats stats(String index, Operation operation) {
+      return stats.get(new Target(index, operation));
+   }
+
+   /**
+    * @return the stats of all the operations sent so far
+    */
+   public Map<Target, Stats> stats() {
+      return Map.copyOf(stats);
+   }
+
+   @Override
+   public void process(HttpRequest request, HttpContext context) {
+      String path = URI.create(request.getRequestLine().getUri()).getRawPath();
+      Header queryId = request.getFirstHeader(OPAQUE_ID);
+      context.setAttribute(SENT, new Sent(Operation.of(path), index(path),
+            queryId == null ? null : queryId.getValue(), System.nanoTime(),
+            request instanceof HttpEntityEnclosingRequest enclosing ? length(enclosing.getEntity()) : 0));
+   }
+
+   /**
+    * Records the request once the head of its response is received: its latency is the time to the first byte, not
+    * to the end of the content.
+    */
+   @Override
+   public void process(HttpResponse response, HttpContext context) {
+      if (!(context.getAttribute(SENT) instanceof Sent sent)) {
+         return;
+      }
+      context.removeAttribute(SENT);
+      Call call = new Call(sent.operation(), sent.index(), response.getStatusLine().getStatusCode(),
+            System.nanoTime() - sent.start(), sent.requestBytes(), length(response.getEntity()));
+      stats.computeIfAbsent(new Target(call.index(), call.operation()), target -> new Stats()).record(call);
+      Trace trace = sent.queryId() == null ? null : traces.get(sent.queryId());
+      if (trace != null) {
+         trace.calls.add(call);
+      }
+      for (Trace window : windows) {
+         window.calls.add(call);
+      }
+   }
+
+   /**
+    * @return the length of the entity, -1 if unknown, e.g. for a chunked response, 0 if there is none
+    */
+   private static long length(HttpEntity entity) {
+      return entity == null ? 0 : entity.getContentLength();
+   }
+
+   /**
+    * @return the index of the path, null for the endpoints of the cluster such as {@code /_search/scroll}
+    */
+   private static String index(String path) {
+      int end = path.indexOf('/', 1);
+      String first = end < 0 ? path.substring(1) : path.substring(1, end);
+      return first.isEmpty() || first.startsWith("_") ? null : first;
+   }
+
+   public enum Operation {
+      SEARCH, SCROLL, BULK, MGET, COUNT,
+      /**
+       * The requests for the mappings, the stats or the creation of the indices.
+       */
+      OTHER;
+
+      static Operation of(String path) {
+         if (path.contains("/_search/scroll")) {
+            return SCROLL;
+         }
+         if (path.endsWith("/_search")) {
+            return SEARCH;
+         }
+         if (path.endsWith("/_bulk")) {
+            return BULK;
+         }
+         if (path.endsWith("/_mget")) {
+            return MGET;
+         }
+         if (path.endsWith("/_count")) {
+            return COUNT;
+         }
+         return OTHER;
+      }
+   }
+
+   /**
+    * @param index  null for the endpoints of the cluster, e.g. the scroll and the bulk requests
+    */
+   public record Target(String index, Operation operation) {
+   }
+
+   /**
+    * A request and its response.
+    *
+    * @param index          the index of the request, null for an endpoint of the cluster
+    * @param nanos          the time to the head of the response
+    * @param requestBytes   the length of the body of the request, 0 if there is none
+    * @param responseBytes  the length of the body of the response, -1 if unknown
+    */
+   public record Call(Operation operation, String index, int status, long nanos, long requestBytes,
+                      long responseBytes) {
+
+      /**
+       * @return e.g. {@code search table_1 200 1.234 ms 120/5678 bytes}
+       */
+      public String summary() {
+         return String.format(Locale.ROOT, "%s %s %d %.3f ms %d/%s bytes", operation.name().toLowerCase(Locale.ROOT),
+               index == null ? "_cluster" : index, status, nanos / 1e6, requestBytes,
+               responseBytes < 0 ? "?" : Long.toString(responseBytes));
+      }
+   }
+
+   /**
+    * The distributions of the requests of an operation on an index.
+    */
+   public static final class Stats {
+
+      private final Histogram nanos = new Histogram();
+      private final Histogram requestBytes = new Histogram();
+      private final Histogram responseBytes = new Histogram();
+      private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+      private void record(Call call) {
+         nanos.record(call.nanos());
+         requestBytes.record(call.requestBytes());
+         if (call.responseBytes() >= 0) {
+            responseBytes.record(call.responseBytes());
+         }
+         statuses.computeIfAbsent(call.status(), status -> new LongAdder()).increment();
+      }
+
+      /**
+       * @return the times to the heads of the responses
+       */
+      public Histogram nanos() {
+         return nanos;
+      }
+
+      public Histogram requestBytes() {
+         return requestBytes;
+      }
+
+      /**
+       * @return the lengths of the responses, the unknown ones excluded
+       */
+      public Histogram responseBytes() {
+         return responseBytes;
+      }
+
+      /**
+       * @return the number of responses of each status code
+       */
+      public Map<Integer, Long> statuses() {
+         Map<Integer, Long> result = new TreeMap<>();
+         statuses.forEach((status, count) -> result.put(status, count.sum()));
+         return result;
+      }
+   }
+
+   /**
+    * The requests of a query, or of a {@link #window()}, in the order their responses are received.
+    */
+   public final class Trace implements AutoCloseable {
+
+      private final String queryId;
+      private final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+
+      private Trace(String queryId) {
+         this.queryId = queryId;
+      }
+
+      /**
+       * @return null for a window
+       */
+      public String queryId() {
+         return queryId;
+      }
+
+      public List<Call> calls() {
+         return List.copyOf(calls);
+      }
+
+      @Override
+      public void close() {
+         if (queryId == null) {
+            windows.remove(this);
+         } else {
+            traces.remove(queryId, this);
+         }
+      }
+   }
+
+   private record Sent(Operation operation, String index, String queryId, long start, long requestBytes) {
+   }
+}
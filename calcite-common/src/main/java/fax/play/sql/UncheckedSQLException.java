@@ -0,0 +1,18 @@
+package fax.play.sql;
+
+import java.sql.SQLException;
+
+/**
+ * Wraps a {@link SQLException} thrown while lazily consuming rows, e.g. from a {@link java.util.stream.Stream}.
+ */
+public class UncheckedSQLException extends RuntimeException {
+
+   public UncheckedSQLException(SQLException cause) {
+      super(cause.getMessage(), cause);
+   }
+
+   @Override
+   public synchronized SQLException getCause() {
+      return (SQLException) super.getCause();
+   }
+}
@@ -0,0 +1,34 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.jupiter.api.Test;
+
+import fax.play.metrics.Histogram;
+
+public class HistogramTests {
+
+   @Test
+   public void percentiles() {
+      Histogram histogram = new Histogram();
+      assertThat(histogram.percentile(0.5)).isZero();
+
+      // from 1 to 1000 microseconds
+      for (long micros = 1; micros <= 1_000; micros++) {
+         histogram.record(micros * 1_000);
+      }
+      assertThat(histogram.count()).isEqualTo(1_000);
+      assertThat(histogram.max()).isEqualTo(1_000_000);
+      assertThat(histogram.mean()).isEqualTo(500_500);
+
+      // within an eighth of the value
+      assertThat(histogram.percentile(0.5)).isCloseTo(500_000, within(62_500L));
+      assertThat(histogram.percentile(0.99)).isCloseTo(990_000, within(123_750L));
+      assertThat(histogram.percentile(0.001)).isCloseTo(1_000, within(125L));
+      assertThat(histogram.percentile(1)).isEqualTo(1_000_000);
+
+      histogram.record(3);
+      assertThat(histogram.percentile(0)).isEqualTo(3);
+   }
+}
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import fax.play.metrics.RequestTracer;
 import fax.play.opensearch.OpenSearchClient;
 import fax.play.opensearch.OpenSearchServer;
 
@@ -40,6 +41,9 @@ public class Application implements AutoCloseable {
 
    private final OpenSearchClient openSearchClient;
 
+   // the schema reads the indices and their mappings from the server, so it is built once and shared
+   private ElasticsearchSchema elasticsearchSchema;
+
    public Application() {
       OpenSearchServer openSearchServer = new OpenSearchServer();
       Map<String, String> serverConfig = openSearchServer.start();
@@ -56,7 +60,7 @@ public class Application implements AutoCloseable {
    public Connection createConnection() throws SQLException {
       Connection connection = DriverManager.getConnection("jdbc:calcite:lex=JAVA");
       SchemaPlus root = connection.unwrap(CalciteConnection.class).getRootSchema();
-      root.add("elastic", new ElasticsearchSchema(openSearchClient.getRestClient(), new ObjectMapper(), null));
+      root.add("elastic", elasticsearchSchema());
 
       defineViews(root);
       closer.add(connection);
@@ -64,6 +68,17 @@ public class Application implements AutoCloseable {
       return connection;
    }
 
+   public RequestTracer requestTracer() {
+      return openSearchClient.getRequestTracer();
+   }
+
+   private synchronized ElasticsearchSchema elasticsearchSchema() {
+      if (elasticsearchSchema == null) {
+         elasticsearchSchema = new ElasticsearchSchema(openSearchClient.getRestClient(), new ObjectMapper(), null);
+      }
+      return elasticsearchSchema;
+   }
+
    @Override
    public void close() {
       closer.close();
@@ -3,7 +3,15 @@ package fax.play.extractor;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import fax.play.sql.UncheckedSQLException;
 
 public class Extractor {
 
@@ -14,6 +22,47 @@ public class Extractor {
       return multipleColumnExtraction(resultSet);
    }
 
+   /**
+    * @return the rows lazily pulled from the result set, which is still owned (and closed) by the caller;
+    *         an error reading them is thrown as an {@link UncheckedSQLException}
+    */
+   public static Stream<Object[]> stream(ResultSet resultSet) throws SQLException {
+      int columnCount = resultSet.getMetaData().getColumnCount();
+      Iterator<Object[]> rows = new Iterator<>() {
+         private Boolean hasNext;
+
+         @Override
+         public boolean hasNext() {
+            if (hasNext == null) {
+               try {
+                  hasNext = resultSet.next();
+               } catch (SQLException e) {
+                  throw new UncheckedSQLException(e);
+               }
+            }
+            return hasNext;
+         }
+
+         @Override
+         public Object[] next() {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            hasNext = null;
+            Object[] row = new Object[columnCount];
+            try {
+               for (int i = 0; i < columnCount; i++) {
+                  row[i] = resultSet.getObject(i + 1);
+               }
+            } catch (SQLException e) {
+               throw new UncheckedSQLException(e);
+            }
+            return row;
+         }
+      };
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED), false);
+   }
+
    private static List<Object> singleColumnExtraction(ResultSet resultSet) throws SQLException {
       ArrayList<Object> result = new ArrayList<>();
       assert resultSet.getMetaData().getColumnCount() == 1;
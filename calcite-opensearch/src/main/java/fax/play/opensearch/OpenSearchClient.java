@@ -13,18 +13,29 @@ import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 import org.infinispan.commons.dataconversion.internal.Json;
 
+import fax.play.metrics.RequestTracer;
+
 public class OpenSearchClient implements AutoCloseable {
 
+   private final RequestTracer requestTracer = new RequestTracer();
    private final RestClient restClient;
 
    public OpenSearchClient(String username, String password, String host) {
-      restClient = restClient(username, password, host);
+      restClient = restClient(username, password, host, requestTracer);
    }
 
    public RestClient getRestClient() {
       return restClient;
    }
 
+   /**
+    * @return the tracer of all the requests of the client; the Elasticsearch adapter does not tag them with their
+    *         query, so they are collected by {@link RequestTracer#window()}
+    */
+   public RequestTracer getRequestTracer() {
+      return requestTracer;
+   }
+
    @Override
    public void close() throws IOException {
       restClient.close();
@@ -57,7 +68,7 @@ public class OpenSearchClient implements AutoCloseable {
       return restClient.performRequest(request);
    }
 
-   private static RestClient restClient(String username, String password, String host) {
+   private static RestClient restClient(String username, String password, String host, RequestTracer requestTracer) {
       return RestClient.builder(HttpHost.create(host))
             .setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
                   .setConnectTimeout(60 * 1000)  // default 1000
@@ -68,7 +79,7 @@ public class OpenSearchClient implements AutoCloseable {
                      credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
 
                      httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-                     return httpClientBuilder;
+                     return requestTracer.instrument(httpClientBuilder);
                   }
             )
             .build();
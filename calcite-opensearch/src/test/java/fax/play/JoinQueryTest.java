@@ -5,6 +5,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.stream.Collectors;
 
 import org.apache.calcite.test.CalciteAssert;
 import org.junit.jupiter.api.AfterAll;
@@ -16,6 +17,7 @@ import org.slf4j.LoggerFactory;
 
 import fax.play.domain.Application;
 import fax.play.extractor.Extractor;
+import fax.play.metrics.RequestTracer;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class JoinQueryTest {
@@ -59,12 +61,18 @@ public class JoinQueryTest {
 
    @Test
    public void join_analyze() {
-      CalciteAssert.that()
-            .with(application::createConnection)
-            .query(createQuery(false))
-            .queryContains(list -> {
-               LOG.info("Queries executed on OpenSearch backend: " + list);
-            });
+      // all the requests of the client, this test running alone
+      try (RequestTracer.Trace window = application.requestTracer().window()) {
+         CalciteAssert.that()
+               .with(application::createConnection)
+               .query(createQuery(false))
+               .queryContains(list -> {
+                  LOG.info("Queries executed on OpenSearch backend: " + list);
+               });
+         LOG.info("Requests sent to OpenSearch backend:\n" + window.calls().stream()
+               .map(RequestTracer.Call::summary)
+               .collect(Collectors.joining("\n")));
+      }
    }
 
    @Test
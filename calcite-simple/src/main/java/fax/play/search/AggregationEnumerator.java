@@ -0,0 +1,139 @@
+package fax.play.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerator;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Pulls the rows of a {@link SearchQuery.Aggregation}, computed by the index on the matched documents.
+ * <p>
+ * A single {@code count(*)} is a {@code _count} request and the other aggregations without groups are a single
+ * search returning no hit. The groups are the buckets of a composite aggregation of {@code terms} sources,
+ * requested page by page from the key of the last bucket, so that any number of groups can be returned.
+ */
+class AggregationEnumerator implements Enumerator<Object> {
+
+   private final SearchTransport transport;
+   private final String index;
+   private final SearchQuery.Aggregation aggregation;
+   private final ObjectNode body;
+   private final AggregationReader reader;
+   private final boolean scalar;
+   private final int pageSize;
+
+   private List<Object[]> rows;
+   private int position;
+   private ObjectNode afterKey;
+   private boolean lastPage;
+   private Object current;
+
+   AggregationEnumerator(SearchTable table, SearchQuery query, DataContext root, boolean scalar) {
+      this.transport = table.transport();
+      this.index = table.index();
+      this.aggregation = query.aggregation();
+      this.body = query.request(root);
+      this.reader = new AggregationReader(table, aggregation);
+      this.scalar = scalar;
+      this.pageSize = table.options().fetchSize();
+
+      body.put("size", 0);
+      List<SearchQuery.Metric> metrics = aggregation.metrics();
+      ObjectNode aggs = body.objectNode();
+      for (int i = 0; i < metrics.size(); i++) {
+         SearchQuery.Metric metric = metrics.get(i);
+         if (countAll(metric)) {
+            // the count of the documents of the bucket, or the total hits
+            continue;
+         }
+         String type = switch (metric.function()) {
+            case COUNT -> "value_count";
+            // the count of the stats tells apart the sum of no value
+            case SUM -> "stats";
+            case SUM0 -> "sum";
+            case MIN -> "min";
+            case MAX -> "max";
+         };
+         aggs.putObject(AggregationReader.METRIC + i).putObject(type).put("field", metric.field());
+      }
+      if (aggregation.groups().isEmpty()) {
+         body.put("track_total_hits", metrics.stream().anyMatch(AggregationEnumerator::countAll));
+      } else {
+         ObjectNode groups = body.objectNode();
+         ObjectNode composite = groups.putObject("composite").put("size", pageSize);
+         ArrayNode sources = composite.putArray("sources");
+         for (int i = 0; i < aggregation.groups().size(); i++) {
+            // the documents without the field are a group, as the null values are in SQL
+            sources.addObject().putObject(AggregationReader.GROUP + i).putObject("terms")
+                  .put("field", aggregation.groups().get(i))
+                  .put("missing_bucket", true);
+         }
+         if (!aggs.isEmpty()) {
+            groups.set("aggs", aggs);
+         }
+         aggs = body.objectNode().set(AggregationReader.GROUPS, groups);
+      }
+      if (!aggs.isEmpty()) {
+         body.set("aggs", aggs);
+      }
+   }
+
+   @Override
+   public Object current() {
+      return current;
+   }
+
+   @Override
+   public boolean moveNext() {
+      while (true) {
+         if (rows == null) {
+            if (countOnly()) {
+               Object[] row = new Object[aggregation.metrics().size()];
+               Arrays.fill(row, transport.count(index, body.get("query")));
+               rows = List.<Object[]>of(row);
+               lastPage = true;
+            } else {
+               page(transport.search(index, body, false, reader));
+            }
+         }
+         if (position < rows.size()) {
+            Object[] row = rows.get(position++);
+            current = scalar ? row[0] : row;
+            return true;
+         }
+         if (lastPage) {
+            return false;
+         }
+         ((ObjectNode) body.get("aggs").get(AggregationReader.GROUPS).get("composite")).set("after", afterKey);
+         page(transport.search(index, body, false, reader));
+      }
+   }
+
+   @Override
+   public void reset() {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void close() {
+   }
+
+   private boolean countOnly() {
+      return aggregation.groups().isEmpty() && aggregation.metrics().stream().allMatch(AggregationEnumerator::countAll);
+   }
+
+   private void page(AggregationReader.Page page) {
+      rows = page.rows();
+      position = 0;
+      afterKey = page.afterKey();
+      lastPage = aggregation.groups().isEmpty() || afterKey == null || rows.size() < pageSize;
+   }
+
+   private static boolean countAll(SearchQuery.Metric metric) {
+      return metric.function() == SearchQuery.MetricFunction.COUNT && metric.field() == null;
+   }
+}
@@ -0,0 +1,178 @@
+package fax.play.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Reads the rows of a {@link SearchQuery.Aggregation} from a search response while it is parsed.
+ * <p>
+ * The groups are the buckets of the {@value #GROUPS} composite aggregation, whose sources and sub-aggregations
+ * are named after the position of the group or metric, e.g. {@code g0} and {@code m0};
+ * {@code count(*)} is the count of documents of the bucket.
+ * Without groups the single row is read from the aggregations and the total hits of the response.
+ */
+class AggregationReader implements SearchTransport.ResponseReader<AggregationReader.Page> {
+
+   static final String GROUPS = "groups";
+   static final String GROUP = "g";
+   static final String METRIC = "m";
+
+   /**
+    * @param rows      the aggregated rows, arrays of the values of the groups followed by the ones of the metrics
+    * @param afterKey  the key of the last bucket, to request the next page of the composite aggregation
+    */
+   record Page(List<Object[]> rows, ObjectNode afterKey) {
+   }
+
+   private final SearchQuery.Aggregation aggregation;
+   // the groups then the metrics
+   private final SearchField[] columns;
+
+   AggregationReader(SearchTable table, SearchQuery.Aggregation aggregation) {
+      this.aggregation = aggregation;
+      List<String> groups = aggregation.groups();
+      List<SearchQuery.Metric> metrics = aggregation.metrics();
+      columns = new SearchField[groups.size() + metrics.size()];
+      for (int i = 0; i < groups.size(); i++) {
+         columns[i] = table.field(groups.get(i));
+      }
+      for (int i = 0; i < metrics.size(); i++) {
+         columns[groups.size() + i] = new SearchField(METRIC + i, "metric", metrics.get(i).type(), true);
+      }
+   }
+
+   @Override
+   public Page read(JsonParser parser) throws IOException {
+      List<Object[]> rows = new ArrayList<>();
+      ObjectNode afterKey = null;
+      Object[] single = aggregation.groups().isEmpty() ? new Object[columns.length] : null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         JsonToken token = parser.nextToken();
+         if ("hits".equals(name) && token == JsonToken.START_OBJECT && single != null) {
+            total(parser, single);
+         } else if ("aggregations".equals(name) && token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+               String aggregationName = parser.getCurrentName();
+               parser.nextToken();
+               if (GROUPS.equals(aggregationName)) {
+                  afterKey = buckets(parser, rows);
+               } else if (single != null && aggregationName.startsWith(METRIC)) {
+                  metric(parser, Integer.parseInt(aggregationName.substring(METRIC.length())), single);
+               } else {
+                  parser.skipChildren();
+               }
+            }
+         } else {
+            parser.skipChildren();
+         }
+      }
+      if (single != null) {
+         rows.add(single);
+      }
+      return new Page(rows, afterKey);
+   }
+
+   private void total(JsonParser parser, Object[] row) throws IOException {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         JsonToken token = parser.nextToken();
+         if ("total".equals(name)) {
+            long total = 0;
+            if (token == JsonToken.START_OBJECT) {
+               while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                  String field = parser.getCurrentName();
+                  parser.nextToken();
+                  if ("value".equals(field)) {
+                     total = parser.getValueAsLong();
+                  } else {
+                     parser.skipChildren();
+                  }
+               }
+            } else {
+               total = parser.getValueAsLong();
+            }
+            counts(row, total);
+         } else {
+            parser.skipChildren();
+         }
+      }
+   }
+
+   private ObjectNode buckets(JsonParser parser, List<Object[]> rows) throws IOException {
+      ObjectNode afterKey = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         JsonToken token = parser.nextToken();
+         if ("after_key".equals(name) && token == JsonToken.START_OBJECT) {
+            afterKey = parser.readValueAsTree();
+         } else if ("buckets".equals(name) && token == JsonToken.START_ARRAY) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+               rows.add(bucket(parser));
+            }
+         } else {
+            parser.skipChildren();
+         }
+      }
+      return afterKey;
+   }
+
+   private Object[] bucket(JsonParser parser) throws IOException {
+      Object[] row = new Object[columns.length];
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         JsonToken token = parser.nextToken();
+         if ("key".equals(name) && token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+               int group = Integer.parseInt(parser.getCurrentName().substring(GROUP.length()));
+               parser.nextToken();
+               row[group] = columns[group].read(parser);
+            }
+         } else if ("doc_count".equals(name)) {
+            counts(row, parser.getValueAsLong());
+         } else if (name.startsWith(METRIC) && token == JsonToken.START_OBJECT) {
+            metric(parser, Integer.parseInt(name.substring(METRIC.length())), row);
+         } else {
+            parser.skipChildren();
+         }
+      }
+      return row;
+   }
+
+   /**
+    * Sets the {@code count(*)} metrics.
+    */
+   private void counts(Object[] row, long count) {
+      List<SearchQuery.Metric> metrics = aggregation.metrics();
+      for (int i = 0; i < metrics.size(); i++) {
+         if (metrics.get(i).function() == SearchQuery.MetricFunction.COUNT && metrics.get(i).field() == null) {
+            row[aggregation.groups().size() + i] = count;
+         }
+      }
+   }
+
+   private void metric(JsonParser parser, int metric, Object[] row) throws IOException {
+      int column = aggregation.groups().size() + metric;
+      Object value = null;
+      long count = -1;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         parser.nextToken();
+         // the value of a single value metric, the sum of the stats
+         if ("value".equals(name) || "sum".equals(name)) {
+            value = columns[column].read(parser);
+         } else if ("count".equals(name)) {
+            count = parser.getValueAsLong();
+         } else {
+            parser.skipChildren();
+         }
+      }
+      // the sum of no value is null in SQL, while the index sums it to 0
+      row[column] = count == 0 ? null : value;
+   }
+}
@@ -0,0 +1,82 @@
+package fax.play.search;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The requests a query sends to the server: how many, how long they took until their responses were read, and the
+ * bytes of the responses.
+ * <p>
+ * The stats of a query are the current ones of the thread executing it, see {@link #open()}, and of the tasks
+ * prefetching the pages of its scans: the {@link SearchTransport} records each request on them, and tags it with the
+ * id of the query, if any.
+ */
+public final class BackendStats {
+
+   private static final ThreadLocal<BackendStats> CURRENT = new ThreadLocal<>();
+
+   private final String queryId;
+   private final LongAdder requests = new LongAdder();
+   private final LongAdder nanos = new LongAdder();
+   private final LongAdder bytes = new LongAdder();
+
+   /**
+    * @param queryId  the id the requests of the query are tagged with, null not to tag them
+    */
+   public BackendStats(String queryId) {
+      this.queryId = queryId;
+   }
+
+   /**
+    * @return the stats of the query executed by the current thread, null if they are not recorded
+    */
+   public static BackendStats current() {
+      return CURRENT.get();
+   }
+
+   /**
+    * Makes these the stats of the queries executed by the current thread, until the scope is closed.
+    */
+   public Scope open() {
+      BackendStats previous = CURRENT.get();
+      CURRENT.set(this);
+      return () -> {
+         if (previous == null) {
+            CURRENT.remove();
+         } else {
+            CURRENT.set(previous);
+         }
+      };
+   }
+
+   void record(long nanos, long bytes) {
+      requests.increment();
+      this.nanos.add(nanos);
+      this.bytes.add(bytes);
+   }
+
+   /**
+    * @return the id the requests of the query are tagged with, null if they are not tagged
+    */
+   public String queryId() {
+      return queryId;
+   }
+
+   public long requests() {
+      return requests.sum();
+   }
+
+   /**
+    * @return the time spent waiting for and reading the responses, summed over the requests: the ones of the
+    *         prefetched or sliced scans overlap each other
+    */
+   public long nanos() {
+      return nanos.sum();
+   }
+
+   /**
+    * @return the bytes of the responses
+    */
+   public long bytes() {
+      return bytes.sum();
+   }
+}
@@ -0,0 +1,109 @@
+package fax.play.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerator;
+
+/**
+ * Joins the rows of the input with the hits of one lookup request per batch of distinct input keys.
+ */
+class BindJoinEnumerator implements Enumerator<Object[]> {
+
+   private final SearchTable table;
+   private final SearchQuery query;
+   private final DataContext root;
+   private final Enumerator<Object[]> input;
+   private final int leftKey;
+   private final int rightKey;
+   private final int batchSize;
+   private final String keyField;
+
+   private final Map<Object, List<Object[]>> batch = new HashMap<>();
+   private SearchEnumerator lookup;
+   private Object[] right;
+   private List<Object[]> matches;
+   private int match;
+   private Object[] current;
+
+   BindJoinEnumerator(SearchTable table, SearchQuery query, DataContext root, Enumerator<Object[]> input,
+                      int leftKey, int rightKey, int batchSize) {
+      this.table = table;
+      this.query = query;
+      this.root = root;
+      this.input = input;
+      this.leftKey = leftKey;
+      this.rightKey = rightKey;
+      this.batchSize = batchSize;
+      this.keyField = query.fields().get(rightKey);
+   }
+
+   @Override
+   public Object[] current() {
+      return current;
+   }
+
+   @Override
+   public boolean moveNext() {
+      while (true) {
+         if (matches != null && match < matches.size()) {
+            Object[] left = matches.get(match++);
+            current = new Object[left.length + right.length];
+            System.arraycopy(left, 0, current, 0, left.length);
+            System.arraycopy(right, 0, current, left.length, right.length);
+            return true;
+         }
+         if (lookup != null && lookup.moveNext()) {
+            right = (Object[]) lookup.current();
+            Object key = right[rightKey];
+            matches = key == null ? null : batch.get(key);
+            match = 0;
+            continue;
+         }
+         closeLookup();
+         if (!nextBatch()) {
+            return false;
+         }
+      }
+   }
+
+   @Override
+   public void reset() {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void close() {
+      closeLookup();
+      input.close();
+   }
+
+   private boolean nextBatch() {
+      batch.clear();
+      // the rows of a key read after the batch is full go to the next batch, which will look that key up again
+      while (batch.size() < batchSize && input.moveNext()) {
+         Object[] row = input.current();
+         Object key = row[leftKey];
+         if (key != null) {
+            batch.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+         }
+      }
+      if (batch.isEmpty()) {
+         return false;
+      }
+      SearchQuery batchQuery = query.withFilter(SearchQuery.terms(keyField, batch.keySet()));
+      lookup = new SearchEnumerator(table, batchQuery, batchQuery.request(root), false);
+      return true;
+   }
+
+   private void closeLookup() {
+      if (lookup != null) {
+         lookup.close();
+         lookup = null;
+      }
+      matches = null;
+   }
+}
@@ -0,0 +1,126 @@
+package fax.play.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the hits of a search response, or the documents of an {@code _mget} response, into rows while it is parsed.
+ * <p>
+ * Only the requested fields are read, from the {@code _source} or from the doc values ({@code fields}) of each hit:
+ * the metadata of the hits, the other fields of the documents and the rest of the response are skipped
+ * without being materialized. The documents not found by an {@code _mget} are skipped.
+ */
+class HitsReader implements SearchTransport.ResponseReader<HitsReader.Page> {
+
+   /**
+    * @param rows      the rows of the hits, each one an {@code Object[]}, or the value itself when there is a single field
+    * @param scrollId  the id to fetch the next page, null if the search is not scrolled
+    * @param bytes     the size of the response
+    */
+   record Page(List<Object> rows, String scrollId, long bytes) {
+   }
+
+   private final SearchField[] fields;
+   private final boolean scalar;
+   private final Map<String, Integer> columns = new HashMap<>();
+   // the object properties of the source holding requested fields, e.g. address for address.city
+   private final Set<String> objects = new HashSet<>();
+
+   HitsReader(SearchField[] fields, boolean scalar) {
+      this.fields = fields;
+      this.scalar = scalar;
+      for (int i = 0; i < fields.length; i++) {
+         String name = fields[i].name();
+         columns.put(name, i);
+         for (int dot = name.indexOf('.'); dot > 0; dot = name.indexOf('.', dot + 1)) {
+            objects.add(name.substring(0, dot));
+         }
+      }
+   }
+
+   @Override
+   public Page read(JsonParser parser) throws IOException {
+      List<Object> rows = new ArrayList<>();
+      String scrollId = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         JsonToken token = parser.nextToken();
+         if ("_scroll_id".equals(name)) {
+            scrollId = parser.getValueAsString();
+         } else if ("hits".equals(name) && token == JsonToken.START_OBJECT) {
+            hits(parser, rows);
+         } else if ("docs".equals(name) && token == JsonToken.START_ARRAY) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+               Object row = hit(parser);
+               if (row != null) {
+                  rows.add(row);
+               }
+            }
+         } else {
+            parser.skipChildren();
+         }
+      }
+      return new Page(rows, scrollId, parser.getCurrentLocation().getByteOffset());
+   }
+
+   private void hits(JsonParser parser, List<Object> rows) throws IOException {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         JsonToken token = parser.nextToken();
+         if ("hits".equals(name) && token == JsonToken.START_ARRAY) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+               rows.add(hit(parser));
+            }
+         } else {
+            parser.skipChildren();
+         }
+      }
+   }
+
+   /**
+    * @return the row of the hit, null if it is a document not found
+    */
+   private Object hit(JsonParser parser) throws IOException {
+      Object[] row = new Object[fields.length];
+      boolean found = true;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         JsonToken token = parser.nextToken();
+         if (("_source".equals(name) || "fields".equals(name)) && token == JsonToken.START_OBJECT) {
+            // the doc values are keyed by the full name of the fields, as the flattened fields of the source
+            fields(parser, null, row);
+         } else if ("found".equals(name)) {
+            found = parser.getValueAsBoolean();
+         } else {
+            parser.skipChildren();
+         }
+      }
+      if (!found) {
+         return null;
+      }
+      return scalar ? row[0] : row;
+   }
+
+   private void fields(JsonParser parser, String prefix, Object[] row) throws IOException {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = prefix == null ? parser.getCurrentName() : prefix + "." + parser.getCurrentName();
+         JsonToken token = parser.nextToken();
+         Integer column = columns.get(name);
+         if (column != null) {
+            row[column] = fields[column].read(parser);
+         } else if (token == JsonToken.START_OBJECT && objects.contains(name)) {
+            fields(parser, name, row);
+         } else {
+            parser.skipChildren();
+         }
+      }
+   }
+}
@@ -0,0 +1,167 @@
+package fax.play.search;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The documents of a {@link SearchOptions#replicated(String) replicated} index, held in the heap so that the joins
+ * with it are probed locally, with an {@link IntHashIndex} for each join column.
+ * <p>
+ * The documents are loaded by the first join, then a background task checks the number of documents and the
+ * refreshes of the shards every {@link SearchOptions#replicaRefreshInterval()}, and loads them again when they
+ * changed: the writes are searchable once a refresh of the copy searched follows them, not when they complete.
+ * The joins running meanwhile keep the {@link Snapshot} they started with.
+ */
+class IndexReplica {
+
+   private static final Logger LOG = LoggerFactory.getLogger(IndexReplica.class);
+
+   private static final ScheduledExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "search-replica-refresh");
+      thread.setDaemon(true);
+      return thread;
+   });
+
+   /**
+    * @param documents  the number of documents of the index
+    * @param refreshes  the sum of the refreshes of each copy of each shard, changed once a write is searchable
+    */
+   record Version(long documents, long refreshes) {
+   }
+
+   /**
+    * The documents of the index at a version, as rows of all the columns of the table.
+    */
+   static final class Snapshot {
+
+      private final Version version;
+      private final List<Object[]> rows;
+      private final Map<Integer, IntHashIndex> indexes = new ConcurrentHashMap<>();
+
+      Snapshot(Version version, List<Object[]> rows) {
+         this.version = version;
+         this.rows = rows;
+      }
+
+      Version version() {
+         return version;
+      }
+
+      List<Object[]> rows() {
+         return rows;
+      }
+
+      /**
+       * @param column  the position of an int column in the rows
+       * @return the index of the rows by the column, built by the first join on it
+       */
+      IntHashIndex index(int column) {
+         return indexes.computeIfAbsent(column, c -> IntHashIndex.build(rows, c));
+      }
+   }
+
+   private final SearchTable table;
+   private volatile Snapshot snapshot;
+
+   IndexReplica(SearchTable table) {
+      this.table = table;
+   }
+
+   /**
+    * @return the current documents, loaded by the first call
+    */
+   Snapshot snapshot() {
+      Snapshot result = snapshot;
+      if (result == null) {
+         synchronized (this) {
+            result = snapshot;
+            if (result == null) {
+               snapshot = result = load(version());
+               long interval = table.options().replicaRefreshInterval().toMillis();
+               Refresh refresh = new Refresh(this);
+               refresh.future = REFRESH_EXECUTOR.scheduleWithFixedDelay(refresh, interval, interval,
+                     TimeUnit.MILLISECONDS);
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Loads the documents again if the index changed since the current snapshot.
+    */
+   void refresh() {
+      Version version = version();
+      if (!version.equals(snapshot.version())) {
+         LOG.debug("Reloading the replica of {}: {} changed to {}", table.index(), snapshot.version(), version);
+         snapshot = load(version);
+      }
+   }
+
+   private Version version() {
+      JsonNode stats = table.transport().stats(table.index()).path("indices").path(table.index());
+      long refreshes = 0;
+      for (JsonNode copies : stats.path("shards")) {
+         for (JsonNode copy : copies) {
+            JsonNode refresh = copy.path("refresh");
+            // the internal refreshes do not change what the searches see
+            refreshes += refresh.has("external_total") ? refresh.path("external_total").asLong()
+                  : refresh.path("total").asLong();
+         }
+      }
+      return new Version(stats.path("primaries").path("docs").path("count").asLong(), refreshes);
+   }
+
+   private Snapshot load(Version version) {
+      List<String> names = table.fields().stream().map(SearchField::name).toList();
+      SearchQuery query = SearchQuery.of(names);
+      List<Object[]> rows = new ArrayList<>();
+      try (SearchEnumerator enumerator = new SearchEnumerator(table, query, query.request(null), false)) {
+         while (enumerator.moveNext()) {
+            rows.add((Object[]) enumerator.current());
+         }
+      }
+      return new Snapshot(version, List.copyOf(rows));
+   }
+
+   /**
+    * The periodic check of a replica, cancelled once the replica is no longer used or its client is closed:
+    * the tables of a schema have no lifecycle to stop it with.
+    */
+   private static final class Refresh implements Runnable {
+
+      private final WeakReference<IndexReplica> replica;
+      private volatile ScheduledFuture<?> future;
+
+      Refresh(IndexReplica replica) {
+         this.replica = new WeakReference<>(replica);
+      }
+
+      @Override
+      public void run() {
+         IndexReplica current = replica.get();
+         if (current == null || !current.table.transport().isRunning()) {
+            future.cancel(false);
+            return;
+         }
+         try {
+            current.refresh();
+         } catch (RuntimeException e) {
+            // the joins go on with the previous documents
+            LOG.warn("Refreshing the replica of {} failed", current.table.index(), e);
+         }
+      }
+   }
+}
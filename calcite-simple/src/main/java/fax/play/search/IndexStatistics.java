@@ -0,0 +1,172 @@
+package fax.play.search;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The statistics of an index the planner estimates the rows of its scans with: the number of documents and,
+ * for the fields with doc values, the number of distinct values and the range of the numbers.
+ * <p>
+ * They are fetched by a single search aggregating the whole index. The distinct values are the estimate of a
+ * {@code cardinality} aggregation, the selectivities derived from them assume uniformly distributed values.
+ *
+ * @param documents  the number of documents of the index
+ * @param fields     the statistics of the fields with doc values, keyed by name
+ * @param fetched    the {@link System#nanoTime()} they were fetched at
+ */
+record IndexStatistics(long documents, Map<String, FieldStatistics> fields, long fetched) {
+
+   /**
+    * @param distinct  the estimated number of distinct values
+    * @param min       the smallest value of a number, otherwise null
+    * @param max       the largest value of a number, otherwise null
+    */
+   record FieldStatistics(double distinct, Double min, Double max) {
+   }
+
+   static IndexStatistics fetch(SearchTransport transport, String index, List<SearchField> fields) {
+      ObjectNode body = transport.objectMapper().createObjectNode()
+            .put("size", 0)
+            .put("track_total_hits", true);
+      ObjectNode aggs = body.putObject("aggs");
+      for (int i = 0; i < fields.size(); i++) {
+         SearchField field = fields.get(i);
+         if (!field.sortable()) {
+            continue;
+         }
+         aggs.putObject("distinct_" + i).putObject("cardinality").put("field", field.name());
+         if (SqlTypeName.NUMERIC_TYPES.contains(field.sqlType())) {
+            aggs.putObject("min_" + i).putObject("min").put("field", field.name());
+            aggs.putObject("max_" + i).putObject("max").put("field", field.name());
+         }
+      }
+      JsonNode response = transport.search(index, body, false, parser -> parser.readValueAsTree());
+
+      Map<String, FieldStatistics> statistics = new HashMap<>();
+      JsonNode aggregations = response.path("aggregations");
+      for (int i = 0; i < fields.size(); i++) {
+         JsonNode distinct = aggregations.path("distinct_" + i).path("value");
+         if (distinct.isNumber()) {
+            statistics.put(fields.get(i).name(), new FieldStatistics(distinct.asDouble(),
+                  number(aggregations.path("min_" + i).path("value")),
+                  number(aggregations.path("max_" + i).path("value"))));
+         }
+      }
+      return new IndexStatistics(response.path("hits").path("total").path("value").asLong(), statistics,
+            System.nanoTime());
+   }
+
+   boolean expired(Duration ttl) {
+      return System.nanoTime() - fetched > ttl.toNanos();
+   }
+
+   FieldStatistics field(String name) {
+      return fields.get(name);
+   }
+
+   /**
+    * Estimates the fraction of the documents matching a predicate, guessing it as Calcite does for the conditions
+    * the statistics do not tell anything about.
+    *
+    * @param predicate  a predicate whose {@code SEARCH} calls are expanded
+    * @param columns    the field of each column the predicate references
+    */
+   double selectivity(RexNode predicate, IntFunction<SearchField> columns) {
+      if (predicate == null) {
+         return 1d;
+      }
+      switch (predicate.getKind()) {
+         case AND: {
+            double selectivity = 1d;
+            for (RexNode operand : ((RexCall) predicate).getOperands()) {
+               selectivity *= selectivity(operand, columns);
+            }
+            return selectivity;
+         }
+         case OR: {
+            double selectivity = 0d;
+            for (RexNode operand : ((RexCall) predicate).getOperands()) {
+               selectivity += selectivity(operand, columns);
+            }
+            return Math.min(selectivity, 1d);
+         }
+         case NOT:
+            return 1d - selectivity(((RexCall) predicate).getOperands().get(0), columns);
+         case EQUALS:
+         case NOT_EQUALS:
+         case LESS_THAN:
+         case LESS_THAN_OR_EQUAL:
+         case GREATER_THAN:
+         case GREATER_THAN_OR_EQUAL:
+            Double selectivity = comparison((RexCall) predicate, columns);
+            return selectivity == null ? RelMdUtil.guessSelectivity(predicate) : selectivity;
+         default:
+            return RelMdUtil.guessSelectivity(predicate);
+      }
+   }
+
+   /**
+    * @return the selectivity of a comparison of a column with a value, null if unknown
+    */
+   private Double comparison(RexCall call, IntFunction<SearchField> columns) {
+      SqlKind kind = call.getKind();
+      RexNode column = SearchFilterTranslator.stripLosslessCast(call.getOperands().get(0));
+      RexNode value = SearchFilterTranslator.stripLosslessCast(call.getOperands().get(1));
+      if (!(column instanceof RexInputRef)) {
+         RexNode swap = column;
+         column = value;
+         value = swap;
+         kind = kind.reverse();
+      }
+      if (!(column instanceof RexInputRef)
+            || !(value instanceof RexLiteral || value instanceof RexDynamicParam)) {
+         return null;
+      }
+      FieldStatistics field = fields.get(columns.apply(((RexInputRef) column).getIndex()).name());
+      if (field == null || field.distinct() < 1) {
+         return null;
+      }
+      double equal = 1d / field.distinct();
+      if (kind == SqlKind.EQUALS) {
+         return equal;
+      }
+      if (kind == SqlKind.NOT_EQUALS) {
+         return 1d - equal;
+      }
+      Double number = value instanceof RexLiteral literal && SqlTypeName.NUMERIC_TYPES.contains(literal.getTypeName())
+            && !literal.isNull() ? literal.getValueAs(BigDecimal.class).doubleValue() : null;
+      if (number == null || field.min() == null || field.max() == null) {
+         return null;
+      }
+      double range = field.max() - field.min();
+      // the fraction of the values below, assuming they are uniformly distributed
+      double below = range == 0 ? (number > field.min() ? 1d : 0d) : (number - field.min()) / range;
+      double selectivity = switch (kind) {
+         case LESS_THAN -> below;
+         case LESS_THAN_OR_EQUAL -> below + equal;
+         case GREATER_THAN -> 1d - below - equal;
+         default -> 1d - below;
+      };
+      return Math.max(0d, Math.min(selectivity, 1d));
+   }
+
+   private static Double number(JsonNode node) {
+      return node.isNumber() ? node.asDouble() : null;
+   }
+}
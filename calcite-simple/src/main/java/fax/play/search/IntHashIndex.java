@@ -0,0 +1,84 @@
+package fax.play.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The positions of the rows of an {@link IndexReplica} by the int value of one of their columns.
+ * <p>
+ * The keys are stored in an open addressing table of primitive arrays, and the rows with the same key are chained
+ * through another array: no boxed key, no entry object and no list per key, which a
+ * {@code HashMap<Integer, List<Object[]>>} would allocate for each row.
+ */
+final class IntHashIndex {
+
+   private static final int NONE = -1;
+
+   private final int[] keys;
+   // the first row of each slot of the table, NONE if the slot is empty
+   private final int[] heads;
+   // the next row with the same key of each row
+   private final int[] next;
+   private final int mask;
+
+   private IntHashIndex(int rows) {
+      // at most half full, so that the probe sequences stay short
+      int capacity = Integer.highestOneBit(Math.max(rows, 1) * 2 - 1) << 1;
+      keys = new int[capacity];
+      heads = new int[capacity];
+      Arrays.fill(heads, NONE);
+      next = new int[rows];
+      mask = capacity - 1;
+   }
+
+   /**
+    * @param rows    the rows to index
+    * @param column  the position of the key in the rows, the rows where it is null are not indexed
+    */
+   static IntHashIndex build(List<Object[]> rows, int column) {
+      IntHashIndex index = new IntHashIndex(rows.size());
+      // backwards, so that each chain follows the order of the rows
+      for (int row = rows.size() - 1; row >= 0; row--) {
+         Object key = rows.get(row)[column];
+         if (key != null) {
+            index.add(((Number) key).intValue(), row);
+         }
+      }
+      return index;
+   }
+
+   /**
+    * @return the position of the first row with the key, or a negative value if there is none
+    */
+   int first(int key) {
+      for (int slot = slot(key); heads[slot] != NONE; slot = (slot + 1) & mask) {
+         if (keys[slot] == key) {
+            return heads[slot];
+         }
+      }
+      return NONE;
+   }
+
+   /**
+    * @return the position of the next row with the same key, or a negative value if there is none
+    */
+   int next(int row) {
+      return next[row];
+   }
+
+   private void add(int key, int row) {
+      int slot = slot(key);
+      while (heads[slot] != NONE && keys[slot] != key) {
+         slot = (slot + 1) & mask;
+      }
+      next[row] = heads[slot];
+      keys[slot] = key;
+      heads[slot] = row;
+   }
+
+   private int slot(int key) {
+      // spreads the sequential ids, which would otherwise fill adjacent slots
+      int hash = key * 0x9E3779B9;
+      return (hash ^ hash >>> 16) & mask;
+   }
+}
@@ -0,0 +1,118 @@
+package fax.play.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Pulls the documents of a {@link SearchQuery} {@link SearchQuery#lookup(String) looking them up} by id
+ * with {@code _mget} requests of at most {@link SearchOptions#fetchSize()} ids.
+ * <p>
+ * There is no query to parse and no hit to score: the documents are read by their {@code _id}, and their fields
+ * from the source. The rows follow the order of the ids, each one returned once, and the missing documents are skipped.
+ * The page pulled by {@link #moveNext()} is allocated on the {@link QueryMemory} of the query until the next one.
+ */
+class MgetEnumerator implements Enumerator<Object> {
+
+   private final SearchTransport transport;
+   private final String index;
+   private final List<String> ids;
+   private final List<String> sourceFields;
+   private final HitsReader reader;
+   private final int batchSize;
+   private final QueryMemory memory = QueryMemory.current();
+
+   private long held;
+   private int next;
+   private List<Object> rows;
+   private int position;
+   private Object current;
+
+   MgetEnumerator(SearchTable table, SearchQuery query, DataContext root, boolean scalar) {
+      this.transport = table.transport();
+      this.index = table.index();
+      this.sourceFields = query.fields();
+      this.batchSize = table.options().fetchSize();
+
+      // the bound values of the parameters, none if a single one is null
+      JsonNode values = SearchQuery.ids(query.request(root).get("query"), table.options().idField(index));
+      Set<String> distinct = new LinkedHashSet<>();
+      if (values != null) {
+         for (JsonNode value : values) {
+            if (!value.isNull()) {
+               distinct.add(id(value));
+            }
+         }
+      }
+      ids = new ArrayList<>(distinct);
+
+      SearchField[] fields = new SearchField[sourceFields.size()];
+      for (int i = 0; i < fields.length; i++) {
+         fields[i] = table.field(sourceFields.get(i));
+      }
+      reader = new HitsReader(fields, scalar);
+   }
+
+   @Override
+   public Object current() {
+      return current;
+   }
+
+   @Override
+   public boolean moveNext() {
+      while (rows == null || position == rows.size()) {
+         if (next == ids.size()) {
+            return false;
+         }
+         List<String> batch = ids.subList(next, Math.min(next + batchSize, ids.size()));
+         next += batch.size();
+         rows = hold(transport.mget(index, batch, sourceFields, reader)).rows();
+         position = 0;
+      }
+      current = rows.get(position++);
+      return true;
+   }
+
+   @Override
+   public void reset() {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void close() {
+      if (memory != null) {
+         memory.free(held);
+         held = 0;
+      }
+   }
+
+   /**
+    * Allocates the page in place of the previous one, which is no longer referenced.
+    */
+   private HitsReader.Page hold(HitsReader.Page page) {
+      if (memory != null) {
+         memory.free(held);
+         held = 0;
+         memory.allocate(page.bytes(), "a page of the documents of " + index + " looked up by id");
+         held = page.bytes();
+      }
+      return page;
+   }
+
+   /**
+    * @return the {@code _id} written for the value of the id field, e.g. {@code 7} for the number {@code 7.0}
+    */
+   private static String id(JsonNode value) {
+      if (value.isFloatingPointNumber() && value.doubleValue() == Math.rint(value.doubleValue())
+            && Math.abs(value.doubleValue()) < 0x1p63) {
+         return Long.toString(value.longValue());
+      }
+      return value.asText();
+   }
+}
@@ -0,0 +1,220 @@
+package fax.play.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerator;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Fetches the pages of the scrolls of a scan ahead of the consumer, on the {@link SearchOptions#scanExecutor()}.
+ * <p>
+ * Each scroll is fetched by a task, which requests the next page while the previous ones are consumed.
+ * Up to {@link SearchOptions#prefetchPages()} pages per scroll, and up to {@link SearchOptions#prefetchBytes()} of
+ * responses, wait to be consumed: beyond them the tasks wait for the consumer instead of buffering the whole index.
+ * A single scroll keeps the order of its rows, the rows of the slices of a sliced scan are interleaved.
+ * The pages waiting and the one consumed are allocated on the {@link QueryMemory} of the query.
+ */
+class PrefetchEnumerator implements Enumerator<Object> {
+
+   // the end of a scroll
+   private static final HitsReader.Page END = new HitsReader.Page(List.of(), null, 0);
+
+   private final String index;
+   private final int maxPages;
+   private final long maxBytes;
+   private final QueryMemory memory = QueryMemory.current();
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition notEmpty = lock.newCondition();
+   private final Condition notFull = lock.newCondition();
+   // the pages, the ends of the scrolls and their failures
+   private final Deque<Object> buffer = new ArrayDeque<>();
+   private int bufferedPages;
+   private long bufferedBytes;
+   private boolean closed;
+
+   private int running;
+   private long held;
+   private List<Object> rows;
+   private int position;
+   private Object current;
+
+   /**
+    * @param slices  the number of slices scrolled in parallel, 1 for a single scroll
+    */
+   PrefetchEnumerator(SearchTable table, SearchQuery query, DataContext root, boolean scalar, int slices) {
+      SearchOptions options = table.options();
+      this.index = table.index();
+      this.maxPages = Math.max(options.prefetchPages(), 1) * slices;
+      this.maxBytes = options.prefetchBytes();
+
+      List<SearchEnumerator> scrolls = new ArrayList<>(slices);
+      for (int i = 0; i < slices; i++) {
+         ObjectNode body = query.request(root);
+         if (slices > 1) {
+            body.putObject("slice").put("id", i).put("max", slices);
+         }
+         scrolls.add(new SearchEnumerator(table, query, body, scalar));
+      }
+      running = slices;
+      // the requests of the tasks are the ones of the query
+      BackendStats stats = BackendStats.current();
+      for (SearchEnumerator scroll : scrolls) {
+         options.scanExecutor().execute(() -> {
+            try (Scope scope = stats == null ? null : stats.open()) {
+               fetch(scroll);
+            }
+         });
+      }
+   }
+
+   @Override
+   public Object current() {
+      return current;
+   }
+
+   @Override
+   public boolean moveNext() {
+      while (true) {
+         if (rows != null && position < rows.size()) {
+            current = rows.get(position++);
+            return true;
+         }
+         if (running == 0) {
+            return false;
+         }
+         Object next = take();
+         if (next == END) {
+            running--;
+            rows = null;
+         } else if (next instanceof RuntimeException) {
+            close();
+            throw (RuntimeException) next;
+         } else {
+            HitsReader.Page page = (HitsReader.Page) next;
+            release(held);
+            held = page.bytes();
+            rows = page.rows();
+            position = 0;
+         }
+      }
+   }
+
+   @Override
+   public void reset() {
+      throw new UnsupportedOperationException();
+   }
+
+   /**
+    * Stops the scrolls: each one is cleared once its current request completes. A consumer waiting for a page, e.g. on
+    * another thread cancelling the query, sees the end of the scan.
+    */
+   @Override
+   public void close() {
+      lock.lock();
+      try {
+         closed = true;
+         release(bufferedBytes);
+         bufferedBytes = 0;
+         bufferedPages = 0;
+         buffer.clear();
+         notFull.signalAll();
+         notEmpty.signalAll();
+      } finally {
+         lock.unlock();
+      }
+      release(held);
+      held = 0;
+   }
+
+   private void fetch(SearchEnumerator scroll) {
+      try {
+         for (HitsReader.Page page = scroll.nextPage(); page != null; page = scroll.nextPage()) {
+            if (!page.rows().isEmpty() && !put(page)) {
+               return;
+            }
+         }
+         put(END);
+      } catch (RuntimeException e) {
+         put(e);
+      } finally {
+         scroll.close();
+      }
+   }
+
+   /**
+    * Adds a page once there is room for it, the ends and the failures of the scrolls right away.
+    *
+    * @return false if the enumerator has been closed
+    */
+   private boolean put(Object item) {
+      lock.lock();
+      try {
+         if (item instanceof HitsReader.Page page) {
+            // a page larger than the budget is still fetched ahead when it is alone
+            while (!closed && bufferedPages > 0
+                  && (bufferedPages >= maxPages || bufferedBytes + page.bytes() > maxBytes)) {
+               notFull.await();
+            }
+            if (!closed) {
+               if (memory != null) {
+                  memory.allocate(page.bytes(), "a page prefetched from " + index);
+               }
+               bufferedPages++;
+               bufferedBytes += page.bytes();
+            }
+         }
+         if (closed) {
+            return false;
+         }
+         buffer.add(item);
+         notEmpty.signal();
+         return true;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return false;
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   private void release(long bytes) {
+      if (memory != null) {
+         memory.free(bytes);
+      }
+   }
+
+   /**
+    * @return the next page, end or failure of a scroll, an end once the enumerator has been closed
+    */
+   private Object take() {
+      lock.lock();
+      try {
+         while (buffer.isEmpty() && !closed) {
+            notEmpty.await();
+         }
+         if (closed) {
+            return END;
+         }
+         Object item = buffer.poll();
+         if (item instanceof HitsReader.Page page && item != END) {
+            bufferedPages--;
+            bufferedBytes -= page.bytes();
+            notFull.signalAll();
+         }
+         return item;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while scanning " + index, e);
+      } finally {
+         lock.unlock();
+      }
+   }
+}
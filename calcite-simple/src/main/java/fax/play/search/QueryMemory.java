@@ -0,0 +1,162 @@
+package fax.play.search;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The heap retained by a query: the pages of the responses it buffers, the rows its joins and sorts hold and the rows
+ * it materializes for the caller. A query allocating beyond its limit fails with a {@link LimitExceededException},
+ * instead of exhausting the heap shared with the other queries.
+ * <p>
+ * The tracker of a query is the current one of the thread executing it, see {@link #open()}: the operators look it up
+ * once they are created, and may allocate and free from other threads afterwards.
+ * The sizes are estimates of the retained heap, not measures.
+ */
+public final class QueryMemory {
+
+   private static final ThreadLocal<QueryMemory> CURRENT = new ThreadLocal<>();
+
+   // the estimated overhead of an object, of a reference, and of a boxed value in the heap
+   private static final int OBJECT_BYTES = 16;
+   private static final int REFERENCE_BYTES = 8;
+   private static final int VALUE_BYTES = 24;
+
+   private final String query;
+   private final long limit;
+   private final AtomicLong used = new AtomicLong();
+   private final AtomicLong peak = new AtomicLong();
+
+   /**
+    * @param query  the SQL of the query, to tell it apart in the errors
+    * @param limit  the bytes the query may retain at the same time
+    */
+   public QueryMemory(String query, long limit) {
+      if (limit < 1) {
+         throw new IllegalArgumentException("limit must be positive: " + limit);
+      }
+      this.query = query;
+      this.limit = limit;
+   }
+
+   /**
+    * @return the tracker of the query executed by the current thread, null if it is not tracked
+    */
+   public static QueryMemory current() {
+      return CURRENT.get();
+   }
+
+   /**
+    * @return the estimated heap retained by the row
+    */
+   public static long sizeOf(Object[] row) {
+      long size = OBJECT_BYTES + (long) REFERENCE_BYTES * row.length;
+      for (Object value : row) {
+         size += sizeOf(value);
+      }
+      return size;
+   }
+
+   /**
+    * @return the estimated heap retained by a value of a row: a scalar, a string, or the maps and lists of a document
+    */
+   public static long sizeOf(Object value) {
+      if (value == null) {
+         return 0;
+      }
+      if (value instanceof String string) {
+         return VALUE_BYTES + OBJECT_BYTES + string.length();
+      }
+      if (value instanceof BigDecimal) {
+         return VALUE_BYTES + 32;
+      }
+      if (value instanceof Object[] array) {
+         return sizeOf(array);
+      }
+      if (value instanceof Map<?, ?> map) {
+         long size = OBJECT_BYTES + (long) 2 * REFERENCE_BYTES * map.size();
+         for (Map.Entry<?, ?> entry : map.entrySet()) {
+            size += OBJECT_BYTES + sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+         }
+         return size;
+      }
+      if (value instanceof Collection<?> collection) {
+         long size = OBJECT_BYTES + (long) REFERENCE_BYTES * collection.size();
+         for (Object element : collection) {
+            size += sizeOf(element);
+         }
+         return size;
+      }
+      return VALUE_BYTES;
+   }
+
+   /**
+    * Makes this the tracker of the queries executed by the current thread, until the scope is closed.
+    */
+   public Scope open() {
+      QueryMemory previous = CURRENT.get();
+      CURRENT.set(this);
+      return () -> {
+         if (previous == null) {
+            CURRENT.remove();
+         } else {
+            CURRENT.set(previous);
+         }
+      };
+   }
+
+   /**
+    * @param what  what the bytes are retained for, to explain the error
+    * @throws LimitExceededException if the bytes do not fit in the limit, they are not allocated then
+    */
+   public void allocate(long bytes, String what) {
+      long total = used.addAndGet(bytes);
+      if (total > limit) {
+         used.addAndGet(-bytes);
+         throw new LimitExceededException(this, bytes, what);
+      }
+      peak.accumulateAndGet(total, Math::max);
+   }
+
+   public void free(long bytes) {
+      used.addAndGet(-bytes);
+   }
+
+   public String query() {
+      return query;
+   }
+
+   public long limit() {
+      return limit;
+   }
+
+   public long used() {
+      return used.get();
+   }
+
+   /**
+    * @return the highest number of bytes retained at the same time
+    */
+   public long peak() {
+      return peak.get();
+   }
+
+   /**
+    * Thrown by the query that would retain more than its limit.
+    */
+   public static final class LimitExceededException extends RuntimeException {
+
+      private final transient QueryMemory memory;
+
+      LimitExceededException(QueryMemory memory, long bytes, String what) {
+         super("The query exceeded its memory limit of " + memory.limit + " bytes, " + memory.used()
+               + " already retained, allocating " + bytes + " more for " + what + ": " + memory.query);
+         this.memory = memory;
+      }
+
+      public QueryMemory memory() {
+         return memory;
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package fax.play.search;
+
+import java.util.List;
+
+import org.apache.calcite.linq4j.Enumerator;
+
+/**
+ * Joins the rows of the input with the documents of an {@link IndexReplica}, probing its {@link IntHashIndex}
+ * on the key column with the key of each input row.
+ */
+class ReplicaJoinEnumerator implements Enumerator<Object[]> {
+
+   private final Enumerator<Object[]> input;
+   private final int leftKey;
+   private final boolean outer;
+   private final List<Object[]> rows;
+   private final IntHashIndex index;
+   // the positions of the columns of the joined scan in the rows of the replica
+   private final int[] columns;
+
+   private Object[] left;
+   private int match = -1;
+   private Object[] current;
+
+   ReplicaJoinEnumerator(IndexReplica.Snapshot snapshot, int[] columns, Enumerator<Object[]> input,
+                         int leftKey, int rightKey, boolean outer) {
+      this.input = input;
+      this.leftKey = leftKey;
+      this.outer = outer;
+      this.rows = snapshot.rows();
+      this.index = snapshot.index(columns[rightKey]);
+      this.columns = columns;
+   }
+
+   @Override
+   public Object[] current() {
+      return current;
+   }
+
+   @Override
+   public boolean moveNext() {
+      while (true) {
+         if (match >= 0) {
+            current = join(left, rows.get(match));
+            match = index.next(match);
+            return true;
+         }
+         if (!input.moveNext()) {
+            return false;
+         }
+         left = input.current();
+         Object key = left[leftKey];
+         match = key == null ? -1 : index.first(((Number) key).intValue());
+         if (match < 0 && outer) {
+            current = join(left, null);
+            return true;
+         }
+      }
+   }
+
+   @Override
+   public void reset() {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void close() {
+      input.close();
+   }
+
+   private Object[] join(Object[] left, Object[] right) {
+      Object[] row = new Object[left.length + columns.length];
+      System.arraycopy(left, 0, row, 0, left.length);
+      if (right != null) {
+         for (int i = 0; i < columns.length; i++) {
+            row[left.length + i] = right[columns[i]];
+         }
+      }
+      return row;
+   }
+}
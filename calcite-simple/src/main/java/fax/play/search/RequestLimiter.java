@@ -0,0 +1,89 @@
+package fax.play.search;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the requests a {@link SearchTransport} has in flight, in total and for each index, so that the queries
+ * running together do not saturate the cluster with their fan-out.
+ * <p>
+ * It is shared by the transports of the successive schemas of a client, the requests wait for a permit before being
+ * sent and release it once their response arrived.
+ */
+public class RequestLimiter {
+
+   /**
+    * No bound.
+    */
+   public static final RequestLimiter UNLIMITED = new RequestLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+   private final int maxRequests;
+   private final int maxIndexRequests;
+   private final Semaphore requests;
+   private final Map<String, Semaphore> indexRequests = new ConcurrentHashMap<>();
+
+   /**
+    * @param maxRequests       the requests in flight
+    * @param maxIndexRequests  the requests in flight to each index, the scrolls are only bound in total
+    */
+   public RequestLimiter(int maxRequests, int maxIndexRequests) {
+      if (maxRequests < 1) {
+         throw new IllegalArgumentException("maxRequests must be positive: " + maxRequests);
+      }
+      if (maxIndexRequests < 1) {
+         throw new IllegalArgumentException("maxIndexRequests must be positive: " + maxIndexRequests);
+      }
+      this.maxRequests = maxRequests;
+      this.maxIndexRequests = maxIndexRequests;
+      this.requests = new Semaphore(maxRequests, true);
+   }
+
+   /**
+    * Waits for a permit to send a request.
+    *
+    * @param index  the index the request targets, null if it is not known
+    */
+   void acquire(String index) throws InterruptedIOException {
+      if (this == UNLIMITED) {
+         return;
+      }
+      Semaphore semaphore = index == null ? null : indexRequests.computeIfAbsent(index,
+            i -> new Semaphore(maxIndexRequests, true));
+      try {
+         // always the index one first, so that the requests holding the global one do not wait
+         if (semaphore != null) {
+            semaphore.acquire();
+         }
+         try {
+            requests.acquire();
+         } catch (InterruptedException e) {
+            if (semaphore != null) {
+               semaphore.release();
+            }
+            throw e;
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting to send a request to " + index);
+      }
+   }
+
+   void release(String index) {
+      if (this == UNLIMITED) {
+         return;
+      }
+      requests.release();
+      if (index != null) {
+         indexRequests.get(index).release();
+      }
+   }
+
+   /**
+    * @return the requests in flight
+    */
+   public int inFlight() {
+      return maxRequests - requests.availablePermits();
+   }
+}
@@ -0,0 +1,14 @@
+package fax.play.search;
+
+/**
+ * The time a tracker of a query is the current one of a thread, see {@link QueryMemory#open()} and
+ * {@link BackendStats#open()}.
+ */
+public interface Scope extends AutoCloseable {
+
+   /**
+    * Restores the tracker that was current before.
+    */
+   @Override
+   void close();
+}
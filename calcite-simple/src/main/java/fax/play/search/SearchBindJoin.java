@@ -0,0 +1,114 @@
+package fax.play.search;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexNode;
+
+/**
+ * Inner equi-join of any input with an index, looking up the index with batches of the join keys of the input.
+ * <p>
+ * Each batch of distinct keys becomes a {@code terms} query on the key field, combined with the query of the
+ * {@link SearchTableScan} of the index: when the input is small, that is a few targeted requests
+ * instead of a full scan of the index.
+ * The scan is not an input of the relation, so that its full cost is not counted in the plan cost.
+ */
+public class SearchBindJoin extends SingleRel implements EnumerableRel {
+
+   private static final Method BIND_JOIN = Types.lookupMethod(SearchTable.class, "bindJoin",
+         DataContext.class, String.class, Enumerable.class, int.class, int.class, int.class);
+
+   private final SearchTableScan lookup;
+   private final int leftKey;
+   private final int rightKey;
+   private final RexNode condition;
+   private final RelDataType joinRowType;
+
+   SearchBindJoin(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, SearchTableScan lookup,
+                  int leftKey, int rightKey, RexNode condition, RelDataType joinRowType) {
+      super(cluster, traitSet, input);
+      this.lookup = lookup;
+      this.leftKey = leftKey;
+      this.rightKey = rightKey;
+      this.condition = condition;
+      this.joinRowType = joinRowType;
+   }
+
+   public SearchTableScan lookup() {
+      return lookup;
+   }
+
+   @Override
+   public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+      return new SearchBindJoin(getCluster(), traitSet, sole(inputs), lookup, leftKey, rightKey, condition, joinRowType);
+   }
+
+   @Override
+   protected RelDataType deriveRowType() {
+      return joinRowType;
+   }
+
+   @Override
+   public RelWriter explainTerms(RelWriter pw) {
+      return super.explainTerms(pw)
+            .item("table", lookup.getTable().getQualifiedName())
+            .item("query", lookup.query().toJson())
+            .item("leftKey", leftKey)
+            .item("rightKey", rightKey);
+   }
+
+   /**
+    * Without statistics on the key, each input row is assumed to match a single document, as a foreign key does:
+    * the estimate of Calcite for the joins grows with the product of the sides and would rule out the next bind joins
+    * of a chain.
+    */
+   @Override
+   public double estimateRowCount(RelMetadataQuery mq) {
+      return mq.getRowCount(getInput());
+   }
+
+   @Override
+   public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+      double rows = estimateRowCount(mq);
+      double inputRows = mq.getRowCount(getInput());
+      return planner.getCostFactory().makeCost(rows, inputRows + rows, 0);
+   }
+
+   @Override
+   public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+      BlockBuilder builder = new BlockBuilder();
+      Result input = implementor.visitChild(this, 0, (EnumerableRel) getInput(), Prefer.ARRAY);
+      // arrays, even for a single field: the target format is not optimized to a scalar
+      Expression inputRows = input.physType.convertTo(builder.append("input", input.block), JavaRowFormat.ARRAY);
+
+      int batchSize = lookup.searchTable().options().bindJoinBatchSize();
+      Expression table = lookup.getTable().getExpression(SearchTable.class);
+      Expression enumerable = Expressions.call(table, BIND_JOIN, implementor.getRootExpression(),
+            Expressions.constant(lookup.query().toJson()), inputRows,
+            Expressions.constant(leftKey), Expressions.constant(rightKey), Expressions.constant(batchSize));
+      builder.add(Expressions.return_(null, builder.append("enumerable", enumerable)));
+
+      PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY);
+      return implementor.result(physType, builder.toBlock());
+   }
+}
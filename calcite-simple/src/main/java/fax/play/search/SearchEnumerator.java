@@ -0,0 +1,183 @@
+package fax.play.search;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import org.apache.calcite.linq4j.Enumerator;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Pulls the hits of a {@link SearchQuery} page by page.
+ * <p>
+ * A bounded query that fits the result window is a single {@code from}/{@code size} request,
+ * the others are scrolled and the offset, if any, is skipped on the client.
+ * The numeric fields with doc values are fetched as {@code docvalue_fields}, the others are filtered from the source.
+ * The page pulled by {@link #moveNext()} is allocated on the {@link QueryMemory} of the query until the next one.
+ */
+class SearchEnumerator implements Enumerator<Object> {
+
+   private final SearchTransport transport;
+   private final String index;
+   private final ObjectNode body;
+   private final HitsReader reader;
+   private final Long fetch;
+   private final boolean scroll;
+   private final int pageSize;
+   private final QueryMemory memory = QueryMemory.current();
+
+   private long held;
+   private long toSkip;
+   private long returned;
+   private HitsReader.Page page;
+   private List<Object> hits;
+   private int position;
+   private String scrollId;
+   private boolean lastPage;
+   private Object current;
+
+   SearchEnumerator(SearchTable table, SearchQuery query, ObjectNode body, boolean scalar) {
+      this.transport = table.transport();
+      this.index = table.index();
+      this.body = body;
+      this.fetch = query.fetch();
+
+      List<String> names = query.fields();
+      SearchField[] fields = new SearchField[names.size()];
+      ArrayNode source = body.arrayNode();
+      ArrayNode docValues = body.arrayNode();
+      for (int i = 0; i < fields.length; i++) {
+         fields[i] = table.field(names.get(i));
+         if (fields[i].fromDocValues()) {
+            docValues.addObject().put("field", fields[i].name());
+         } else {
+            source.add(fields[i].name());
+         }
+      }
+      if (source.isEmpty()) {
+         body.put("_source", false);
+      } else {
+         body.set("_source", source);
+      }
+      if (!docValues.isEmpty()) {
+         body.set("docvalue_fields", docValues);
+      }
+      reader = new HitsReader(fields, scalar);
+
+      long offset = query.offset() == null ? 0 : query.offset();
+      scroll = fetch == null || offset + fetch > SearchTransport.MAX_RESULT_WINDOW;
+      if (scroll) {
+         toSkip = offset;
+         int fetchSize = table.options().fetchSize();
+         pageSize = fetch == null ? fetchSize : (int) Math.min(fetchSize, offset + fetch);
+         if (!body.has("sort")) {
+            // the cheapest order to scroll
+            body.putArray("sort").add("_doc");
+         }
+      } else {
+         pageSize = fetch.intValue();
+         body.put("from", offset);
+      }
+      body.put("size", pageSize);
+   }
+
+   @Override
+   public Object current() {
+      return current;
+   }
+
+   @Override
+   public boolean moveNext() {
+      if (fetch != null && returned >= fetch) {
+         return false;
+      }
+      while (true) {
+         if (hits == null) {
+            page(hold(transport.search(index, body, scroll, reader)));
+         }
+         if (position < hits.size()) {
+            Object row = hits.get(position++);
+            if (toSkip > 0) {
+               toSkip--;
+               continue;
+            }
+            current = row;
+            returned++;
+            return true;
+         }
+         if (lastPage) {
+            return false;
+         }
+         page(hold(transport.scroll(scrollId, reader)));
+      }
+   }
+
+   /**
+    * Pulls a whole page at once, instead of a row at a time, for the queries without offset and fetch.
+    *
+    * @return the next page, null after the last one
+    */
+   HitsReader.Page nextPage() {
+      if (hits == null) {
+         page(transport.search(index, body, scroll, reader));
+      } else if (lastPage) {
+         return null;
+      } else {
+         page(transport.scroll(scrollId, reader));
+      }
+      return page;
+   }
+
+   @Override
+   public void reset() {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void close() {
+      clearScroll();
+      if (memory != null) {
+         memory.free(held);
+         held = 0;
+      }
+   }
+
+   private void clearScroll() {
+      if (scrollId != null) {
+         String id = scrollId;
+         scrollId = null;
+         try {
+            transport.clearScroll(id);
+         } catch (UncheckedIOException e) {
+            // the scroll context expires anyway after the keep alive
+         }
+      }
+   }
+
+   private void page(HitsReader.Page page) {
+      this.page = page;
+      hits = page.rows();
+      position = 0;
+      if (scroll && page.scrollId() != null) {
+         scrollId = page.scrollId();
+      }
+      lastPage = !scroll || hits.size() < pageSize;
+      if (lastPage) {
+         clearScroll();
+      }
+   }
+
+   /**
+    * Allocates the page in place of the previous one, which is no longer referenced.
+    */
+   private HitsReader.Page hold(HitsReader.Page page) {
+      if (memory != null) {
+         memory.free(held);
+         held = 0;
+         memory.allocate(page.bytes(), "a page of the hits of " + index);
+         held = page.bytes();
+      }
+      return page;
+   }
+}
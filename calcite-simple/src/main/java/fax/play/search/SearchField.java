@@ -0,0 +1,136 @@
+package fax.play.search;
+
+import java.io.IOException;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A column of a {@link SearchTable}, derived from a property of the index mapping.
+ *
+ * @param name       the (dotted, for object properties) field name
+ * @param type       the mapping type, e.g. {@code integer} or {@code keyword}
+ * @param sqlType    the SQL type exposed to the planner
+ * @param docValues  whether the field has doc values, so that it can be sorted, aggregated and fetched from them
+ */
+public record SearchField(String name, String type, SqlTypeName sqlType, boolean docValues) {
+
+   /**
+    * @return the field, or null if the mapping type cannot be exposed as a column (e.g. {@code nested})
+    */
+   public static SearchField of(String name, JsonNode property) {
+      String type = property.path("type").asText("object");
+      SqlTypeName sqlType = sqlType(type);
+      if (sqlType == null) {
+         return null;
+      }
+      // text fields have no doc values, for the others they are enabled unless explicitly disabled
+      boolean docValues = !"text".equals(type) && property.path("doc_values").asBoolean(true);
+      return new SearchField(name, type, sqlType, docValues);
+   }
+
+   /**
+    * @return whether term and range queries on the field have the same semantic as the SQL comparisons
+    */
+   public boolean filterable() {
+      return !"text".equals(type);
+   }
+
+   public boolean sortable() {
+      return docValues;
+   }
+
+   /**
+    * @return whether the values are fetched from the doc values rather than from the source: for numbers they are
+    *         smaller to transfer and to parse than the source, and they are the indexed values the filters match
+    */
+   public boolean fromDocValues() {
+      return docValues && SqlTypeName.NUMERIC_TYPES.contains(sqlType);
+   }
+
+   /**
+    * Reads the value the parser is positioned on, consuming all of its tokens.
+    */
+   public Object read(JsonParser parser) throws IOException {
+      JsonToken token = parser.currentToken();
+      if (token == JsonToken.START_ARRAY) {
+         // multi-valued fields are exposed as their first value
+         Object value = null;
+         boolean first = true;
+         while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (first) {
+               value = read(parser);
+               first = false;
+            } else {
+               parser.skipChildren();
+            }
+         }
+         return value;
+      }
+      if (token == JsonToken.VALUE_NULL) {
+         return null;
+      }
+      if (token == JsonToken.START_OBJECT) {
+         return sqlType == SqlTypeName.VARCHAR ? parser.readValueAsTree().toString() : skip(parser);
+      }
+      switch (sqlType) {
+         case TINYINT:
+            return (byte) parser.getValueAsInt();
+         case SMALLINT:
+            return (short) parser.getValueAsInt();
+         case INTEGER:
+            return parser.getValueAsInt();
+         case BIGINT:
+            return parser.getValueAsLong();
+         case REAL:
+            return (float) parser.getValueAsDouble();
+         case DOUBLE:
+            return parser.getValueAsDouble();
+         case BOOLEAN:
+            return token == JsonToken.VALUE_STRING ? Boolean.parseBoolean(parser.getText()) : parser.getValueAsBoolean();
+         default:
+            return parser.getValueAsString();
+      }
+   }
+
+   private static Object skip(JsonParser parser) throws IOException {
+      parser.skipChildren();
+      return null;
+   }
+
+   private static SqlTypeName sqlType(String type) {
+      switch (type) {
+         case "byte":
+            return SqlTypeName.TINYINT;
+         case "short":
+            return SqlTypeName.SMALLINT;
+         case "integer":
+            return SqlTypeName.INTEGER;
+         case "long":
+         case "unsigned_long":
+            return SqlTypeName.BIGINT;
+         case "float":
+         case "half_float":
+            return SqlTypeName.REAL;
+         case "double":
+         case "scaled_float":
+            return SqlTypeName.DOUBLE;
+         case "boolean":
+            return SqlTypeName.BOOLEAN;
+         case "keyword":
+         case "constant_keyword":
+         case "wildcard":
+         case "text":
+         case "ip":
+         case "version":
+         case "date":
+         case "date_nanos":
+            return SqlTypeName.VARCHAR;
+         default:
+            return null;
+      }
+   }
+}
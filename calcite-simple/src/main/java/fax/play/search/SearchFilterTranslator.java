@@ -0,0 +1,285 @@
+package fax.play.search;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.type.SqlTypeUtil;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * Translates a condition on the columns of a {@link SearchTableScan} into the query DSL.
+ * <p>
+ * Only the conditions whose semantic is the same in SQL and in the index are translated:
+ * comparisons of a column with a literal or a bind parameter, null checks, and their conjunctions and disjunctions.
+ * {@code SEARCH} calls (e.g. ranges and {@code IN} lists) must be expanded before.
+ * A column compared with {@code <>} must also exist, since in SQL a null column does not match.
+ */
+final class SearchFilterTranslator {
+
+   private static final JsonNodeFactory JSON = JsonNodeFactory.instance;
+
+   private final SearchTableScan scan;
+
+   SearchFilterTranslator(SearchTableScan scan) {
+      this.scan = scan;
+   }
+
+   /**
+    * @return the query, or null if the condition cannot be translated
+    */
+   ObjectNode translate(RexNode node) {
+      switch (node.getKind()) {
+         case AND:
+            return and(((RexCall) node).getOperands());
+         case OR:
+            return or(((RexCall) node).getOperands());
+         case EQUALS:
+         case NOT_EQUALS:
+         case LESS_THAN:
+         case LESS_THAN_OR_EQUAL:
+         case GREATER_THAN:
+         case GREATER_THAN_OR_EQUAL:
+            return comparison((RexCall) node);
+         case IS_NULL:
+         case IS_NOT_NULL:
+            return nullCheck((RexCall) node);
+         case INPUT_REF:
+            // a boolean column
+            return term(field(node), BooleanNode.TRUE);
+         case NOT:
+            RexNode operand = ((RexCall) node).getOperands().get(0);
+            return operand.getKind() == SqlKind.INPUT_REF ? term(field(operand), BooleanNode.FALSE) : null;
+         default:
+            return null;
+      }
+   }
+
+   private ObjectNode and(List<RexNode> operands) {
+      List<ObjectNode> clauses = translateAll(operands);
+      if (clauses == null) {
+         return null;
+      }
+      ObjectNode query = JSON.objectNode();
+      query.putObject("bool").putArray("filter").addAll(clauses);
+      return query;
+   }
+
+   private ObjectNode or(List<RexNode> operands) {
+      List<ObjectNode> clauses = translateAll(operands);
+      if (clauses == null) {
+         return null;
+      }
+      ObjectNode terms = terms(clauses);
+      if (terms != null) {
+         return terms;
+      }
+      ObjectNode query = JSON.objectNode();
+      ObjectNode bool = query.putObject("bool");
+      bool.putArray("should").addAll(clauses);
+      bool.put("minimum_should_match", 1);
+      return query;
+   }
+
+   private List<ObjectNode> translateAll(List<RexNode> operands) {
+      List<ObjectNode> clauses = new ArrayList<>(operands.size());
+      for (RexNode operand : operands) {
+         ObjectNode clause = translate(operand);
+         if (clause == null) {
+            return null;
+         }
+         clauses.add(clause);
+      }
+      return clauses;
+   }
+
+   /**
+    * @return a single {@code terms} query if all the clauses are {@code term} queries on the same field, otherwise null
+    */
+   private static ObjectNode terms(List<ObjectNode> clauses) {
+      String field = null;
+      ArrayNode values = JSON.arrayNode();
+      for (ObjectNode clause : clauses) {
+         JsonNode term = clause.get("term");
+         if (term == null || clause.size() != 1) {
+            return null;
+         }
+         String name = term.fieldNames().next();
+         if (field != null && !field.equals(name)) {
+            return null;
+         }
+         field = name;
+         values.add(term.get(name));
+      }
+      ObjectNode query = JSON.objectNode();
+      query.putObject("terms").set(field, values);
+      return query;
+   }
+
+   private ObjectNode comparison(RexCall call) {
+      SqlKind kind = call.getKind();
+      RexNode left = call.getOperands().get(0);
+      RexNode right = call.getOperands().get(1);
+      SearchField field = field(left);
+      JsonNode value = value(right);
+      if (field == null || value == null) {
+         // try the other way around, e.g. 10 >= id
+         field = field(right);
+         value = value(left);
+         kind = kind.reverse();
+      }
+      if (field == null || value == null) {
+         return null;
+      }
+      switch (kind) {
+         case EQUALS:
+            return term(field, value);
+         case NOT_EQUALS:
+            ObjectNode query = JSON.objectNode();
+            ObjectNode bool = query.putObject("bool");
+            bool.putArray("must_not").add(term(field, value));
+            bool.putArray("filter").add(exists(field));
+            return query;
+         case LESS_THAN:
+            return range(field, "lt", value);
+         case LESS_THAN_OR_EQUAL:
+            return range(field, "lte", value);
+         case GREATER_THAN:
+            return range(field, "gt", value);
+         case GREATER_THAN_OR_EQUAL:
+            return range(field, "gte", value);
+         default:
+            return null;
+      }
+   }
+
+   private ObjectNode nullCheck(RexCall call) {
+      SearchField field = field(call.getOperands().get(0));
+      if (field == null) {
+         return null;
+      }
+      if (call.getKind() == SqlKind.IS_NOT_NULL) {
+         return exists(field);
+      }
+      ObjectNode query = JSON.objectNode();
+      query.putObject("bool").putArray("must_not").add(exists(field));
+      return query;
+   }
+
+   private static ObjectNode term(SearchField field, JsonNode value) {
+      if (field == null) {
+         return null;
+      }
+      ObjectNode query = JSON.objectNode();
+      query.putObject("term").set(field.name(), value);
+      return query;
+   }
+
+   private static ObjectNode range(SearchField field, String operator, JsonNode value) {
+      ObjectNode query = JSON.objectNode();
+      query.putObject("range").putObject(field.name()).set(operator, value);
+      return query;
+   }
+
+   private static ObjectNode exists(SearchField field) {
+      ObjectNode query = JSON.objectNode();
+      query.putObject("exists").put("field", field.name());
+      return query;
+   }
+
+   /**
+    * @return the field of a column reference, null if it is not a column or the column cannot be filtered by the index
+    */
+   private SearchField field(RexNode node) {
+      node = stripLosslessCast(node);
+      if (!(node instanceof RexInputRef)) {
+         return null;
+      }
+      SearchField field = scan.field(((RexInputRef) node).getIndex());
+      return field.filterable() ? field : null;
+   }
+
+   private static JsonNode value(RexNode node) {
+      node = stripLosslessCast(node);
+      if (node instanceof RexDynamicParam) {
+         return SearchQuery.param(((RexDynamicParam) node).getIndex());
+      }
+      if (!(node instanceof RexLiteral)) {
+         return null;
+      }
+      RexLiteral literal = (RexLiteral) node;
+      if (literal.isNull()) {
+         // a comparison with null is never true, it is not worth a request
+         return null;
+      }
+      SqlTypeName typeName = literal.getTypeName();
+      if (SqlTypeName.NUMERIC_TYPES.contains(typeName)) {
+         BigDecimal decimal = literal.getValueAs(BigDecimal.class);
+         if (decimal.stripTrailingZeros().scale() <= 0 && decimal.toBigInteger().bitLength() < 64) {
+            return LongNode.valueOf(decimal.longValue());
+         }
+         return DoubleNode.valueOf(decimal.doubleValue());
+      }
+      if (SqlTypeName.CHAR_TYPES.contains(typeName)) {
+         return TextNode.valueOf(literal.getValueAs(String.class));
+      }
+      if (typeName == SqlTypeName.BOOLEAN) {
+         return BooleanNode.valueOf(literal.getValueAs(Boolean.class));
+      }
+      return null;
+   }
+
+   /**
+    * A widening cast between numeric types (e.g. an integer column compared with a bigint) does not change the
+    * comparison, and the value of a parameter is bound as it is. A narrowing cast does: {@code CAST(x AS INTEGER) = 3}
+    * matches 3.7, a term query on {@code x} does not.
+    */
+   static RexNode stripLosslessCast(RexNode node) {
+      while (node.getKind() == SqlKind.CAST) {
+         RexNode operand = ((RexCall) node).getOperands().get(0);
+         if (!isLossless(operand.getType(), node.getType()) && !(operand instanceof RexDynamicParam)) {
+            return node;
+         }
+         node = operand;
+      }
+      return node;
+   }
+
+   /**
+    * @return whether each number of the type is cast to the same number of the target type
+    */
+   private static boolean isLossless(RelDataType type, RelDataType target) {
+      if (!SqlTypeUtil.isNumeric(type) || !SqlTypeUtil.isNumeric(target)) {
+         return false;
+      }
+      // unspecified for the integers
+      int scale = Math.max(type.getScale(), 0);
+      int targetScale = Math.max(target.getScale(), 0);
+      if (SqlTypeUtil.isExactNumeric(type) && SqlTypeUtil.isExactNumeric(target)) {
+         // the digits before the point and the ones after
+         return target.getPrecision() - targetScale >= type.getPrecision() - scale && targetScale >= scale;
+      }
+      if (SqlTypeUtil.isExactNumeric(type)) {
+         // the integers of the significand of a real or a double
+         return scale == 0 && type.getPrecision() <= (target.getSqlTypeName() == SqlTypeName.REAL ? 7 : 15);
+      }
+      return SqlTypeUtil.isApproximateNumeric(target)
+            && (type.getSqlTypeName() == SqlTypeName.REAL || target.getSqlTypeName() != SqlTypeName.REAL);
+   }
+}
@@ -0,0 +1,245 @@
+package fax.play.search;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Tuning of the {@link SearchSchema} planning and execution.
+ */
+public class SearchOptions {
+
+   /**
+    * The default {@code index.max_slices_per_scroll}.
+    */
+   public static final int MAX_SLICES = 1_024;
+
+   // the fetching tasks mostly wait for the responses: their threads are not bound to the number of cores
+   private static final Executor SCAN_EXECUTOR = Executors.newCachedThreadPool(task -> {
+      Thread thread = new Thread(task, "search-scan");
+      thread.setDaemon(true);
+      return thread;
+   });
+
+   private int bindJoinBatchSize = 1_000;
+   private double bindJoinMaxOuterRows = 10_000;
+   private int fetchSize = SearchTransport.DEFAULT_FETCH_SIZE;
+   private int prefetchPages = 2;
+   private long prefetchBytes = 64L << 20;
+   private int scanSlices = 1;
+   private final Map<String, Integer> indexScanSlices = new HashMap<>();
+   private String idField;
+   private final Map<String, String> indexIdFields = new HashMap<>();
+   private Executor scanExecutor = SCAN_EXECUTOR;
+   private Duration statisticsTtl = Duration.ZERO;
+   private final Set<String> replicated = new HashSet<>();
+   private Duration replicaRefreshInterval = Duration.ofMinutes(1);
+
+   public static SearchOptions defaults() {
+      return new SearchOptions();
+   }
+
+   /**
+    * @return the number of distinct join keys sent in each {@code terms} lookup of a {@link SearchBindJoin}
+    */
+   public int bindJoinBatchSize() {
+      return bindJoinBatchSize;
+   }
+
+   public SearchOptions bindJoinBatchSize(int bindJoinBatchSize) {
+      if (bindJoinBatchSize < 1 || bindJoinBatchSize > 65_536) {
+         // 65536 is the default index.max_terms_count
+         throw new IllegalArgumentException("The bind join batch size must be in [1, 65536]: " + bindJoinBatchSize);
+      }
+      this.bindJoinBatchSize = bindJoinBatchSize;
+      return this;
+   }
+
+   /**
+    * @return the estimated row count of the outer side up to which a join is planned as a {@link SearchBindJoin},
+    * 0 disables them
+    */
+   public double bindJoinMaxOuterRows() {
+      return bindJoinMaxOuterRows;
+   }
+
+   public SearchOptions bindJoinMaxOuterRows(double bindJoinMaxOuterRows) {
+      this.bindJoinMaxOuterRows = bindJoinMaxOuterRows;
+      return this;
+   }
+
+   /**
+    * @return the number of hits of each page of a scroll, and of the documents of each {@code _mget} request
+    */
+   public int fetchSize() {
+      return fetchSize;
+   }
+
+   public SearchOptions fetchSize(int fetchSize) {
+      if (fetchSize < 1 || fetchSize > SearchTransport.MAX_RESULT_WINDOW) {
+         throw new IllegalArgumentException("The fetch size must be in [1, " + SearchTransport.MAX_RESULT_WINDOW + "]: "
+               + fetchSize);
+      }
+      this.fetchSize = fetchSize;
+      return this;
+   }
+
+   /**
+    * @return the number of pages of a scroll fetched ahead of the rows being consumed, 0 to fetch them on demand
+    */
+   public int prefetchPages() {
+      return prefetchPages;
+   }
+
+   public SearchOptions prefetchPages(int prefetchPages) {
+      if (prefetchPages < 0) {
+         throw new IllegalArgumentException("The prefetched pages cannot be negative: " + prefetchPages);
+      }
+      this.prefetchPages = prefetchPages;
+      return this;
+   }
+
+   /**
+    * @return the size of the responses, in bytes, that a scan can hold ahead of its consumer, by default 64 MiB;
+    *         a single page is fetched ahead even if it exceeds it
+    */
+   public long prefetchBytes() {
+      return prefetchBytes;
+   }
+
+   public SearchOptions prefetchBytes(long prefetchBytes) {
+      if (prefetchBytes < 1) {
+         throw new IllegalArgumentException("The prefetch budget must be positive: " + prefetchBytes);
+      }
+      this.prefetchBytes = prefetchBytes;
+      return this;
+   }
+
+   /**
+    * @return the number of slices scrolled in parallel by the full scans of the index, 1 for a single scroll
+    */
+   public int scanSlices(String index) {
+      return indexScanSlices.getOrDefault(index, scanSlices);
+   }
+
+   /**
+    * Sets the number of slices of the indices without their own, by default 1.
+    * <p>
+    * Only the scans without sort and limit are sliced, the order of their rows is not defined anyway.
+    * More slices than the shards of an index split them further, at the cost of more work on the server.
+    */
+   public SearchOptions scanSlices(int scanSlices) {
+      this.scanSlices = checkSlices(scanSlices);
+      return this;
+   }
+
+   public SearchOptions scanSlices(String index, int scanSlices) {
+      indexScanSlices.put(index, checkSlices(scanSlices));
+      return this;
+   }
+
+   /**
+    * @return the column holding the {@code _id} of the documents of the index, null if none
+    */
+   public String idField(String index) {
+      return indexIdFields.getOrDefault(index, idField);
+   }
+
+   /**
+    * Sets the column holding the {@code _id} of the documents of the indices without their own, by default none,
+    * e.g. {@code id} for the key {@link fax.play.service.SearchService#bulkIndexing(String, Map) bulkIndexing} writes
+    * to both.
+    * <p>
+    * The scans comparing it with a few values are {@code _mget} requests, instead of searches: the column must hold
+    * the {@code _id} of each document, otherwise the lookups miss them.
+    */
+   public SearchOptions defaultIdField(String idField) {
+      this.idField = idField;
+      return this;
+   }
+
+   public SearchOptions idField(String index, String idField) {
+      indexIdFields.put(index, idField);
+      return this;
+   }
+
+   /**
+    * @return the executor fetching the slices and the prefetched pages, by default a shared pool of daemon threads
+    */
+   public Executor scanExecutor() {
+      return scanExecutor;
+   }
+
+   public SearchOptions scanExecutor(Executor scanExecutor) {
+      this.scanExecutor = scanExecutor;
+      return this;
+   }
+
+   /**
+    * @return how long the {@link IndexStatistics statistics} of an index are reused before they are fetched again,
+    *         zero if the planner does not fetch them
+    */
+   public Duration statisticsTtl() {
+      return statisticsTtl;
+   }
+
+   /**
+    * Enables the statistics of the indices, by default disabled: without them the planner guesses the rows of the
+    * scans and the selectivity of their filters.
+    * <p>
+    * They are fetched by the first statement planned on an index, and by the first one after they expired.
+    */
+   public SearchOptions statisticsTtl(Duration statisticsTtl) {
+      if (statisticsTtl.isNegative()) {
+         throw new IllegalArgumentException("The statistics TTL cannot be negative: " + statisticsTtl);
+      }
+      this.statisticsTtl = statisticsTtl;
+      return this;
+   }
+
+   /**
+    * @return whether the documents of the index are held in the heap by an {@link IndexReplica}, for the joins on
+    *         its int columns to be probed locally
+    */
+   public boolean replicated(String index) {
+      return replicated.contains(index);
+   }
+
+   /**
+    * Replicates an index in the heap, by default none: it should be small and rarely change, e.g. a dimension table.
+    */
+   public SearchOptions replicated(String index, boolean replicated) {
+      if (replicated) {
+         this.replicated.add(index);
+      } else {
+         this.replicated.remove(index);
+      }
+      return this;
+   }
+
+   /**
+    * @return how often the replicated indices are checked for changes, by default every minute
+    */
+   public Duration replicaRefreshInterval() {
+      return replicaRefreshInterval;
+   }
+
+   public SearchOptions replicaRefreshInterval(Duration replicaRefreshInterval) {
+      if (replicaRefreshInterval.isNegative() || replicaRefreshInterval.isZero()) {
+         throw new IllegalArgumentException("The replica refresh interval must be positive: " + replicaRefreshInterval);
+      }
+      this.replicaRefreshInterval = replicaRefreshInterval;
+      return this;
+   }
+
+   private static int checkSlices(int slices) {
+      if (slices < 1 || slices > MAX_SLICES) {
+         throw new IllegalArgumentException("The scan slices must be in [1, " + MAX_SLICES + "]: " + slices);
+      }
+      return slices;
+   }
+}
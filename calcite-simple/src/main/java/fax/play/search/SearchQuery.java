@@ -0,0 +1,309 @@
+package fax.play.search;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * What a {@link SearchTableScan} asks to the index: the fields to return, the query, the sort and the paging,
+ * or the aggregation of the matched documents.
+ * <p>
+ * The planner rules build it step by step as they push operators into the scan. It is serialized as a JSON string
+ * constant of the generated code, and the bind parameters of the statement are placeholders in the query
+ * ({@code {"$param": 0}}), so a plan cached by the {@link fax.play.service.PlanCache} can run with any value.
+ *
+ * @param fields  the columns of the scan, in order
+ * @param query   the query DSL, null to match all the documents
+ * @param sort    the sort keys, empty to return the documents in index order
+ * @param offset       the number of sorted rows to skip, null for none
+ * @param fetch        the maximum number of rows, null for all of them
+ * @param aggregation  the aggregation computed by the index on the matched documents, whose rows replace them;
+ *                     null to return the documents
+ */
+public record SearchQuery(List<String> fields, ObjectNode query, List<Sort> sort, Long offset, Long fetch,
+                          Aggregation aggregation) {
+
+   public static final String PARAM = "$param";
+
+   private static final ObjectMapper MAPPER = new ObjectMapper();
+
+   public record Sort(String field, boolean descending, boolean nullsFirst) {
+   }
+
+   /**
+    * The rows of an aggregation are the values of the group fields followed by the values of the metrics.
+    *
+    * @param groups   the fields grouping the documents, empty for a single group of all of them
+    * @param metrics  the values computed for each group
+    */
+   public record Aggregation(List<String> groups, List<Metric> metrics) {
+   }
+
+   /**
+    * @param function  the aggregate function
+    * @param field     the aggregated field, null for {@code count(*)}
+    * @param type      the SQL type of the value
+    */
+   public record Metric(MetricFunction function, String field, SqlTypeName type) {
+   }
+
+   public enum MetricFunction {
+      COUNT, SUM, SUM0, MIN, MAX
+   }
+
+   public static SearchQuery of(List<String> fields) {
+      return new SearchQuery(List.copyOf(fields), null, Collections.emptyList(), null, null, null);
+   }
+
+   public SearchQuery withFields(List<String> fields) {
+      return new SearchQuery(List.copyOf(fields), query, sort, offset, fetch, aggregation);
+   }
+
+   /**
+    * @return the query matching the documents matched by both this query and the filter
+    */
+   public SearchQuery withFilter(ObjectNode filter) {
+      ObjectNode combined;
+      if (query == null) {
+         combined = filter;
+      } else {
+         combined = MAPPER.createObjectNode();
+         ArrayNode clauses = combined.putObject("bool").putArray("filter");
+         clauses.add(query);
+         clauses.add(filter);
+      }
+      return new SearchQuery(fields, combined, sort, offset, fetch, aggregation);
+   }
+
+   public SearchQuery withSort(List<Sort> sort, Long offset, Long fetch) {
+      return new SearchQuery(fields, query, List.copyOf(sort), offset, fetch, aggregation);
+   }
+
+   public SearchQuery withAggregation(Aggregation aggregation) {
+      return new SearchQuery(fields, query, sort, offset, fetch, aggregation);
+   }
+
+   public boolean limited() {
+      return offset != null || fetch != null;
+   }
+
+   /**
+    * @return whether the rows can still be changed by pushing more operators: the documents are neither paged
+    *         nor aggregated
+    */
+   public boolean open() {
+      return !limited() && aggregation == null;
+   }
+
+   /**
+    * @param idField  the column holding the {@code _id} of the documents, null if none
+    * @return the values compared with the id field, if the query only looks documents up by id, otherwise null
+    */
+   public ArrayNode lookup(String idField) {
+      return open() && sort.isEmpty() ? ids(query, idField) : null;
+   }
+
+   /**
+    * @return the values of a {@code term} or {@code terms} query on the id field, otherwise null
+    */
+   static ArrayNode ids(JsonNode query, String idField) {
+      if (idField == null || query == null || query.size() != 1) {
+         return null;
+      }
+      JsonNode term = query.get("term");
+      if (term != null && term.size() == 1 && term.has(idField)) {
+         return MAPPER.createArrayNode().add(term.get(idField));
+      }
+      JsonNode terms = query.get("terms");
+      if (terms != null && terms.size() == 1 && terms.get(idField) instanceof ArrayNode values) {
+         return values;
+      }
+      return null;
+   }
+
+   public static ObjectNode param(int index) {
+      return MAPPER.createObjectNode().put(PARAM, index);
+   }
+
+   /**
+    * @return a {@code terms} query matching any of the values
+    */
+   public static ObjectNode terms(String field, Collection<?> values) {
+      ObjectNode query = MAPPER.createObjectNode();
+      ArrayNode array = query.putObject("terms").putArray(field);
+      values.forEach(value -> array.add(MAPPER.<JsonNode>valueToTree(value)));
+      return query;
+   }
+
+   public String toJson() {
+      ObjectNode json = MAPPER.createObjectNode();
+      ArrayNode fieldsNode = json.putArray("fields");
+      fields.forEach(fieldsNode::add);
+      if (query != null) {
+         json.set("query", query);
+      }
+      if (!sort.isEmpty()) {
+         ArrayNode sortNode = json.putArray("sort");
+         for (Sort key : sort) {
+            sortNode.addObject()
+                  .put("field", key.field())
+                  .put("descending", key.descending())
+                  .put("nullsFirst", key.nullsFirst());
+         }
+      }
+      if (offset != null) {
+         json.put("offset", offset);
+      }
+      if (fetch != null) {
+         json.put("fetch", fetch);
+      }
+      if (aggregation != null) {
+         ObjectNode aggregationNode = json.putObject("aggregation");
+         ArrayNode groupsNode = aggregationNode.putArray("groups");
+         aggregation.groups().forEach(groupsNode::add);
+         ArrayNode metricsNode = aggregationNode.putArray("metrics");
+         for (Metric metric : aggregation.metrics()) {
+            metricsNode.addObject()
+                  .put("function", metric.function().name())
+                  .put("field", metric.field())
+                  .put("type", metric.type().name());
+         }
+      }
+      return json.toString();
+   }
+
+   public static SearchQuery parse(String json) {
+      JsonNode node;
+      try {
+         node = MAPPER.readTree(json);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      List<String> fields = new ArrayList<>();
+      node.path("fields").forEach(field -> fields.add(field.asText()));
+      List<Sort> sort = new ArrayList<>();
+      node.path("sort").forEach(key -> sort.add(new Sort(key.path("field").asText(),
+            key.path("descending").asBoolean(), key.path("nullsFirst").asBoolean())));
+      Aggregation aggregation = null;
+      if (node.has("aggregation")) {
+         List<String> groups = new ArrayList<>();
+         node.path("aggregation").path("groups").forEach(group -> groups.add(group.asText()));
+         List<Metric> metrics = new ArrayList<>();
+         node.path("aggregation").path("metrics").forEach(metric -> metrics.add(new Metric(
+               MetricFunction.valueOf(metric.path("function").asText()),
+               metric.path("field").isNull() ? null : metric.path("field").asText(),
+               SqlTypeName.valueOf(metric.path("type").asText()))));
+         aggregation = new Aggregation(groups, metrics);
+      }
+      return new SearchQuery(fields, (ObjectNode) node.get("query"), sort,
+            node.has("offset") ? node.get("offset").asLong() : null,
+            node.has("fetch") ? node.get("fetch").asLong() : null,
+            aggregation);
+   }
+
+   /**
+    * @return the body of the search request, with the parameters bound to the values of the statement;
+    *         the fields to fetch are added by the {@link SearchEnumerator}, which knows their mapping
+    */
+   public ObjectNode request(DataContext root) {
+      ObjectNode body = MAPPER.createObjectNode();
+      if (query == null) {
+         body.putObject("query").putObject("match_all");
+      } else {
+         body.set("query", bind(query, root));
+      }
+      if (!sort.isEmpty()) {
+         ArrayNode sortNode = body.putArray("sort");
+         for (Sort key : sort) {
+            sortNode.addObject().putObject(key.field())
+                  .put("order", key.descending() ? "desc" : "asc")
+                  .put("missing", key.nullsFirst() ? "_first" : "_last");
+         }
+      }
+      body.put("track_total_hits", false);
+      return body;
+   }
+
+   /**
+    * Binds the parameters of the clause. In SQL a comparison with a null matches no row, while the index ignores a
+    * null bound of a {@code range} and rejects a null {@code term}: such a clause is bound to {@code match_none},
+    * and so is the {@code bool} negating it for {@code <>}. The nulls of a {@code terms} list are dropped.
+    */
+   private static JsonNode bind(JsonNode node, DataContext root) {
+      if (node.isObject()) {
+         if (node.size() == 1 && node.has(PARAM)) {
+            return MAPPER.valueToTree(root.get("?" + node.get(PARAM).asInt()));
+         }
+         if (node.size() == 1 && (node.has("term") || node.has("range")) && boundToNull(node, root)) {
+            return matchNone();
+         }
+         if (node.size() == 1 && node.path("bool").has("must_not")) {
+            for (JsonNode clause : node.path("bool").path("must_not")) {
+               if (boundToNull(clause, root)) {
+                  return matchNone();
+               }
+            }
+         }
+         ObjectNode copy = MAPPER.createObjectNode();
+         Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+         while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            copy.set(field.getKey(), bind(field.getValue(), root));
+         }
+         if (copy.size() == 1 && copy.get("terms") instanceof ObjectNode terms && terms.size() == 1
+               && terms.elements().next() instanceof ArrayNode values) {
+            ArrayNode nonNull = MAPPER.createArrayNode();
+            values.forEach(value -> {
+               if (!value.isNull()) {
+                  nonNull.add(value);
+               }
+            });
+            if (nonNull.isEmpty()) {
+               return matchNone();
+            }
+            terms.set(terms.fieldNames().next(), nonNull);
+         }
+         return copy;
+      }
+      if (node.isArray()) {
+         ArrayNode copy = MAPPER.createArrayNode();
+         node.forEach(element -> copy.add(bind(element, root)));
+         return copy;
+      }
+      return node;
+   }
+
+   /**
+    * @return whether a parameter of the clause is bound to null
+    */
+   private static boolean boundToNull(JsonNode clause, DataContext root) {
+      if (clause.isObject() && clause.size() == 1 && clause.has(PARAM)) {
+         return root.get("?" + clause.get(PARAM).asInt()) == null;
+      }
+      for (JsonNode child : clause) {
+         if (boundToNull(child, root)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static ObjectNode matchNone() {
+      ObjectNode query = MAPPER.createObjectNode();
+      query.putObject("match_none");
+      return query;
+   }
+}
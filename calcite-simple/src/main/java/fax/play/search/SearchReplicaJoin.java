@@ -0,0 +1,109 @@
+package fax.play.search;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+
+/**
+ * Inner or left equi-join of any input with a {@link SearchOptions#replicated(String) replicated} index, probing
+ * the {@link IndexReplica} of the index with the join key of each input row: no request is sent to the index.
+ * <p>
+ * As for {@link SearchBindJoin}, the scan of the index is not an input of the relation. Each input row is joined with
+ * every document whose key matches, or with nulls if there is none for a left join; the documents are the ones of the
+ * {@link IndexReplica.Snapshot snapshot} current when the join starts, as searchable at its last refresh.
+ */
+public class SearchReplicaJoin extends SingleRel implements EnumerableRel {
+
+   private static final Method REPLICA_JOIN = Types.lookupMethod(SearchTable.class, "replicaJoin",
+         String.class, Enumerable.class, int.class, int.class, boolean.class);
+
+   private final SearchTableScan replica;
+   private final int leftKey;
+   private final int rightKey;
+   private final JoinRelType joinType;
+   private final RelDataType joinRowType;
+
+   SearchReplicaJoin(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, SearchTableScan replica,
+                     int leftKey, int rightKey, JoinRelType joinType, RelDataType joinRowType) {
+      super(cluster, traitSet, input);
+      this.replica = replica;
+      this.leftKey = leftKey;
+      this.rightKey = rightKey;
+      this.joinType = joinType;
+      this.joinRowType = joinRowType;
+   }
+
+   public SearchTableScan replica() {
+      return replica;
+   }
+
+   @Override
+   public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+      return new SearchReplicaJoin(getCluster(), traitSet, sole(inputs), replica, leftKey, rightKey, joinType,
+            joinRowType);
+   }
+
+   @Override
+   protected RelDataType deriveRowType() {
+      return joinRowType;
+   }
+
+   @Override
+   public RelWriter explainTerms(RelWriter pw) {
+      return super.explainTerms(pw)
+            .item("table", replica.getTable().getQualifiedName())
+            .item("fields", replica.query().fields())
+            .item("leftKey", leftKey)
+            .item("rightKey", rightKey)
+            .item("joinType", joinType.lowerName);
+   }
+
+   @Override
+   public double estimateRowCount(RelMetadataQuery mq) {
+      return mq.getRowCount(getInput());
+   }
+
+   @Override
+   public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+      double rows = estimateRowCount(mq);
+      return planner.getCostFactory().makeCost(rows, rows, 0);
+   }
+
+   @Override
+   public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+      BlockBuilder builder = new BlockBuilder();
+      Result input = implementor.visitChild(this, 0, (EnumerableRel) getInput(), Prefer.ARRAY);
+      // arrays, even for a single field: the target format is not optimized to a scalar
+      Expression inputRows = input.physType.convertTo(builder.append("input", input.block), JavaRowFormat.ARRAY);
+
+      Expression table = replica.getTable().getExpression(SearchTable.class);
+      Expression enumerable = Expressions.call(table, REPLICA_JOIN,
+            Expressions.constant(replica.query().toJson()), inputRows,
+            Expressions.constant(leftKey), Expressions.constant(rightKey),
+            Expressions.constant(joinType == JoinRelType.LEFT));
+      builder.add(Expressions.return_(null, builder.append("enumerable", enumerable)));
+
+      PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY);
+      return implementor.result(physType, builder.toBlock());
+   }
+}
@@ -0,0 +1,495 @@
+package fax.play.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableRules;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.plan.RelRule.OperandTransform;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.volcano.RelSubset;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalJoin;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.logical.LogicalSort;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.tools.RelBuilderFactory;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.mapping.Mapping;
+import org.apache.calcite.util.mapping.MappingType;
+import org.apache.calcite.util.mapping.Mappings;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Planner rules merging the operators on top of a {@link SearchTableScan} into its {@link SearchQuery}.
+ */
+public final class SearchRules {
+
+   public static final RelOptRule FILTER = new RuleConfig("SearchFilterRule",
+         b0 -> b0.operand(LogicalFilter.class).oneInput(b1 -> b1.operand(SearchTableScan.class)
+               .predicate(scan -> scan.query().open()).noInputs()),
+         FilterRule::new).toRule();
+
+   public static final RelOptRule PROJECT = new RuleConfig("SearchProjectRule",
+         b0 -> b0.operand(LogicalProject.class).oneInput(b1 -> b1.operand(SearchTableScan.class)
+               .predicate(scan -> scan.query().aggregation() == null).noInputs()),
+         ProjectRule::new).toRule();
+
+   public static final RelOptRule SORT = new RuleConfig("SearchSortRule",
+         b0 -> b0.operand(LogicalSort.class).oneInput(b1 -> b1.operand(SearchTableScan.class)
+               .predicate(scan -> scan.query().open() && scan.query().sort().isEmpty()).noInputs()),
+         SortRule::new).toRule();
+
+   public static final RelOptRule BIND_JOIN = new RuleConfig("SearchBindJoinRule",
+         b0 -> b0.operand(LogicalJoin.class).inputs(
+               b1 -> b1.operand(RelNode.class).anyInputs(),
+               b2 -> b2.operand(SearchTableScan.class)
+                     .predicate(scan -> scan.query().open() && !replicated(scan)).noInputs()),
+         BindJoinRule::new).toRule();
+
+   public static final RelOptRule REPLICA_JOIN = new RuleConfig("SearchReplicaJoinRule",
+         b0 -> b0.operand(LogicalJoin.class).inputs(
+               b1 -> b1.operand(RelNode.class).anyInputs(),
+               b2 -> b2.operand(SearchTableScan.class).predicate(SearchRules::replicated).noInputs()),
+         ReplicaJoinRule::new).toRule();
+
+   public static final RelOptRule AGGREGATE = new RuleConfig("SearchAggregateRule",
+         b0 -> b0.operand(LogicalAggregate.class).oneInput(b1 -> b1.operand(SearchTableScan.class)
+               .predicate(scan -> scan.query().open()).noInputs()),
+         AggregateRule::new).toRule();
+
+   /**
+    * Converts the logical scans, in which the other rules merge the operators, to enumerable ones.
+    */
+   public static final RelOptRule ENUMERABLE = ConverterRule.Config.INSTANCE
+         .withConversion(SearchTableScan.class, Convention.NONE, EnumerableConvention.INSTANCE, "SearchTableScanRule")
+         .withRuleFactory(EnumerableRule::new)
+         .toRule();
+
+   /**
+    * The rules of the scan, and the Top-N operator of the sorts that are not pushed, keeping just the
+    * {@code offset + fetch} smallest rows instead of sorting all of them.
+    */
+   public static final List<RelOptRule> RULES = List.of(FILTER, PROJECT, SORT, BIND_JOIN, REPLICA_JOIN, AGGREGATE,
+         ENUMERABLE, EnumerableRules.ENUMERABLE_LIMIT_SORT_RULE);
+
+   private SearchRules() {
+   }
+
+   /**
+    * Pushes the conjunctions of the filter that can be translated, the others stay in a filter on top of the scan.
+    */
+   static class FilterRule extends RelRule<RuleConfig> {
+
+      FilterRule(RuleConfig config) {
+         super(config);
+      }
+
+      @Override
+      public void onMatch(RelOptRuleCall call) {
+         LogicalFilter filter = call.rel(0);
+         SearchTableScan scan = call.rel(1);
+         RexBuilder rexBuilder = filter.getCluster().getRexBuilder();
+         RexNode condition = RexUtil.expandSearch(rexBuilder, null, filter.getCondition());
+
+         SearchFilterTranslator translator = new SearchFilterTranslator(scan);
+         List<ObjectNode> queries = new ArrayList<>();
+         List<RexNode> pushed = new ArrayList<>();
+         List<RexNode> remaining = new ArrayList<>();
+         for (RexNode conjunction : RelOptUtil.conjunctions(condition)) {
+            ObjectNode query = translator.translate(conjunction);
+            if (query == null) {
+               remaining.add(conjunction);
+            } else {
+               queries.add(query);
+               pushed.add(conjunction);
+            }
+         }
+         if (queries.isEmpty()) {
+            return;
+         }
+
+         ObjectNode query = queries.get(0);
+         if (queries.size() > 1) {
+            query = JsonNodeFactory.instance.objectNode();
+            query.putObject("bool").putArray("filter").addAll(queries);
+         }
+         // the pushed conditions reference the columns of the table, so that they outlive the projections
+         List<String> names = scan.query().fields();
+         List<String> columns = scan.searchTable().fields().stream().map(SearchField::name).toList();
+         Mappings.TargetMapping mapping = Mappings.target(i -> columns.indexOf(names.get(i)), names.size(),
+               columns.size());
+         pushed.replaceAll(node -> RexUtil.apply(mapping, node));
+         if (scan.condition() != null) {
+            pushed.add(scan.condition());
+         }
+         SearchTableScan result = scan.withQuery(scan.query().withFilter(query),
+               RexUtil.composeConjunction(rexBuilder, pushed));
+         call.transformTo(call.builder().push(result).filter(remaining).build());
+      }
+   }
+
+   /**
+    * Narrows the fields of the scan to the ones the projection uses,
+    * a projection of plain columns is entirely absorbed by the scan.
+    */
+   static class ProjectRule extends RelRule<RuleConfig> {
+
+      ProjectRule(RuleConfig config) {
+         super(config);
+      }
+
+      @Override
+      public void onMatch(RelOptRuleCall call) {
+         LogicalProject project = call.rel(0);
+         SearchTableScan scan = call.rel(1);
+         List<String> fields = scan.query().fields();
+
+         List<Integer> selected = columns(project.getProjects());
+         if (selected == null) {
+            ImmutableBitSet used = RelOptUtil.InputFinder.bits(project.getProjects(), null);
+            // e.g. count(*), any field will do
+            selected = used.isEmpty() ? List.of(0) : used.asList();
+            if (selected.size() == fields.size()) {
+               return;
+            }
+         } else if (selected.equals(ImmutableBitSet.range(fields.size()).asList())) {
+            return;
+         }
+
+         Mapping mapping = Mappings.create(MappingType.INVERSE_SURJECTION, fields.size(), selected.size());
+         List<String> names = new ArrayList<>(selected.size());
+         for (int target = 0; target < selected.size(); target++) {
+            mapping.set(selected.get(target), target);
+            names.add(fields.get(selected.get(target)));
+         }
+         SearchTableScan result = scan.withQuery(scan.query().withFields(names), scan.condition());
+
+         RelBuilder builder = call.builder().push(result)
+               .project(RexUtil.apply(mapping, project.getProjects()), project.getRowType().getFieldNames());
+         call.transformTo(builder.build());
+      }
+
+      /**
+       * @return the positions of the columns if the projection only references distinct columns, otherwise null
+       */
+      private static List<Integer> columns(List<RexNode> projects) {
+         List<Integer> columns = new ArrayList<>(projects.size());
+         for (RexNode project : projects) {
+            if (!(project instanceof RexInputRef) || columns.contains(((RexInputRef) project).getIndex())) {
+               return null;
+            }
+            columns.add(((RexInputRef) project).getIndex());
+         }
+         return columns;
+      }
+   }
+
+   /**
+    * Pushes the sort keys, if the index can sort on all of them, and a literal offset and fetch.
+    */
+   static class SortRule extends RelRule<RuleConfig> {
+
+      SortRule(RuleConfig config) {
+         super(config);
+      }
+
+      @Override
+      public void onMatch(RelOptRuleCall call) {
+         LogicalSort sort = call.rel(0);
+         SearchTableScan scan = call.rel(1);
+         if (!literal(sort.offset) || !literal(sort.fetch)) {
+            return;
+         }
+
+         List<SearchQuery.Sort> keys = new ArrayList<>();
+         for (RelFieldCollation collation : sort.getCollation().getFieldCollations()) {
+            SearchField field = scan.field(collation.getFieldIndex());
+            if (!field.sortable()) {
+               return;
+            }
+            RelFieldCollation.NullDirection nullDirection = collation.nullDirection == RelFieldCollation.NullDirection.UNSPECIFIED
+                  ? collation.getDirection().defaultNullDirection()
+                  : collation.nullDirection;
+            keys.add(new SearchQuery.Sort(field.name(), collation.getDirection().isDescending(),
+                  nullDirection == RelFieldCollation.NullDirection.FIRST));
+         }
+
+         SearchQuery query = scan.query().withSort(keys, longValue(sort.offset), longValue(sort.fetch));
+         call.transformTo(scan.withQuery(query, scan.condition()));
+      }
+
+      private static boolean literal(RexNode node) {
+         return node == null || node instanceof RexLiteral;
+      }
+
+      private static Long longValue(RexNode node) {
+         return node == null ? null : ((RexLiteral) node).getValueAs(Long.class);
+      }
+   }
+
+   /**
+    * Plans an inner join on a single key of a small input with an index as a {@link SearchBindJoin}.
+    */
+   static class BindJoinRule extends RelRule<RuleConfig> {
+
+      BindJoinRule(RuleConfig config) {
+         super(config);
+      }
+
+      @Override
+      public void onMatch(RelOptRuleCall call) {
+         LogicalJoin join = call.rel(0);
+         SearchTableScan scan = call.rel(2);
+         if (join.getJoinType() != JoinRelType.INNER) {
+            return;
+         }
+         JoinInfo info = join.analyzeCondition();
+         if (!info.isEqui() || info.leftKeys.size() != 1) {
+            return;
+         }
+         RelNode left = join.getLeft();
+         if (outerRows(left, call.getMetadataQuery()) > scan.searchTable().options().bindJoinMaxOuterRows()) {
+            return;
+         }
+
+         int leftKey = info.leftKeys.get(0);
+         int rightKey = info.rightKeys.get(0);
+         SearchField field = scan.field(rightKey);
+         // the keys are matched with the equality of their Java values, which must be of the same class
+         if (!field.filterable()
+               || left.getRowType().getFieldList().get(leftKey).getType().getSqlTypeName() != field.sqlType()) {
+            return;
+         }
+
+         RelTraitSet traitSet = join.getCluster().traitSetOf(EnumerableConvention.INSTANCE);
+         RelNode input = convert(left, left.getTraitSet().replace(EnumerableConvention.INSTANCE));
+         call.transformTo(new SearchBindJoin(join.getCluster(), traitSet, input, scan, leftKey, rightKey,
+               join.getCondition(), join.getRowType()));
+      }
+
+      /**
+       * Estimates the rows of the outer side assuming, as {@link SearchBindJoin} does, that the inner equi-joins
+       * are key lookups keeping the size of their smaller side, instead of the product of the sides times
+       * a selectivity: otherwise the estimate of a chain of joins soon exceeds any threshold.
+       */
+      private static double outerRows(RelNode rel, RelMetadataQuery mq) {
+         RelNode node = rel instanceof RelSubset ? ((RelSubset) rel).getOriginal() : rel;
+         if (node instanceof Project) {
+            return outerRows(((Project) node).getInput(), mq);
+         }
+         if (node instanceof Filter) {
+            Filter filter = (Filter) node;
+            // the selectivity of a subset is a guess, the one of a scan may come from the statistics of the index
+            RelNode input = filter.getInput() instanceof RelSubset
+                  ? ((RelSubset) filter.getInput()).getOriginal() : filter.getInput();
+            Double selectivity = mq.getSelectivity(input, filter.getCondition());
+            return outerRows(input, mq)
+                  * (selectivity == null ? RelMdUtil.guessSelectivity(filter.getCondition()) : selectivity);
+         }
+         if (node instanceof Join && ((Join) node).getJoinType() == JoinRelType.INNER
+               && ((Join) node).analyzeCondition().isEqui()) {
+            return Math.min(outerRows(((Join) node).getLeft(), mq), outerRows(((Join) node).getRight(), mq));
+         }
+         Double rows = mq.getRowCount(node);
+         return rows == null ? Double.MAX_VALUE : rows;
+      }
+   }
+
+   /**
+    * @return whether the scan reads all the documents of a replicated index, which its replica can replace
+    */
+   private static boolean replicated(SearchTableScan scan) {
+      SearchTable table = scan.searchTable();
+      return table.options().replicated(table.index()) && scan.query().open() && scan.query().query() == null;
+   }
+
+   /**
+    * Plans an inner or left join on a single int key with a replicated index as a {@link SearchReplicaJoin}.
+    */
+   static class ReplicaJoinRule extends RelRule<RuleConfig> {
+
+      private static final Set<SqlTypeName> KEY_TYPES = Set.of(SqlTypeName.TINYINT, SqlTypeName.SMALLINT,
+            SqlTypeName.INTEGER);
+
+      ReplicaJoinRule(RuleConfig config) {
+         super(config);
+      }
+
+      @Override
+      public void onMatch(RelOptRuleCall call) {
+         LogicalJoin join = call.rel(0);
+         SearchTableScan scan = call.rel(2);
+         if (join.getJoinType() != JoinRelType.INNER && join.getJoinType() != JoinRelType.LEFT) {
+            return;
+         }
+         JoinInfo info = join.analyzeCondition();
+         if (!info.isEqui() || info.leftKeys.size() != 1) {
+            return;
+         }
+         RelNode left = join.getLeft();
+         int leftKey = info.leftKeys.get(0);
+         int rightKey = info.rightKeys.get(0);
+         SqlTypeName keyType = scan.field(rightKey).sqlType();
+         // the replica indexes the int columns, probed with the int value of the input keys
+         if (!KEY_TYPES.contains(keyType)
+               || !KEY_TYPES.contains(left.getRowType().getFieldList().get(leftKey).getType().getSqlTypeName())) {
+            return;
+         }
+
+         RelTraitSet traitSet = join.getCluster().traitSetOf(EnumerableConvention.INSTANCE);
+         RelNode input = convert(left, left.getTraitSet().replace(EnumerableConvention.INSTANCE));
+         call.transformTo(new SearchReplicaJoin(join.getCluster(), traitSet, input, scan, leftKey, rightKey,
+               join.getJoinType(), join.getRowType()));
+      }
+   }
+
+   /**
+    * Pushes a grouping on fields the index can aggregate with {@code count}, {@code sum}, {@code min} and
+    * {@code max} metrics, so that only the aggregated rows are returned.
+    */
+   static class AggregateRule extends RelRule<RuleConfig> {
+
+      AggregateRule(RuleConfig config) {
+         super(config);
+      }
+
+      @Override
+      public void onMatch(RelOptRuleCall call) {
+         LogicalAggregate aggregate = call.rel(0);
+         SearchTableScan scan = call.rel(1);
+         if (aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+            return;
+         }
+
+         List<String> groups = new ArrayList<>();
+         for (int column : aggregate.getGroupSet()) {
+            SearchField field = scan.field(column);
+            // the keys of the date buckets are epoch milliseconds, not the formatted values of the column
+            if (!field.sortable() || field.type().startsWith("date")) {
+               return;
+            }
+            groups.add(field.name());
+         }
+         List<SearchQuery.Metric> metrics = new ArrayList<>();
+         for (AggregateCall aggregateCall : aggregate.getAggCallList()) {
+            SearchQuery.Metric metric = metric(scan, aggregateCall);
+            if (metric == null) {
+               return;
+            }
+            metrics.add(metric);
+         }
+
+         // the order of the documents does not matter to their aggregation
+         SearchQuery query = scan.query().withSort(List.of(), null, null)
+               .withAggregation(new SearchQuery.Aggregation(groups, metrics));
+         RelBuilder builder = call.builder().push(scan.withQuery(query, scan.condition()))
+               .convert(aggregate.getRowType(), false);
+         call.transformTo(builder.build());
+      }
+
+      /**
+       * @return the metric computing the call, null if the index cannot compute it
+       */
+      private static SearchQuery.Metric metric(SearchTableScan scan, AggregateCall call) {
+         if (call.isDistinct() || call.hasFilter() || !call.getCollation().getFieldCollations().isEmpty()
+               || call.getArgList().size() > 1) {
+            return null;
+         }
+         SearchQuery.MetricFunction function = switch (call.getAggregation().getKind()) {
+            case COUNT -> SearchQuery.MetricFunction.COUNT;
+            case SUM -> SearchQuery.MetricFunction.SUM;
+            case SUM0 -> SearchQuery.MetricFunction.SUM0;
+            case MIN -> SearchQuery.MetricFunction.MIN;
+            case MAX -> SearchQuery.MetricFunction.MAX;
+            default -> null;
+         };
+         if (function == null) {
+            return null;
+         }
+         SqlTypeName type = call.getType().getSqlTypeName();
+         if (call.getArgList().isEmpty()) {
+            return function == SearchQuery.MetricFunction.COUNT ? new SearchQuery.Metric(function, null, type) : null;
+         }
+         SearchField field = scan.field(call.getArgList().get(0));
+         // the index aggregates the doc values, and only the numeric ones for the other metrics
+         if (!field.sortable() || function != SearchQuery.MetricFunction.COUNT
+               && !SqlTypeName.NUMERIC_TYPES.contains(field.sqlType())) {
+            return null;
+         }
+         return new SearchQuery.Metric(function, field.name(), type);
+      }
+   }
+
+   static class EnumerableRule extends ConverterRule {
+
+      EnumerableRule(ConverterRule.Config config) {
+         super(config);
+      }
+
+      @Override
+      public RelNode convert(RelNode rel) {
+         return rel.copy(rel.getTraitSet().replace(EnumerableConvention.INSTANCE), List.of());
+      }
+   }
+
+   /**
+    * The configuration of the rules, written by hand instead of generated by the immutables annotation processor.
+    */
+   record RuleConfig(String description, RelBuilderFactory relBuilderFactory, OperandTransform operandSupplier,
+                     Function<RuleConfig, RelOptRule> factory) implements RelRule.Config {
+
+      RuleConfig(String description, OperandTransform operandSupplier, Function<RuleConfig, RelOptRule> factory) {
+         this(description, RelFactories.LOGICAL_BUILDER, operandSupplier, factory);
+      }
+
+      @Override
+      public RelOptRule toRule() {
+         return factory.apply(this);
+      }
+
+      @Override
+      public RuleConfig withRelBuilderFactory(RelBuilderFactory relBuilderFactory) {
+         return new RuleConfig(description, relBuilderFactory, operandSupplier, factory);
+      }
+
+      @Override
+      public RuleConfig withDescription(String description) {
+         return new RuleConfig(description, relBuilderFactory, operandSupplier, factory);
+      }
+
+      @Override
+      public RuleConfig withOperandSupplier(OperandTransform operandSupplier) {
+         return new RuleConfig(description, relBuilderFactory, operandSupplier, factory);
+      }
+   }
+}
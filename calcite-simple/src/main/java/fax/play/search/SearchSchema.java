@@ -0,0 +1,97 @@
+package fax.play.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.schema.impl.AbstractSchema;
+import org.elasticsearch.client.RestClient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Exposes each index as a {@link SearchTable} whose columns are the properties of its mapping,
+ * i.e. the same properties passed to {@link fax.play.service.SearchService#createIndex}.
+ * <p>
+ * Unlike {@link org.apache.calcite.adapter.elasticsearch.ElasticsearchSchema} there is no {@code _MAP} column to cast,
+ * so the planner sees typed columns and can push filters, projections and sorts down to the index.
+ * The mappings are fetched with a single request, the first time the tables are listed.
+ */
+public class SearchSchema extends AbstractSchema {
+
+   private final SearchTransport transport;
+   private final SearchOptions options;
+   private volatile Map<String, Table> tableMap;
+
+   public SearchSchema(RestClient restClient, ObjectMapper objectMapper) {
+      this(new SearchTransport(restClient, objectMapper), SearchOptions.defaults());
+   }
+
+   public SearchSchema(SearchTransport transport, SearchOptions options) {
+      this.transport = transport;
+      this.options = options;
+   }
+
+   public SearchTransport transport() {
+      return transport;
+   }
+
+   public SearchOptions options() {
+      return options;
+   }
+
+   @Override
+   protected Map<String, Table> getTableMap() {
+      Map<String, Table> result = tableMap;
+      if (result == null) {
+         synchronized (this) {
+            result = tableMap;
+            if (result == null) {
+               tableMap = result = createTables(transport.mappings());
+            }
+         }
+      }
+      return result;
+   }
+
+   private Map<String, Table> createTables(JsonNode mappings) {
+      Map<String, Table> tables = new TreeMap<>();
+      Iterator<Map.Entry<String, JsonNode>> indices = mappings.fields();
+      while (indices.hasNext()) {
+         Map.Entry<String, JsonNode> index = indices.next();
+         if (index.getKey().startsWith(".")) {
+            // system indices
+            continue;
+         }
+         List<SearchField> fields = new ArrayList<>();
+         addFields(fields, "", index.getValue().path("mappings").path("properties"));
+         if (!fields.isEmpty()) {
+            tables.put(index.getKey(), new SearchTable(this, index.getKey(), fields));
+         }
+      }
+      return Collections.unmodifiableMap(tables);
+   }
+
+   private static void addFields(List<SearchField> fields, String prefix, JsonNode properties) {
+      Iterator<Map.Entry<String, JsonNode>> iterator = properties.fields();
+      while (iterator.hasNext()) {
+         Map.Entry<String, JsonNode> property = iterator.next();
+         String name = prefix + property.getKey();
+         JsonNode definition = property.getValue();
+         if (!definition.has("type") && definition.has("properties")) {
+            // object fields are flattened in dotted columns
+            addFields(fields, name + ".", definition.get("properties"));
+            continue;
+         }
+         SearchField field = SearchField.of(name, definition);
+         if (field != null) {
+            fields.add(field);
+         }
+      }
+   }
+}
@@ -0,0 +1,72 @@
+package fax.play.search;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.calcite.schema.Schema;
+import org.apache.calcite.schema.SchemaFactory;
+import org.apache.calcite.schema.SchemaPlus;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fax.play.service.SearchService;
+
+/**
+ * Creates a {@link SearchSchema} from a model file, e.g.
+ * <pre>
+ * {
+ *    "type": "custom",
+ *    "name": "typed",
+ *    "factory": "fax.play.search.SearchSchemaFactory",
+ *    "operand": {
+ *       "host": "http://localhost:9200", "username": "admin", "password": "admin",
+ *       "bindJoinBatchSize": 1000, "scanSlices": 4
+ *    }
+ * }
+ * </pre>
+ * The REST client is owned by the schema and lives as long as the model.
+ */
+public class SearchSchemaFactory implements SchemaFactory {
+
+   @Override
+   public Schema create(SchemaPlus parentSchema, String name, Map<String, Object> operand) {
+      String host = (String) operand.get("host");
+      if (host == null) {
+         throw new IllegalArgumentException("The operand 'host' is required by the schema " + name);
+      }
+      SearchService searchService = new SearchService((String) operand.get("username"), (String) operand.get("password"), host);
+      SearchOptions options = SearchOptions.defaults();
+      if (operand.get("bindJoinBatchSize") != null) {
+         options.bindJoinBatchSize(((Number) operand.get("bindJoinBatchSize")).intValue());
+      }
+      if (operand.get("bindJoinMaxOuterRows") != null) {
+         options.bindJoinMaxOuterRows(((Number) operand.get("bindJoinMaxOuterRows")).doubleValue());
+      }
+      if (operand.get("fetchSize") != null) {
+         options.fetchSize(((Number) operand.get("fetchSize")).intValue());
+      }
+      if (operand.get("prefetchPages") != null) {
+         options.prefetchPages(((Number) operand.get("prefetchPages")).intValue());
+      }
+      if (operand.get("prefetchBytes") != null) {
+         options.prefetchBytes(((Number) operand.get("prefetchBytes")).longValue());
+      }
+      if (operand.get("scanSlices") != null) {
+         options.scanSlices(((Number) operand.get("scanSlices")).intValue());
+      }
+      if (operand.get("statisticsTtl") != null) {
+         // an ISO-8601 duration, e.g. "PT10M"
+         options.statisticsTtl(Duration.parse((String) operand.get("statisticsTtl")));
+      }
+      if (operand.get("replicated") != null) {
+         for (Object index : (List<?>) operand.get("replicated")) {
+            options.replicated((String) index, true);
+         }
+      }
+      if (operand.get("replicaRefreshInterval") != null) {
+         options.replicaRefreshInterval(Duration.parse((String) operand.get("replicaRefreshInterval")));
+      }
+      return new SearchSchema(new SearchTransport(searchService.getRestClient(), new ObjectMapper()), options);
+   }
+}
@@ -0,0 +1,236 @@
+package fax.play.search;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.java.AbstractQueryableTable;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.linq4j.Queryable;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.metadata.BuiltInMetadata;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.TranslatableTable;
+import org.apache.calcite.schema.impl.AbstractTableQueryable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of a {@link SearchSchema}, with a typed column for each field of its mapping.
+ * <p>
+ * It is translated to a {@link SearchTableScan}, and the planner rules of the scan push the filters, projections,
+ * sorts and aggregations into the {@link SearchQuery} that {@link #query(DataContext, String)} executes at runtime,
+ * fetching the pages of the full scans ahead and scrolling the {@link SearchOptions#scanSlices(String) slices}
+ * of the index in parallel.
+ * <p>
+ * When the {@link SearchOptions#statisticsTtl() statistics} are enabled, the planner estimates the rows of the scans,
+ * the selectivity of their filters and the distinct values of their columns from the {@link IndexStatistics}.
+ */
+public class SearchTable extends AbstractQueryableTable implements TranslatableTable {
+
+   private static final Logger LOG = LoggerFactory.getLogger(SearchTable.class);
+
+   private final SearchTransport transport;
+   private final SearchOptions options;
+   private final String index;
+   private final Map<String, SearchField> fields = new LinkedHashMap<>();
+   private IndexStatistics statistics;
+   private IndexReplica replica;
+
+   SearchTable(SearchSchema schema, String index, List<SearchField> fields) {
+      super(Object[].class);
+      this.transport = schema.transport();
+      this.options = schema.options();
+      this.index = index;
+      fields.forEach(field -> this.fields.put(field.name(), field));
+   }
+
+   public String index() {
+      return index;
+   }
+
+   public SearchTransport transport() {
+      return transport;
+   }
+
+   public SearchOptions options() {
+      return options;
+   }
+
+   public List<SearchField> fields() {
+      return List.copyOf(fields.values());
+   }
+
+   public SearchField field(String name) {
+      return fields.get(name);
+   }
+
+   /**
+    * @return the statistics of the index, fetched again once they expired; null if they are disabled
+    *         or have never been fetched successfully
+    */
+   synchronized IndexStatistics statistics() {
+      Duration ttl = options.statisticsTtl();
+      if (ttl.isZero()) {
+         return null;
+      }
+      if (statistics == null || statistics.expired(ttl)) {
+         try {
+            statistics = IndexStatistics.fetch(transport, index, fields());
+         } catch (RuntimeException e) {
+            // planning goes on with the previous statistics, or with the guesses
+            LOG.warn("Fetching the statistics of {} failed", index, e);
+         }
+      }
+      return statistics;
+   }
+
+   /**
+    * @return the documents of the index held in the heap, null if it is not {@link SearchOptions#replicated(String)
+    *         replicated}
+    */
+   synchronized IndexReplica replica() {
+      if (replica == null && options.replicated(index)) {
+         replica = new IndexReplica(this);
+      }
+      return replica;
+   }
+
+   @Override
+   public Statistic getStatistic() {
+      IndexStatistics statistics = statistics();
+      // no key: the columns of a scan are not the ones of the table once the projections are pushed
+      return statistics == null ? Statistics.UNKNOWN : Statistics.of(statistics.documents(), List.of());
+   }
+
+   @Override
+   public <C> C unwrap(Class<C> aClass) {
+      if (statistics() != null) {
+         // the metadata of the table scans the planner asks the tables for
+         if (aClass == BuiltInMetadata.Selectivity.Handler.class) {
+            BuiltInMetadata.Selectivity.Handler handler = (rel, mq, predicate) ->
+                  ((SearchTableScan) rel).selectivity(predicate);
+            return aClass.cast(handler);
+         }
+         if (aClass == BuiltInMetadata.DistinctRowCount.Handler.class) {
+            BuiltInMetadata.DistinctRowCount.Handler handler = (rel, mq, groupKey, predicate) ->
+                  ((SearchTableScan) rel).distinctRowCount(mq, groupKey, predicate);
+            return aClass.cast(handler);
+         }
+      }
+      return super.unwrap(aClass);
+   }
+
+   @Override
+   public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+      RelDataTypeFactory.Builder builder = typeFactory.builder();
+      fields.values().forEach(field -> builder.add(field.name(), field.sqlType()).nullable(true));
+      return builder.build();
+   }
+
+   @Override
+   public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
+      List<String> names = List.copyOf(fields.keySet());
+      return SearchTableScan.create(context.getCluster(), relOptTable, this, SearchQuery.of(names), null);
+   }
+
+   @Override
+   public <T> Queryable<T> asQueryable(QueryProvider queryProvider, SchemaPlus schema, String tableName) {
+      return new AbstractTableQueryable<>(queryProvider, schema, this, tableName) {
+         @Override
+         @SuppressWarnings("unchecked")
+         public Enumerator<T> enumerator() {
+            SearchQuery query = SearchQuery.of(List.copyOf(fields.keySet()));
+            return (Enumerator<T>) new SearchEnumerator(SearchTable.this, query, query.request(null), false);
+         }
+      };
+   }
+
+   /**
+    * Called by the code generated for {@link SearchTableScan}.
+    *
+    * @param root  the context of the statement, holding the values of the bind parameters
+    * @param spec  the {@link SearchQuery#toJson() serialized} query
+    * @return the rows, each one an {@code Object[]}, or the value itself when there is a single field
+    */
+   public Enumerable<Object> query(DataContext root, String spec) {
+      SearchQuery query = SearchQuery.parse(spec);
+      if (query.aggregation() != null) {
+         SearchQuery.Aggregation aggregation = query.aggregation();
+         boolean scalar = aggregation.groups().size() + aggregation.metrics().size() == 1;
+         return new AbstractEnumerable<>() {
+            @Override
+            public Enumerator<Object> enumerator() {
+               return new AggregationEnumerator(SearchTable.this, query, root, scalar);
+            }
+         };
+      }
+      boolean scalar = query.fields().size() == 1;
+      boolean lookup = query.lookup(options.idField(index)) != null;
+      // the sorted scans are a single scroll, to keep the order of the hits
+      int slices = query.sort().isEmpty() ? options.scanSlices(index) : 1;
+      return new AbstractEnumerable<>() {
+         @Override
+         public Enumerator<Object> enumerator() {
+            if (lookup) {
+               return new MgetEnumerator(SearchTable.this, query, root, scalar);
+            }
+            if (!query.limited() && (slices > 1 || options.prefetchPages() > 0)) {
+               return new PrefetchEnumerator(SearchTable.this, query, root, scalar, slices);
+            }
+            return new SearchEnumerator(SearchTable.this, query, query.request(root), scalar);
+         }
+      };
+   }
+
+   /**
+    * Called by the code generated for {@link SearchReplicaJoin}.
+    *
+    * @param spec   the {@link SearchQuery#toJson() serialized} query of the replicated index, only its fields are used
+    * @param input  the rows to join, always arrays, even when they have a single field
+    * @param outer  whether the input rows without matching documents are returned, with null columns
+    * @return the input rows concatenated with the matching documents of the replica
+    */
+   public Enumerable<Object[]> replicaJoin(String spec, Enumerable<Object[]> input, int leftKey, int rightKey,
+                                           boolean outer) {
+      SearchQuery query = SearchQuery.parse(spec);
+      List<String> names = List.copyOf(fields.keySet());
+      int[] columns = query.fields().stream().mapToInt(names::indexOf).toArray();
+      return new AbstractEnumerable<>() {
+         @Override
+         public Enumerator<Object[]> enumerator() {
+            return new ReplicaJoinEnumerator(replica().snapshot(), columns, input.enumerator(), leftKey, rightKey,
+                  outer);
+         }
+      };
+   }
+
+   /**
+    * Called by the code generated for {@link SearchBindJoin}.
+    *
+    * @param spec   the {@link SearchQuery#toJson() serialized} query of the looked up index
+    * @param input  the rows to join, always arrays, even when they have a single field
+    * @return the input rows concatenated with the matching rows of the index
+    */
+   public Enumerable<Object[]> bindJoin(DataContext root, String spec, Enumerable<Object[]> input,
+                                        int leftKey, int rightKey, int batchSize) {
+      SearchQuery query = SearchQuery.parse(spec);
+      return new AbstractEnumerable<>() {
+         @Override
+         public Enumerator<Object[]> enumerator() {
+            return new BindJoinEnumerator(SearchTable.this, query, root, input.enumerator(), leftKey, rightKey,
+                  batchSize);
+         }
+      };
+   }
+}
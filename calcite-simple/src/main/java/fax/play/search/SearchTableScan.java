@@ -0,0 +1,263 @@
+package fax.play.search;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelCollationTraitDef;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * Scan of a {@link SearchTable} executing a {@link SearchQuery}.
+ * <p>
+ * The {@link SearchRules} merge the filters, projections, sorts and aggregations on top of the scan into its query,
+ * the cost of the scan decreasing with what it has absorbed.
+ * The scan is created in the logical convention, as the operators the rules match, and converted to an enumerable one
+ * by {@link SearchRules#ENUMERABLE}: the planner matches the inputs of the operands among the expressions
+ * of the same convention.
+ */
+public class SearchTableScan extends TableScan implements EnumerableRel {
+
+   private static final Method QUERY = Types.lookupMethod(SearchTable.class, "query", DataContext.class, String.class);
+
+   private final SearchTable searchTable;
+   private final SearchQuery query;
+   private final RexNode condition;
+
+   private SearchTableScan(RelOptCluster cluster, RelTraitSet traitSet, RelOptTable table,
+                           SearchTable searchTable, SearchQuery query, RexNode condition) {
+      super(cluster, traitSet, List.of(), table);
+      this.searchTable = searchTable;
+      this.query = query;
+      this.condition = condition;
+   }
+
+   /**
+    * @param condition the conditions pushed in the query so far, only used to estimate the selectivity
+    */
+   public static SearchTableScan create(RelOptCluster cluster, RelOptTable table, SearchTable searchTable,
+                                        SearchQuery query, RexNode condition) {
+      RelTraitSet traitSet = cluster.traitSetOf(Convention.NONE)
+            .replace(collation(query));
+      return new SearchTableScan(cluster, traitSet, table, searchTable, query, condition);
+   }
+
+   public SearchTable searchTable() {
+      return searchTable;
+   }
+
+   public SearchQuery query() {
+      return query;
+   }
+
+   public RexNode condition() {
+      return condition;
+   }
+
+   /**
+    * @return the mapping field of the column at the given position of a scan returning the documents
+    */
+   public SearchField field(int index) {
+      return searchTable.field(query.fields().get(index));
+   }
+
+   public SearchTableScan withQuery(SearchQuery query, RexNode condition) {
+      return create(getCluster(), getTable(), searchTable, query, condition);
+   }
+
+   @Override
+   public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+      assert inputs.isEmpty();
+      return new SearchTableScan(getCluster(), traitSet, getTable(), searchTable, query, condition);
+   }
+
+   @Override
+   public void register(RelOptPlanner planner) {
+      for (RelOptRule rule : SearchRules.RULES) {
+         planner.addRule(rule);
+      }
+   }
+
+   @Override
+   public RelDataType deriveRowType() {
+      RelDataTypeFactory.Builder builder = getCluster().getTypeFactory().builder();
+      SearchQuery.Aggregation aggregation = query.aggregation();
+      if (aggregation != null) {
+         for (String name : aggregation.groups()) {
+            builder.add(name, searchTable.field(name).sqlType()).nullable(true);
+         }
+         for (int i = 0; i < aggregation.metrics().size(); i++) {
+            SearchQuery.Metric metric = aggregation.metrics().get(i);
+            // the counts and the sums defaulting to 0 are never null, as the aggregate calls they compute
+            boolean notNull = metric.function() == SearchQuery.MetricFunction.COUNT
+                  || metric.function() == SearchQuery.MetricFunction.SUM0;
+            builder.add("$" + AggregationReader.METRIC + i, metric.type()).nullable(!notNull);
+         }
+         return builder.build();
+      }
+      for (String name : query.fields()) {
+         builder.add(name, searchTable.field(name).sqlType()).nullable(true);
+      }
+      return builder.build();
+   }
+
+   @Override
+   public RelWriter explainTerms(RelWriter pw) {
+      return super.explainTerms(pw)
+            .item("query", query.toJson())
+            .itemIf("lookup", true, lookup() != null);
+   }
+
+   @Override
+   public double estimateRowCount(RelMetadataQuery mq) {
+      double rows = super.estimateRowCount(mq);
+      IndexStatistics statistics = searchTable.statistics();
+      if (condition != null) {
+         rows *= statistics == null ? RelMdUtil.guessSelectivity(condition)
+               : statistics.selectivity(condition, searchTable.fields()::get);
+      }
+      if (query.fetch() != null) {
+         rows = Math.min(rows, query.fetch());
+      }
+      ArrayNode ids = lookup();
+      if (ids != null) {
+         // at most a document for each id
+         rows = Math.min(rows, ids.size());
+      }
+      if (query.aggregation() != null) {
+         List<String> groups = query.aggregation().groups();
+         Double distinct = statistics == null ? null : distinct(statistics, groups);
+         // without statistics, a guess of the number of groups
+         rows = groups.isEmpty() ? 1d : distinct == null ? rows / 10d : RelMdUtil.numDistinctVals(distinct, rows);
+      }
+      return Math.max(rows, 1d);
+   }
+
+   /**
+    * @param predicate  a condition on the rows of the scan
+    * @return the fraction of the rows of the scan matching the condition
+    */
+   Double selectivity(RexNode predicate) {
+      IndexStatistics statistics = searchTable.statistics();
+      if (predicate == null || statistics == null || query.aggregation() != null) {
+         return RelMdUtil.guessSelectivity(predicate);
+      }
+      predicate = RexUtil.expandSearch(getCluster().getRexBuilder(), null, predicate);
+      return statistics.selectivity(predicate, this::field);
+   }
+
+   /**
+    * @return the number of distinct values of the columns in the rows of the scan matching the condition,
+    *         null if unknown
+    */
+   Double distinctRowCount(RelMetadataQuery mq, ImmutableBitSet columns, RexNode predicate) {
+      if (columns.isEmpty()) {
+         return 1d;
+      }
+      double rows = mq.getRowCount(this) * selectivity(predicate);
+      IndexStatistics statistics = searchTable.statistics();
+      if (statistics == null || query.aggregation() != null) {
+         return null;
+      }
+      List<String> names = new ArrayList<>();
+      columns.forEach(column -> names.add(query.fields().get(column)));
+      if (names.contains(searchTable.options().idField(searchTable.index()))) {
+         // the ids are unique
+         return rows;
+      }
+      Double distinct = distinct(statistics, names);
+      return distinct == null ? null : RelMdUtil.numDistinctVals(distinct, rows);
+   }
+
+   @Override
+   public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+      double rows = estimateRowCount(mq);
+      // fewer fields mean smaller responses to transfer and parse
+      double factor = (getRowType().getFieldCount() + 2d) / (searchTable.fields().size() + 2d);
+      if (!query.sort().isEmpty()) {
+         factor *= 1.1d;
+      }
+      return planner.getCostFactory().makeCost(rows, rows + 1, 0).multiplyBy(factor);
+   }
+
+   @Override
+   public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+      // a single column is a scalar row, as SearchTable#query returns it
+      PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY);
+
+      Expression table = getTable().getExpression(SearchTable.class);
+      Expression enumerable = Expressions.call(table, QUERY,
+            implementor.getRootExpression(), Expressions.constant(query.toJson()));
+
+      BlockBuilder builder = new BlockBuilder();
+      builder.add(Expressions.return_(null, builder.append("enumerable", enumerable)));
+      return implementor.result(physType, builder.toBlock());
+   }
+
+   /**
+    * @return the number of the distinct combinations of the values of the fields, assuming they are independent;
+    *         null if one of them has no statistics
+    */
+   private static Double distinct(IndexStatistics statistics, List<String> fields) {
+      double distinct = 1d;
+      for (String name : fields) {
+         IndexStatistics.FieldStatistics field = statistics.field(name);
+         if (field == null) {
+            return null;
+         }
+         // the documents without the field are a group too
+         distinct *= field.distinct() + 1;
+      }
+      return distinct;
+   }
+
+   private ArrayNode lookup() {
+      return query.lookup(searchTable.options().idField(searchTable.index()));
+   }
+
+   private static RelCollation collation(SearchQuery query) {
+      List<RelFieldCollation> keys = new ArrayList<>();
+      for (SearchQuery.Sort sort : query.sort()) {
+         int index = query.fields().indexOf(sort.field());
+         if (index < 0) {
+            // the rows are still sorted by the following keys, but it cannot be expressed on the output
+            break;
+         }
+         keys.add(new RelFieldCollation(index,
+               sort.descending() ? RelFieldCollation.Direction.DESCENDING : RelFieldCollation.Direction.ASCENDING,
+               sort.nullsFirst() ? RelFieldCollation.NullDirection.FIRST : RelFieldCollation.NullDirection.LAST));
+      }
+      return RelCollationTraitDef.INSTANCE.canonize(RelCollations.of(keys));
+   }
+}
@@ -0,0 +1,246 @@
+package fax.play.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import fax.play.metrics.RequestTracer;
+
+/**
+ * The few REST endpoints used by the typed schema, on top of the low level {@link RestClient}.
+ * <p>
+ * The methods run inside the enumerators of the generated code, so I/O failures are rethrown unchecked.
+ */
+public class SearchTransport {
+
+   /**
+    * Page size of the scroll requests.
+    */
+   public static final int DEFAULT_FETCH_SIZE = 5_000;
+
+   /**
+    * The default {@code index.max_result_window}: beyond it {@code from}/{@code size} paging is rejected.
+    */
+   public static final int MAX_RESULT_WINDOW = 10_000;
+
+   public static final String SCROLL_TIMEOUT = "1m";
+
+   /**
+    * The header tagging the requests of a query with its {@link BackendStats#queryId()}.
+    */
+   public static final String OPAQUE_ID = RequestTracer.OPAQUE_ID;
+
+   private final RestClient restClient;
+   private final ObjectMapper objectMapper;
+   private final RequestLimiter limiter;
+
+   public SearchTransport(RestClient restClient, ObjectMapper objectMapper) {
+      this(restClient, objectMapper, RequestLimiter.UNLIMITED);
+   }
+
+   public SearchTransport(RestClient restClient, ObjectMapper objectMapper, RequestLimiter limiter) {
+      this.restClient = restClient;
+      this.objectMapper = objectMapper;
+      this.limiter = limiter;
+   }
+
+   public ObjectMapper objectMapper() {
+      return objectMapper;
+   }
+
+   /**
+    * @return whether the client can still send requests, i.e. it has not been closed
+    */
+   public boolean isRunning() {
+      return restClient.isRunning();
+   }
+
+   /**
+    * @return the mappings of all the indices, keyed by index name
+    */
+   public JsonNode mappings() {
+      return read(new Request("GET", "/_mapping"));
+   }
+
+   public <T> T search(String index, ObjectNode body, boolean scroll, ResponseReader<T> reader) {
+      Request request = new Request("POST", "/" + index + "/_search");
+      if (scroll) {
+         request.addParameter("scroll", SCROLL_TIMEOUT);
+      }
+      return read(request, body, reader);
+   }
+
+   public <T> T scroll(String scrollId, ResponseReader<T> reader) {
+      ObjectNode body = objectMapper.createObjectNode()
+            .put("scroll", SCROLL_TIMEOUT)
+            .put("scroll_id", scrollId);
+      return read(new Request("POST", "/_search/scroll"), body, reader);
+   }
+
+   /**
+    * @param sourceFields  the fields of the source to return
+    */
+   public <T> T mget(String index, List<String> ids, List<String> sourceFields, ResponseReader<T> reader) {
+      Request request = new Request("POST", "/" + index + "/_mget");
+      request.addParameter("_source_includes", String.join(",", sourceFields));
+      ObjectNode body = objectMapper.createObjectNode();
+      ArrayNode array = body.putArray("ids");
+      ids.forEach(array::add);
+      return read(request, body, reader);
+   }
+
+   public void clearScroll(String scrollId) {
+      ObjectNode body = objectMapper.createObjectNode();
+      body.putArray("scroll_id").add(scrollId);
+      read(new Request("DELETE", "/_search/scroll"), body);
+   }
+
+   public long count(String index) {
+      return read(new Request("GET", "/" + index + "/_count")).path("count").asLong();
+   }
+
+   /**
+    * @param query  the query matching the documents to count, all the documents if {@code null}
+    */
+   public long count(String index, JsonNode query) {
+      if (query == null) {
+         return count(index);
+      }
+      ObjectNode body = objectMapper.createObjectNode().set("query", query);
+      return read(new Request("POST", "/" + index + "/_count"), body).path("count").asLong();
+   }
+
+   /**
+    * @return the document counts and, for each copy of each shard, its sequence numbers and its refreshes
+    */
+   public JsonNode stats(String index) {
+      Request request = new Request("GET", "/" + index + "/_stats/docs,refresh");
+      request.addParameter("level", "shards");
+      return read(request);
+   }
+
+   JsonNode read(Request request, JsonNode body) {
+      return read(request, body, objectMapper::readTree);
+   }
+
+   JsonNode read(Request request) {
+      return read(request, objectMapper::readTree);
+   }
+
+   <T> T read(Request request, JsonNode body, ResponseReader<T> reader) {
+      try {
+         request.setJsonEntity(objectMapper.writeValueAsString(body));
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      return read(request, reader);
+   }
+
+   /**
+    * Tags the request with the id of the current query, if any, and records it on the {@link BackendStats} of the
+    * query once its response is read.
+    */
+   <T> T read(Request request, ResponseReader<T> reader) {
+      BackendStats stats = BackendStats.current();
+      if (stats != null && stats.queryId() != null) {
+         request.setOptions(request.getOptions().toBuilder().addHeader(OPAQUE_ID, stats.queryId()));
+      }
+      long start = System.nanoTime();
+      try {
+         Response response = send(request);
+         try (InputStream content = response.getEntity().getContent();
+              JsonParser parser = objectMapper.createParser(content)) {
+            parser.nextToken();
+            T result = reader.read(parser);
+            if (stats != null) {
+               stats.record(System.nanoTime() - start, parser.getCurrentLocation().getByteOffset());
+            }
+            return result;
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(request.getMethod() + " " + request.getEndpoint() + " failed", e);
+      }
+   }
+
+   /**
+    * Sends the request asynchronously and waits for its response: while in flight it is served by the I/O reactor of
+    * the client, and a caller on a virtual thread unmounts from its carrier, which the blocking
+    * {@link RestClient#performRequest(Request)} would pin while it waits in the monitor of its future.
+    * <p>
+    * The request first waits for a permit of the {@link RequestLimiter}.
+    */
+   private Response send(Request request) throws IOException {
+      String index = index(request);
+      limiter.acquire(index);
+      try {
+         return sendAsync(request);
+      } finally {
+         limiter.release(index);
+      }
+   }
+
+   private Response sendAsync(Request request) throws IOException {
+      CompletableFuture<Response> future = new CompletableFuture<>();
+      Cancellable cancellable = restClient.performRequestAsync(request, new ResponseListener() {
+         @Override
+         public void onSuccess(Response response) {
+            future.complete(response);
+         }
+
+         @Override
+         public void onFailure(Exception exception) {
+            future.completeExceptionally(exception);
+         }
+      });
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         cancellable.cancel();
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for " + request.getEndpoint());
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof IOException cause) {
+            throw cause;
+         }
+         throw new IOException(e.getCause());
+      }
+   }
+
+   /**
+    * @return the index of the endpoint, null for the ones of the cluster such as {@code /_search/scroll}
+    */
+   private static String index(Request request) {
+      String endpoint = request.getEndpoint();
+      int end = endpoint.indexOf('/', 1);
+      String first = end < 0 ? endpoint.substring(1) : endpoint.substring(1, end);
+      return first.isEmpty() || first.startsWith("_") ? null : first;
+   }
+
+   /**
+    * Reads a response while it is parsed, instead of materializing it as a tree.
+    */
+   @FunctionalInterface
+   public interface ResponseReader<T> {
+
+      /**
+       * @param parser  positioned on the first token of the response
+       */
+      T read(JsonParser parser) throws IOException;
+   }
+}
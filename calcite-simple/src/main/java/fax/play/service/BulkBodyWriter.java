@@ -0,0 +1,225 @@
+package fax.play.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.infinispan.commons.dataconversion.internal.Json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Writes the newline delimited body of a {@code _bulk} request into a buffer reused from a request to the next one.
+ * <p>
+ * The documents are encoded straight into the buffer, without going through a string,
+ * and the beginning of the action line of each index is encoded once.
+ */
+public class BulkBodyWriter {
+
+   private static final JsonFactory FACTORY = new JsonFactory();
+   // using \n and not the system line separator, since the value will be used by the server VM
+   private static final SerializableString ACTION_END = new SerializedString("}}\n");
+   private static final SerializableString NEWLINE = new SerializedString("\n");
+
+   private final Buffer buffer;
+   private final JsonGenerator generator;
+   // the action line up to the id, by index
+   private final Map<String, SerializableString> actions = new HashMap<>();
+   // the offset of each document, followed by the end of the last one
+   private int[] offsets = new int[64];
+   // the index of each document
+   private String[] indices = new String[64];
+   private int documents;
+
+   /**
+    * @param capacity the initial size of the buffer, it grows to the size of the largest body
+    */
+   public BulkBodyWriter(int capacity) {
+      buffer = new Buffer(capacity);
+      try {
+         generator = FACTORY.createGenerator(buffer);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      // the lines are separated by the newlines only
+      generator.setRootValueSeparator(null);
+   }
+
+   /**
+    * Appends an {@code index} action and its document.
+    */
+   public void add(String index, String id, Json document) throws IOException {
+      offset(size());
+      indices[documents] = index;
+      generator.writeRaw(actions.computeIfAbsent(index, BulkBodyWriter::action));
+      generator.writeString(id);
+      generator.writeRaw(ACTION_END);
+      write(document);
+      generator.writeRaw(NEWLINE);
+      documents++;
+   }
+
+   /**
+    * @return the number of documents of the body
+    */
+   public int documents() {
+      return documents;
+   }
+
+   /**
+    * @return the indices of the documents of the body
+    */
+   public Set<String> indices() {
+      Set<String> result = new HashSet<>();
+      for (int document = 0; document < documents; document++) {
+         result.add(indices[document]);
+      }
+      return result;
+   }
+
+   /**
+    * @return the size of the body in bytes
+    */
+   public int size() {
+      return buffer.size() + generator.getOutputBuffered();
+   }
+
+   /**
+    * Moves the last document added to the given writer, e.g. when it makes the body too large.
+    */
+   public void moveLast(BulkBodyWriter target) throws IOException {
+      generator.flush();
+      int last = offsets[--documents];
+      target.generator.flush();
+      target.offset(target.buffer.size());
+      target.indices[target.documents] = indices[documents];
+      target.buffer.write(buffer.array(), last, buffer.size() - last);
+      target.documents++;
+      buffer.truncate(last);
+   }
+
+   /**
+    * Keeps only the given documents, in the same order, e.g. to send again the ones that have been rejected.
+    *
+    * @param retained the positions of the documents to keep
+    */
+   public void retain(BitSet retained) throws IOException {
+      generator.flush();
+      offsets[documents] = buffer.size();
+      byte[] bytes = buffer.array();
+      int size = 0;
+      int kept = 0;
+      for (int document = retained.nextSetBit(0); document >= 0 && document < documents;
+           document = retained.nextSetBit(document + 1)) {
+         int start = offsets[document];
+         int length = offsets[document + 1] - start;
+         // the documents only move towards the beginning, each one after the previous one has been moved
+         System.arraycopy(bytes, start, bytes, size, length);
+         indices[kept] = indices[document];
+         offsets[kept++] = size;
+         size += length;
+      }
+      buffer.truncate(size);
+      documents = kept;
+   }
+
+   /**
+    * @return the body, backed by the buffer: it must not be used after {@link #reset()}
+    */
+   public HttpEntity entity() throws IOException {
+      generator.flush();
+      return new ByteArrayEntity(buffer.array(), 0, buffer.size(), ContentType.APPLICATION_JSON);
+   }
+
+   /**
+    * Empties the body, keeping the buffer.
+    */
+   public void reset() throws IOException {
+      generator.flush();
+      buffer.reset();
+      documents = 0;
+   }
+
+   private void offset(int offset) {
+      // one more slot, for the end of the last document
+      if (documents + 1 >= offsets.length) {
+         offsets = Arrays.copyOf(offsets, offsets.length * 2);
+         indices = Arrays.copyOf(indices, offsets.length);
+      }
+      offsets[documents] = offset;
+   }
+
+   private void write(Json json) throws IOException {
+      if (json.isObject()) {
+         generator.writeStartObject();
+         for (Map.Entry<String, Json> property : json.asJsonMap().entrySet()) {
+            generator.writeFieldName(property.getKey());
+            write(property.getValue());
+         }
+         generator.writeEndObject();
+      } else if (json.isArray()) {
+         generator.writeStartArray();
+         for (Json element : json.asJsonList()) {
+            write(element);
+         }
+         generator.writeEndArray();
+      } else if (json.isString()) {
+         generator.writeString(json.asString());
+      } else if (json.isNumber()) {
+         writeNumber((Number) json.getValue());
+      } else if (json.isBoolean()) {
+         generator.writeBoolean(json.asBoolean());
+      } else {
+         generator.writeNull();
+      }
+   }
+
+   private void writeNumber(Number number) throws IOException {
+      if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+         generator.writeNumber(number.longValue());
+      } else if (number instanceof Double || number instanceof Float) {
+         generator.writeNumber(number.doubleValue());
+      } else if (number instanceof BigDecimal decimal) {
+         generator.writeNumber(decimal);
+      } else if (number instanceof BigInteger integer) {
+         generator.writeNumber(integer);
+      } else {
+         generator.writeNumber(number.toString());
+      }
+   }
+
+   private static SerializableString action(String index) {
+      return new SerializedString("{\"index\":{\"_index\":\""
+            + new String(JsonStringEncoder.getInstance().quoteAsString(index)) + "\",\"_id\":");
+   }
+
+   private static final class Buffer extends ByteArrayOutputStream {
+
+      private Buffer(int capacity) {
+         super(capacity);
+      }
+
+      private byte[] array() {
+         return buf;
+      }
+
+      private void truncate(int size) {
+         count = size;
+      }
+   }
+}
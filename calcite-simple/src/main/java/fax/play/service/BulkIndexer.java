@@ -0,0 +1,486 @@
+package fax.play.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.infinispan.commons.dataconversion.internal.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Indexes documents added one at a time with {@code _bulk} requests.
+ * <p>
+ * The documents are buffered until the current request holds {@link Config#maxDocuments()} documents or
+ * {@link Config#maxBytes()} bytes, or until {@link Config#flushInterval()} elapses, and the request is then sent
+ * asynchronously. Up to {@link Config#concurrentRequests()} requests are in flight: adding documents blocks while
+ * they are all pending, so that a load of any size holds at most as many requests in memory. The bodies of the
+ * completed requests are reused by the next ones, see {@link BulkBodyWriter}.
+ * <p>
+ * The documents rejected because the cluster is busy, with a {@code 429} status, are sent again after an exponential
+ * backoff with jitter, the others are counted as {@link BulkResult#failed() failed}.
+ * A failed request fails the next {@link #add(String, String, Json)}, {@link #flush()} or {@link #close()}.
+ */
+public class BulkIndexer implements AutoCloseable {
+
+   private static final Logger LOG = LoggerFactory.getLogger(BulkIndexer.class);
+   private static final int INITIAL_BODY_CAPACITY = 64 << 10;
+   private static final int TOO_MANY_REQUESTS = 429;
+   private static final JsonFactory FACTORY = new JsonFactory();
+
+   /**
+    * The {@code refresh} parameter of the requests.
+    */
+   public enum Refresh {
+      /**
+       * The documents become searchable at the next periodic refresh of the index: the queries reading it are not
+       * cached by the {@link ResultCache} until a {@link BulkIndexer#refresh()}.
+       */
+      FALSE("false"),
+      /**
+       * Each request refreshes the shards it has written to, making its documents searchable right away.
+       */
+      TRUE("true"),
+      /**
+       * Each request waits for the next periodic refresh before completing.
+       */
+      WAIT_FOR("wait_for");
+
+      private final String parameter;
+
+      Refresh(String parameter) {
+         this.parameter = parameter;
+      }
+
+      public String parameter() {
+         return parameter;
+      }
+   }
+
+   /**
+    * @param maxDocuments        the number of documents of a request
+    * @param maxBytes            the size of the body of a request, a single document larger than it is sent alone
+    * @param concurrentRequests  the number of requests in flight, the retries included
+    * @param flushInterval       the longest time a document waits in a partial request, null to wait for it to fill
+    * @param refresh             when the indexed documents become searchable
+    * @param maxRetries          the times the documents rejected by a busy cluster are sent again
+    * @param retryBackoff        the delay before the first retry, doubling at each one
+    */
+   public record Config(int maxDocuments, long maxBytes, int concurrentRequests, Duration flushInterval,
+                        Refresh refresh, int maxRetries, Duration retryBackoff) {
+
+      public static Config defaults() {
+         return new Config(1000, 5L << 20, 2, Duration.ofSeconds(1), Refresh.FALSE, 3, Duration.ofMillis(100));
+      }
+
+      public Config {
+         if (maxDocuments < 1) {
+            throw new IllegalArgumentException("maxDocuments must be positive: " + maxDocuments);
+         }
+         if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+         }
+         if (concurrentRequests < 1) {
+            throw new IllegalArgumentException("concurrentRequests must be positive: " + concurrentRequests);
+         }
+         if (flushInterval != null && (flushInterval.isNegative() || flushInterval.isZero())) {
+            throw new IllegalArgumentException("flushInterval must be positive: " + flushInterval);
+         }
+         if (refresh == null) {
+            throw new IllegalArgumentException("refresh is required");
+         }
+         if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries cannot be negative: " + maxRetries);
+         }
+         if (retryBackoff == null || retryBackoff.isNegative() || retryBackoff.isZero()) {
+            throw new IllegalArgumentException("retryBackoff must be positive: " + retryBackoff);
+         }
+      }
+   }
+
+   private final RestClient restClient;
+   private final Config config;
+   private final Semaphore inFlight;
+   // the timed flushes, which wait for the monitor of the indexer
+   private final ScheduledExecutorService scheduler;
+   // the retries, on their own thread: they release the permits the holders of the monitor may be waiting for
+   private final ScheduledExecutorService retries;
+   private final AtomicReference<Exception> failure = new AtomicReference<>();
+   private final AtomicLong requests = new AtomicLong();
+   private final AtomicLong indexed = new AtomicLong();
+   private final AtomicLong retried = new AtomicLong();
+   private final AtomicLong failed = new AtomicLong();
+   // the indices written by each request are advanced once it completes: their cached query results are stale
+   private final IndexGenerations generations;
+
+   // the bodies of the requests completed, to be reused
+   private final Queue<BulkBodyWriter> bodies = new ConcurrentLinkedQueue<>();
+   private BulkBodyWriter body;
+   private boolean closed;
+
+   public BulkIndexer(RestClient restClient, Config config) {
+      this.restClient = restClient;
+      this.config = config;
+      this.generations = IndexGenerations.of(restClient);
+      this.inFlight = new Semaphore(config.concurrentRequests());
+      this.body = newBody();
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "bulk-indexer"));
+      this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "bulk-indexer-retry"));
+      if (config.flushInterval() != null) {
+         long interval = config.flushInterval().toMillis();
+         scheduler.scheduleWithFixedDelay(this::flushPartial, interval, interval, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   private static Thread daemon(Runnable runnable, String name) {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+   }
+
+   /**
+    * Adds the document to the current request, sending it once it is full.
+    * It blocks while {@link Config#concurrentRequests()} requests are in flight.
+    *
+    * @param document a document, written on a single line
+    */
+   public synchronized void add(String index, String id, Json document) throws IOException {
+      if (closed) {
+         throw new IllegalStateException("The bulk indexer is closed");
+      }
+      checkFailure();
+
+      body.add(index, id, document);
+      if (body.documents() > 1 && body.size() > config.maxBytes()) {
+         // the document goes to the next request
+         BulkBodyWriter next = acquireBody();
+         body.moveLast(next);
+         send(next);
+      }
+      if (body.documents() >= config.maxDocuments() || body.size() >= config.maxBytes()) {
+         send();
+      }
+   }
+
+   /**
+    * Sends the current request and waits for all the requests in flight to complete.
+    */
+   public synchronized void flush() throws IOException {
+      send();
+      awaitInFlight();
+      checkFailure();
+   }
+
+   /**
+    * Flushes the indexer, then refreshes the indices with writes not searchable yet, e.g. sent with
+    * {@link Refresh#FALSE}: the {@link ResultCache} caches the queries reading them again.
+    */
+   public synchronized void refresh() throws IOException {
+      flush();
+      Map<String, Long> started = generations.unrefreshed();
+      if (started.isEmpty()) {
+         return;
+      }
+      restClient.performRequest(new Request("POST", "/" + String.join(",", started.keySet()) + "/_refresh"));
+      generations.refreshed(started);
+   }
+
+   /**
+    * @return the outcome of the documents sent so far, final once the indexer is flushed or closed
+    */
+   public BulkResult result() {
+      return new BulkResult(requests.get(), indexed.get(), retried.get(), failed.get());
+   }
+
+   /**
+    * Sends the remaining documents and waits for all the requests to complete.
+    */
+   @Override
+   public synchronized void close() throws IOException {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      try {
+         flush();
+      } finally {
+         scheduler.shutdownNow();
+         retries.shutdownNow();
+      }
+   }
+
+   private synchronized void flushPartial() {
+      if (closed || body.documents() == 0) {
+         return;
+      }
+      try {
+         send();
+      } catch (IOException e) {
+         // the interrupt of the shutdown of the timer
+         LOG.debug("Timed flush interrupted", e);
+      }
+   }
+
+   private void send() throws IOException {
+      if (body.documents() > 0) {
+         send(acquireBody());
+      }
+   }
+
+   /**
+    * Sends the current request, holding a permit, and continues with the next body.
+    */
+   private void send(BulkBodyWriter next) throws IOException {
+      BulkBodyWriter sent = body;
+      body = next;
+      dispatch(sent, 0);
+   }
+
+   /**
+    * Sends the body, then sends again the documents rejected by a busy cluster until they are accepted
+    * or the retries are over, and finally releases the permit.
+    */
+   private void dispatch(BulkBodyWriter sent, int attempt) {
+      Request request = new Request("POST", "/_bulk");
+      if (config.refresh() != Refresh.FALSE) {
+         request.addParameter("refresh", config.refresh().parameter());
+      }
+      int count = sent.documents();
+      try {
+         request.setEntity(sent.entity());
+      } catch (IOException e) {
+         fail(sent, count, e);
+         return;
+      }
+      requests.incrementAndGet();
+
+      restClient.performRequestAsync(request, new ResponseListener() {
+         @Override
+         public void onSuccess(Response response) {
+            BitSet rejected;
+            try {
+               rejected = items(response, count);
+            } catch (IOException e) {
+               fail(sent, count, e);
+               return;
+            }
+            retry(sent, rejected, attempt);
+         }
+
+         @Override
+         public void onFailure(Exception exception) {
+            if (exception instanceof ResponseException responseException
+                  && responseException.getResponse().getStatusLine().getStatusCode() == TOO_MANY_REQUESTS) {
+               BitSet rejected = new BitSet(count);
+               rejected.set(0, count);
+               retry(sent, rejected, attempt);
+            } else {
+               fail(sent, count, exception);
+            }
+         }
+      });
+   }
+
+   private void retry(BulkBodyWriter sent, BitSet rejected, int attempt) {
+      if (rejected.isEmpty()) {
+         release(sent);
+         return;
+      }
+      if (attempt >= config.maxRetries()) {
+         LOG.warn("{} documents still rejected after {} retries", rejected.cardinality(), attempt);
+         failed.addAndGet(rejected.cardinality());
+         release(sent);
+         return;
+      }
+      // the accepted documents are written, before the body only keeps the rejected ones
+      generations.advance(sent.indices(), config.refresh() != Refresh.FALSE);
+      try {
+         sent.retain(rejected);
+      } catch (IOException e) {
+         fail(sent, rejected.cardinality(), e);
+         return;
+      }
+      retried.addAndGet(sent.documents());
+      retries.schedule(() -> dispatch(sent, attempt + 1), backoff(attempt), TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Reads the outcome of each document, without materializing the response. The documents missing from the items
+    * of a response with errors are counted as failed.
+    *
+    * @return the positions of the documents rejected by a busy cluster
+    */
+   private BitSet items(Response response, int count) throws IOException {
+      BitSet rejected = new BitSet();
+      Items items = null;
+      try (InputStream input = response.getEntity().getContent();
+           JsonParser parser = FACTORY.createParser(input)) {
+         if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Unexpected bulk response");
+         }
+         while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("errors".equals(name) && token == JsonToken.VALUE_FALSE && items == null) {
+               // all the documents have been indexed, the items can be skipped
+               indexed.addAndGet(count);
+               return rejected;
+            } else if ("items".equals(name) && token == JsonToken.START_ARRAY) {
+               items = items(parser, rejected);
+            } else {
+               parser.skipChildren();
+            }
+         }
+      }
+      // counted once the whole response is read, a response failing before is counted as failed by the caller
+      int read = items == null ? 0 : items.read();
+      if (read < count) {
+         LOG.warn("The bulk response lacks the outcome of {} of {} documents", count - read, count);
+      }
+      indexed.addAndGet(items == null ? 0 : items.accepted());
+      failed.addAndGet((items == null ? 0 : items.refused()) + Math.max(count - read, 0));
+      return rejected;
+   }
+
+   /**
+    * @param read      the number of items
+    * @param accepted  the documents indexed
+    * @param refused   the documents failed, apart from the ones rejected by a busy cluster
+    */
+   private record Items(int read, long accepted, long refused) {
+   }
+
+   private static Items items(JsonParser parser, BitSet rejected) throws IOException {
+      long accepted = 0;
+      long refused = 0;
+      int position = 0;
+      for (; parser.nextToken() == JsonToken.START_OBJECT; position++) {
+         // the action, holding the outcome
+         parser.nextToken();
+         parser.nextToken();
+         int status = 0;
+         String error = null;
+         while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("status".equals(name)) {
+               status = parser.getIntValue();
+            } else if ("error".equals(name) && token == JsonToken.START_OBJECT) {
+               error = reason(parser);
+            } else {
+               parser.skipChildren();
+            }
+         }
+         parser.nextToken();
+
+         if (status >= 200 && status < 300) {
+            accepted++;
+         } else if (status == TOO_MANY_REQUESTS) {
+            rejected.set(position);
+         } else {
+            if (refused++ == 0) {
+               LOG.warn("Document {} of a bulk request failed with status {}: {}", position, status, error);
+            }
+         }
+      }
+      return new Items(position, accepted, refused);
+   }
+
+   private static String reason(JsonParser parser) throws IOException {
+      String reason = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+         String name = parser.getCurrentName();
+         parser.nextToken();
+         if ("reason".equals(name)) {
+            reason = parser.getValueAsString();
+         } else {
+            parser.skipChildren();
+         }
+      }
+      return reason;
+   }
+
+   private long backoff(int attempt) {
+      long delay = config.retryBackoff().toMillis() << Math.min(attempt, 20);
+      // the jitter spreads the retries of the concurrent requests rejected at the same time
+      return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+   }
+
+   private void fail(BulkBodyWriter sent, int count, Exception exception) {
+      LOG.warn("Bulk request of {} documents failed", count, exception);
+      failed.addAndGet(count);
+      failure.compareAndSet(null, exception);
+      release(sent);
+   }
+
+   /**
+    * Waits for a request in flight to complete if they are all pending.
+    *
+    * @return an empty body, reused from a completed request if any
+    */
+   private BulkBodyWriter acquireBody() throws IOException {
+      try {
+         inFlight.acquire();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for the bulk requests in flight");
+      }
+      BulkBodyWriter next = bodies.poll();
+      return next == null ? newBody() : next;
+   }
+
+   private void release(BulkBodyWriter sent) {
+      generations.advance(sent.indices(), config.refresh() != Refresh.FALSE);
+      try {
+         sent.reset();
+         bodies.add(sent);
+      } catch (IOException e) {
+         // not reused
+         LOG.debug("Cannot reset a bulk body", e);
+      } finally {
+         inFlight.release();
+      }
+   }
+
+   private BulkBodyWriter newBody() {
+      return new BulkBodyWriter((int) Math.min(config.maxBytes(), INITIAL_BODY_CAPACITY));
+   }
+
+   private void awaitInFlight() throws IOException {
+      try {
+         inFlight.acquire(config.concurrentRequests());
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for the bulk requests in flight");
+      }
+      inFlight.release(config.concurrentRequests());
+   }
+
+   private void checkFailure() throws IOException {
+      Exception exception = failure.get();
+      if (exception != null) {
+         throw new IOException("A bulk request failed", exception);
+      }
+   }
+}
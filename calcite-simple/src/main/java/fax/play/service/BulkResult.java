@@ -0,0 +1,12 @@
+package fax.play.service;
+
+/**
+ * The outcome of the documents sent by a {@link BulkIndexer}.
+ *
+ * @param requests  the {@code _bulk} requests sent, the retries included
+ * @param indexed   the documents indexed
+ * @param retried   the times a rejected document has been sent again
+ * @param failed    the documents rejected for good, because of their content or after the last retry
+ */
+public record BulkResult(long requests, long indexed, long retried, long failed) {
+}
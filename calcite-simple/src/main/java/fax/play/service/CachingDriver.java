@@ -0,0 +1,211 @@
+package fax.play.service;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import org.apache.calcite.avatica.Meta;
+import org.apache.calcite.jdbc.CalcitePrepare;
+import org.apache.calcite.jdbc.Driver;
+import org.apache.calcite.linq4j.function.Function0;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.prepare.CalcitePrepareImpl;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelRoot;
+import org.apache.calcite.runtime.Hook;
+import org.apache.calcite.tools.Program;
+import org.apache.calcite.tools.Programs;
+import org.apache.calcite.util.Holder;
+
+import fax.play.spill.Spilling;
+
+/**
+ * Calcite driver whose connections look up prepared queries in a shared {@link PlanCache}
+ * before going through parsing, validation, optimization and code generation.
+ * <p>
+ * It is not registered to the {@link java.sql.DriverManager}: connections are opened directly from the instance,
+ * all of them exposing the catalog identified by the given schema version.
+ * <p>
+ * The indices each cached query reads are kept with its plan, for the {@link ResultCache} to tag its results with,
+ * as well as its estimated cost, for the {@link QueryScheduler} to admit it with. Given a {@link Spilling.Config},
+ * the hash joins and the sorts of the plans spill to disk beyond a memory budget.
+ * <p>
+ * The phases of each preparation are timed, for the {@link QueryProfile} of the query.
+ */
+public class CachingDriver extends Driver {
+
+   private static final Set<String> SEARCH_SCHEMAS = Set.of(SchemaCatalog.ELASTIC_SCHEMA, SchemaCatalog.TYPED_SCHEMA);
+   private static final ThreadLocal<Preparation> PREPARED = new ThreadLocal<>();
+
+   // the phases of the preparation, ended by the hooks run along it
+   private static final QueryProfile.Phase[] PHASES = {QueryProfile.Phase.PARSE, QueryProfile.Phase.VALIDATE,
+         QueryProfile.Phase.OPTIMIZE, QueryProfile.Phase.CODEGEN};
+
+   private final PlanCache planCache;
+   private final long schemaVersion;
+   private final Spilling.Config spill;
+
+   public CachingDriver(PlanCache planCache, long schemaVersion) {
+      this(planCache, schemaVersion, null);
+   }
+
+   /**
+    * @param spill  the budget of the joins and the sorts spilling to disk, null to keep them in memory
+    */
+   public CachingDriver(PlanCache planCache, long schemaVersion, Spilling.Config spill) {
+      this.planCache = planCache;
+      this.schemaVersion = schemaVersion;
+      this.spill = spill;
+   }
+
+   @Override
+   protected Function0<CalcitePrepare> createPrepareFactory() {
+      // invoked by the super constructor: the fields are read lazily, when a statement is prepared
+      return () -> new CachingPrepare(planCache, schemaVersion, spill);
+   }
+
+   /**
+    * @return the plan of the statement last prepared by the current thread, null if it was not a cached query
+    */
+   static PlanCache.Plan prepared() {
+      Preparation preparation = PREPARED.get();
+      return preparation == null ? null : preparation.plan();
+   }
+
+   /**
+    * @return the preparation of the statement last prepared by the current thread, null if it was not prepared
+    *         by a {@link CachingDriver}
+    */
+   static Preparation preparation() {
+      return PREPARED.get();
+   }
+
+   /**
+    * @param plan   the plan of the statement, null if it is not a cached query
+    * @param nanos  the time of the phases of the preparation, none if the plan was found in the cache
+    */
+   record Preparation(PlanCache.Plan plan, Map<QueryProfile.Phase, Long> nanos) {
+
+      boolean cached() {
+         return nanos.isEmpty();
+      }
+   }
+
+   private static class CachingPrepare extends CalcitePrepareImpl {
+
+      private final PlanCache planCache;
+      private final long schemaVersion;
+      private final Spilling.Config spill;
+
+      private CachingPrepare(PlanCache planCache, long schemaVersion, Spilling.Config spill) {
+         this.planCache = planCache;
+         this.schemaVersion = schemaVersion;
+         this.spill = spill;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public <T> CalciteSignature<T> prepareSql(Context context, Query<T> query, Type elementType, long maxRowCount) {
+         PREPARED.remove();
+         long start = System.nanoTime();
+         if (query.sql == null) {
+            return super.prepareSql(context, query, elementType, maxRowCount);
+         }
+
+         PlanCache.Key key = new PlanCache.Key(PlanCache.normalize(query.sql), schemaVersion,
+               context.getDefaultSchemaPath(), maxRowCount);
+         PlanCache.Plan plan = planCache.get(key);
+         if (plan != null) {
+            PREPARED.set(new Preparation(plan, Map.of()));
+            return (CalciteSignature<T>) plan.signature();
+         }
+
+         List<RelNode> converted = new ArrayList<>(1);
+         double[] cost = {Double.NaN};
+         String[] explain = new String[1];
+         // the ends of the parsing, of the validation and of the optimization
+         Long[] ends = new Long[PHASES.length - 1];
+         CalciteSignature<T> signature;
+         try (Hook.Closeable parsing = Hook.PARSE_TREE.addThread((Consumer<Object[]>) tree -> end(ends, 0));
+              Hook.Closeable converting = Hook.CONVERTED.addThread((Consumer<RelNode>) rel -> {
+                 converted.add(rel);
+                 end(ends, 1);
+              });
+              Hook.Closeable implementing = Hook.PLAN_BEFORE_IMPLEMENTATION.addThread((Consumer<RelRoot>) root -> {
+                 cost[0] = cost(root.rel);
+                 explain[0] = RelOptUtil.toString(root.rel);
+                 end(ends, 2);
+              });
+              Hook.Closeable spilling = spill == null ? Hook.Closeable.EMPTY : Hook.PROGRAM.addThread(
+                    (Consumer<Holder<Program>>) program -> program.set(
+                          Programs.sequence(Programs.standard(), Spilling.program(spill))))) {
+            signature = super.prepareSql(context, query, elementType, maxRowCount);
+         }
+         Map<QueryProfile.Phase, Long> nanos = phases(start, ends, System.nanoTime());
+         if (signature.statementType == Meta.StatementType.SELECT) {
+            Set<String> indices = converted.isEmpty() ? null : indices(converted.get(0));
+            plan = new PlanCache.Plan(signature, indices, cost[0], explain[0]);
+            planCache.put(key, plan);
+         }
+         PREPARED.set(new Preparation(plan, nanos));
+         return signature;
+      }
+
+      /**
+       * Ends a phase the first time its hook is run: the views expanded along the way run them again.
+       */
+      private static void end(Long[] ends, int phase) {
+         if (ends[phase] == null) {
+            ends[phase] = System.nanoTime();
+         }
+      }
+
+      private static Map<QueryProfile.Phase, Long> phases(long start, Long[] ends, long end) {
+         Map<QueryProfile.Phase, Long> nanos = new EnumMap<>(QueryProfile.Phase.class);
+         long from = start;
+         for (int i = 0; i < PHASES.length; i++) {
+            // a phase whose hook is not run, e.g. the optimization of a plan that is explained and not implemented,
+            // lasts until the end of the next one
+            long to = end;
+            for (int j = i; j < ends.length; j++) {
+               if (ends[j] != null) {
+                  to = ends[j];
+                  break;
+               }
+            }
+            nanos.put(PHASES[i], to - from);
+            from = to;
+         }
+         return nanos;
+      }
+
+      private static double cost(RelNode rel) {
+         RelOptCost cost = rel.getCluster().getMetadataQuery().getCumulativeCost(rel);
+         return cost == null ? Double.NaN : cost.getRows();
+      }
+
+      /**
+       * @param rel  the plan before optimization, where the views are expanded and the lookups of the joins
+       *             are still scans
+       */
+      private static Set<String> indices(RelNode rel) {
+         Set<String> indices = new TreeSet<>();
+         for (RelOptTable table : RelOptUtil.findAllTables(rel)) {
+            List<String> name = table.getQualifiedName();
+            if (name.size() != 2 || !SEARCH_SCHEMAS.contains(name.get(0))) {
+               return null;
+            }
+            // the tables of both schemas are named after their index
+            indices.add(name.get(1));
+         }
+         return Set.copyOf(indices);
+      }
+   }
+}
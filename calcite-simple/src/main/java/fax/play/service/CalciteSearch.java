@@ -2,44 +2,175 @@ package fax.play.service;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.apache.calcite.adapter.elasticsearch.ElasticsearchSchema;
 import org.apache.calcite.jdbc.CalciteConnection;
 import org.apache.calcite.schema.SchemaPlus;
 import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-public class CalciteSearch {
+import fax.play.metrics.RequestTracer;
+import fax.play.search.BackendStats;
+import fax.play.search.QueryMemory;
+import fax.play.search.RequestLimiter;
+import fax.play.search.Scope;
+import fax.play.search.SearchOptions;
+import fax.play.spill.Spilling;
+
+public class CalciteSearch implements AutoCloseable {
+
+   private static final Logger LOG = LoggerFactory.getLogger(CalciteSearch.class);
+
+   private static final String CONNECTION_URL = "jdbc:calcite:lex=JAVA";
 
    private final RestClient restClient;
    private final ObjectMapper objectMapper = new ObjectMapper();
+   private final Consumer<SchemaPlus> views;
+   private final ConnectionPool pool;
+   private final PlanCache planCache;
+   private final SearchOptions searchOptions;
+   private final IndexGenerations indexGenerations;
+   private final RequestTracer requestTracer;
+   private final ResultCache resultCache;
+   private final Executor executor;
+   private final QueryScheduler scheduler;
+   private final Spilling.Config spill;
+   private final long queryMemoryLimit;
+   private final Consumer<QueryMemory> queryMemoryListener;
+   private final QueryMetrics metrics;
+   private final Duration slowQueryThreshold;
+
+   private volatile Generation generation;
+   private long schemaVersion;
 
    public CalciteSearch(RestClient restClient) {
+      this(restClient, null);
+   }
+
+   public CalciteSearch(RestClient restClient, Consumer<SchemaPlus> views) {
+      this(restClient, views, CalciteSearchConfig.defaults());
+   }
+
+   public CalciteSearch(RestClient restClient, Consumer<SchemaPlus> views, CalciteSearchConfig config) {
       this.restClient = restClient;
+      this.views = views;
+      this.pool = new ConnectionPool(this::openPooledConnection, config.pool());
+      this.planCache = new PlanCache(config.planCacheSize());
+      this.searchOptions = config.search();
+      this.indexGenerations = IndexGenerations.of(restClient);
+      this.requestTracer = RequestTracer.of(restClient);
+      this.resultCache = config.resultCache() == null ? null : new ResultCache(config.resultCache(), indexGenerations);
+      this.executor = config.executor();
+      this.scheduler = config.scheduler() == null ? null : new QueryScheduler(config.scheduler());
+      this.queryMemoryLimit = config.queryMemoryLimit();
+      this.queryMemoryListener = config.queryMemoryListener();
+      this.metrics = config.metrics();
+      this.slowQueryThreshold = config.slowQueryThreshold();
+      // the joins and the sorts that do not spill allocate their rows as well, on the memory of the query
+      this.spill = config.spill() == null && queryMemoryLimit > 0 ? Spilling.Config.inMemory() : config.spill();
    }
 
+   /**
+    * @return a pooled connection exposing the shared catalog, closing it returns it to the pool
+    */
    public Connection createConnection() throws SQLException {
-      return createConnectionWith(null);
+      return pool.borrow();
    }
 
+   /**
+    * @return a new, not pooled, connection exposing the shared Elasticsearch and typed schemas and the given ad-hoc views
+    */
    public Connection createConnectionWith(Consumer<SchemaPlus> views) throws SQLException {
-      Connection connection = DriverManager.getConnection("jdbc:calcite:lex=JAVA");
+      if (views == null) {
+         return createConnection();
+      }
+
+      Connection connection = DriverManager.getConnection(CONNECTION_URL);
       SchemaPlus root = connection.unwrap(CalciteConnection.class).getRootSchema();
-      root.add("elastic", new ElasticsearchSchema(restClient, objectMapper, null));
+      SchemaCatalog catalog = generation().catalog;
+      root.add(SchemaCatalog.ELASTIC_SCHEMA, catalog.subSchema(SchemaCatalog.ELASTIC_SCHEMA));
+      root.add(SchemaCatalog.TYPED_SCHEMA, catalog.subSchema(SchemaCatalog.TYPED_SCHEMA));
+      views.accept(root);
+
+      return connection;
+   }
 
-      if (views != null) {
-         views.accept(root);
+   /**
+    * @param sql a query that can contain {@code ?} bind parameters
+    * @return the prepared query, its plan is already in the plan cache
+    */
+   public PreparedQuery prepare(String sql) throws SQLException {
+      try (Connection connection = createConnection()) {
+         connection.prepareStatement(sql).close();
       }
+      return new PreparedQuery(this, sql);
+   }
 
-      return connection;
+   /**
+    * Rebuilds the catalog from the server and the views at the next query:
+    * pooled connections and cached plans referring to the previous one are discarded.
+    */
+   public void refreshSchema() {
+      long version;
+      synchronized (this) {
+         generation = null;
+         version = ++schemaVersion;
+      }
+      pool.invalidate();
+      planCache.retainSchemaVersion(version);
+      if (resultCache != null) {
+         resultCache.clear();
+      }
+   }
+
+   public ConnectionPool pool() {
+      return pool;
+   }
+
+   public PlanCache planCache() {
+      return planCache;
+   }
+
+   /**
+    * @return the admission control of the queries, null if it is disabled
+    */
+   public QueryScheduler scheduler() {
+      return scheduler;
+   }
+
+   /**
+    * @return the cache of the rows of the queries, null if it is disabled
+    */
+   public ResultCache resultCache() {
+      return resultCache;
+   }
+
+   @Override
+   public void close() {
+      pool.close();
+   }
+
+   public List<?> executeQuery(String sql) throws SQLException {
+      return executeQuery(sql, CalciteSearch::columnExtractor);
    }
 
    public <K> List<K> executeQuery(String sql, CheckedSQLFunction<ResultSet, List<K>> extractor) throws SQLException {
@@ -50,16 +181,249 @@ public class CalciteSearch {
       return executeQuery(views, sql, CalciteSearch::columnExtractor);
    }
 
+   /**
+    * @param views  ad-hoc views, the queries using them are not looked up in the {@link #resultCache()}
+    * @throws SQLException also if the query retains more than the {@link CalciteSearchConfig#queryMemoryLimit()}
+    */
    public <K> List<K> executeQuery(Consumer<SchemaPlus> views, String sql, CheckedSQLFunction<ResultSet, List<K>> extractor) throws SQLException {
+      ResultCache.Key key = views == null && resultCache != null ? ResultCache.Key.of(sql) : null;
+      List<K> cached = cachedResult(key, extractor);
+      if (cached != null) {
+         return cached;
+      }
+      Map<String, Long> generations = indexGenerations();
       try (Connection connection = createConnectionWith(views)) {
-         try (Statement statement = connection.createStatement()) {
-            try (ResultSet resultSet = statement.executeQuery(sql)) {
-               return extractor.apply(resultSet);
+         // prepared first, to be admitted by its cost
+         try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            // the connections with views are not caching, their plan and cost are unknown
+            CachingDriver.Preparation preparation = views == null ? CachingDriver.preparation() : null;
+            try (QueryScheduler.Permit permit = admit(preparation == null ? null : preparation.plan())) {
+               return execute(sql, statement, preparation, key, generations, extractor);
             }
          }
       }
    }
 
+   /**
+    * @return the rows of the query, executed on the {@link CalciteSearchConfig#executor()}; a failure completes it
+    *         with a {@link CompletionException} caused by the {@link SQLException}
+    */
+   public CompletableFuture<List<?>> executeQueryAsync(String sql) {
+      return supplyAsync(() -> executeQuery(sql));
+   }
+
+   public <K> CompletableFuture<List<K>> executeQueryAsync(String sql, CheckedSQLFunction<ResultSet, List<K>> extractor) {
+      return supplyAsync(() -> executeQuery(sql, extractor));
+   }
+
+   public <K> CompletableFuture<List<K>> executeQueryAsync(Consumer<SchemaPlus> views, String sql, CheckedSQLFunction<ResultSet, List<K>> extractor) {
+      return supplyAsync(() -> executeQuery(views, sql, extractor));
+   }
+
+   /**
+    * @return the lazily pulled rows of the query, the cursor holds a pooled connection until it is closed
+    */
+   public <T> RowCursor<T> cursor(String sql, CheckedSQLFunction<ResultSet, T> rowMapper, Object... parameters) throws SQLException {
+      return new PreparedQuery(this, sql).cursor(rowMapper, parameters);
+   }
+
+   /**
+    * @return the lazily pulled rows of the query, the stream must be closed
+    */
+   public <T> Stream<T> stream(String sql, CheckedSQLFunction<ResultSet, T> rowMapper, Object... parameters) throws SQLException {
+      return cursor(sql, rowMapper, parameters).stream();
+   }
+
+   public Stream<Object[]> stream(String sql, Object... parameters) throws SQLException {
+      return stream(sql, CalciteSearch::row, parameters);
+   }
+
+   /**
+    * @return the number of rows passed to the consumer
+    * @see PreparedQuery#forEachRow(CheckedSQLConsumer, Object...)
+    */
+   public long forEachRow(String sql, CheckedSQLConsumer<ResultSet> consumer, Object... parameters) throws SQLException {
+      return new PreparedQuery(this, sql).forEachRow(consumer, parameters);
+   }
+
+   /**
+    * @return the number of rows passed to the consumer
+    * @see PreparedQuery#forEachBatch(int, CheckedSQLConsumer, Object...)
+    */
+   public long forEachBatch(String sql, int batchSize, CheckedSQLConsumer<ColumnBatch> consumer, Object... parameters) throws SQLException {
+      return new PreparedQuery(this, sql).forEachBatch(batchSize, consumer, parameters);
+   }
+
+   /**
+    * Runs a query on the {@link CalciteSearchConfig#executor()}.
+    */
+   <T> CompletableFuture<T> supplyAsync(CheckedSQLSupplier<T> query) {
+      return CompletableFuture.supplyAsync(() -> {
+         try {
+            return query.get();
+         } catch (SQLException e) {
+            throw new CompletionException(e);
+         }
+      }, executor);
+   }
+
+   /**
+    * Waits for the {@link #scheduler()} to admit a prepared statement.
+    *
+    * @param plan  the plan of the statement, null if unknown
+    * @return the slot to close once the query is executed, null if there is no scheduler
+    */
+   QueryScheduler.Permit admit(PlanCache.Plan plan) throws SQLException {
+      if (scheduler == null) {
+         return null;
+      }
+      return scheduler.admit(plan == null ? Double.NaN : plan.cost());
+   }
+
+   /**
+    * @return the {@link IndexGenerations} before a query is executed, to tag its cached result
+    */
+   Map<String, Long> indexGenerations() {
+      return indexGenerations.snapshot();
+   }
+
+   /**
+    * @param key  the key of the query in the result cache, null if it is not cached
+    * @return the extracted rows of the cached result, null if there is none
+    */
+   <K> List<K> cachedResult(ResultCache.Key key, CheckedSQLFunction<ResultSet, List<K>> extractor) throws SQLException {
+      ResultSet cached = key == null ? null : resultCache.get(key);
+      return cached == null ? null : extractor.apply(cached);
+   }
+
+   /**
+    * Executes a statement and extracts its rows, tracking the memory they retain if there is a
+    * {@link CalciteSearchConfig#queryMemoryLimit()}, and recording its {@link QueryProfile} if there are
+    * {@link CalciteSearchConfig#metrics()} or a {@link CalciteSearchConfig#slowQueryThreshold()}.
+    * <p>
+    * If the requests of the client are traced by a {@link RequestTracer}, the ones of the statement are tagged with
+    * a new query id, and listed in its profile.
+    *
+    * @param preparation  the preparation of the statement, null if it is unknown
+    */
+   <K> List<K> execute(String sql, PreparedStatement statement, CachingDriver.Preparation preparation,
+                       ResultCache.Key key, Map<String, Long> generations,
+                       CheckedSQLFunction<ResultSet, List<K>> extractor) throws SQLException {
+      PlanCache.Plan plan = preparation == null ? null : preparation.plan();
+      boolean profiled = metrics != QueryMetrics.NONE || slowQueryThreshold != null;
+      boolean traced = requestTracer != null;
+      if (queryMemoryLimit == 0 && !profiled && !traced) {
+         try (ResultSet resultSet = statement.executeQuery()) {
+            return extract(key, generations, plan, resultSet, extractor);
+         }
+      }
+
+      QueryMemory memory = queryMemoryLimit == 0 ? null : new QueryMemory(sql, queryMemoryLimit);
+      String queryId = traced ? UUID.randomUUID().toString() : null;
+      BackendStats backend = profiled || traced ? new BackendStats(queryId) : null;
+      RequestTracer.Trace trace = profiled && traced ? requestTracer.trace(queryId) : null;
+      long start = System.nanoTime();
+      List<K> rows;
+      long count;
+      // the operators look the memory and the stats up in the thread creating them, as the statement is executed
+      try (trace;
+           Scope tracking = memory == null ? null : memory.open();
+           Scope fetching = backend == null ? null : backend.open();
+           ResultSet resultSet = statement.executeQuery()) {
+         TrackedResultSet tracked = new TrackedResultSet(resultSet, memory);
+         rows = extract(key, generations, plan, tracked.resultSet(), extractor);
+         count = tracked.rows();
+      } catch (SQLException | RuntimeException e) {
+         for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof QueryMemory.LimitExceededException) {
+               throw new SQLException(cause.getMessage(), cause);
+            }
+         }
+         throw e;
+      } finally {
+         if (memory != null) {
+            LOG.debug("Query retained at most {} bytes of {}: {}", memory.peak(), memory.limit(), sql);
+            queryMemoryListener.accept(memory);
+         }
+      }
+      if (profiled) {
+         profile(sql, preparation, System.nanoTime() - start, count, backend,
+               trace == null ? List.of() : trace.calls());
+      }
+      return rows;
+   }
+
+   /**
+    * Extracts the rows of a query just executed, caching them if it reads nothing but indices.
+    *
+    * @param generations  the {@link IndexGenerations} before the query was executed
+    * @param plan         the plan of the query, null if it is unknown
+    */
+   <K> List<K> extract(ResultCache.Key key, Map<String, Long> generations, PlanCache.Plan plan, ResultSet resultSet,
+                       CheckedSQLFunction<ResultSet, List<K>> extractor) throws SQLException {
+      Set<String> indices = plan == null ? null : plan.indices();
+      if (key == null || indices == null) {
+         return extractor.apply(resultSet);
+      }
+      return extractor.apply(resultCache.put(key, indices, generations, resultSet));
+   }
+
+   private void profile(String sql, CachingDriver.Preparation preparation, long executionNanos, long rows,
+                        BackendStats backend, List<RequestTracer.Call> requests) {
+      Map<QueryProfile.Phase, Long> nanos = new EnumMap<>(QueryProfile.Phase.class);
+      if (preparation != null) {
+         nanos.putAll(preparation.nanos());
+      }
+      // the requests overlap the execution when they are prefetched
+      nanos.put(QueryProfile.Phase.FETCH, backend.nanos());
+      nanos.put(QueryProfile.Phase.EXECUTE, Math.max(executionNanos - backend.nanos(), 0));
+      PlanCache.Plan plan = preparation == null ? null : preparation.plan();
+      QueryProfile profile = new QueryProfile(backend.queryId(), sql, preparation != null && preparation.cached(),
+            nanos, rows, backend.requests(), backend.bytes(), requests, plan == null ? null : plan.explain());
+
+      metrics.record(profile);
+      if (slowQueryThreshold != null && profile.totalNanos() >= slowQueryThreshold.toNanos()) {
+         LOG.warn("Slow query, {} ms: {}\n{}\n{}{}", profile.totalNanos() / 1_000_000, sql, profile.summary(),
+               requests.stream().map(call -> call.summary() + "\n").collect(Collectors.joining()),
+               profile.plan() == null ? "(unknown plan)" : profile.plan());
+      }
+   }
+
+   private Generation generation() {
+      Generation result = generation;
+      if (result == null) {
+         synchronized (this) {
+            result = generation;
+            if (result == null) {
+               // built lazily since creating the Elasticsearch schema already talks to the server
+               generation = result = new Generation(SchemaCatalog.build(restClient, objectMapper, searchOptions,
+                     scheduler == null ? RequestLimiter.UNLIMITED : scheduler.limiter(), views),
+                     new CachingDriver(planCache, schemaVersion, spill));
+            }
+         }
+      }
+      return result;
+   }
+
+   private Connection openPooledConnection() throws SQLException {
+      Generation shared = generation();
+      Connection connection = shared.driver.connect(CONNECTION_URL, new Properties());
+      shared.catalog.install(connection.unwrap(CalciteConnection.class).getRootSchema());
+      return connection;
+   }
+
+   private record Generation(SchemaCatalog catalog, CachingDriver driver) {
+   }
+
+   public static Object[] row(ResultSet resultSet) throws SQLException {
+      int columnCount = resultSet.getMetaData().getColumnCount();
+      Object[] row = new Object[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+         row[i] = resultSet.getObject(i + 1);
+      }
+      return row;
+   }
+
    public static List<?> columnExtractor(ResultSet resultSet) throws SQLException {
       if (resultSet.getMetaData().getColumnCount() == 1) {
          return singleColumnExtraction(resultSet);
@@ -100,6 +464,26 @@ public class CalciteSearch {
       return result;
    }
 
+   public static List<ColumnBatch> columnarExtraction(ResultSet resultSet) throws SQLException {
+      return columnarExtraction(ColumnBatch.DEFAULT_CAPACITY).apply(resultSet);
+   }
+
+   public static CheckedSQLFunction<ResultSet, List<ColumnBatch>> columnarExtraction(int batchSize) {
+      return resultSet -> {
+         ArrayList<ColumnBatch> result = new ArrayList<>();
+         ColumnBatch batch = ColumnBatch.of(resultSet.getMetaData(), batchSize);
+         while (batch.fill(resultSet)) {
+            if (batch.size() < batch.capacity()) {
+               result.add(batch.compact());
+               break;
+            }
+            result.add(batch);
+            batch = ColumnBatch.of(resultSet.getMetaData(), batchSize);
+         }
+         return result;
+      };
+   }
+
    @SuppressWarnings("unchecked")
    public static List<List<Map<String, Object>>> multipleColumnMapExtraction(ResultSet resultSet) throws SQLException {
       ArrayList<List<Map<String, Object>>> result = new ArrayList<>();
@@ -0,0 +1,178 @@
+package fax.play.service;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import fax.play.search.QueryMemory;
+import fax.play.search.SearchOptions;
+import fax.play.spill.Spilling;
+
+public class CalciteSearchConfig {
+
+   // a virtual thread per query where available (Java 21), so that the queries waiting for their responses do not
+   // hold platform threads; looked up reflectively as the code targets Java 17
+   private static final Executor QUERY_EXECUTOR = queryExecutor();
+
+   private ConnectionPool.Config pool = ConnectionPool.Config.defaults();
+   private int planCacheSize = 256;
+   private SearchOptions search = SearchOptions.defaults();
+   private ResultCache.Config resultCache;
+   private Executor executor = QUERY_EXECUTOR;
+   private QueryScheduler.Config scheduler;
+   private Spilling.Config spill;
+   private long queryMemoryLimit;
+   private Consumer<QueryMemory> queryMemoryListener = memory -> {
+   };
+   private QueryMetrics metrics = QueryMetrics.NONE;
+   private Duration slowQueryThreshold;
+
+   public static CalciteSearchConfig defaults() {
+      return new CalciteSearchConfig();
+   }
+
+   public ConnectionPool.Config pool() {
+      return pool;
+   }
+
+   public CalciteSearchConfig pool(ConnectionPool.Config pool) {
+      this.pool = pool;
+      return this;
+   }
+
+   public int planCacheSize() {
+      return planCacheSize;
+   }
+
+   public CalciteSearchConfig planCacheSize(int planCacheSize) {
+      this.planCacheSize = planCacheSize;
+      return this;
+   }
+
+   /**
+    * @return the options of the typed schema, see {@link SchemaCatalog#TYPED_SCHEMA}
+    */
+   public SearchOptions search() {
+      return search;
+   }
+
+   public CalciteSearchConfig search(SearchOptions search) {
+      this.search = search;
+      return this;
+   }
+
+   /**
+    * @return the bounds of the cache of the rows of the queries, null if it is disabled, which is the default
+    */
+   public ResultCache.Config resultCache() {
+      return resultCache;
+   }
+
+   public CalciteSearchConfig resultCache(ResultCache.Config resultCache) {
+      this.resultCache = resultCache;
+      return this;
+   }
+
+   /**
+    * @return the executor of the asynchronous queries, see {@link CalciteSearch#executeQueryAsync(String)}
+    */
+   public Executor executor() {
+      return executor;
+   }
+
+   public CalciteSearchConfig executor(Executor executor) {
+      this.executor = executor;
+      return this;
+   }
+
+   /**
+    * @return the admission control of the queries, null if it is disabled, which is the default
+    */
+   public QueryScheduler.Config scheduler() {
+      return scheduler;
+   }
+
+   public CalciteSearchConfig scheduler(QueryScheduler.Config scheduler) {
+      this.scheduler = scheduler;
+      return this;
+   }
+
+   /**
+    * @return the memory budget of the joins and the sorts of each query, beyond which they spill to disk,
+    *         null to keep them in memory, which is the default
+    */
+   public Spilling.Config spill() {
+      return spill;
+   }
+
+   public CalciteSearchConfig spill(Spilling.Config spill) {
+      this.spill = spill;
+      return this;
+   }
+
+   /**
+    * @return the estimated heap each query may retain: its buffered pages, the rows of its joins and sorts and the rows
+    *         it materializes, 0 for no limit, which is the default; see {@link CalciteSearch#executeQuery(String)}
+    */
+   public long queryMemoryLimit() {
+      return queryMemoryLimit;
+   }
+
+   public CalciteSearchConfig queryMemoryLimit(long queryMemoryLimit) {
+      if (queryMemoryLimit < 0) {
+         throw new IllegalArgumentException("queryMemoryLimit must not be negative: " + queryMemoryLimit);
+      }
+      this.queryMemoryLimit = queryMemoryLimit;
+      return this;
+   }
+
+   /**
+    * @return told the {@link QueryMemory#peak()} of each query executed within a {@link #queryMemoryLimit()}
+    */
+   public Consumer<QueryMemory> queryMemoryListener() {
+      return queryMemoryListener;
+   }
+
+   public CalciteSearchConfig queryMemoryListener(Consumer<QueryMemory> queryMemoryListener) {
+      this.queryMemoryListener = queryMemoryListener;
+      return this;
+   }
+
+   /**
+    * @return the registry of the {@link QueryProfile} of each query, none by default
+    */
+   public QueryMetrics metrics() {
+      return metrics;
+   }
+
+   public CalciteSearchConfig metrics(QueryMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+   }
+
+   /**
+    * @return the duration beyond which a query is logged as a warning, with its profile and its plan,
+    *         null if it is disabled, which is the default
+    */
+   public Duration slowQueryThreshold() {
+      return slowQueryThreshold;
+   }
+
+   public CalciteSearchConfig slowQueryThreshold(Duration slowQueryThreshold) {
+      this.slowQueryThreshold = slowQueryThreshold;
+      return this;
+   }
+
+   private static Executor queryExecutor() {
+      try {
+         return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+         return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "calcite-query");
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+   }
+}
@@ -0,0 +1,10 @@
+package fax.play.service;
+
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface CheckedSQLConsumer<T> {
+
+   void accept(T t) throws SQLException;
+
+}
@@ -0,0 +1,10 @@
+package fax.play.service;
+
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface CheckedSQLSupplier<T> {
+
+   T get() throws SQLException;
+
+}
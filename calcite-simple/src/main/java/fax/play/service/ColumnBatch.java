@@ -0,0 +1,371 @@
+package fax.play.service;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fixed capacity batch of rows stored column by column.
+ * <p>
+ * Integer, long and floating point columns are kept in primitive arrays, strings are dictionary encoded.
+ * The other types fall back to an array of objects. Values are read by position, e.g. {@link #getInt(int, int)},
+ * so iterating a batch does not allocate anything per row.
+ */
+public final class ColumnBatch {
+
+   public static final int DEFAULT_CAPACITY = 4096;
+
+   private final String[] names;
+   private final Column[] columns;
+   private final int capacity;
+   private int size;
+
+   private ColumnBatch(String[] names, Column[] columns, int capacity) {
+      this.names = names;
+      this.columns = columns;
+      this.capacity = capacity;
+   }
+
+   public static ColumnBatch of(ResultSetMetaData metaData, int capacity) throws SQLException {
+      int columnCount = metaData.getColumnCount();
+      String[] names = new String[columnCount];
+      Column[] columns = new Column[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+         names[i] = metaData.getColumnLabel(i + 1);
+         columns[i] = column(metaData.getColumnType(i + 1), capacity);
+      }
+      return new ColumnBatch(names, columns, capacity);
+   }
+
+   /**
+    * Replaces the content of the batch with the next rows of the result set, up to the capacity.
+    *
+    * @return false if the result set had no more rows
+    */
+   public boolean fill(ResultSet resultSet) throws SQLException {
+      clear();
+      while (size < capacity && resultSet.next()) {
+         for (int i = 0; i < columns.length; i++) {
+            columns[i].read(resultSet, i + 1, size);
+         }
+         size++;
+      }
+      return size > 0;
+   }
+
+   public void clear() {
+      for (Column column : columns) {
+         column.clear(size);
+      }
+      size = 0;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public int capacity() {
+      return capacity;
+   }
+
+   public int columnCount() {
+      return columns.length;
+   }
+
+   public String name(int column) {
+      return names[column];
+   }
+
+   public Column column(int column) {
+      return columns[column];
+   }
+
+   public boolean isNull(int column, int row) {
+      return columns[column].isNull(row);
+   }
+
+   public int getInt(int column, int row) {
+      return ((IntColumn) columns[column]).values[row];
+   }
+
+   public long getLong(int column, int row) {
+      Column values = columns[column];
+      return values instanceof IntColumn ? ((IntColumn) values).values[row] : ((LongColumn) values).values[row];
+   }
+
+   public double getDouble(int column, int row) {
+      return ((DoubleColumn) columns[column]).values[row];
+   }
+
+   public String getString(int column, int row) {
+      return ((StringColumn) columns[column]).get(row);
+   }
+
+   public Object getObject(int column, int row) {
+      return columns[column].getObject(row);
+   }
+
+   /**
+    * Copies the batch, trimming its arrays to the current size: used when batches are retained.
+    */
+   public ColumnBatch compact() {
+      Column[] copies = new Column[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+         copies[i] = columns[i].copy(size);
+      }
+      ColumnBatch copy = new ColumnBatch(names, copies, size);
+      copy.size = size;
+      return copy;
+   }
+
+   private static Column column(int sqlType, int capacity) {
+      switch (sqlType) {
+         case Types.TINYINT:
+         case Types.SMALLINT:
+         case Types.INTEGER:
+            return new IntColumn(capacity);
+         case Types.BIGINT:
+            return new LongColumn(capacity);
+         case Types.REAL:
+         case Types.FLOAT:
+         case Types.DOUBLE:
+            return new DoubleColumn(capacity);
+         case Types.CHAR:
+         case Types.VARCHAR:
+         case Types.LONGVARCHAR:
+            return new StringColumn(capacity);
+         default:
+            return new ObjectColumn(capacity);
+      }
+   }
+
+   public abstract static class Column {
+
+      final BitSet nulls = new BitSet();
+
+      public boolean isNull(int row) {
+         return nulls.get(row);
+      }
+
+      public abstract Object getObject(int row);
+
+      abstract void read(ResultSet resultSet, int index, int row) throws SQLException;
+
+      void clear(int size) {
+         nulls.clear();
+      }
+
+      abstract Column copy(int size);
+   }
+
+   public static final class IntColumn extends Column {
+
+      private final int[] values;
+
+      private IntColumn(int capacity) {
+         values = new int[capacity];
+      }
+
+      /**
+       * @return the backing array, only the first {@link ColumnBatch#size()} values are meaningful
+       */
+      public int[] values() {
+         return values;
+      }
+
+      @Override
+      public Object getObject(int row) {
+         return isNull(row) ? null : values[row];
+      }
+
+      @Override
+      void read(ResultSet resultSet, int index, int row) throws SQLException {
+         values[row] = resultSet.getInt(index);
+         if (resultSet.wasNull()) {
+            nulls.set(row);
+         }
+      }
+
+      @Override
+      Column copy(int size) {
+         IntColumn copy = new IntColumn(size);
+         System.arraycopy(values, 0, copy.values, 0, size);
+         copy.nulls.or(nulls);
+         return copy;
+      }
+   }
+
+   public static final class LongColumn extends Column {
+
+      private final long[] values;
+
+      private LongColumn(int capacity) {
+         values = new long[capacity];
+      }
+
+      public long[] values() {
+         return values;
+      }
+
+      @Override
+      public Object getObject(int row) {
+         return isNull(row) ? null : values[row];
+      }
+
+      @Override
+      void read(ResultSet resultSet, int index, int row) throws SQLException {
+         values[row] = resultSet.getLong(index);
+         if (resultSet.wasNull()) {
+            nulls.set(row);
+         }
+      }
+
+      @Override
+      Column copy(int size) {
+         LongColumn copy = new LongColumn(size);
+         System.arraycopy(values, 0, copy.values, 0, size);
+         copy.nulls.or(nulls);
+         return copy;
+      }
+   }
+
+   public static final class DoubleColumn extends Column {
+
+      private final double[] values;
+
+      private DoubleColumn(int capacity) {
+         values = new double[capacity];
+      }
+
+      public double[] values() {
+         return values;
+      }
+
+      @Override
+      public Object getObject(int row) {
+         return isNull(row) ? null : values[row];
+      }
+
+      @Override
+      void read(ResultSet resultSet, int index, int row) throws SQLException {
+         values[row] = resultSet.getDouble(index);
+         if (resultSet.wasNull()) {
+            nulls.set(row);
+         }
+      }
+
+      @Override
+      Column copy(int size) {
+         DoubleColumn copy = new DoubleColumn(size);
+         System.arraycopy(values, 0, copy.values, 0, size);
+         copy.nulls.or(nulls);
+         return copy;
+      }
+   }
+
+   public static final class StringColumn extends Column {
+
+      private final int[] codes;
+      private final List<String> dictionary = new ArrayList<>();
+      private final Map<String, Integer> lookup = new HashMap<>();
+
+      private StringColumn(int capacity) {
+         codes = new int[capacity];
+      }
+
+      /**
+       * @return the dictionary codes of the rows, see {@link #dictionary()}
+       */
+      public int[] codes() {
+         return codes;
+      }
+
+      public List<String> dictionary() {
+         return dictionary;
+      }
+
+      public String get(int row) {
+         return isNull(row) ? null : dictionary.get(codes[row]);
+      }
+
+      @Override
+      public Object getObject(int row) {
+         return get(row);
+      }
+
+      @Override
+      void read(ResultSet resultSet, int index, int row) throws SQLException {
+         String value = resultSet.getString(index);
+         if (value == null) {
+            nulls.set(row);
+            return;
+         }
+         Integer code = lookup.get(value);
+         if (code == null) {
+            code = dictionary.size();
+            dictionary.add(value);
+            lookup.put(value, code);
+         }
+         codes[row] = code;
+      }
+
+      @Override
+      void clear(int size) {
+         super.clear(size);
+         dictionary.clear();
+         lookup.clear();
+      }
+
+      @Override
+      Column copy(int size) {
+         StringColumn copy = new StringColumn(size);
+         System.arraycopy(codes, 0, copy.codes, 0, size);
+         copy.nulls.or(nulls);
+         copy.dictionary.addAll(dictionary);
+         return copy;
+      }
+   }
+
+   public static final class ObjectColumn extends Column {
+
+      private final Object[] values;
+
+      private ObjectColumn(int capacity) {
+         values = new Object[capacity];
+      }
+
+      @Override
+      public Object getObject(int row) {
+         return values[row];
+      }
+
+      @Override
+      void read(ResultSet resultSet, int index, int row) throws SQLException {
+         values[row] = resultSet.getObject(index);
+         if (values[row] == null) {
+            nulls.set(row);
+         }
+      }
+
+      @Override
+      void clear(int size) {
+         super.clear(size);
+         Arrays.fill(values, 0, size, null);
+      }
+
+      @Override
+      Column copy(int size) {
+         ObjectColumn copy = new ObjectColumn(size);
+         System.arraycopy(values, 0, copy.values, 0, size);
+         copy.nulls.or(nulls);
+         return copy;
+      }
+   }
+}
@@ -0,0 +1,277 @@
+package fax.play.service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of warm connections.
+ * <p>
+ * Borrowed connections are returned to the pool when closed. Idle connections are validated before being handed
+ * out again and are evicted once they have been idle longer than {@link Config#maxIdle()}.
+ * {@link #invalidate()} retires all the current connections, e.g. after the schema they expose has changed.
+ * <p>
+ * The schema, auto-commit and read-only settings of a connection are restored once it is returned, or the connection
+ * is discarded if they cannot be. Its other state is not: the root schema of a connection
+ * {@link Connection#unwrap(Class) unwrapped} by a borrower must not be changed, the next borrowers would see it.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+   private static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+   public record Config(int maxSize, Duration maxIdle, Duration borrowTimeout, int validationTimeoutSeconds) {
+
+      public static Config defaults() {
+         return new Config(Runtime.getRuntime().availableProcessors() * 2, Duration.ofMinutes(10),
+               Duration.ofSeconds(30), 1);
+      }
+
+      public Config {
+         if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+         }
+      }
+   }
+
+   private final CheckedSQLSupplier<Connection> factory;
+   private final Config config;
+   private final Semaphore permits;
+   // most recently returned first, so that the warmest connections are reused and the coldest ones age out
+   private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+   private final AtomicLong generation = new AtomicLong();
+
+   private volatile boolean closed;
+
+   public ConnectionPool(CheckedSQLSupplier<Connection> factory, Config config) {
+      this.factory = factory;
+      this.config = config;
+      this.permits = new Semaphore(config.maxSize(), true);
+   }
+
+   public Connection borrow() throws SQLException {
+      if (closed) {
+         throw new SQLException("Connection pool is closed");
+      }
+      try {
+         if (!permits.tryAcquire(config.borrowTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new SQLTimeoutException("No connection available within " + config.borrowTimeout()
+                  + " (max size " + config.maxSize() + ")");
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a connection", e);
+      }
+
+      try {
+         long current = generation.get();
+         Connection connection = pollHealthy();
+         if (connection == null) {
+            connection = factory.get();
+         }
+         try {
+            return pooled(connection, current);
+         } catch (SQLException | RuntimeException e) {
+            closeQuietly(connection);
+            throw e;
+         }
+      } catch (SQLException | RuntimeException e) {
+         permits.release();
+         throw e;
+      }
+   }
+
+   public int idleCount() {
+      synchronized (idle) {
+         return idle.size();
+      }
+   }
+
+   public int activeCount() {
+      return config.maxSize() - permits.availablePermits();
+   }
+
+   public void evictIdle() {
+      List<Connection> expired = new ArrayList<>();
+      long now = System.nanoTime();
+      synchronized (idle) {
+         Iterator<IdleConnection> oldestFirst = idle.descendingIterator();
+         while (oldestFirst.hasNext()) {
+            IdleConnection candidate = oldestFirst.next();
+            if (now - candidate.since < config.maxIdle().toNanos()) {
+               break;
+            }
+            oldestFirst.remove();
+            expired.add(candidate.connection);
+         }
+      }
+      expired.forEach(ConnectionPool::closeQuietly);
+   }
+
+   public void invalidate() {
+      generation.incrementAndGet();
+      drain();
+   }
+
+   @Override
+   public void close() {
+      closed = true;
+      drain();
+   }
+
+   private void drain() {
+      List<IdleConnection> drained;
+      synchronized (idle) {
+         drained = new ArrayList<>(idle);
+         idle.clear();
+      }
+      drained.forEach(entry -> closeQuietly(entry.connection));
+   }
+
+   private Connection pollHealthy() {
+      evictIdle();
+      while (true) {
+         IdleConnection candidate;
+         synchronized (idle) {
+            candidate = idle.pollFirst();
+         }
+         if (candidate == null) {
+            return null;
+         }
+         if (candidate.generation == generation.get() && isHealthy(candidate.connection)) {
+            return candidate.connection;
+         }
+         LOG.debug("Discarding broken pooled connection");
+         closeQuietly(candidate.connection);
+      }
+   }
+
+   private boolean isHealthy(Connection connection) {
+      try {
+         return !connection.isClosed() && connection.isValid(config.validationTimeoutSeconds());
+      } catch (SQLException e) {
+         return false;
+      }
+   }
+
+   /**
+    * @param reset  whether the state of the connection was restored
+    */
+   private void release(Connection connection, long borrowedGeneration, boolean reset) {
+      try {
+         if (closed || !reset || borrowedGeneration != generation.get() || !isHealthy(connection)) {
+            closeQuietly(connection);
+            return;
+         }
+         synchronized (idle) {
+            idle.addFirst(new IdleConnection(connection, System.nanoTime(), borrowedGeneration));
+         }
+      } finally {
+         permits.release();
+      }
+      evictIdle();
+   }
+
+   private Connection pooled(Connection connection, long borrowedGeneration) throws SQLException {
+      return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+            new Class<?>[]{Connection.class}, new PooledConnectionHandler(connection, borrowedGeneration));
+   }
+
+   private static void closeQuietly(Connection connection) {
+      try {
+         connection.close();
+      } catch (SQLException e) {
+         LOG.debug("Error closing pooled connection", e);
+      }
+   }
+
+   private record IdleConnection(Connection connection, long since, long generation) {
+   }
+
+   private final class PooledConnectionHandler implements InvocationHandler {
+
+      private final Connection delegate;
+      private final long generation;
+      private final AtomicBoolean returned = new AtomicBoolean();
+      // the state the connection was borrowed with
+      private final String schema;
+      private final boolean autoCommit;
+      private final boolean readOnly;
+
+      private PooledConnectionHandler(Connection delegate, long generation) throws SQLException {
+         this.delegate = delegate;
+         this.generation = generation;
+         this.schema = delegate.getSchema();
+         this.autoCommit = delegate.getAutoCommit();
+         this.readOnly = delegate.isReadOnly();
+      }
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+         switch (method.getName()) {
+            case "close":
+               if (returned.compareAndSet(false, true)) {
+                  release(delegate, generation, reset());
+               }
+               return null;
+            case "isClosed":
+               return returned.get() || delegate.isClosed();
+            case "equals":
+               return proxy == args[0];
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "toString":
+               return "Pooled" + delegate;
+            default:
+               // unwrap and isWrapperFor included: the delegate is only handed out while borrowed
+               if (returned.get()) {
+                  throw new SQLException("Connection has been returned to the pool");
+               }
+         }
+         try {
+            return method.invoke(delegate, args);
+         } catch (InvocationTargetException e) {
+            throw e.getCause();
+         }
+      }
+
+      /**
+       * @return whether the state the connection was borrowed with is restored
+       */
+      private boolean reset() {
+         try {
+            if (!Objects.equals(delegate.getSchema(), schema)) {
+               delegate.setSchema(schema);
+            }
+            if (delegate.getAutoCommit() != autoCommit) {
+               delegate.setAutoCommit(autoCommit);
+            }
+            if (delegate.isReadOnly() != readOnly) {
+               delegate.setReadOnly(readOnly);
+            }
+            // a setting that cannot be restored, e.g. a schema back to null, remains changed
+            return Objects.equals(delegate.getSchema(), schema) && delegate.getAutoCommit() == autoCommit
+                  && delegate.isReadOnly() == readOnly;
+         } catch (SQLException e) {
+            LOG.debug("Cannot restore the state of pooled connection", e);
+            return false;
+         }
+      }
+   }
+}
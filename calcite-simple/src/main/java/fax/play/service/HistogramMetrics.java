@@ -0,0 +1,78 @@
+package fax.play.service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import fax.play.metrics.Histogram;
+
+/**
+ * {@link QueryMetrics} kept in memory: a {@link Histogram} per phase and of the whole queries, and the totals
+ * of their counters.
+ */
+public class HistogramMetrics implements QueryMetrics {
+
+   private final Map<QueryProfile.Phase, Histogram> phases = new EnumMap<>(QueryProfile.Phase.class);
+   private final Histogram total = new Histogram();
+   private final LongAdder cachedPlans = new LongAdder();
+   private final LongAdder rows = new LongAdder();
+   private final LongAdder backendRequests = new LongAdder();
+   private final LongAdder backendBytes = new LongAdder();
+
+   public HistogramMetrics() {
+      for (QueryProfile.Phase phase : QueryProfile.Phase.values()) {
+         phases.put(phase, new Histogram());
+      }
+   }
+
+   @Override
+   public void record(QueryProfile profile) {
+      // a cached plan skips the preparation: its phases do not weigh on the ones of the prepared plans
+      for (QueryProfile.Phase phase : QueryProfile.Phase.values()) {
+         if (!profile.planCached() || phase.compareTo(QueryProfile.Phase.FETCH) >= 0) {
+            phases.get(phase).record(profile.nanos(phase));
+         }
+      }
+      total.record(profile.totalNanos());
+      if (profile.planCached()) {
+         cachedPlans.increment();
+      }
+      rows.add(profile.rows());
+      backendRequests.add(profile.backendRequests());
+      backendBytes.add(profile.backendBytes());
+   }
+
+   /**
+    * @return the durations of the phase; the ones of the preparation only count the plans not found in the cache
+    */
+   public Histogram histogram(QueryProfile.Phase phase) {
+      return phases.get(phase);
+   }
+
+   /**
+    * @return the durations of the queries
+    */
+   public Histogram total() {
+      return total;
+   }
+
+   public long queries() {
+      return total.count();
+   }
+
+   public long cachedPlans() {
+      return cachedPlans.sum();
+   }
+
+   public long rows() {
+      return rows.sum();
+   }
+
+   public long backendRequests() {
+      return backendRequests.sum();
+   }
+
+   public long backendBytes() {
+      return backendBytes.sum();
+   }
+}
@@ -0,0 +1,96 @@
+package fax.play.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.elasticsearch.client.RestClient;
+
+/**
+ * A counter of the writes to each index of a cluster, advanced by the {@link BulkIndexer}s once their requests
+ * complete: the {@link ResultCache} entries tagged with a previous generation of an index they read are stale.
+ * <p>
+ * The writes sent without {@link BulkIndexer.Refresh#TRUE} or {@link BulkIndexer.Refresh#WAIT_FOR} are not searchable
+ * yet when they complete: the queries reading their indices are not cached until a {@link BulkIndexer#refresh()}.
+ * <p>
+ * There is one instance per {@link RestClient}, so that the indexers and the {@link CalciteSearch} instances sharing
+ * a client share the counters, without being wired together.
+ */
+public final class IndexGenerations {
+
+   private static final Map<RestClient, IndexGenerations> INSTANCES = new WeakHashMap<>();
+
+   private final Map<String, Long> generations = new ConcurrentHashMap<>();
+   // the generation of the last write not refreshed yet, for each index
+   private final Map<String, Long> unrefreshed = new HashMap<>();
+
+   private IndexGenerations() {
+   }
+
+   public static IndexGenerations of(RestClient restClient) {
+      synchronized (INSTANCES) {
+         return INSTANCES.computeIfAbsent(restClient, client -> new IndexGenerations());
+      }
+   }
+
+   /**
+    * @return the number of completed writes to the index, 0 if none
+    */
+   public long generation(String index) {
+      return generations.getOrDefault(index, 0L);
+   }
+
+   /**
+    * @param refreshed  whether the writes are searchable once completed
+    */
+   public synchronized void advance(Collection<String> indices, boolean refreshed) {
+      for (String index : indices) {
+         long generation = generations.merge(index, 1L, Long::sum);
+         if (!refreshed) {
+            unrefreshed.put(index, generation);
+         }
+      }
+   }
+
+   /**
+    * @return whether all the completed writes to the index are searchable
+    */
+   public synchronized boolean isRefreshed(String index) {
+      return !unrefreshed.containsKey(index);
+   }
+
+   /**
+    * @return the current generations of the indices with writes not searchable yet
+    */
+   public synchronized Map<String, Long> unrefreshed() {
+      Map<String, Long> current = new HashMap<>();
+      unrefreshed.keySet().forEach(index -> current.put(index, generation(index)));
+      return current;
+   }
+
+   /**
+    * Records a refresh of the indices, making the writes completed before it started searchable: the ones completed
+    * meanwhile still wait for the next one.
+    *
+    * @param started  the generations of the indices when the refresh started
+    */
+   public synchronized void refreshed(Map<String, Long> started) {
+      started.forEach((index, generation) -> {
+         Long written = unrefreshed.get(index);
+         if (written != null && written <= generation) {
+            unrefreshed.remove(index);
+            // the results read before the refresh are stale
+            generations.merge(index, 1L, Long::sum);
+         }
+      });
+   }
+
+   /**
+    * @return the current generations of all the indices written so far
+    */
+   public Map<String, Long> snapshot() {
+      return Map.copyOf(generations);
+   }
+}
@@ -0,0 +1,128 @@
+package fax.play.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.calcite.jdbc.CalcitePrepare;
+
+/**
+ * Size-bounded LRU cache of prepared statements: optimized plan plus generated and compiled code.
+ * <p>
+ * It is shared by all the connections of a {@link CalciteSearch}, since they all expose the same catalog.
+ */
+public class PlanCache {
+
+   public record Key(String sql, long schemaVersion, List<String> defaultSchemaPath, long maxRowCount) {
+   }
+
+   /**
+    * @param indices  the indices the statement reads, null if it also reads other tables
+    * @param cost     the estimated rows processed by the optimized plan, {@code NaN} if unknown
+    * @param explain  the optimized plan, as printed by {@code EXPLAIN PLAN FOR}
+    */
+   public record Plan(CalcitePrepare.CalciteSignature<?> signature, Set<String> indices, double cost, String explain) {
+   }
+
+   private final int maxSize;
+   private final LinkedHashMap<Key, Plan> entries;
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+
+   public PlanCache(int maxSize) {
+      this.maxSize = maxSize;
+      this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Key, Plan> eldest) {
+            return size() > PlanCache.this.maxSize;
+         }
+      };
+   }
+
+   public synchronized Plan get(Key key) {
+      Plan plan = entries.get(key);
+      (plan == null ? misses : hits).incrementAndGet();
+      return plan;
+   }
+
+   public synchronized void put(Key key, Plan plan) {
+      entries.put(key, plan);
+   }
+
+   public synchronized void retainSchemaVersion(long schemaVersion) {
+      entries.keySet().removeIf(key -> key.schemaVersion() != schemaVersion);
+   }
+
+   public synchronized void clear() {
+      entries.clear();
+   }
+
+   public synchronized int size() {
+      return entries.size();
+   }
+
+   public long hits() {
+      return hits.get();
+   }
+
+   public long misses() {
+      return misses.get();
+   }
+
+   /**
+    * Collapses runs of whitespace outside quoted literals and identifiers and drops trailing semicolons,
+    * so that formatting differences do not defeat the cache. The comments are kept, with the line break ending a
+    * {@code --} comment: without it, the rest of the line would be commented out.
+    */
+   public static String normalize(String sql) {
+      StringBuilder normalized = new StringBuilder(sql.length());
+      char quote = 0;
+      boolean pendingSpace = false;
+      for (int i = 0; i < sql.length(); i++) {
+         char c = sql.charAt(i);
+         if (quote != 0) {
+            normalized.append(c);
+            if (c == quote) {
+               quote = 0;
+            }
+            continue;
+         }
+         if (Character.isWhitespace(c)) {
+            pendingSpace = normalized.length() > 0 && normalized.charAt(normalized.length() - 1) != '\n';
+            continue;
+         }
+         if (pendingSpace) {
+            normalized.append(' ');
+            pendingSpace = false;
+         }
+         if (sql.startsWith("--", i)) {
+            int end = i;
+            while (end < sql.length() && sql.charAt(end) != '\n' && sql.charAt(end) != '\r') {
+               end++;
+            }
+            normalized.append(sql, i, end).append('\n');
+            i = end;
+            continue;
+         }
+         if (sql.startsWith("/*", i)) {
+            int end = sql.indexOf("*/", i + 2);
+            end = end < 0 ? sql.length() : end + 2;
+            normalized.append(sql, i, end);
+            i = end - 1;
+            continue;
+         }
+         if (c == '\'' || c == '"' || c == '`') {
+            quote = c;
+         }
+         normalized.append(c);
+      }
+      int end = normalized.length();
+      while (end > 0 && ";\n ".indexOf(normalized.charAt(end - 1)) >= 0) {
+         end--;
+      }
+      normalized.setLength(end);
+      return normalized.toString();
+   }
+}
@@ -0,0 +1,147 @@
+package fax.play.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * A query with bind parameters (e.g. {@code WHERE t1.id <= ?}), planned once and executed many times.
+ * <p>
+ * The plan and the compiled code live in the {@link PlanCache} shared by the pooled connections,
+ * so executing it again, on any connection, skips the planner.
+ */
+public class PreparedQuery {
+
+   private final CalciteSearch calciteSearch;
+   private final String sql;
+
+   PreparedQuery(CalciteSearch calciteSearch, String sql) {
+      this.calciteSearch = calciteSearch;
+      this.sql = sql;
+   }
+
+   public String sql() {
+      return sql;
+   }
+
+   public int parameterCount() throws SQLException {
+      try (Connection connection = calciteSearch.createConnection();
+           PreparedStatement statement = connection.prepareStatement(sql)) {
+         return statement.getParameterMetaData().getParameterCount();
+      }
+   }
+
+   public List<?> execute(Object... parameters) throws SQLException {
+      return execute(CalciteSearch::columnExtractor, parameters);
+   }
+
+   /**
+    * @return the extracted rows, from the {@link CalciteSearch#resultCache()} if enabled, otherwise executed once
+    *         admitted by the {@link CalciteSearch#scheduler()} if enabled
+    * @throws SQLException also if the query retains more than the {@link CalciteSearchConfig#queryMemoryLimit()}
+    */
+   public <K> List<K> execute(CheckedSQLFunction<ResultSet, List<K>> extractor, Object... parameters) throws SQLException {
+      ResultCache.Key key = calciteSearch.resultCache() == null ? null : ResultCache.Key.of(sql, parameters);
+      List<K> cached = calciteSearch.cachedResult(key, extractor);
+      if (cached != null) {
+         return cached;
+      }
+      Map<String, Long> generations = calciteSearch.indexGenerations();
+      try (Connection connection = calciteSearch.createConnection();
+           PreparedStatement statement = connection.prepareStatement(sql);
+           QueryScheduler.Permit permit = calciteSearch.admit(CachingDriver.prepared())) {
+         bind(statement, parameters);
+         return calciteSearch.execute(sql, statement, CachingDriver.preparation(), key, generations, extractor);
+      }
+   }
+
+   /**
+    * @see CalciteSearch#executeQueryAsync(String)
+    */
+   public <K> CompletableFuture<List<K>> executeAsync(CheckedSQLFunction<ResultSet, List<K>> extractor, Object... parameters) {
+      return calciteSearch.supplyAsync(() -> execute(extractor, parameters));
+   }
+
+   /**
+    * @return the lazily pulled rows, the cursor holds a pooled connection until it is closed
+    */
+   public <T> RowCursor<T> cursor(CheckedSQLFunction<ResultSet, T> rowMapper, Object... parameters) throws SQLException {
+      Connection connection = calciteSearch.createConnection();
+      PreparedStatement statement = null;
+      try {
+         statement = connection.prepareStatement(sql);
+         bind(statement, parameters);
+         return new RowCursor<>(statement.executeQuery(), rowMapper, statement, connection);
+      } catch (SQLException | RuntimeException e) {
+         if (statement != null) {
+            statement.close();
+         }
+         connection.close();
+         throw e;
+      }
+   }
+
+   /**
+    * @return the lazily pulled rows, the stream must be closed
+    */
+   public <T> Stream<T> stream(CheckedSQLFunction<ResultSet, T> rowMapper, Object... parameters) throws SQLException {
+      return cursor(rowMapper, parameters).stream();
+   }
+
+   public Stream<Object[]> stream(Object... parameters) throws SQLException {
+      return stream(CalciteSearch::row, parameters);
+   }
+
+   /**
+    * Passes the result set, positioned on each row in turn, to the consumer: nothing is allocated per row.
+    *
+    * @return the number of rows
+    */
+   public long forEachRow(CheckedSQLConsumer<ResultSet> consumer, Object... parameters) throws SQLException {
+      long rows = 0;
+      try (Connection connection = calciteSearch.createConnection();
+           PreparedStatement statement = connection.prepareStatement(sql)) {
+         bind(statement, parameters);
+         try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+               consumer.accept(resultSet);
+               rows++;
+            }
+         }
+      }
+      return rows;
+   }
+
+   /**
+    * Reads the rows into a single, reused, {@link ColumnBatch} that is passed to the consumer each time it is full:
+    * the consumer must not retain it (see {@link ColumnBatch#compact()}).
+    *
+    * @return the number of rows
+    */
+   public long forEachBatch(int batchSize, CheckedSQLConsumer<ColumnBatch> consumer, Object... parameters) throws SQLException {
+      long rows = 0;
+      try (Connection connection = calciteSearch.createConnection();
+           PreparedStatement statement = connection.prepareStatement(sql)) {
+         bind(statement, parameters);
+         try (ResultSet resultSet = statement.executeQuery()) {
+            ColumnBatch batch = ColumnBatch.of(resultSet.getMetaData(), batchSize);
+            while (batch.fill(resultSet)) {
+               consumer.accept(batch);
+               rows += batch.size();
+            }
+         }
+      }
+      return rows;
+   }
+
+   static void bind(PreparedStatement statement, Object... parameters) throws SQLException {
+      for (int i = 0; i < parameters.length; i++) {
+         statement.setObject(i + 1, parameters[i]);
+      }
+   }
+}
@@ -0,0 +1,16 @@
+package fax.play.service;
+
+/**
+ * The registry the {@link QueryProfile} of each query executed by {@link CalciteSearch} is recorded on, to be exported
+ * to the monitoring system at hand; see {@link HistogramMetrics} for one kept in memory.
+ * <p>
+ * It is called by the threads executing the queries, once their rows are extracted.
+ */
+@FunctionalInterface
+public interface QueryMetrics {
+
+   QueryMetrics NONE = profile -> {
+   };
+
+   void record(QueryProfile profile);
+}
@@ -0,0 +1,82 @@
+package fax.play.service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import fax.play.metrics.RequestTracer;
+
+/**
+ * Where the time of a query went, recorded by {@link CalciteSearch} on its {@link QueryMetrics}.
+ *
+ * @param queryId          the id the requests of the query were tagged with, null if they were not traced
+ * @param sql              the SQL of the query
+ * @param planCached       whether the plan was found in the {@link PlanCache}: then nothing was prepared
+ * @param nanos            the time of each phase
+ * @param rows             the rows extracted from the result
+ * @param backendRequests  the requests sent to the server
+ * @param backendBytes     the bytes of their responses
+ * @param requests         the requests traced by the {@link RequestTracer} of the client, none if it has none
+ * @param plan             the optimized plan, null if unknown, e.g. for the queries with ad-hoc views
+ */
+public record QueryProfile(String queryId, String sql, boolean planCached, Map<Phase, Long> nanos, long rows,
+                           long backendRequests, long backendBytes, List<RequestTracer.Call> requests, String plan) {
+
+   public enum Phase {
+      PARSE,
+      /**
+       * The validation and the conversion to relational algebra.
+       */
+      VALIDATE,
+      /**
+       * The planners and the programs run on the converted plan.
+       */
+      OPTIMIZE,
+      /**
+       * The generation and the compilation of the code of the plan.
+       */
+      CODEGEN,
+      /**
+       * The requests to the server, until their responses are read: summed over the requests, they may overlap each
+       * other and the execution of the prefetched or sliced scans.
+       */
+      FETCH,
+      /**
+       * The execution of the plan on the client and the extraction of the rows, besides the requests.
+       */
+      EXECUTE
+   }
+
+   public QueryProfile {
+      nanos = Map.copyOf(nanos);
+      requests = List.copyOf(requests);
+   }
+
+   public long nanos(Phase phase) {
+      return nanos.getOrDefault(phase, 0L);
+   }
+
+   /**
+    * @return the time from the preparation of the query to its last row
+    */
+   public long totalNanos() {
+      return nanos.values().stream().mapToLong(Long::longValue).sum();
+   }
+
+   /**
+    * @return the phases in milliseconds and the counters, e.g. for a log line
+    */
+   public String summary() {
+      StringJoiner summary = new StringJoiner(", ");
+      for (Phase phase : Phase.values()) {
+         summary.add(phase.name().toLowerCase(Locale.ROOT) + " "
+               + String.format(Locale.ROOT, "%.3f ms", nanos(phase) / 1e6));
+      }
+      return summary.add(rows + " rows")
+            .add(backendRequests + " requests")
+            .add(backendBytes + " bytes")
+            .add(planCached ? "cached plan" : "prepared plan")
+            .toString();
+   }
+}
@@ -0,0 +1,250 @@
+package fax.play.service;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fax.play.search.RequestLimiter;
+
+/**
+ * Admission control of the queries of a {@link CalciteSearch}, in front of their execution.
+ * <p>
+ * Once planned, a query waits for one of the {@link Config#maxQueries()} execution slots in the queue of the
+ * {@link Priority} of its estimated cost: a free slot goes to the oldest query of the cheapest class waiting, so the
+ * point lookups overtake the heavy joins, and a query still waiting after {@link Config#maxWait()} is rejected.
+ * The requests the running queries send are bound in total and for each index by the {@link #limiter()}.
+ */
+public class QueryScheduler {
+
+   /**
+    * The classes of the queries by their estimated cost, cheapest first.
+    */
+   public enum Priority {
+      CHEAP, MEDIUM, HEAVY
+   }
+
+   /**
+    * @param maxQueries        the queries executed at the same time
+    * @param maxRequests       the requests to the cluster in flight
+    * @param maxIndexRequests  the requests to each index in flight
+    * @param cheapCost         the highest estimated cost of a {@link Priority#CHEAP} query
+    * @param heavyCost         the lowest estimated cost of a {@link Priority#HEAVY} query
+    * @param maxWait           how long a query waits for a slot before being rejected
+    */
+   public record Config(int maxQueries, int maxRequests, int maxIndexRequests, double cheapCost, double heavyCost,
+                        Duration maxWait) {
+
+      public static Config defaults() {
+         int processors = Runtime.getRuntime().availableProcessors();
+         return new Config(processors * 2, processors * 8, processors * 2, 1_000, 100_000, Duration.ofSeconds(30));
+      }
+
+      public Config {
+         if (maxQueries < 1) {
+            throw new IllegalArgumentException("maxQueries must be positive: " + maxQueries);
+         }
+         if (cheapCost > heavyCost) {
+            throw new IllegalArgumentException("cheapCost must not exceed heavyCost: " + cheapCost + " > " + heavyCost);
+         }
+         if (maxWait == null || maxWait.isNegative()) {
+            throw new IllegalArgumentException("maxWait must not be negative: " + maxWait);
+         }
+      }
+   }
+
+   /**
+    * @param queued     the queries waiting for a slot
+    * @param admitted   the queries admitted so far
+    * @param rejected   the queries rejected so far, after waiting {@link Config#maxWait()}
+    * @param totalWait  the time waited by the admitted queries
+    * @param maxWait    the longest time waited by an admitted query
+    */
+   public record Metrics(int queued, long admitted, long rejected, Duration totalWait, Duration maxWait) {
+
+      /**
+       * @return the mean time waited by the admitted queries
+       */
+      public Duration meanWait() {
+         return admitted == 0 ? Duration.ZERO : totalWait.dividedBy(admitted);
+      }
+   }
+
+   /**
+    * An execution slot, released by closing it.
+    */
+   public interface Permit extends AutoCloseable {
+
+      Priority priority();
+
+      @Override
+      void close();
+   }
+
+   private final Config config;
+   private final RequestLimiter limiter;
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition released = lock.newCondition();
+   private final Map<Priority, ArrayDeque<Object>> queues = new EnumMap<>(Priority.class);
+   private final Map<Priority, Stats> stats = new EnumMap<>(Priority.class);
+   private int running;
+
+   public QueryScheduler(Config config) {
+      this.config = config;
+      this.limiter = new RequestLimiter(config.maxRequests(), config.maxIndexRequests());
+      for (Priority priority : Priority.values()) {
+         queues.put(priority, new ArrayDeque<>());
+         stats.put(priority, new Stats());
+      }
+   }
+
+   /**
+    * @return the bound of the requests of the queries, shared by the transports of the typed schema
+    */
+   public RequestLimiter limiter() {
+      return limiter;
+   }
+
+   /**
+    * @param cost  the estimated rows processed by the plan, a query of unknown cost ({@code NaN}) is
+    *              {@link Priority#HEAVY}
+    */
+   public Priority priority(double cost) {
+      if (cost <= config.cheapCost()) {
+         return Priority.CHEAP;
+      }
+      if (cost < config.heavyCost()) {
+         return Priority.MEDIUM;
+      }
+      return Priority.HEAVY;
+   }
+
+   /**
+    * Waits for an execution slot.
+    *
+    * @throws SQLTimeoutException if no slot was granted within {@link Config#maxWait()}
+    */
+   public Permit admit(double cost) throws SQLException {
+      Priority priority = priority(cost);
+      Object ticket = new Object();
+      long start = System.nanoTime();
+      long remaining = config.maxWait().toNanos();
+      lock.lock();
+      try {
+         ArrayDeque<Object> queue = queues.get(priority);
+         queue.addLast(ticket);
+         try {
+            while (running >= config.maxQueries() || next() != ticket) {
+               if (remaining <= 0) {
+                  stats.get(priority).rejected++;
+                  throw new SQLTimeoutException("Query of cost " + cost + " rejected after waiting "
+                        + config.maxWait() + " in the " + priority + " queue (" + running + " running)");
+               }
+               remaining = released.awaitNanos(remaining);
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the admission of a query", e);
+         } finally {
+            queue.remove(ticket);
+            // the next query in line may be admitted in place of this one
+            released.signalAll();
+         }
+         running++;
+         stats.get(priority).admitted(System.nanoTime() - start);
+      } finally {
+         lock.unlock();
+      }
+      return new QueryPermit(priority);
+   }
+
+   /**
+    * @return the current state of the queue of each class
+    */
+   public Map<Priority, Metrics> metrics() {
+      lock.lock();
+      try {
+         Map<Priority, Metrics> metrics = new EnumMap<>(Priority.class);
+         stats.forEach((priority, s) -> metrics.put(priority, new Metrics(queues.get(priority).size(), s.admitted,
+               s.rejected, Duration.ofNanos(s.totalWait), Duration.ofNanos(s.maxWait))));
+         return metrics;
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * @return the queries being executed
+    */
+   public int running() {
+      lock.lock();
+      try {
+         return running;
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * @return the oldest query of the cheapest class waiting
+    */
+   private Object next() {
+      for (ArrayDeque<Object> queue : queues.values()) {
+         if (!queue.isEmpty()) {
+            return queue.peekFirst();
+         }
+      }
+      return null;
+   }
+
+   private void release() {
+      lock.lock();
+      try {
+         running--;
+         released.signalAll();
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   private static final class Stats {
+
+      private long admitted;
+      private long rejected;
+      private long totalWait;
+      private long maxWait;
+
+      private void admitted(long wait) {
+         admitted++;
+         totalWait += wait;
+         maxWait = Math.max(maxWait, wait);
+      }
+   }
+
+   private final class QueryPermit implements Permit {
+
+      private final Priority priority;
+      private boolean closed;
+
+      private QueryPermit(Priority priority) {
+         this.priority = priority;
+      }
+
+      @Override
+      public Priority priority() {
+         return priority;
+      }
+
+      @Override
+      public void close() {
+         if (!closed) {
+            closed = true;
+            release();
+         }
+      }
+   }
+}
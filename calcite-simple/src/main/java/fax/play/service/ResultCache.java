@@ -0,0 +1,206 @@
+package fax.play.service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * LRU cache of the rows of the queries, bounded by the number of entries and by their estimated size in the heap.
+ * <p>
+ * Each entry is tagged with the {@link IndexGenerations generation} of the indices the query reads when it started,
+ * and is stale as soon as one of them changes, i.e. once a {@link BulkIndexer} of the same client completed a request
+ * writing to it. The writes of other clients are only seen once the entries are {@link Config#maxAge() too old}.
+ * <p>
+ * A write is searchable once the index is refreshed, which may be after the request completes: the results reading
+ * an index with writes sent with {@link BulkIndexer.Refresh#FALSE} are not cached until it is
+ * {@link BulkIndexer#refresh() refreshed}, only the ones sent with {@link BulkIndexer.Refresh#WAIT_FOR} or
+ * {@link BulkIndexer.Refresh#TRUE} keep them cacheable.
+ */
+public class ResultCache {
+
+   /**
+    * @param maxEntries  the number of cached results
+    * @param maxBytes    the estimated heap size of all the cached rows, larger results are not cached
+    * @param maxAge      how long a result is reused, bounding the staleness due to the writes of other clients
+    */
+   public record Config(int maxEntries, long maxBytes, Duration maxAge) {
+
+      public static Config defaults() {
+         return new Config(1_024, 64L << 20, Duration.ofMinutes(1));
+      }
+
+      public Config {
+         if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+         }
+         if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+         }
+         if (maxAge == null || maxAge.isNegative() || maxAge.isZero()) {
+            throw new IllegalArgumentException("maxAge must be positive: " + maxAge);
+         }
+      }
+   }
+
+   /**
+    * @param sql         the {@link PlanCache#normalize(String) normalized} query
+    * @param parameters  the values of its bind parameters
+    */
+   public record Key(String sql, List<Object> parameters) {
+
+      public static Key of(String sql, Object... parameters) {
+         return new Key(PlanCache.normalize(sql), Arrays.asList(parameters));
+      }
+   }
+
+   private record Entry(CachedRowSet rows, Map<String, Long> generations, long bytes, long created) {
+   }
+
+   // the estimated overhead of a row and of a value in the heap
+   private static final int ROW_BYTES = 48;
+   private static final int VALUE_BYTES = 24;
+
+   private final Config config;
+   private final IndexGenerations generations;
+   private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private long bytes;
+
+   public ResultCache(Config config, IndexGenerations generations) {
+      this.config = config;
+      this.generations = generations;
+   }
+
+   /**
+    * @return the cached rows, positioned before the first one, or null if there are none or they are stale
+    */
+   public ResultSet get(Key key) throws SQLException {
+      Entry entry;
+      synchronized (this) {
+         entry = entries.get(key);
+         if (entry != null && !fresh(entry)) {
+            remove(key);
+            entry = null;
+         }
+      }
+      if (entry == null) {
+         misses.incrementAndGet();
+         return null;
+      }
+      hits.incrementAndGet();
+      return cursor(entry.rows());
+   }
+
+   /**
+    * Reads all the rows of the query and caches them, unless they are too large or an index has writes not refreshed
+    * yet.
+    *
+    * @param indices      the indices the query reads
+    * @param generations  the generations of the indices before the query started, so that the writes completed
+    *                     meanwhile make the entry stale
+    * @return the rows read, positioned before the first one
+    */
+   public ResultSet put(Key key, Set<String> indices, Map<String, Long> generations, ResultSet resultSet)
+         throws SQLException {
+      CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+      rows.populate(resultSet);
+      long size = size(rows);
+      if (size > config.maxBytes() || !indices.stream().allMatch(this.generations::isRefreshed)) {
+         return cursor(rows);
+      }
+
+      Map<String, Long> tags = new LinkedHashMap<>();
+      indices.forEach(index -> tags.put(index, generations.getOrDefault(index, 0L)));
+      Entry entry = new Entry(rows, Map.copyOf(tags), size, System.nanoTime());
+      synchronized (this) {
+         remove(key);
+         entries.put(key, entry);
+         bytes += size;
+         var eldest = entries.entrySet().iterator();
+         while (entries.size() > config.maxEntries() || bytes > config.maxBytes()) {
+            bytes -= eldest.next().getValue().bytes();
+            eldest.remove();
+         }
+      }
+      return cursor(rows);
+   }
+
+   public synchronized void clear() {
+      entries.clear();
+      bytes = 0;
+   }
+
+   public synchronized int size() {
+      return entries.size();
+   }
+
+   /**
+    * @return the estimated heap size of the cached rows
+    */
+   public synchronized long bytes() {
+      return bytes;
+   }
+
+   public long hits() {
+      return hits.get();
+   }
+
+   public long misses() {
+      return misses.get();
+   }
+
+   private boolean fresh(Entry entry) {
+      if (System.nanoTime() - entry.created() > config.maxAge().toNanos()) {
+         return false;
+      }
+      for (Map.Entry<String, Long> tag : entry.generations().entrySet()) {
+         if (generations.generation(tag.getKey()) != tag.getValue()) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private void remove(Key key) {
+      Entry removed = entries.remove(key);
+      if (removed != null) {
+         bytes -= removed.bytes();
+      }
+   }
+
+   /**
+    * @return a cursor of its own on the shared rows, positioned before the first one
+    */
+   private static ResultSet cursor(CachedRowSet rows) throws SQLException {
+      ResultSet cursor = (ResultSet) rows.createShared();
+      cursor.beforeFirst();
+      return cursor;
+   }
+
+   private static long size(CachedRowSet rows) throws SQLException {
+      int columns = rows.getMetaData().getColumnCount();
+      long size = 0;
+      rows.beforeFirst();
+      while (rows.next()) {
+         size += ROW_BYTES;
+         for (int i = 1; i <= columns; i++) {
+            Object value = rows.getObject(i);
+            size += VALUE_BYTES;
+            if (value instanceof String string) {
+               size += 2L * string.length();
+            }
+         }
+      }
+      return size;
+   }
+}
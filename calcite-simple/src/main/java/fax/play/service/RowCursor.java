@@ -0,0 +1,103 @@
+package fax.play.service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import fax.play.sql.UncheckedSQLException;
+
+/**
+ * Lazily pulled rows of a query.
+ * <p>
+ * The connection, the statement and the result set stay open until the cursor (or its stream) is closed,
+ * or all the rows have been consumed. Rows are read one at a time, so memory stays flat whatever the result size.
+ */
+public class RowCursor<T> implements Iterator<T>, AutoCloseable {
+
+   private final ResultSet resultSet;
+   private final CheckedSQLFunction<ResultSet, T> rowMapper;
+   private final AutoCloseable[] resources;
+
+   private boolean fetched;
+   private boolean hasNext;
+   private boolean closed;
+
+   /**
+    * @param resources closed in the given order, after the result set
+    */
+   RowCursor(ResultSet resultSet, CheckedSQLFunction<ResultSet, T> rowMapper, AutoCloseable... resources) {
+      this.resultSet = resultSet;
+      this.rowMapper = rowMapper;
+      this.resources = resources;
+   }
+
+   @Override
+   public boolean hasNext() {
+      if (!fetched) {
+         try {
+            hasNext = !closed && resultSet.next();
+         } catch (SQLException e) {
+            close();
+            throw new UncheckedSQLException(e);
+         }
+         fetched = true;
+         if (!hasNext) {
+            close();
+         }
+      }
+      return hasNext;
+   }
+
+   @Override
+   public T next() {
+      if (!hasNext()) {
+         throw new NoSuchElementException();
+      }
+      fetched = false;
+      try {
+         return rowMapper.apply(resultSet);
+      } catch (SQLException e) {
+         close();
+         throw new UncheckedSQLException(e);
+      }
+   }
+
+   public Stream<T> stream() {
+      Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED);
+      return StreamSupport.stream(spliterator, false).onClose(this::close);
+   }
+
+   @Override
+   public void close() {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      UncheckedSQLException failure = null;
+      failure = closeQuietly(resultSet, failure);
+      for (AutoCloseable resource : resources) {
+         failure = closeQuietly(resource, failure);
+      }
+      if (failure != null) {
+         throw failure;
+      }
+   }
+
+   private static UncheckedSQLException closeQuietly(AutoCloseable resource, UncheckedSQLException failure) {
+      try {
+         resource.close();
+      } catch (Exception e) {
+         SQLException cause = e instanceof SQLException ? (SQLException) e : new SQLException(e);
+         if (failure == null) {
+            return new UncheckedSQLException(cause);
+         }
+         failure.addSuppressed(cause);
+      }
+      return failure;
+   }
+}
@@ -0,0 +1,112 @@
+package fax.play.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.calcite.adapter.elasticsearch.ElasticsearchSchema;
+import org.apache.calcite.jdbc.CalciteSchema;
+import org.apache.calcite.schema.Function;
+import org.apache.calcite.schema.Schema;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.schema.TableMacro;
+import org.apache.calcite.tools.Frameworks;
+import org.elasticsearch.client.RestClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fax.play.search.RequestLimiter;
+import fax.play.search.SearchOptions;
+import fax.play.search.SearchSchema;
+import fax.play.search.SearchTransport;
+
+/**
+ * Immutable snapshot of the schemas and tables every pooled connection exposes.
+ * <p>
+ * It is built once: the Elasticsearch schema, exposing the {@code _MAP} of the documents, and the typed
+ * {@link SearchSchema} are created a single time and the parameterless table macros
+ * (e.g. {@link org.apache.calcite.schema.impl.ViewTable#viewMacro}) registered by the views callback
+ * are expanded up front, so that installing the catalog on a new root schema is just a few map insertions.
+ */
+public final class SchemaCatalog {
+
+   public static final String ELASTIC_SCHEMA = "elastic";
+   public static final String TYPED_SCHEMA = "typed";
+
+   private final Map<String, Schema> subSchemas;
+   private final Map<String, Table> tables;
+   private final Map<String, Collection<Function>> functions;
+
+   private SchemaCatalog(Map<String, Schema> subSchemas, Map<String, Table> tables,
+                         Map<String, Collection<Function>> functions) {
+      this.subSchemas = Collections.unmodifiableMap(subSchemas);
+      this.tables = Collections.unmodifiableMap(tables);
+      this.functions = Collections.unmodifiableMap(functions);
+   }
+
+   public static SchemaCatalog build(RestClient restClient, ObjectMapper objectMapper, SearchOptions searchOptions,
+                                     Consumer<SchemaPlus> views) {
+      return build(restClient, objectMapper, searchOptions, RequestLimiter.UNLIMITED, views);
+   }
+
+   /**
+    * @param limiter  the bound of the requests of the typed schema
+    */
+   public static SchemaCatalog build(RestClient restClient, ObjectMapper objectMapper, SearchOptions searchOptions,
+                                     RequestLimiter limiter, Consumer<SchemaPlus> views) {
+      SchemaPlus root = Frameworks.createRootSchema(false);
+      root.add(ELASTIC_SCHEMA, new ElasticsearchSchema(restClient, objectMapper, null));
+      root.add(TYPED_SCHEMA, new SearchSchema(new SearchTransport(restClient, objectMapper, limiter), searchOptions));
+
+      if (views != null) {
+         views.accept(root);
+      }
+
+      Map<String, Schema> subSchemas = new LinkedHashMap<>();
+      CalciteSchema.from(root).getSubSchemaMap()
+            .forEach((name, schema) -> subSchemas.put(name, schema.schema));
+
+      Map<String, Table> tables = new LinkedHashMap<>();
+      for (String name : root.getTableNames()) {
+         tables.put(name, root.getTable(name));
+      }
+
+      Map<String, Collection<Function>> functions = new LinkedHashMap<>();
+      for (String name : root.getFunctionNames()) {
+         Collection<Function> overloads = root.getFunctions(name);
+         TableMacro view = parameterlessMacro(overloads);
+         if (view != null) {
+            // parse, validate and derive the row type of the view once for all the connections
+            tables.put(name, view.apply(Collections.emptyList()));
+         } else {
+            functions.put(name, overloads);
+         }
+      }
+
+      return new SchemaCatalog(subSchemas, tables, functions);
+   }
+
+   public Schema subSchema(String name) {
+      return subSchemas.get(name);
+   }
+
+   public void install(SchemaPlus root) {
+      subSchemas.forEach(root::add);
+      tables.forEach(root::add);
+      functions.forEach((name, overloads) -> overloads.forEach(function -> root.add(name, function)));
+   }
+
+   private static TableMacro parameterlessMacro(Collection<Function> overloads) {
+      if (overloads.size() != 1) {
+         return null;
+      }
+      Function function = overloads.iterator().next();
+      if (function instanceof TableMacro && function.getParameters().isEmpty()) {
+         return (TableMacro) function;
+      }
+      return null;
+   }
+}
@@ -13,18 +13,36 @@ import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 import org.infinispan.commons.dataconversion.internal.Json;
 
+import fax.play.metrics.RequestTracer;
+
 public class SearchService implements AutoCloseable {
 
    private final RestClient restClient;
+   private final RequestTracer requestTracer;
 
    public SearchService(String username, String password, String host) {
-      restClient = restClient(username, password, host);
+      this(username, password, host, null);
+   }
+
+   /**
+    * @param requestTracer  the tracer of the requests of the client, null not to trace them
+    */
+   public SearchService(String username, String password, String host, RequestTracer requestTracer) {
+      this.requestTracer = requestTracer;
+      restClient = restClient(username, password, host, requestTracer);
    }
 
    public RestClient getRestClient() {
       return restClient;
    }
 
+   /**
+    * @return the tracer of the requests of the client, null if they are not traced
+    */
+   public RequestTracer getRequestTracer() {
+      return requestTracer;
+   }
+
    @Override
    public void close() throws IOException {
       restClient.close();
@@ -40,25 +58,32 @@ public class SearchService implements AutoCloseable {
       return restClient.performRequest(request);
    }
 
-   public Response bulkIndexing(String index, Map<String, Json> documents) throws IOException {
-      Request request = new Request("POST", "/_bulk");
-
-      request.addParameter("refresh", "true");
-
-      StringBuilder body = new StringBuilder();
-      for (Map.Entry<String, Json> entry : documents.entrySet()) {
-         body.append(Json.object("index", Json.object("_index", index, "_id", entry.getKey())));
-         body.append("\n"); // using \n and not the system line separator, since the value will be used by the server VM
-         body.append(entry.getValue()); // make the single entity single line
-         body.append("\n"); // using \n and not the system line separator, since the value will be used by the server VM
+   /**
+    * Indexes the documents and refreshes the index, retrying the documents rejected by a busy cluster.
+    */
+   public BulkResult bulkIndexing(String index, Map<String, Json> documents) throws IOException {
+      BulkIndexer.Config defaults = BulkIndexer.Config.defaults();
+      BulkIndexer.Config config = new BulkIndexer.Config(defaults.maxDocuments(), defaults.maxBytes(),
+            defaults.concurrentRequests(), null, BulkIndexer.Refresh.TRUE, defaults.maxRetries(),
+            defaults.retryBackoff());
+      try (BulkIndexer indexer = bulkIndexer(config)) {
+         for (Map.Entry<String, Json> entry : documents.entrySet()) {
+            indexer.add(index, entry.getKey(), entry.getValue());
+         }
+         indexer.flush();
+         return indexer.result();
       }
-      request.setJsonEntity(body.toString());
+   }
 
-      return restClient.performRequest(request);
+   /**
+    * @return an indexer sending the documents it is given in requests of bounded size, it must be closed
+    */
+   public BulkIndexer bulkIndexer(BulkIndexer.Config config) {
+      return new BulkIndexer(restClient, config);
    }
 
-   private static RestClient restClient(String username, String password, String host) {
-      return RestClient.builder(HttpHost.create(host))
+   private static RestClient restClient(String username, String password, String host, RequestTracer requestTracer) {
+      RestClient restClient = RestClient.builder(HttpHost.create(host))
             .setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
                   .setConnectTimeout(60 * 1000)  // default 1000
                   .setSocketTimeout(3 * 60 * 1000))  // default 30000
@@ -68,9 +93,10 @@ public class SearchService implements AutoCloseable {
                      credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
 
                      httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-                     return httpClientBuilder;
+                     return requestTracer == null ? httpClientBuilder : requestTracer.instrument(httpClientBuilder);
                   }
             )
             .build();
+      return requestTracer == null ? restClient : requestTracer.attach(restClient);
    }
 }
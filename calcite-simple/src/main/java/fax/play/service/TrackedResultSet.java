@@ -0,0 +1,76 @@
+package fax.play.service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import fax.play.search.QueryMemory;
+
+/**
+ * A result set counting the rows it is moved to, for the {@link QueryProfile} of the query, and allocating each of
+ * them on the {@link QueryMemory} of the query, if any, as the extractors of {@link CalciteSearch#executeQuery(String)}
+ * retain all of them: a result too large fails before it fills the heap.
+ */
+final class TrackedResultSet implements InvocationHandler {
+
+   private final ResultSet delegate;
+   private final QueryMemory memory;
+   private final ResultSet proxy;
+   private int columnCount = -1;
+   private long rows;
+
+   /**
+    * @param memory  the memory of the query, null if it is not tracked
+    */
+   TrackedResultSet(ResultSet delegate, QueryMemory memory) {
+      this.delegate = delegate;
+      this.memory = memory;
+      this.proxy = (ResultSet) Proxy.newProxyInstance(TrackedResultSet.class.getClassLoader(),
+            new Class<?>[]{ResultSet.class}, this);
+   }
+
+   /**
+    * @return the result set to extract the rows from
+    */
+   ResultSet resultSet() {
+      return proxy;
+   }
+
+   /**
+    * @return the rows the result set has been moved to
+    */
+   long rows() {
+      return rows;
+   }
+
+   @Override
+   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      Object result;
+      try {
+         result = method.invoke(delegate, args);
+      } catch (InvocationTargetException e) {
+         throw e.getCause();
+      }
+      if ("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+         rows++;
+         if (memory != null) {
+            memory.allocate(rowSize(), "the rows of the result");
+         }
+      }
+      return result;
+   }
+
+   private long rowSize() throws SQLException {
+      if (columnCount < 0) {
+         columnCount = delegate.getMetaData().getColumnCount();
+      }
+      Object[] row = new Object[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+         row[i] = delegate.getObject(i + 1);
+      }
+      return QueryMemory.sizeOf(row);
+   }
+}
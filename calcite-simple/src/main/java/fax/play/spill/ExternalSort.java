@@ -0,0 +1,239 @@
+package fax.play.spill;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sort of the rows of its input within the {@link MemoryBudget} of the query.
+ * <p>
+ * The rows are sorted in memory until they do not fit in the budget: then they are written as a sorted run to a
+ * {@link SpillFile}, and the runs are merged at the end, {@link #MAX_FAN_IN} at a time. The sort is stable, as the one
+ * of the enumerable sort.
+ * <p>
+ * A sort holds {@link #MIN_RUN_BYTES} of rows, or the whole budget if lower, even when the other operators of the
+ * query hold the budget: its runs are not smaller than that.
+ */
+public final class ExternalSort {
+
+   private static final Logger LOG = LoggerFactory.getLogger(ExternalSort.class);
+
+   static final long MIN_RUN_BYTES = 1L << 20;
+
+   // the runs merged at once, each with its file open and a window of it mapped
+   static final int MAX_FAN_IN = 16;
+
+   private ExternalSort() {
+   }
+
+   /**
+    * Called by the generated code of a {@link SpillingSort}.
+    */
+   public static Enumerable<Object[]> sort(DataContext root, Enumerable<Object[]> input, Comparator<Object[]> comparator,
+                                           long memoryBudget, String directory) {
+      Path path = Path.of(directory);
+      return new AbstractEnumerable<>() {
+         @Override
+         public Enumerator<Object[]> enumerator() {
+            return sort(input, comparator, MemoryBudget.of(root, memoryBudget), path);
+         }
+      };
+   }
+
+   private static Enumerator<Object[]> sort(Enumerable<Object[]> input, Comparator<Object[]> comparator,
+                                            MemoryBudget budget, Path directory) {
+      long floor = Math.min(MIN_RUN_BYTES, budget.limit());
+      budget.reserve(floor);
+      List<Object[]> rows = new ArrayList<>();
+      List<SpillFile> runs = new ArrayList<>();
+      long reserved = floor;
+      // the bytes of the rows, within the ones reserved
+      long held = 0;
+      try (Enumerator<Object[]> enumerator = input.enumerator()) {
+         while (enumerator.moveNext()) {
+            Object[] row = enumerator.current();
+            long size = MemoryBudget.sizeOf(row);
+            if (held + size > reserved && !budget.tryReserve(held + size - reserved)) {
+               if (!rows.isEmpty()) {
+                  LOG.debug("Spilling a sorted run of {} rows: {} bytes of {} used", rows.size(), budget.used(),
+                        budget.limit());
+                  runs.add(run(rows, comparator, directory));
+                  rows = new ArrayList<>();
+                  budget.release(reserved - floor);
+                  reserved = floor;
+                  held = 0;
+               }
+               if (size > reserved && !budget.tryReserve(size - reserved)) {
+                  // larger than the floor while the other operators of the query hold the budget
+                  budget.reserve(size - reserved);
+               }
+            }
+            held += size;
+            reserved = Math.max(reserved, held);
+            rows.add(row);
+         }
+      } catch (RuntimeException e) {
+         budget.release(reserved);
+         runs.forEach(SpillFile::close);
+         throw e;
+      }
+
+      if (runs.isEmpty()) {
+         rows.sort(comparator);
+         return new Released(Linq4j.enumerator(rows), budget, reserved);
+      }
+      try {
+         if (!rows.isEmpty()) {
+            runs.add(run(rows, comparator, directory));
+         }
+      } finally {
+         budget.release(reserved);
+      }
+      while (runs.size() > MAX_FAN_IN) {
+         runs = merge(runs, comparator, directory);
+      }
+      return new Merge(runs, comparator);
+   }
+
+   /**
+    * Merges each {@link #MAX_FAN_IN} consecutive runs in a run, so that the runs keep their order among equal rows.
+    */
+   private static List<SpillFile> merge(List<SpillFile> runs, Comparator<Object[]> comparator, Path directory) {
+      LOG.debug("Merging {} sorted runs {} at a time", runs.size(), MAX_FAN_IN);
+      List<SpillFile> merged = new ArrayList<>();
+      try {
+         for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+            List<SpillFile> group = new ArrayList<>(runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size())));
+            if (group.size() == 1) {
+               merged.add(group.get(0));
+               continue;
+            }
+            SpillFile run = SpillFile.create(directory);
+            merged.add(run);
+            try (Merge merge = new Merge(group, comparator)) {
+               while (merge.moveNext()) {
+                  run.write(merge.current());
+               }
+            }
+         }
+      } catch (RuntimeException e) {
+         runs.forEach(SpillFile::close);
+         merged.forEach(SpillFile::close);
+         throw e;
+      }
+      return merged;
+   }
+
+   private static SpillFile run(List<Object[]> rows, Comparator<Object[]> comparator, Path directory) {
+      rows.sort(comparator);
+      SpillFile run = SpillFile.create(directory);
+      rows.forEach(run::write);
+      return run;
+   }
+
+   /**
+    * The rows sorted in memory, releasing their bytes once closed.
+    */
+   private static final class Released implements Enumerator<Object[]> {
+
+      private final Enumerator<Object[]> rows;
+      private final MemoryBudget budget;
+      private long reserved;
+
+      Released(Enumerator<Object[]> rows, MemoryBudget budget, long reserved) {
+         this.rows = rows;
+         this.budget = budget;
+         this.reserved = reserved;
+      }
+
+      @Override
+      public Object[] current() {
+         return rows.current();
+      }
+
+      @Override
+      public boolean moveNext() {
+         return rows.moveNext();
+      }
+
+      @Override
+      public void reset() {
+         rows.reset();
+      }
+
+      @Override
+      public void close() {
+         budget.release(reserved);
+         reserved = 0;
+      }
+   }
+
+   /**
+    * Merges the sorted runs, the run written first first among equal rows.
+    */
+   private static final class Merge implements Enumerator<Object[]> {
+
+      private record Head(Object[] row, int run) {
+      }
+
+      private final List<SpillFile> runs;
+      private final List<Enumerator<Object[]>> readers = new ArrayList<>();
+      private final PriorityQueue<Head> heads;
+      private Object[] current;
+
+      Merge(List<SpillFile> runs, Comparator<Object[]> comparator) {
+         this.runs = runs;
+         Comparator<Head> byRow = Comparator.comparing(Head::row, comparator);
+         this.heads = new PriorityQueue<>(runs.size(), byRow.thenComparingInt(Head::run));
+         for (int i = 0; i < runs.size(); i++) {
+            Enumerator<Object[]> reader = runs.get(i).rows().enumerator();
+            readers.add(reader);
+            advance(i);
+         }
+      }
+
+      @Override
+      public Object[] current() {
+         return current;
+      }
+
+      @Override
+      public boolean moveNext() {
+         Head head = heads.poll();
+         if (head == null) {
+            return false;
+         }
+         current = head.row();
+         advance(head.run());
+         return true;
+      }
+
+      @Override
+      public void reset() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void close() {
+         readers.forEach(Enumerator::close);
+         runs.forEach(SpillFile::close);
+      }
+
+      private void advance(int run) {
+         Enumerator<Object[]> reader = readers.get(run);
+         if (reader.moveNext()) {
+            heads.add(new Head(reader.current(), run));
+         }
+      }
+   }
+}
@@ -0,0 +1,329 @@
+package fax.play.spill;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inner or left equi-join building a hash table of the right input, as the enumerable hash join does, within the
+ * {@link MemoryBudget} of the query.
+ * <p>
+ * Once the table does not fit in the budget, both inputs are partitioned by the hash of their key in
+ * {@link SpillFile}s, then each pair of partitions is joined in turn, partitioning it again with another hash if its
+ * right rows still do not fit. Past {@link #MAX_DEPTH} partitionings, most likely a single key with too many rows,
+ * the table is built beyond the budget. The rows of a spilled join do not come in the order of the left input.
+ */
+public final class GraceHashJoin {
+
+   private static final Logger LOG = LoggerFactory.getLogger(GraceHashJoin.class);
+
+   static final int MAX_DEPTH = 3;
+
+   // the estimated overhead of the entry of a row in the table
+   private static final int ENTRY_BYTES = 64;
+
+   private GraceHashJoin() {
+   }
+
+   /**
+    * Called by the generated code of a {@link SpillingHashJoin}.
+    *
+    * @param rightColumns  the number of columns of the right rows, null for the left rows without a match
+    */
+   public static Enumerable<Object[]> join(DataContext root, Enumerable<Object[]> left, Enumerable<Object[]> right,
+                                           int[] leftKeys, int[] rightKeys, boolean outer, int rightColumns,
+                                           long memoryBudget, int partitions, String directory) {
+      Spec spec = new Spec(leftKeys, rightKeys, outer, rightColumns, partitions, Path.of(directory));
+      return new AbstractEnumerable<>() {
+         @Override
+         public Enumerator<Object[]> enumerator() {
+            return new Join(spec, MemoryBudget.of(root, memoryBudget), left, right, 0);
+         }
+      };
+   }
+
+   private record Spec(int[] leftKeys, int[] rightKeys, boolean outer, int rightColumns, int partitions,
+                       Path directory) {
+   }
+
+   /**
+    * @return the key of the row, null if one of its values is null since it does not match any other key
+    */
+   private static Object key(Object[] row, int[] keys) {
+      if (keys.length == 1) {
+         return row[keys[0]];
+      }
+      Object[] values = new Object[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+         if ((values[i] = row[keys[i]]) == null) {
+            return null;
+         }
+      }
+      return Arrays.asList(values);
+   }
+
+   private static final class Join implements Enumerator<Object[]> {
+
+      private final Spec spec;
+      private final MemoryBudget budget;
+      private final Enumerable<Object[]> left;
+      private final Enumerable<Object[]> right;
+      private final int depth;
+
+      private Map<Object, List<Object[]>> table = new HashMap<>();
+      private long reserved;
+      private SpillFile[] rightPartitions;
+      private SpillFile[] leftPartitions;
+      private Enumerator<Object[]> output;
+      private Object[] current;
+
+      Join(Spec spec, MemoryBudget budget, Enumerable<Object[]> left, Enumerable<Object[]> right, int depth) {
+         this.spec = spec;
+         this.budget = budget;
+         this.left = left;
+         this.right = right;
+         this.depth = depth;
+      }
+
+      @Override
+      public Object[] current() {
+         return current;
+      }
+
+      @Override
+      public boolean moveNext() {
+         if (output == null) {
+            build();
+            output = rightPartitions == null ? new Probe(left.enumerator()) : new Partitions();
+         }
+         if (output.moveNext()) {
+            current = output.current();
+            return true;
+         }
+         return false;
+      }
+
+      @Override
+      public void reset() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void close() {
+         if (output != null) {
+            output.close();
+         }
+         close(rightPartitions);
+         close(leftPartitions);
+         table = null;
+         budget.release(reserved);
+         reserved = 0;
+      }
+
+      private void build() {
+         try (Enumerator<Object[]> rows = right.enumerator()) {
+            while (rows.moveNext()) {
+               Object[] row = rows.current();
+               Object key = key(row, spec.rightKeys());
+               if (key == null) {
+                  continue;
+               }
+               if (rightPartitions == null && !reserve(row)) {
+                  spill();
+               }
+               if (rightPartitions == null) {
+                  table.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+               } else {
+                  rightPartitions[partition(key)].write(row);
+               }
+            }
+         }
+      }
+
+      private boolean reserve(Object[] row) {
+         long size = MemoryBudget.sizeOf(row) + ENTRY_BYTES;
+         if (depth >= MAX_DEPTH) {
+            budget.reserve(size);
+         } else if (!budget.tryReserve(size)) {
+            return false;
+         }
+         reserved += size;
+         return true;
+      }
+
+      /**
+       * Moves the rows of the table to the partitions of the right input.
+       */
+      private void spill() {
+         LOG.debug("Spilling a hash join at depth {}: {} bytes of {} used", depth, budget.used(), budget.limit());
+         rightPartitions = create();
+         table.forEach((key, rows) -> {
+            SpillFile partition = rightPartitions[partition(key)];
+            rows.forEach(partition::write);
+         });
+         table = new HashMap<>();
+         budget.release(reserved);
+         reserved = 0;
+      }
+
+      private SpillFile[] create() {
+         SpillFile[] files = new SpillFile[spec.partitions()];
+         for (int i = 0; i < files.length; i++) {
+            files[i] = SpillFile.create(spec.directory());
+         }
+         return files;
+      }
+
+      /**
+       * @return the partition of the key, with a hash of its own for each depth
+       */
+      private int partition(Object key) {
+         int hash = (key.hashCode() ^ depth * 0x9E3779B9) * 0x85EBCA6B;
+         return Math.floorMod(hash ^ hash >>> 15, spec.partitions());
+      }
+
+      private void close(SpillFile[] files) {
+         if (files != null) {
+            for (SpillFile file : files) {
+               file.close();
+            }
+         }
+      }
+
+      private Object[] join(Object[] leftRow, Object[] rightRow) {
+         Object[] row = new Object[leftRow.length + spec.rightColumns()];
+         System.arraycopy(leftRow, 0, row, 0, leftRow.length);
+         if (rightRow != null) {
+            System.arraycopy(rightRow, 0, row, leftRow.length, spec.rightColumns());
+         }
+         return row;
+      }
+
+      /**
+       * Probes the table with the rows of the left input.
+       */
+      private final class Probe implements Enumerator<Object[]> {
+
+         private final Enumerator<Object[]> rows;
+         private Object[] leftRow;
+         private List<Object[]> matches;
+         private int next;
+         private Object[] current;
+
+         Probe(Enumerator<Object[]> rows) {
+            this.rows = rows;
+         }
+
+         @Override
+         public Object[] current() {
+            return current;
+         }
+
+         @Override
+         public boolean moveNext() {
+            while (true) {
+               if (matches != null && next < matches.size()) {
+                  current = join(leftRow, matches.get(next++));
+                  return true;
+               }
+               if (!rows.moveNext()) {
+                  return false;
+               }
+               leftRow = rows.current();
+               Object key = key(leftRow, spec.leftKeys());
+               matches = key == null ? null : table.get(key);
+               next = 0;
+               if (matches == null && spec.outer()) {
+                  current = join(leftRow, null);
+                  return true;
+               }
+            }
+         }
+
+         @Override
+         public void reset() {
+            throw new UnsupportedOperationException();
+         }
+
+         @Override
+         public void close() {
+            rows.close();
+         }
+      }
+
+      /**
+       * Partitions the left input, then joins each pair of partitions in turn.
+       */
+      private final class Partitions implements Enumerator<Object[]> {
+
+         private int partition = -1;
+         private Join join;
+
+         Partitions() {
+            leftPartitions = create();
+            try (Enumerator<Object[]> rows = left.enumerator()) {
+               while (rows.moveNext()) {
+                  Object[] row = rows.current();
+                  Object key = key(row, spec.leftKeys());
+                  if (key != null) {
+                     leftPartitions[partition(key)].write(row);
+                  } else if (spec.outer()) {
+                     // it matches nothing, in any partition
+                     leftPartitions[0].write(row);
+                  }
+               }
+            }
+         }
+
+         @Override
+         public Object[] current() {
+            return join.current();
+         }
+
+         @Override
+         public boolean moveNext() {
+            while (true) {
+               if (join != null && join.moveNext()) {
+                  return true;
+               }
+               if (join != null) {
+                  join.close();
+                  rightPartitions[partition].close();
+                  leftPartitions[partition].close();
+                  join = null;
+               }
+               if (++partition >= spec.partitions()) {
+                  return false;
+               }
+               if (leftPartitions[partition].count() > 0
+                     && (rightPartitions[partition].count() > 0 || spec.outer())) {
+                  join = new Join(spec, budget, leftPartitions[partition].rows(), rightPartitions[partition].rows(),
+                        depth + 1);
+               }
+            }
+         }
+
+         @Override
+         public void reset() {
+            throw new UnsupportedOperationException();
+         }
+
+         @Override
+         public void close() {
+            if (join != null) {
+               join.close();
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,100 @@
+package fax.play.spill;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.calcite.DataContext;
+
+import fax.play.search.QueryMemory;
+
+/**
+ * The heap a query may use for the rows its operators hold, shared by all of them: a {@link GraceHashJoin} or an
+ * {@link ExternalSort} that cannot reserve the rows it is about to hold writes them to {@link SpillFile}s instead.
+ * <p>
+ * The sizes are estimates of the retained heap of the rows, not measures. The bytes reserved are also allocated on the
+ * {@link QueryMemory} of the query, if it is tracked: beyond its limit the query fails, instead of spilling.
+ */
+public final class MemoryBudget {
+
+   // the queries are told apart by the context of their execution, created for each of them
+   private static final Map<DataContext, MemoryBudget> BUDGETS = new WeakHashMap<>();
+
+   private final long limit;
+   private final QueryMemory memory;
+   private long used;
+   private long peak;
+
+   public MemoryBudget(long limit) {
+      if (limit < 1) {
+         throw new IllegalArgumentException("limit must be positive: " + limit);
+      }
+      this.limit = limit;
+      this.memory = QueryMemory.current();
+   }
+
+   /**
+    * @param root  the context of the execution of a query, null for a budget of its own
+    * @return the budget shared by the operators of the query
+    */
+   public static MemoryBudget of(DataContext root, long limit) {
+      if (root == null) {
+         return new MemoryBudget(limit);
+      }
+      synchronized (BUDGETS) {
+         return BUDGETS.computeIfAbsent(root, r -> new MemoryBudget(limit));
+      }
+   }
+
+   /**
+    * @return the estimated heap retained by the row
+    */
+   public static long sizeOf(Object[] row) {
+      return QueryMemory.sizeOf(row);
+   }
+
+   /**
+    * Reserves the bytes if they fit in the budget.
+    *
+    * @return whether they were reserved
+    */
+   public synchronized boolean tryReserve(long bytes) {
+      if (used + bytes > limit) {
+         return false;
+      }
+      reserve(bytes);
+      return true;
+   }
+
+   /**
+    * Reserves the bytes even beyond the limit, for the rows an operator cannot spill.
+    */
+   public synchronized void reserve(long bytes) {
+      if (memory != null) {
+         memory.allocate(bytes, "the rows of a join or a sort");
+      }
+      used += bytes;
+      peak = Math.max(peak, used);
+   }
+
+   public synchronized void release(long bytes) {
+      if (memory != null) {
+         memory.free(bytes);
+      }
+      used -= bytes;
+   }
+
+   public long limit() {
+      return limit;
+   }
+
+   public synchronized long used() {
+      return used;
+   }
+
+   /**
+    * @return the highest number of bytes reserved at the same time
+    */
+   public synchronized long peak() {
+      return peak;
+   }
+}
@@ -0,0 +1,136 @@
+package fax.play.spill;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary format of the rows written to a {@link SpillFile}: the number of values, then each value as a tag
+ * followed by its bytes. The values without a tag of their own are written with Java serialization.
+ */
+final class RowCodec {
+
+   private static final byte NULL = 0;
+   private static final byte INTEGER = 1;
+   private static final byte LONG = 2;
+   private static final byte DOUBLE = 3;
+   private static final byte STRING = 4;
+   private static final byte BOOLEAN = 5;
+   private static final byte DECIMAL = 6;
+   private static final byte FLOAT = 7;
+   private static final byte SHORT = 8;
+   private static final byte BYTE = 9;
+   private static final byte SERIALIZED = 10;
+
+   private RowCodec() {
+   }
+
+   static void write(Object[] row, DataOutputStream output) throws IOException {
+      output.writeInt(row.length);
+      for (Object value : row) {
+         write(value, output);
+      }
+   }
+
+   /**
+    * @param buffer  positioned on the first byte of the row, left after its last one
+    */
+   static Object[] read(ByteBuffer buffer) {
+      Object[] row = new Object[buffer.getInt()];
+      for (int i = 0; i < row.length; i++) {
+         row[i] = readValue(buffer);
+      }
+      return row;
+   }
+
+   private static void write(Object value, DataOutputStream output) throws IOException {
+      if (value == null) {
+         output.writeByte(NULL);
+      } else if (value instanceof Integer integer) {
+         output.writeByte(INTEGER);
+         output.writeInt(integer);
+      } else if (value instanceof Long longValue) {
+         output.writeByte(LONG);
+         output.writeLong(longValue);
+      } else if (value instanceof Double doubleValue) {
+         output.writeByte(DOUBLE);
+         output.writeDouble(doubleValue);
+      } else if (value instanceof String string) {
+         output.writeByte(STRING);
+         writeBytes(string.getBytes(StandardCharsets.UTF_8), output);
+      } else if (value instanceof Boolean bool) {
+         output.writeByte(BOOLEAN);
+         output.writeBoolean(bool);
+      } else if (value instanceof BigDecimal decimal) {
+         output.writeByte(DECIMAL);
+         output.writeInt(decimal.scale());
+         writeBytes(decimal.unscaledValue().toByteArray(), output);
+      } else if (value instanceof Float floatValue) {
+         output.writeByte(FLOAT);
+         output.writeFloat(floatValue);
+      } else if (value instanceof Short shortValue) {
+         output.writeByte(SHORT);
+         output.writeShort(shortValue);
+      } else if (value instanceof Byte byteValue) {
+         output.writeByte(BYTE);
+         output.writeByte(byteValue);
+      } else if (value instanceof Serializable) {
+         output.writeByte(SERIALIZED);
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+            objects.writeObject(value);
+         }
+         writeBytes(bytes.toByteArray(), output);
+      } else {
+         throw new IllegalStateException("Cannot spill a value of " + value.getClass());
+      }
+   }
+
+   private static Object readValue(ByteBuffer buffer) {
+      byte tag = buffer.get();
+      return switch (tag) {
+         case NULL -> null;
+         case INTEGER -> buffer.getInt();
+         case LONG -> buffer.getLong();
+         case DOUBLE -> buffer.getDouble();
+         case STRING -> new String(readBytes(buffer), StandardCharsets.UTF_8);
+         case BOOLEAN -> buffer.get() != 0;
+         case DECIMAL -> {
+            int scale = buffer.getInt();
+            yield new BigDecimal(new BigInteger(readBytes(buffer)), scale);
+         }
+         case FLOAT -> buffer.getFloat();
+         case SHORT -> buffer.getShort();
+         case BYTE -> buffer.get();
+         case SERIALIZED -> deserialize(readBytes(buffer));
+         default -> throw new IllegalStateException("Corrupted spill file, unknown tag " + tag);
+      };
+   }
+
+   private static void writeBytes(byte[] bytes, DataOutputStream output) throws IOException {
+      output.writeInt(bytes.length);
+      output.write(bytes);
+   }
+
+   private static byte[] readBytes(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      return bytes;
+   }
+
+   private static Object deserialize(byte[] bytes) {
+      try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+         return objects.readObject();
+      } catch (IOException | ClassNotFoundException e) {
+         throw new IllegalStateException("Cannot read a spilled value", e);
+      }
+   }
+}
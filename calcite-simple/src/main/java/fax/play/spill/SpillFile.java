@@ -0,0 +1,195 @@
+package fax.play.spill;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+
+/**
+ * A temporary file of rows written by an operator beyond its {@link MemoryBudget}, deleted once closed.
+ * <p>
+ * The rows are appended through a heap buffer, then read back through windows of the file mapped in memory, so that
+ * reading them copies nothing but the decoded values. Each row is prefixed by its length, for a reader to map the
+ * next window before a row that does not fit in the current one.
+ */
+final class SpillFile implements AutoCloseable {
+
+   private static final int BUFFER_BYTES = 64 << 10;
+   private static final long WINDOW_BYTES = 64L << 20;
+
+   private final Path path;
+   private final FileChannel channel;
+   private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+   private final RowBytes row = new RowBytes();
+   private final DataOutputStream rowOutput = new DataOutputStream(row);
+   private long rows;
+
+   private SpillFile(Path path) throws IOException {
+      this.path = path;
+      this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+   }
+
+   static SpillFile create(Path directory) {
+      try {
+         return new SpillFile(Files.createTempFile(directory, "calcite-spill-", ".rows"));
+      } catch (IOException e) {
+         throw new UncheckedIOException("Cannot create a spill file in " + directory, e);
+      }
+   }
+
+   void write(Object[] values) {
+      try {
+         row.reset();
+         RowCodec.write(values, rowOutput);
+         if (buffer.remaining() < Integer.BYTES + row.size()) {
+            flush();
+         }
+         if (buffer.remaining() < Integer.BYTES + row.size()) {
+            // larger than the buffer: written on its own
+            ByteBuffer large = ByteBuffer.allocate(Integer.BYTES + row.size());
+            large.putInt(row.size()).put(row.bytes(), 0, row.size()).flip();
+            writeFully(large);
+         } else {
+            buffer.putInt(row.size()).put(row.bytes(), 0, row.size());
+         }
+         rows++;
+      } catch (IOException e) {
+         throw new UncheckedIOException("Cannot write to the spill file " + path, e);
+      }
+   }
+
+   /**
+    * @return the number of rows written
+    */
+   long count() {
+      return rows;
+   }
+
+   /**
+    * @return the rows written so far, in the order they were written
+    */
+   Enumerable<Object[]> rows() {
+      try {
+         flush();
+      } catch (IOException e) {
+         throw new UncheckedIOException("Cannot write to the spill file " + path, e);
+      }
+      return new AbstractEnumerable<>() {
+         @Override
+         public Enumerator<Object[]> enumerator() {
+            return new Reader();
+         }
+      };
+   }
+
+   @Override
+   public void close() {
+      try {
+         channel.close();
+      } catch (IOException e) {
+         throw new UncheckedIOException("Cannot delete the spill file " + path, e);
+      }
+   }
+
+   private void flush() throws IOException {
+      buffer.flip();
+      writeFully(buffer);
+      buffer.clear();
+   }
+
+   private void writeFully(ByteBuffer bytes) throws IOException {
+      while (bytes.hasRemaining()) {
+         channel.write(bytes);
+      }
+   }
+
+   private final class Reader implements Enumerator<Object[]> {
+
+      private final long size;
+      private MappedByteBuffer window;
+      // the position of the window in the file
+      private long offset;
+      private Object[] current;
+
+      Reader() {
+         try {
+            size = channel.size();
+         } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the spill file " + path, e);
+         }
+      }
+
+      @Override
+      public Object[] current() {
+         return current;
+      }
+
+      @Override
+      public boolean moveNext() {
+         long position = window == null ? 0 : offset + window.position();
+         if (position >= size) {
+            return false;
+         }
+         if (window == null || window.remaining() < Integer.BYTES
+               || window.remaining() < Integer.BYTES + window.getInt(window.position())) {
+            map(position);
+         }
+         window.getInt();
+         current = RowCodec.read(window);
+         return true;
+      }
+
+      @Override
+      public void reset() {
+         window = null;
+         current = null;
+      }
+
+      @Override
+      public void close() {
+         window = null;
+      }
+
+      private void map(long position) {
+         try {
+            int length = readLength(position);
+            long bytes = Math.min(size - position, Math.max(WINDOW_BYTES, Integer.BYTES + length));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+            offset = position;
+         } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the spill file " + path, e);
+         }
+      }
+
+      private int readLength(long position) throws IOException {
+         ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+         while (length.hasRemaining()) {
+            if (channel.read(length, position + length.position()) < 0) {
+               throw new IOException("Truncated spill file " + path);
+            }
+         }
+         return length.getInt(0);
+      }
+   }
+
+   /**
+    * The bytes of the row being written, reused for all the rows.
+    */
+   private static final class RowBytes extends ByteArrayOutputStream {
+
+      byte[] bytes() {
+         return buf;
+      }
+   }
+}
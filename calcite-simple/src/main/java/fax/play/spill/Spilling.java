@@ -0,0 +1,88 @@
+package fax.play.spill;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.calcite.adapter.enumerable.EnumerableHashJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableSort;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelShuttleImpl;
+import org.apache.calcite.tools.Program;
+
+import fax.play.search.QueryMemory;
+
+/**
+ * Replaces the in-memory hash joins and sorts of the optimized plans with a {@link SpillingHashJoin} and a
+ * {@link SpillingSort}, which spill to disk once the rows they hold exceed the {@link MemoryBudget} of the query.
+ * <p>
+ * They cost the same as the operators they replace, so they are substituted after the optimization instead of
+ * competing with them in the planner.
+ */
+public final class Spilling {
+
+   /**
+    * @param memoryBudget  the estimated heap the joins and the sorts of a query may use together
+    * @param partitions    the number of partitions of each spilled join
+    * @param directory     where the temporary files are written
+    */
+   public record Config(long memoryBudget, int partitions, Path directory) {
+
+      public static Config defaults() {
+         return new Config(256L << 20, 16, Path.of(System.getProperty("java.io.tmpdir")));
+      }
+
+      /**
+       * @return joins and sorts that never spill, still allocating their rows on the {@link QueryMemory} of the query
+       */
+      public static Config inMemory() {
+         return new Config(Long.MAX_VALUE, 2, Path.of(System.getProperty("java.io.tmpdir")));
+      }
+
+      public Config {
+         if (memoryBudget < 1) {
+            throw new IllegalArgumentException("memoryBudget must be positive: " + memoryBudget);
+         }
+         if (partitions < 2) {
+            throw new IllegalArgumentException("partitions must be at least 2: " + partitions);
+         }
+         if (directory == null || !Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("directory must be an existing directory: " + directory);
+         }
+      }
+   }
+
+   private Spilling() {
+   }
+
+   /**
+    * @return the program to run after the optimization of the plans
+    */
+   public static Program program(Config config) {
+      return (planner, rel, requiredOutputTraits, materializations, lattices) -> rel.accept(new Replacer(config));
+   }
+
+   private static final class Replacer extends RelShuttleImpl {
+
+      private final Config config;
+
+      Replacer(Config config) {
+         this.config = config;
+      }
+
+      @Override
+      public RelNode visit(RelNode other) {
+         RelNode rel = visitChildren(other);
+         if (rel.getClass() == EnumerableHashJoin.class && SpillingHashJoin.supports((EnumerableHashJoin) rel)) {
+            EnumerableHashJoin join = (EnumerableHashJoin) rel;
+            return new SpillingHashJoin(join.getCluster(), join.getTraitSet(), join.getLeft(), join.getRight(),
+                  join.getCondition(), join.getVariablesSet(), join.getJoinType(), config);
+         }
+         if (rel.getClass() == EnumerableSort.class && SpillingSort.supports((EnumerableSort) rel)) {
+            EnumerableSort sort = (EnumerableSort) rel;
+            return new SpillingSort(sort.getCluster(), sort.getTraitSet(), sort.getInput(), sort.getCollation(),
+                  config);
+         }
+         return rel;
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package fax.play.spill;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableHashJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.CorrelationId;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rex.RexNode;
+
+/**
+ * The enumerable hash join, executed by a {@link GraceHashJoin} that spills to disk beyond the memory budget of the
+ * query. Same cost and traits: it replaces the hash joins of the optimized plans, see {@link Spilling}.
+ */
+public class SpillingHashJoin extends EnumerableHashJoin {
+
+   private static final Method JOIN = Types.lookupMethod(GraceHashJoin.class, "join", DataContext.class,
+         Enumerable.class, Enumerable.class, int[].class, int[].class, boolean.class, int.class, long.class,
+         int.class, String.class);
+
+   private final Spilling.Config config;
+
+   SpillingHashJoin(RelOptCluster cluster, RelTraitSet traits, RelNode left, RelNode right, RexNode condition,
+                    Set<CorrelationId> variablesSet, JoinRelType joinType, Spilling.Config config) {
+      super(cluster, traits, left, right, condition, variablesSet, joinType);
+      this.config = config;
+   }
+
+   /**
+    * @return whether the join can be executed by a {@link GraceHashJoin}: an inner or left join, only on equalities,
+    *         whose rows are not expected in the order of the left input
+    */
+   static boolean supports(EnumerableHashJoin join) {
+      JoinInfo info = join.analyzeCondition();
+      return (join.getJoinType() == JoinRelType.INNER || join.getJoinType() == JoinRelType.LEFT)
+            && info.isEqui() && !info.leftKeys.isEmpty()
+            && join.getTraitSet().getCollation().getFieldCollations().isEmpty();
+   }
+
+   @Override
+   public EnumerableHashJoin copy(RelTraitSet traitSet, RexNode condition, RelNode left, RelNode right,
+                                  JoinRelType joinType, boolean semiJoinDone) {
+      return new SpillingHashJoin(getCluster(), traitSet, left, right, condition, getVariablesSet(), joinType, config);
+   }
+
+   @Override
+   public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+      BlockBuilder builder = new BlockBuilder();
+      Result left = implementor.visitChild(this, 0, (EnumerableRel) getLeft(), Prefer.ARRAY);
+      Expression leftRows = left.physType.convertTo(builder.append("left", left.block), JavaRowFormat.ARRAY);
+      Result right = implementor.visitChild(this, 1, (EnumerableRel) getRight(), Prefer.ARRAY);
+      Expression rightRows = right.physType.convertTo(builder.append("right", right.block), JavaRowFormat.ARRAY);
+
+      JoinInfo info = analyzeCondition();
+      Expression enumerable = Expressions.call(JOIN, DataContext.ROOT, leftRows, rightRows,
+            Expressions.constant(info.leftKeys.toIntArray()), Expressions.constant(info.rightKeys.toIntArray()),
+            Expressions.constant(joinType == JoinRelType.LEFT),
+            Expressions.constant(getRight().getRowType().getFieldCount()),
+            Expressions.constant(config.memoryBudget()), Expressions.constant(config.partitions()),
+            Expressions.constant(config.directory().toString()));
+      builder.add(Expressions.return_(null, builder.append("enumerable", enumerable)));
+
+      PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY);
+      return implementor.result(physType, builder.toBlock());
+   }
+}
@@ -0,0 +1,67 @@
+package fax.play.spill;
+
+import java.lang.reflect.Method;
+import java.util.Comparator;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.EnumerableSort;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rex.RexNode;
+
+/**
+ * The enumerable sort, executed by an {@link ExternalSort} that spills to disk beyond the memory budget of the query.
+ * Same cost and traits: it replaces the sorts of the optimized plans, see {@link Spilling}.
+ */
+public class SpillingSort extends EnumerableSort {
+
+   private static final Method SORT = Types.lookupMethod(ExternalSort.class, "sort", DataContext.class,
+         Enumerable.class, Comparator.class, long.class, String.class);
+
+   private final Spilling.Config config;
+
+   SpillingSort(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, RelCollation collation,
+                Spilling.Config config) {
+      super(cluster, traitSet, input, collation, null, null);
+      this.config = config;
+   }
+
+   /**
+    * @return whether the sort can be executed by an {@link ExternalSort}: all its rows, no offset nor fetch
+    */
+   static boolean supports(EnumerableSort sort) {
+      return sort.offset == null && sort.fetch == null;
+   }
+
+   @Override
+   public EnumerableSort copy(RelTraitSet traitSet, RelNode newInput, RelCollation newCollation, RexNode offset,
+                              RexNode fetch) {
+      return new SpillingSort(getCluster(), traitSet, newInput, newCollation, config);
+   }
+
+   @Override
+   public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+      BlockBuilder builder = new BlockBuilder();
+      Result input = implementor.visitChild(this, 0, (EnumerableRel) getInput(), Prefer.ARRAY);
+      Expression inputRows = input.physType.convertTo(builder.append("input", input.block), JavaRowFormat.ARRAY);
+
+      PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY);
+      Expression enumerable = Expressions.call(SORT, DataContext.ROOT, inputRows,
+            builder.append("comparator", physType.generateComparator(collation)),
+            Expressions.constant(config.memoryBudget()), Expressions.constant(config.directory().toString()));
+      builder.add(Expressions.return_(null, builder.append("enumerable", enumerable)));
+      return implementor.result(physType, builder.toBlock());
+   }
+}
@@ -0,0 +1,775 @@
+package fax.play.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-memory stand-in of the OpenSearch REST API, for the tests that do not need a container.
+ * <p>
+ * It understands just what the adapters send: mappings, {@code match_none}, {@code term}, {@code terms}, {@code range}, {@code exists}
+ * and {@code bool} queries, {@code _source} filtering, sorting, {@code from}/{@code size} paging, scrolling,
+ * counting, {@code _mget}, refreshing, the shard stats, the metric (including {@code cardinality}) and composite
+ * {@code terms} aggregations and the {@code index} actions of {@code _bulk} requests.
+ * The requests are recorded, so the tests can check what has been pushed down.
+ */
+public class StubSearchServer implements AutoCloseable {
+
+   public record Request(String method, String path, String query, JsonNode body) {
+   }
+
+   private final ObjectMapper mapper = new ObjectMapper();
+   private final Map<String, JsonNode> mappings = new ConcurrentHashMap<>();
+   private final Map<String, Map<String, ObjectNode>> documents = new ConcurrentHashMap<>();
+   private final Map<String, Scroll> scrolls = new ConcurrentHashMap<>();
+   private final Map<String, AtomicLong> seqNos = new ConcurrentHashMap<>();
+   // the documents indexed without refresh, not searchable yet
+   private final Map<String, Map<String, ObjectNode>> unrefreshed = new ConcurrentHashMap<>();
+   private final Map<String, AtomicLong> refreshes = new ConcurrentHashMap<>();
+   private final List<Request> requests = new CopyOnWriteArrayList<>();
+   private final AtomicLong scrollIds = new AtomicLong();
+   private final AtomicInteger concurrentBulks = new AtomicInteger();
+   private final AtomicInteger maxConcurrentBulks = new AtomicInteger();
+   private volatile Duration bulkDelay = Duration.ZERO;
+   private final AtomicInteger rejectedItems = new AtomicInteger();
+   private final AtomicInteger failedBulks = new AtomicInteger();
+   private volatile int failedBulkStatus;
+   private final AtomicInteger droppedBulks = new AtomicInteger();
+   private final AtomicInteger truncatedItems = new AtomicInteger();
+   private final ExecutorService executor = Executors.newCachedThreadPool();
+   private final HttpServer server;
+
+   private StubSearchServer(HttpServer server) {
+      this.server = server;
+   }
+
+   public static StubSearchServer start() throws IOException {
+      // the headers and the body of a response are separate writes: without it, each response waits for a delayed ack
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      StubSearchServer stub = new StubSearchServer(server);
+      server.createContext("/", stub::handle);
+      // the requests of the sliced scans are served in parallel
+      server.setExecutor(stub.executor);
+      server.start();
+      return stub;
+   }
+
+   public String host() {
+      return "http://127.0.0.1:" + server.getAddress().getPort();
+   }
+
+   public void createIndex(String index, JsonNode properties) {
+      ObjectNode mapping = mapper.createObjectNode();
+      mapping.putObject("mappings").set("properties", properties);
+      mappings.put(index, mapping);
+      documents.put(index, new LinkedHashMap<>());
+      seqNos.put(index, new AtomicLong(-1));
+      unrefreshed.put(index, new LinkedHashMap<>());
+      refreshes.put(index, new AtomicLong());
+   }
+
+   /**
+    * Indexes the document and refreshes the index, as the {@code _bulk} requests do.
+    */
+   public void index(String index, String id, JsonNode source) {
+      indexWithoutRefresh(index, id, source);
+      refresh(index);
+   }
+
+   /**
+    * Indexes the document, searchable once the index is refreshed.
+    */
+   public void indexWithoutRefresh(String index, String id, JsonNode source) {
+      Map<String, ObjectNode> docs = documents.get(index);
+      synchronized (docs) {
+         unrefreshed.get(index).put(id, (ObjectNode) source);
+         seqNos.get(index).incrementAndGet();
+      }
+   }
+
+   public void refresh(String index) {
+      Map<String, ObjectNode> docs = documents.get(index);
+      synchronized (docs) {
+         docs.putAll(unrefreshed.get(index));
+         unrefreshed.get(index).clear();
+         refreshes.get(index).incrementAndGet();
+      }
+   }
+
+   public List<Request> requests() {
+      return requests;
+   }
+
+   /**
+    * @return the recorded requests whose path ends with the suffix, e.g. {@code /_search}
+    */
+   public List<Request> requests(String pathSuffix) {
+      return requests.stream().filter(request -> request.path().endsWith(pathSuffix)).toList();
+   }
+
+   public void clearRequests() {
+      requests.clear();
+   }
+
+   public int openScrolls() {
+      return scrolls.size();
+   }
+
+   public int count(String index) {
+      Map<String, ObjectNode> docs = documents.get(index);
+      synchronized (docs) {
+         return docs.size();
+      }
+   }
+
+   /**
+    * Delays the responses to the {@code _bulk} requests, to observe the concurrent ones.
+    */
+   public void bulkDelay(Duration bulkDelay) {
+      this.bulkDelay = bulkDelay;
+   }
+
+   /**
+    * Rejects the next documents of the {@code _bulk} requests with a {@code 429} status, as a busy cluster does.
+    */
+   public void rejectBulkItems(int count) {
+      rejectedItems.set(count);
+   }
+
+   /**
+    * Answers the next {@code _bulk} requests with the given status, without indexing their documents.
+    */
+   public void failBulks(int count, int status) {
+      failedBulkStatus = status;
+      failedBulks.set(count);
+   }
+
+   /**
+    * Closes the connection of the next {@code _bulk} requests without answering them.
+    */
+   public void dropBulks(int count) {
+      droppedBulks.set(count);
+   }
+
+   /**
+    * Leaves the outcome of the last documents out of the items of the next {@code _bulk} response.
+    */
+   public void truncateBulkItems(int count) {
+      truncatedItems.set(count);
+   }
+
+   /**
+    * @return the highest number of {@code _bulk} requests served at the same time
+    */
+   public int maxConcurrentBulks() {
+      return maxConcurrentBulks.get();
+   }
+
+   @Override
+   public void close() {
+      server.stop(0);
+      executor.shutdownNow();
+   }
+
+   private void handle(HttpExchange exchange) throws IOException {
+      try (exchange) {
+         String method = exchange.getRequestMethod();
+         String path = exchange.getRequestURI().getPath();
+         String query = exchange.getRequestURI().getQuery();
+         JsonNode body;
+         try (InputStream input = exchange.getRequestBody()) {
+            byte[] bytes = input.readAllBytes();
+            if (bytes.length == 0) {
+               body = mapper.nullNode();
+            } else if (path.endsWith("/_bulk")) {
+               // newline delimited, recorded as an array of the lines
+               ArrayNode lines = mapper.createArrayNode();
+               mapper.readerFor(JsonNode.class).<JsonNode>readValues(bytes).forEachRemaining(lines::add);
+               body = lines;
+            } else {
+               body = mapper.readTree(bytes);
+            }
+         }
+         requests.add(new Request(method, path, query, body));
+         if (path.endsWith("/_bulk") && droppedBulks.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+            // closed with no response
+            return;
+         }
+
+         JsonNode response;
+         int status = 200;
+         try {
+            response = dispatch(method, path, query, body);
+         } catch (StatusException e) {
+            status = e.status;
+            response = mapper.createObjectNode().put("error", String.valueOf(e.getMessage()));
+         } catch (RuntimeException e) {
+            status = 400;
+            response = mapper.createObjectNode().put("error", String.valueOf(e.getMessage()));
+         }
+         if (response == null) {
+            status = 404;
+            response = mapper.createObjectNode().put("error", method + " " + path);
+         }
+         byte[] bytes = mapper.writeValueAsBytes(response);
+         exchange.getResponseHeaders().add("Content-Type", "application/json");
+         exchange.sendResponseHeaders(status, bytes.length);
+         try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+         }
+      }
+   }
+
+   JsonNode dispatch(String method, String path, String query, JsonNode body) {
+      String[] segments = path.substring(1).split("/");
+      if (path.equals("/")) {
+         ObjectNode response = mapper.createObjectNode();
+         response.putObject("version").put("number", "7.10.2").put("distribution", "opensearch");
+         return response;
+      }
+      if (path.equals("/_search/scroll")) {
+         if (method.equals("DELETE")) {
+            body.path("scroll_id").forEach(id -> scrolls.remove(id.asText()));
+            return mapper.createObjectNode().put("succeeded", true);
+         }
+         return scroll(body.path("scroll_id").asText());
+      }
+      if (path.equals("/_bulk")) {
+         return bulk(body);
+      }
+      if (path.equals("/_mapping")) {
+         ObjectNode response = mapper.createObjectNode();
+         mappings.forEach(response::set);
+         return response;
+      }
+      if (path.equals("/_alias")) {
+         ObjectNode response = mapper.createObjectNode();
+         mappings.keySet().forEach(index -> response.putObject(index).putObject("aliases"));
+         return response;
+      }
+      if (segments.length == 2 && segments[1].equals("_refresh")) {
+         for (String index : segments[0].split(",")) {
+            if (documents.containsKey(index)) {
+               refresh(index);
+            }
+         }
+         ObjectNode response = mapper.createObjectNode();
+         response.putObject("_shards").put("total", 1).put("successful", 1).put("failed", 0);
+         return response;
+      }
+      if (segments.length == 2 && mappings.containsKey(segments[0])) {
+         String index = segments[0];
+         switch (segments[1]) {
+            case "_mapping":
+               return mapper.createObjectNode().set(index, mappings.get(index));
+            case "_count":
+               return mapper.createObjectNode().put("count", matching(index, body.path("query")).size());
+            case "_search":
+               return search(index, body, query != null && query.contains("scroll="));
+            case "_mget":
+               return mget(index, body, query);
+         }
+      }
+      if (segments.length == 3 && mappings.containsKey(segments[0]) && segments[1].equals("_stats")) {
+         return stats(segments[0]);
+      }
+      return null;
+   }
+
+   private JsonNode bulk(JsonNode lines) {
+      if (failedBulks.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+         throw new StatusException(failedBulkStatus, "bulk request failed");
+      }
+      int concurrent = concurrentBulks.incrementAndGet();
+      maxConcurrentBulks.accumulateAndGet(concurrent, Math::max);
+      try {
+         Thread.sleep(bulkDelay.toMillis());
+         boolean errors = false;
+         ArrayNode items = mapper.createArrayNode();
+         for (int i = 0; i + 1 < lines.size(); i += 2) {
+            JsonNode action = lines.get(i).path("index");
+            String index = action.path("_index").asText();
+            String id = action.path("_id").asText();
+            ObjectNode item = items.addObject().putObject("index").put("_index", index).put("_id", id);
+            if (rejectedItems.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+               errors = true;
+               item.put("status", 429).putObject("error")
+                     .put("type", "es_rejected_execution_exception").put("reason", "rejected execution");
+            } else if (!documents.containsKey(index)) {
+               errors = true;
+               item.put("status", 404).putObject("error")
+                     .put("type", "index_not_found_exception").put("reason", "no such index [" + index + "]");
+            } else {
+               index(index, id, lines.get(i + 1));
+               item.put("status", 201).put("result", "created");
+            }
+         }
+         for (int truncated = truncatedItems.getAndSet(0); truncated > 0 && !items.isEmpty(); truncated--) {
+            errors = true;
+            items.remove(items.size() - 1);
+         }
+         ObjectNode response = mapper.createObjectNode().put("took", 1).put("errors", errors);
+         response.set("items", items);
+         return response;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException(e);
+      } finally {
+         concurrentBulks.decrementAndGet();
+      }
+   }
+
+   private JsonNode mget(String index, JsonNode body, String query) {
+      JsonNode includes = null;
+      if (query != null && query.startsWith("_source_includes=")) {
+         includes = mapper.createArrayNode();
+         for (String field : query.substring("_source_includes=".length()).split(",")) {
+            ((ArrayNode) includes).add(field);
+         }
+      }
+      ObjectNode response = mapper.createObjectNode();
+      ArrayNode docs = response.putArray("docs");
+      Map<String, ObjectNode> indexed = documents.get(index);
+      for (JsonNode id : body.path("ids")) {
+         ObjectNode doc = docs.addObject().put("_index", index).put("_id", id.asText());
+         ObjectNode source;
+         synchronized (indexed) {
+            source = indexed.get(id.asText());
+         }
+         doc.put("found", source != null);
+         if (source != null) {
+            doc.set("_source", source(source, includes));
+         }
+      }
+      return response;
+   }
+
+   /**
+    * The shard level stats of an index with a single shard, holding the count of the documents,
+    * the highest sequence number and the number of refreshes.
+    */
+   private JsonNode stats(String index) {
+      ObjectNode response = mapper.createObjectNode();
+      ObjectNode stats = response.putObject("indices").putObject(index);
+      stats.putObject("primaries").putObject("docs").put("count", count(index));
+      ObjectNode shard = stats.putObject("shards").putArray("0").addObject();
+      shard.putObject("routing").put("primary", true);
+      shard.putObject("docs").put("count", count(index));
+      shard.putObject("seq_no").put("max_seq_no", seqNos.get(index).get());
+      shard.putObject("refresh").put("external_total", refreshes.get(index).get());
+      return response;
+   }
+
+   private List<ObjectNode> matching(String index, JsonNode query) {
+      List<ObjectNode> sources = new ArrayList<>();
+      Map<String, ObjectNode> docs = documents.get(index);
+      synchronized (docs) {
+         docs.forEach((id, source) -> {
+            if (query.isMissingNode() || matches(query, id, source)) {
+               sources.add(source);
+            }
+         });
+      }
+      return sources;
+   }
+
+   private JsonNode search(String index, JsonNode body, boolean scroll) {
+      JsonNode query = body.path("query");
+      if (body.has("aggs") || body.path("track_total_hits").asBoolean()) {
+         return aggregations(matching(index, query), body);
+      }
+      List<ObjectNode> hits = new ArrayList<>();
+      Map<String, ObjectNode> docs = documents.get(index);
+      JsonNode slice = body.path("slice");
+      synchronized (docs) {
+         docs.forEach((id, source) -> {
+            if (!slice.isMissingNode()
+                  && Math.floorMod(id.hashCode(), slice.path("max").asInt()) != slice.path("id").asInt()) {
+               // a document of another slice
+               return;
+            }
+            if (query.isMissingNode() || matches(query, id, source)) {
+               ObjectNode hit = mapper.createObjectNode().put("_index", index).put("_id", id);
+               if (body.path("_source").asBoolean(true)) {
+                  hit.set("_source", source(source, body.get("_source")));
+               }
+               if (body.has("docvalue_fields")) {
+                  hit.set("fields", docValues(source, body.get("docvalue_fields")));
+               }
+               hits.add(hit);
+            }
+         });
+      }
+      // the sort keys are read from the indexed documents, the hits only hold the requested fields
+      Comparator<ObjectNode> comparator = comparator(body.path("sort"), docs);
+      if (comparator != null) {
+         hits.sort(comparator);
+      }
+
+      int size = body.path("size").asInt(10);
+      if (scroll) {
+         String scrollId = "scroll-" + scrollIds.incrementAndGet();
+         scrolls.put(scrollId, new Scroll(hits, size));
+         return scroll(scrollId);
+      }
+      int from = body.path("from").asInt(0);
+      return response(hits.subList(Math.min(from, hits.size()), Math.min(from + size, hits.size())), null);
+   }
+
+   /**
+    * Aggregates the matching documents, returning no hit: the metrics at the top level or under a composite
+    * aggregation of {@code terms} sources.
+    */
+   private ObjectNode aggregations(List<ObjectNode> sources, JsonNode body) {
+      ObjectNode response = mapper.createObjectNode();
+      ObjectNode hits = response.putObject("hits");
+      if (body.path("track_total_hits").asBoolean()) {
+         hits.putObject("total").put("value", sources.size()).put("relation", "eq");
+      }
+      hits.putArray("hits");
+      if (!body.has("aggs")) {
+         return response;
+      }
+      ObjectNode aggregations = response.putObject("aggregations");
+      body.get("aggs").fields().forEachRemaining(aggregation -> {
+         JsonNode composite = aggregation.getValue().get("composite");
+         if (composite == null) {
+            aggregations.set(aggregation.getKey(), metric(aggregation.getValue(), sources));
+         } else {
+            aggregations.set(aggregation.getKey(), composite(composite, aggregation.getValue().path("aggs"), sources));
+         }
+      });
+      return response;
+   }
+
+   private ObjectNode composite(JsonNode composite, JsonNode metrics, List<ObjectNode> sources) {
+      List<String> names = new ArrayList<>();
+      List<String> fields = new ArrayList<>();
+      for (JsonNode source : composite.path("sources")) {
+         String name = source.fieldNames().next();
+         names.add(name);
+         fields.add(source.get(name).path("terms").path("field").asText());
+      }
+      // the missing values are sorted first, as for the ascending terms sources
+      Comparator<List<JsonNode>> comparator = (left, right) -> {
+         for (int i = 0; i < left.size(); i++) {
+            JsonNode a = left.get(i);
+            JsonNode b = right.get(i);
+            int compare = a == null || b == null ? Boolean.compare(a != null, b != null) : compare(a, b);
+            if (compare != 0) {
+               return compare;
+            }
+         }
+         return 0;
+      };
+      TreeMap<List<JsonNode>, List<ObjectNode>> buckets = new TreeMap<>(comparator);
+      for (ObjectNode source : sources) {
+         List<JsonNode> key = new ArrayList<>();
+         for (String field : fields) {
+            JsonNode value = value(source, field);
+            key.add(value != null && value.isArray() ? value.get(0) : value);
+         }
+         buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(source);
+      }
+
+      JsonNode after = composite.get("after");
+      if (after != null) {
+         List<JsonNode> afterKey = new ArrayList<>();
+         for (String name : names) {
+            afterKey.add(after.get(name) == null || after.get(name).isNull() ? null : after.get(name));
+         }
+         buckets = new TreeMap<>(buckets.tailMap(afterKey, false));
+      }
+      ObjectNode result = mapper.createObjectNode();
+      ArrayNode array = result.putArray("buckets");
+      ObjectNode afterKey = null;
+      int size = composite.path("size").asInt(10);
+      for (Map.Entry<List<JsonNode>, List<ObjectNode>> bucket : buckets.entrySet()) {
+         if (array.size() == size) {
+            break;
+         }
+         ObjectNode key = mapper.createObjectNode();
+         for (int i = 0; i < names.size(); i++) {
+            key.set(names.get(i), bucket.getKey().get(i) == null ? mapper.nullNode() : bucket.getKey().get(i));
+         }
+         ObjectNode item = array.addObject();
+         item.set("key", key);
+         item.put("doc_count", bucket.getValue().size());
+         metrics.fields().forEachRemaining(metric -> item.set(metric.getKey(), metric(metric.getValue(), bucket.getValue())));
+         afterKey = key;
+      }
+      if (afterKey != null) {
+         result.set("after_key", afterKey);
+      }
+      return result;
+   }
+
+   private ObjectNode metric(JsonNode metric, List<ObjectNode> sources) {
+      String type = metric.fieldNames().next();
+      String field = metric.get(type).path("field").asText();
+      List<Double> values = new ArrayList<>();
+      Set<String> distinct = new HashSet<>();
+      for (ObjectNode source : sources) {
+         JsonNode value = value(source, field);
+         if (value != null) {
+            for (JsonNode element : value.isArray() ? value : List.of(value)) {
+               values.add(element.asDouble());
+               distinct.add(element.asText());
+            }
+         }
+      }
+      double sum = values.stream().mapToDouble(Double::doubleValue).sum();
+      ObjectNode result = mapper.createObjectNode();
+      switch (type) {
+         case "value_count" -> result.put("value", values.size());
+         // exact, where the index estimates it
+         case "cardinality" -> result.put("value", distinct.size());
+         case "sum" -> result.put("value", sum);
+         case "min" -> result.put("value", values.stream().min(Double::compare).orElse(null));
+         case "max" -> result.put("value", values.stream().max(Double::compare).orElse(null));
+         case "stats" -> result.put("count", values.size()).put("sum", sum)
+               .put("min", values.stream().min(Double::compare).orElse(null))
+               .put("max", values.stream().max(Double::compare).orElse(null));
+         default -> throw new IllegalArgumentException("Unsupported aggregation " + type);
+      }
+      return result;
+   }
+
+   private ObjectNode scroll(String scrollId) {
+      Scroll scroll = scrolls.get(scrollId);
+      if (scroll == null) {
+         throw new IllegalArgumentException("No search context found for id " + scrollId);
+      }
+      return response(scroll.next(), scrollId);
+   }
+
+   private ObjectNode response(List<ObjectNode> hits, String scrollId) {
+      ObjectNode response = mapper.createObjectNode();
+      if (scrollId != null) {
+         response.put("_scroll_id", scrollId);
+      }
+      ArrayNode array = response.putObject("hits").putArray("hits");
+      hits.forEach(array::add);
+      return response;
+   }
+
+   private JsonNode source(ObjectNode source, JsonNode includes) {
+      if (includes == null || includes.isMissingNode()) {
+         return source;
+      }
+      ObjectNode result = mapper.createObjectNode();
+      if (includes.isBoolean()) {
+         return includes.asBoolean() ? source : result;
+      }
+      for (JsonNode include : includes) {
+         JsonNode value = value(source, include.asText());
+         if (value != null) {
+            result.set(include.asText(), value);
+         }
+      }
+      return result;
+   }
+
+   private ObjectNode docValues(ObjectNode source, JsonNode docValueFields) {
+      ObjectNode result = mapper.createObjectNode();
+      for (JsonNode docValueField : docValueFields) {
+         String field = docValueField.isTextual() ? docValueField.asText() : docValueField.path("field").asText();
+         JsonNode value = value(source, field);
+         if (value != null) {
+            // doc values are always arrays
+            result.set(field, value.isArray() ? value : mapper.createArrayNode().add(value));
+         }
+      }
+      return result;
+   }
+
+   private Comparator<ObjectNode> comparator(JsonNode sort, Map<String, ObjectNode> docs) {
+      Comparator<ObjectNode> comparator = null;
+      for (JsonNode key : sort) {
+         if (key.isTextual()) {
+            // _doc: index order, which is the one of the hits
+            continue;
+         }
+         String field = key.fieldNames().next();
+         boolean descending = "desc".equals(key.get(field).path("order").asText());
+         boolean missingFirst = "_first".equals(key.get(field).path("missing").asText());
+         Comparator<ObjectNode> next = (a, b) -> {
+            JsonNode left = value(docs.get(a.get("_id").asText()), field);
+            JsonNode right = value(docs.get(b.get("_id").asText()), field);
+            if (left == null || right == null) {
+               if (left == right) {
+                  return 0;
+               }
+               return (left == null) == missingFirst ? -1 : 1;
+            }
+            int compare = compare(left, right);
+            return descending ? -compare : compare;
+         };
+         comparator = comparator == null ? next : comparator.thenComparing(next);
+      }
+      return comparator;
+   }
+
+   boolean matches(JsonNode query, String id, ObjectNode source) {
+      String type = query.fieldNames().next();
+      JsonNode clause = query.get(type);
+      switch (type) {
+         case "match_all":
+            return true;
+         case "match_none":
+            return false;
+         case "term": {
+            String field = clause.fieldNames().next();
+            JsonNode value = value(source, field);
+            return value != null && compare(value, clause.get(field)) == 0;
+         }
+         case "terms": {
+            String field = clause.fieldNames().next();
+            JsonNode value = value(source, field);
+            if (value == null) {
+               return false;
+            }
+            for (JsonNode term : clause.get(field)) {
+               if (compare(value, term) == 0) {
+                  return true;
+               }
+            }
+            return false;
+         }
+         case "ids":
+            for (JsonNode value : clause.path("values")) {
+               if (value.asText().equals(id)) {
+                  return true;
+               }
+            }
+            return false;
+         case "range": {
+            String field = clause.fieldNames().next();
+            JsonNode value = value(source, field);
+            if (value == null) {
+               return false;
+            }
+            Iterator<Map.Entry<String, JsonNode>> bounds = clause.get(field).fields();
+            while (bounds.hasNext()) {
+               Map.Entry<String, JsonNode> bound = bounds.next();
+               int compare = compare(value, bound.getValue());
+               boolean match = switch (bound.getKey()) {
+                  case "gt" -> compare > 0;
+                  case "gte" -> compare >= 0;
+                  case "lt" -> compare < 0;
+                  case "lte" -> compare <= 0;
+                  default -> throw new IllegalArgumentException("Unsupported range " + bound.getKey());
+               };
+               if (!match) {
+                  return false;
+               }
+            }
+            return true;
+         }
+         case "exists":
+            return value(source, clause.get("field").asText()) != null;
+         case "bool":
+            for (String occur : List.of("filter", "must")) {
+               for (JsonNode child : clause.path(occur)) {
+                  if (!matches(child, id, source)) {
+                     return false;
+                  }
+               }
+            }
+            for (JsonNode child : clause.path("must_not")) {
+               if (matches(child, id, source)) {
+                  return false;
+               }
+            }
+            if (clause.path("should").size() > 0) {
+               for (JsonNode child : clause.path("should")) {
+                  if (matches(child, id, source)) {
+                     return true;
+                  }
+               }
+               return false;
+            }
+            return true;
+         default:
+            throw new IllegalArgumentException("Unsupported query " + type);
+      }
+   }
+
+   static JsonNode value(JsonNode source, String field) {
+      JsonNode value = source.get(field);
+      if (value == null && field.indexOf('.') > 0) {
+         value = source;
+         for (String segment : field.split("\\.")) {
+            value = value.get(segment);
+            if (value == null) {
+               break;
+            }
+         }
+      }
+      return value == null || value.isNull() ? null : value;
+   }
+
+   static int compare(JsonNode left, JsonNode right) {
+      if (left.isNumber() && right.isNumber()) {
+         return Double.compare(left.asDouble(), right.asDouble());
+      }
+      if (left.isBoolean() || right.isBoolean()) {
+         return Boolean.compare(left.asBoolean(), right.asBoolean());
+      }
+      return left.asText().compareTo(right.asText());
+   }
+
+   private static final class StatusException extends RuntimeException {
+
+      private final int status;
+
+      private StatusException(int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }
+
+   private static final class Scroll {
+
+      private final List<ObjectNode> hits;
+      private final int size;
+      private int position;
+
+      private Scroll(List<ObjectNode> hits, int size) {
+         this.hits = hits;
+         this.size = size;
+      }
+
+      synchronized List<ObjectNode> next() {
+         int end = Math.min(position + size, hits.size());
+         List<ObjectNode> page = hits.subList(position, end);
+         position = end;
+         return page;
+      }
+   }
+}
@@ -0,0 +1,135 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.calcite.util.Closer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import fax.play.resource.StubSearchServer;
+import fax.play.search.SearchOptions;
+import fax.play.service.CalciteSearch;
+import fax.play.service.CalciteSearchConfig;
+import fax.play.service.SearchService;
+
+public class BindJoinTests {
+
+   private static final int NUM_TABLES = 5;
+   private static final int NUM_ROWS = 1_000;
+   private static final ObjectMapper MAPPER = new ObjectMapper();
+
+   private static Closer closer = new Closer();
+   private static StubSearchServer stub;
+   private static SearchService searchService;
+
+   @BeforeAll
+   public static void beforeAll() throws Exception {
+      stub = closer.add(StubSearchServer.start());
+
+      ObjectNode properties = MAPPER.createObjectNode();
+      properties.putObject("id").put("type", "integer");
+      stub.createIndex("table_1", properties);
+      for (int i = 2; i <= NUM_TABLES; i++) {
+         properties = MAPPER.createObjectNode();
+         properties.putObject("id").put("type", "integer");
+         properties.putObject("table_" + (i - 1) + "_id").put("type", "integer");
+         stub.createIndex("table_" + i, properties);
+      }
+
+      Random random = new Random(7);
+      for (int id = 1; id <= NUM_ROWS; id++) {
+         stub.index("table_1", id + "", MAPPER.createObjectNode().put("id", id));
+         for (int i = 2; i <= NUM_TABLES; i++) {
+            stub.index("table_" + i, id + "", MAPPER.createObjectNode()
+                  .put("id", id)
+                  .put("table_" + (i - 1) + "_id", random.nextInt(NUM_ROWS + 1)));
+         }
+      }
+
+      searchService = closer.add(new SearchService("admin", "admin", stub.host()));
+   }
+
+   @AfterAll
+   public static void afterAll() {
+      closer.close();
+   }
+
+   @Test
+   public void chainJoin() throws Exception {
+      String query = joinQuery("t1.id, t2.id, t3.id, t4.id, t5.id") + 100;
+
+      List<List<Object>> expected;
+      try (CalciteSearch hashJoins = calciteSearch(SearchOptions.defaults().bindJoinMaxOuterRows(0))) {
+         assertThat(plan(hashJoins, query)).doesNotContain("SearchBindJoin");
+         expected = hashJoins.executeQuery(query, CalciteSearch::multipleColumnExtraction);
+      }
+
+      try (CalciteSearch bindJoins = calciteSearch(SearchOptions.defaults().bindJoinBatchSize(10))) {
+         assertThat(plan(bindJoins, query)).contains("SearchBindJoin");
+
+         stub.clearRequests();
+         List<List<Object>> rows = bindJoins.executeQuery(query, CalciteSearch::multipleColumnExtraction);
+         assertThat(rows).containsExactlyInAnyOrderElementsOf(expected);
+
+         // no full scan: the lookups of table_2 are ten batches of ten keys
+         List<StubSearchServer.Request> searches = stub.requests("/_search");
+         assertThat(searches).allSatisfy(request -> assertThat(request.body().path("query").toString())
+               .containsAnyOf("\"terms\"", "\"range\""));
+         assertThat(searches).filteredOn(request -> request.path().startsWith("/table_2/")).hasSize(10);
+         assertThat(stub.openScrolls()).isZero();
+      }
+   }
+
+   @Test
+   public void count() throws Exception {
+      String query = joinQuery("count(*)") + 10;
+      try (CalciteSearch hashJoins = calciteSearch(SearchOptions.defaults().bindJoinMaxOuterRows(0));
+           CalciteSearch bindJoins = calciteSearch(SearchOptions.defaults())) {
+         assertThat(bindJoins.executeQuery(query)).isEqualTo(hashJoins.executeQuery(query));
+      }
+   }
+
+   @Test
+   public void statistics() throws Exception {
+      // the selectivity of the range is guessed as 50%, while it only matches 1% of table_1
+      String query = joinQuery("count(*)") + 10;
+      try (CalciteSearch guessing = calciteSearch(SearchOptions.defaults().bindJoinMaxOuterRows(20))) {
+         assertThat(plan(guessing, query)).doesNotContain("SearchBindJoin");
+      }
+
+      SearchOptions options = SearchOptions.defaults().bindJoinMaxOuterRows(20).statisticsTtl(Duration.ofMinutes(10));
+      try (CalciteSearch estimating = calciteSearch(options);
+           CalciteSearch hashJoins = calciteSearch(SearchOptions.defaults().bindJoinMaxOuterRows(0))) {
+         assertThat(plan(estimating, query)).contains("SearchBindJoin");
+         assertThat(estimating.executeQuery(query)).isEqualTo(hashJoins.executeQuery(query));
+      }
+   }
+
+   private static CalciteSearch calciteSearch(SearchOptions options) {
+      return new CalciteSearch(searchService.getRestClient(), null, CalciteSearchConfig.defaults().search(options));
+   }
+
+   private static String plan(CalciteSearch calciteSearch, String query) throws Exception {
+      return calciteSearch.executeQuery("explain plan for " + query, CalciteSearch::singleColumnExtraction).toString();
+   }
+
+   /**
+    * @return the chain join of all the tables, up to the bound of {@code WHERE t1.id <= }
+    */
+   private static String joinQuery(String projection) {
+      StringBuilder query = new StringBuilder("select " + projection + " from typed.table_1 as t1 ");
+      for (int i = 2; i <= NUM_TABLES; i++) {
+         query.append("inner join typed.table_").append(i).append(" as t").append(i)
+               .append(" on t").append(i - 1).append(".id = t").append(i).append(".table_").append(i - 1).append("_id ");
+      }
+      return query.append("where t1.id <= ").toString();
+   }
+}
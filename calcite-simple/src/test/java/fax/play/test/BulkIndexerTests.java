@@ -0,0 +1,354 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.apache.calcite.util.Closer;
+import org.apache.http.util.EntityUtils;
+import org.infinispan.commons.dataconversion.internal.Json;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.sun.management.ThreadMXBean;
+
+import fax.play.resource.StubSearchServer;
+import fax.play.service.BulkBodyWriter;
+import fax.play.service.BulkIndexer;
+import fax.play.service.BulkResult;
+import fax.play.service.IndexGenerations;
+import fax.play.service.SearchService;
+
+public class BulkIndexerTests {
+
+   private static final ObjectMapper MAPPER = new ObjectMapper();
+   private static final Duration BACKOFF = Duration.ofMillis(10);
+
+   private static Closer closer = new Closer();
+   private static StubSearchServer stub;
+   private static SearchService searchService;
+
+   @BeforeAll
+   public static void beforeAll() throws Exception {
+      stub = closer.add(StubSearchServer.start());
+      for (String index : List.of("by_count", "by_size", "concurrent", "timed", "retried", "retried_requests",
+            "exhausted", "throttled", "generation_1", "generation_2",
+            "dropped", "truncated")) {
+         ObjectNode properties = MAPPER.createObjectNode();
+         properties.putObject("id").put("type", "integer");
+         stub.createIndex(index, properties);
+      }
+      searchService = closer.add(new SearchService("admin", "admin", stub.host()));
+   }
+
+   @AfterAll
+   public static void afterAll() {
+      closer.close();
+   }
+
+   @BeforeEach
+   public void clearRequests() {
+      stub.clearRequests();
+      stub.bulkDelay(Duration.ZERO);
+      stub.rejectBulkItems(0);
+      stub.failBulks(0, 200);
+      stub.dropBulks(0);
+      stub.truncateBulkItems(0);
+   }
+
+   @Test
+   public void cutByCount() throws Exception {
+      BulkIndexer.Config config = new BulkIndexer.Config(10, 1L << 20, 2, null, BulkIndexer.Refresh.WAIT_FOR, 3, BACKOFF);
+      try (BulkIndexer indexer = searchService.bulkIndexer(config)) {
+         for (int id = 1; id <= 95; id++) {
+            indexer.add("by_count", id + "", Json.object("id", id));
+         }
+         indexer.flush();
+         assertThat(indexer.result()).isEqualTo(new BulkResult(10, 95, 0, 0));
+      }
+
+      assertThat(stub.count("by_count")).isEqualTo(95);
+      List<StubSearchServer.Request> bulks = stub.requests("/_bulk");
+      assertThat(bulks).hasSize(10)
+            .allSatisfy(bulk -> assertThat(bulk.query()).isEqualTo("refresh=wait_for"));
+      assertThat(bulks).extracting(bulk -> bulk.body().size() / 2)
+            .containsOnly(10, 5);
+   }
+
+   @Test
+   public void cutBySize() throws Exception {
+      // documents of the same size, three of them fit in a request
+      long documentBytes = bytes("by_size", "100", Json.object("id", 100));
+      BulkIndexer.Config config = new BulkIndexer.Config(1000, 3 * documentBytes + 1, 2, null,
+            BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      try (BulkIndexer indexer = searchService.bulkIndexer(config)) {
+         for (int id = 100; id < 110; id++) {
+            indexer.add("by_size", id + "", Json.object("id", id));
+         }
+      }
+
+      assertThat(stub.count("by_size")).isEqualTo(10);
+      List<StubSearchServer.Request> bulks = stub.requests("/_bulk");
+      // two requests are in flight at once, they may reach the server in any order
+      assertThat(bulks).extracting(bulk -> bulk.body().size() / 2)
+            .containsExactlyInAnyOrder(3, 3, 3, 1);
+      assertThat(bulks).extracting(StubSearchServer.Request::query).containsOnlyNulls();
+   }
+
+   @Test
+   public void concurrentRequests() throws Exception {
+      stub.bulkDelay(Duration.ofMillis(100));
+      BulkIndexer.Config config = new BulkIndexer.Config(1, 1L << 20, 3, null, BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      try (BulkIndexer indexer = searchService.bulkIndexer(config)) {
+         for (int id = 1; id <= 12; id++) {
+            indexer.add("concurrent", id + "", Json.object("id", id));
+         }
+      }
+
+      assertThat(stub.count("concurrent")).isEqualTo(12);
+      assertThat(stub.maxConcurrentBulks()).isBetween(2, 3);
+   }
+
+   @Test
+   public void timedFlush() throws Exception {
+      BulkIndexer.Config config = new BulkIndexer.Config(1000, 1L << 20, 2, Duration.ofMillis(50),
+            BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      try (BulkIndexer indexer = searchService.bulkIndexer(config)) {
+         for (int id = 1; id <= 5; id++) {
+            indexer.add("timed", id + "", Json.object("id", id));
+         }
+         for (int i = 0; i < 50 && stub.count("timed") < 5; i++) {
+            Thread.sleep(20);
+         }
+         assertThat(stub.count("timed")).isEqualTo(5);
+         assertThat(stub.requests("/_bulk")).hasSize(1);
+      }
+   }
+
+   @Test
+   public void retriedItems() throws Exception {
+      stub.rejectBulkItems(3);
+      BulkIndexer.Config config = new BulkIndexer.Config(10, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      BulkIndexer indexer = searchService.bulkIndexer(config);
+      for (int id = 1; id <= 20; id++) {
+         indexer.add("retried", id + "", Json.object("id", id));
+      }
+      indexer.close();
+
+      // only the three rejected documents are sent again, before the next request
+      assertThat(indexer.result()).isEqualTo(new BulkResult(3, 20, 3, 0));
+      assertThat(stub.count("retried")).isEqualTo(20);
+      assertThat(stub.requests("/_bulk")).extracting(bulk -> bulk.body().size() / 2)
+            .containsExactly(10, 3, 10);
+   }
+
+   @Test
+   public void retriedRequests() throws Exception {
+      stub.failBulks(2, 429);
+      BulkIndexer.Config config = new BulkIndexer.Config(5, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      BulkIndexer indexer = searchService.bulkIndexer(config);
+      for (int id = 1; id <= 5; id++) {
+         indexer.add("retried_requests", id + "", Json.object("id", id));
+      }
+      indexer.close();
+
+      assertThat(indexer.result()).isEqualTo(new BulkResult(3, 5, 10, 0));
+      assertThat(stub.count("retried_requests")).isEqualTo(5);
+   }
+
+   @Test
+   public void retriedWhileFlushing() {
+      stub.failBulks(1, 429);
+      // the timer fires while flush() waits for the retry, holding the monitor of the indexer
+      BulkIndexer.Config config = new BulkIndexer.Config(5, 1L << 20, 1, Duration.ofMillis(10),
+            BulkIndexer.Refresh.FALSE, 3, Duration.ofMillis(200));
+      assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+         try (BulkIndexer indexer = searchService.bulkIndexer(config)) {
+            for (int id = 1; id <= 6; id++) {
+               indexer.add("throttled", id + "", Json.object("id", id));
+            }
+            indexer.flush();
+            assertThat(indexer.result().indexed()).isEqualTo(6);
+         }
+      });
+      assertThat(stub.count("throttled")).isEqualTo(6);
+   }
+
+   @Test
+   public void advancedGenerations() throws Exception {
+      IndexGenerations generations = IndexGenerations.of(searchService.getRestClient());
+      BulkIndexer.Config config = new BulkIndexer.Config(1, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      try (BulkIndexer indexer = searchService.bulkIndexer(config)) {
+         indexer.add("generation_1", "1", Json.object("id", 1));
+         indexer.flush();
+         long first = generations.generation("generation_1");
+         assertThat(first).isPositive();
+
+         // only the indices of the completed request
+         indexer.add("generation_2", "1", Json.object("id", 1));
+         indexer.flush();
+         assertThat(generations.generation("generation_1")).isEqualTo(first);
+         assertThat(generations.generation("generation_2")).isPositive();
+      }
+   }
+
+   @Test
+   public void exhaustedRetries() throws Exception {
+      stub.rejectBulkItems(100);
+      BulkIndexer.Config config = new BulkIndexer.Config(2, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 2, BACKOFF);
+      BulkIndexer indexer = searchService.bulkIndexer(config);
+      indexer.add("exhausted", "1", Json.object("id", 1));
+      indexer.add("exhausted", "2", Json.object("id", 2));
+      indexer.close();
+
+      assertThat(indexer.result()).isEqualTo(new BulkResult(3, 0, 4, 2));
+      assertThat(stub.count("exhausted")).isZero();
+   }
+
+   @Test
+   public void failedItems() throws Exception {
+      BulkIndexer.Config config = new BulkIndexer.Config(3, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      BulkIndexer indexer = searchService.bulkIndexer(config);
+      indexer.add("missing", "1", Json.object("id", 1));
+      indexer.add("by_count", "1000", Json.object("id", 1000));
+      indexer.add("missing", "2", Json.object("id", 2));
+      indexer.close();
+
+      // the documents of a missing index are not retried
+      assertThat(indexer.result()).isEqualTo(new BulkResult(1, 1, 0, 2));
+   }
+
+   @Test
+   public void failedRequest() throws Exception {
+      stub.failBulks(1, 500);
+      BulkIndexer.Config config = new BulkIndexer.Config(2, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      BulkIndexer indexer = searchService.bulkIndexer(config);
+      indexer.add("by_count", "2000", Json.object("id", 1));
+      indexer.add("by_count", "2001", Json.object("id", 2));
+
+      assertThatThrownBy(indexer::close)
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("bulk request failed")
+            .hasStackTraceContaining("500");
+   }
+
+   @Test
+   public void droppedConnection() throws Exception {
+      stub.dropBulks(1);
+      BulkIndexer.Config config = new BulkIndexer.Config(5, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      BulkIndexer indexer = searchService.bulkIndexer(config);
+      for (int i = 0; i < 5; i++) {
+         indexer.add("dropped", String.valueOf(i), Json.object("id", i));
+      }
+      assertThatThrownBy(indexer::close).isInstanceOf(IOException.class);
+
+      BulkResult result = indexer.result();
+      assertThat(result).isEqualTo(new BulkResult(1, 0, 0, 5));
+      assertThat(result.indexed() + result.failed()).isEqualTo(5);
+   }
+
+   @Test
+   public void truncatedItems() throws Exception {
+      stub.truncateBulkItems(2);
+      BulkIndexer.Config config = new BulkIndexer.Config(5, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 3, BACKOFF);
+      BulkIndexer indexer = searchService.bulkIndexer(config);
+      for (int i = 0; i < 5; i++) {
+         indexer.add("truncated", String.valueOf(i), Json.object("id", i));
+      }
+      indexer.close();
+
+      // the documents without an outcome are not known to be indexed
+      BulkResult result = indexer.result();
+      assertThat(result).isEqualTo(new BulkResult(1, 3, 0, 2));
+      assertThat(result.indexed() + result.failed()).isEqualTo(5);
+   }
+
+   @Test
+   public void bodyFormat() throws Exception {
+      Json document = Json.object("id", 1, "name", "quote \" and \u00e8", "height", 1.75, "active", true)
+            .set("tags", Json.array("a", "b"))
+            .set("address", Json.object("city", "Rome"))
+            .set("missing", Json.nil());
+      BulkBodyWriter writer = new BulkBodyWriter(16);
+      writer.add("by_count", "1", document);
+      writer.add("by_size", "\"2\"", Json.object("id", 2));
+
+      String expected = stringBody("by_count", "1", document) + stringBody("by_size", "\"2\"", Json.object("id", 2));
+      String body = EntityUtils.toString(writer.entity());
+      assertThat(body).endsWith("\n").hasLineCount(4);
+      assertThat(lines(body)).isEqualTo(lines(expected));
+      assertThat(writer.size()).isEqualTo(body.getBytes(StandardCharsets.UTF_8).length);
+
+      writer.reset();
+      assertThat(writer.documents()).isZero();
+      assertThat(writer.size()).isZero();
+   }
+
+   @Test
+   public void bodyAllocations() throws Exception {
+      ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+      int count = 10_000;
+      List<Json> documents = IntStream.range(0, count)
+            .mapToObj(id -> Json.object("id", id, "table_1_id", count - id, "name", "name " + id))
+            .toList();
+      BulkBodyWriter writer = new BulkBodyWriter(1 << 20);
+
+      long stringBytes = 0;
+      long writerBytes = 0;
+      // the last round, once the code paths are compiled
+      for (int round = 0; round < 5; round++) {
+         long start = threads.getCurrentThreadAllocatedBytes();
+         StringBuilder body = new StringBuilder();
+         for (int id = 0; id < count; id++) {
+            body.append(stringBody("bulk", id + "", documents.get(id)));
+         }
+         assertThat(body.toString().getBytes(StandardCharsets.UTF_8)).isNotEmpty();
+         stringBytes = threads.getCurrentThreadAllocatedBytes() - start;
+
+         start = threads.getCurrentThreadAllocatedBytes();
+         writer.reset();
+         for (int id = 0; id < count; id++) {
+            writer.add("bulk", id + "", documents.get(id));
+         }
+         assertThat(writer.entity().getContentLength()).isPositive();
+         writerBytes = threads.getCurrentThreadAllocatedBytes() - start;
+      }
+
+      // the ids are the only strings left
+      assertThat(writerBytes).isLessThan(stringBytes / 4);
+   }
+
+   private static long bytes(String index, String id, Json document) {
+      return stringBody(index, id, document).getBytes(StandardCharsets.UTF_8).length;
+   }
+
+   /**
+    * @return the lines of a document as {@link SearchService#bulkIndexing(String, Map)} used to build them
+    */
+   private static String stringBody(String index, String id, Json document) {
+      return Json.object("index", Json.object("_index", index, "_id", id)) + "\n" + document + "\n";
+   }
+
+   private static List<JsonNode> lines(String body) throws IOException {
+      List<JsonNode> lines = new ArrayList<>();
+      for (String line : body.split("\n")) {
+         lines.add(MAPPER.readTree(line));
+      }
+      return lines;
+   }
+}
@@ -0,0 +1,75 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import fax.play.service.CalciteSearch;
+import fax.play.service.ColumnBatch;
+
+public class ColumnBatchTests {
+
+   private static final String QUERY = "select * from (values "
+         + "(1, cast(10 as bigint), cast(1.5 as double), 'a'), "
+         + "(2, cast(null as bigint), cast(2.5 as double), 'b'), "
+         + "(3, cast(30 as bigint), cast(3.5 as double), 'a')) as t(i, l, d, s)";
+
+   @Test
+   public void columnar() throws Exception {
+      try (Connection connection = DriverManager.getConnection("jdbc:calcite:");
+           Statement statement = connection.createStatement();
+           ResultSet resultSet = statement.executeQuery(QUERY)) {
+         List<ColumnBatch> batches = CalciteSearch.columnarExtraction(2).apply(resultSet);
+         assertThat(batches).hasSize(2);
+
+         ColumnBatch first = batches.get(0);
+         assertThat(first.size()).isEqualTo(2);
+         assertThat(first.column(0)).isInstanceOf(ColumnBatch.IntColumn.class);
+         assertThat(first.column(1)).isInstanceOf(ColumnBatch.LongColumn.class);
+         assertThat(first.column(2)).isInstanceOf(ColumnBatch.DoubleColumn.class);
+         assertThat(first.column(3)).isInstanceOf(ColumnBatch.StringColumn.class);
+         assertThat(first.getInt(0, 1)).isEqualTo(2);
+         assertThat(first.getLong(1, 0)).isEqualTo(10);
+         assertThat(first.isNull(1, 1)).isTrue();
+         assertThat(first.getObject(1, 1)).isNull();
+         assertThat(first.getDouble(2, 1)).isEqualTo(2.5);
+         assertThat(first.getString(3, 0)).isEqualTo("a");
+
+         ColumnBatch last = batches.get(1);
+         assertThat(last.size()).isEqualTo(1);
+         assertThat(last.capacity()).isEqualTo(1);
+         assertThat(last.getInt(0, 0)).isEqualTo(3);
+         assertThat(last.getString(3, 0)).isEqualTo("a");
+      }
+   }
+
+   @Test
+   public void dictionary() throws Exception {
+      try (Connection connection = DriverManager.getConnection("jdbc:calcite:");
+           Statement statement = connection.createStatement();
+           ResultSet resultSet = statement.executeQuery(QUERY)) {
+         ColumnBatch batch = ColumnBatch.of(resultSet.getMetaData(), ColumnBatch.DEFAULT_CAPACITY);
+         assertThat(batch.fill(resultSet)).isTrue();
+         assertThat(batch.size()).isEqualTo(3);
+
+         ColumnBatch.StringColumn strings = (ColumnBatch.StringColumn) batch.column(3);
+         assertThat(strings.dictionary()).containsExactly("a", "b");
+         assertThat(strings.codes()).startsWith(0, 1, 0);
+
+         long sum = 0;
+         int[] ids = ((ColumnBatch.IntColumn) batch.column(0)).values();
+         for (int row = 0; row < batch.size(); row++) {
+            sum += ids[row];
+         }
+         assertThat(sum).isEqualTo(6);
+
+         assertThat(batch.fill(resultSet)).isFalse();
+      }
+   }
+}
@@ -0,0 +1,106 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.calcite.jdbc.CalciteConnection;
+import org.junit.jupiter.api.Test;
+
+import fax.play.service.ConnectionPool;
+
+public class ConnectionPoolTests {
+
+   private final AtomicInteger created = new AtomicInteger();
+
+   @Test
+   public void reuse() throws Exception {
+      try (ConnectionPool pool = new ConnectionPool(this::newConnection,
+            new ConnectionPool.Config(2, Duration.ofMinutes(1), Duration.ofMillis(100), 1))) {
+         Connection first = pool.borrow();
+         first.close();
+         assertThat(first.isClosed()).isTrue();
+         assertThat(pool.idleCount()).isEqualTo(1);
+
+         try (Connection second = pool.borrow()) {
+            assertThat(second.isClosed()).isFalse();
+            assertThat(pool.activeCount()).isEqualTo(1);
+         }
+         assertThat(created).hasValue(1);
+      }
+   }
+
+   @Test
+   public void bounded() throws Exception {
+      try (ConnectionPool pool = new ConnectionPool(this::newConnection,
+            new ConnectionPool.Config(1, Duration.ofMinutes(1), Duration.ofMillis(50), 1))) {
+         try (Connection ignored = pool.borrow()) {
+            assertThatThrownBy(pool::borrow).isInstanceOf(SQLTimeoutException.class);
+         }
+         pool.borrow().close();
+      }
+   }
+
+   @Test
+   public void evictAndValidate() throws Exception {
+      try (ConnectionPool pool = new ConnectionPool(this::newConnection,
+            new ConnectionPool.Config(2, Duration.ZERO, Duration.ofMillis(100), 1))) {
+         pool.borrow().close();
+         pool.evictIdle();
+         assertThat(pool.idleCount()).isZero();
+
+         Connection connection = pool.borrow();
+         connection.unwrap(Connection.class).close(); // break the underlying connection
+         connection.close();
+         assertThat(pool.idleCount()).isZero();
+         assertThat(created).hasValue(2);
+      }
+   }
+
+   @Test
+   public void resetState() throws Exception {
+      try (ConnectionPool pool = new ConnectionPool(this::newConnection,
+            new ConnectionPool.Config(1, Duration.ofMinutes(1), Duration.ofMillis(100), 1))) {
+         Connection connection = pool.borrow();
+         String schema = connection.getSchema();
+         boolean autoCommit = connection.getAutoCommit();
+         boolean readOnly = connection.isReadOnly();
+         connection.setSchema("metadata");
+         connection.setAutoCommit(!autoCommit);
+         connection.setReadOnly(!readOnly);
+         connection.close();
+
+         // restored, or a new connection
+         try (Connection next = pool.borrow()) {
+            assertThat(next.getSchema()).isEqualTo(schema);
+            assertThat(next.getAutoCommit()).isEqualTo(autoCommit);
+            assertThat(next.isReadOnly()).isEqualTo(readOnly);
+         }
+      }
+   }
+
+   @Test
+   public void unwrapReturned() throws Exception {
+      try (ConnectionPool pool = new ConnectionPool(this::newConnection,
+            new ConnectionPool.Config(1, Duration.ofMinutes(1), Duration.ofMillis(100), 1))) {
+         Connection connection = pool.borrow();
+         assertThat(connection.isWrapperFor(CalciteConnection.class)).isTrue();
+         assertThat(connection.unwrap(CalciteConnection.class)).isNotNull();
+         connection.close();
+
+         assertThatThrownBy(() -> connection.unwrap(CalciteConnection.class)).isInstanceOf(SQLException.class);
+         assertThatThrownBy(() -> connection.isWrapperFor(CalciteConnection.class)).isInstanceOf(SQLException.class);
+      }
+   }
+
+   private Connection newConnection() throws java.sql.SQLException {
+      created.incrementAndGet();
+      return DriverManager.getConnection("jdbc:calcite:");
+   }
+}
@@ -8,8 +8,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.schema.impl.ViewTable;
@@ -24,7 +26,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fax.play.resource.OpenSearchContainer;
+import fax.play.service.BulkResult;
 import fax.play.service.CalciteSearch;
+import fax.play.service.CalciteSearchConfig;
+import fax.play.service.PreparedQuery;
+import fax.play.service.QueryProfile;
 import fax.play.service.SearchService;
 
 public class JoinQueryTests {
@@ -62,8 +68,8 @@ public class JoinQueryTests {
    private static Map<String, String> start;
    private static SearchService searchService;
    private static Closer closer = new Closer();
-
-   private final CalciteSearch calciteSearch = new CalciteSearch(searchService.getRestClient());
+   private static CalciteSearch calciteSearch;
+   private static List<QueryProfile> profiles = new CopyOnWriteArrayList<>();
 
    @BeforeAll
    public static void beforeAll() throws Exception {
@@ -74,6 +80,10 @@ public class JoinQueryTests {
       closer.add(searchService);
 
       indexing();
+
+      calciteSearch = new CalciteSearch(searchService.getRestClient(), JoinQueryTests::defineViews,
+            CalciteSearchConfig.defaults().metrics(profiles::add));
+      closer.add(calciteSearch);
    }
 
    @AfterAll
@@ -97,8 +107,9 @@ public class JoinQueryTests {
       List<Integer> range = IntStream.rangeClosed(1, NUM_ROWS).boxed().toList();
       Map<String, Json> documents =
             range.stream().collect(Collectors.toMap((key) -> key + "", (key) -> Json.object("id", key)));
-      response = searchService.bulkIndexing("table_1", documents);
-      assertThat(response.getStatusLine().getStatusCode()).isPositive();
+      BulkResult result = searchService.bulkIndexing("table_1", documents);
+      assertThat(result.indexed()).isEqualTo(NUM_ROWS);
+      assertThat(result.failed()).isZero();
 
       Random rand = new Random();
 
@@ -110,8 +121,9 @@ public class JoinQueryTests {
             Json json = Json.object("id", id, "table_" + (i - 1) + "_id", rand.nextInt(NUM_ROWS+1));
             documents.put(docId, json);
          }
-         response = searchService.bulkIndexing("table_" + i, documents);
-         assertThat(response.getStatusLine().getStatusCode()).isPositive();
+         result = searchService.bulkIndexing("table_" + i, documents);
+         assertThat(result.indexed()).isEqualTo(NUM_ROWS);
+         assertThat(result.failed()).isZero();
       }
    }
 
@@ -136,13 +148,13 @@ public class JoinQueryTests {
 
    @Test
    public void views() throws Exception {
-      List<Object> objects = calciteSearch.executeQuery(this::defineViews,
+      List<Object> objects = calciteSearch.executeQuery(
             "select * from table_1",
             CalciteSearch::singleColumnExtraction);
 
       assertThat(objects).containsExactlyInAnyOrder(IntStream.range(1, NUM_ROWS + 1).boxed().toArray());
 
-      List<List<Object>> lists = calciteSearch.executeQuery(this::defineViews,
+      List<List<Object>> lists = calciteSearch.executeQuery(
             "select t2.id, t2.table_1_id from table_2 as t2",
             CalciteSearch::multipleColumnExtraction);
 
@@ -150,39 +162,65 @@ public class JoinQueryTests {
    }
 
    @Test
-   public void joins() throws Exception {
-      StringBuilder query = new StringBuilder("SELECT * FROM table_1 AS t1 ");
-      for (int i = 2; i <= NUM_TABLES; i++) {
-         // INNER JOIN table_2 AS t2 ON t1.id = t2.table_1_id
-         String tableAlias = "t" + i;
-         query.append("inner join ");
-         query.append("table_" + i);
-         query.append(" as ");
-         query.append(tableAlias);
-         query.append(" on ");
-         query.append("t" + (i-1));
-         query.append(".id = ");
-         query.append(tableAlias);
-         query.append(".");
-         query.append("table_" + (i - 1) + "_id ");
+   public void streaming() throws Exception {
+      try (Stream<Object[]> rows = calciteSearch.stream("select t2.id, t2.table_1_id from table_2 as t2")) {
+         assertThat(rows.filter(row -> (Integer) row[1] <= NUM_ROWS).count()).isEqualTo(NUM_ROWS);
       }
-      query.append("WHERE t1.id <= ");
-      query.append(10);
 
-      long a = System.currentTimeMillis();
+      long[] sum = new long[1];
+      long count = calciteSearch.forEachRow("select id from table_1 where id <= ?",
+            resultSet -> sum[0] += resultSet.getInt(1), 10);
+      assertThat(count).isEqualTo(10);
+      assertThat(sum[0]).isEqualTo(55);
+   }
 
-      List<?> objects = calciteSearch.executeQuery(this::defineViews, query.toString());
-      assertThat(objects).isNotNull();
+   @Test
+   public void joins() throws Exception {
+      String query = joinQuery("*") + 10;
 
-      long b = System.currentTimeMillis();
+      List<?> objects = calciteSearch.executeQuery(query);
+      assertThat(objects).isNotNull();
 
-      long duration = b - a;
-      LOG.info("NUM_TABLES " + NUM_TABLES + " - NUM_ROWS " + NUM_ROWS + " - duration " + duration + " ms - " + objects);
+      LOG.info("NUM_TABLES " + NUM_TABLES + " - NUM_ROWS " + NUM_ROWS + " - " + lastProfile() + " - " + objects);
    }
 
    @Test
    public void joins_count() throws Exception {
-      StringBuilder query = new StringBuilder("SELECT count(*) FROM table_1 AS t1 ");
+      String query = joinQuery("count(*)") + 10;
+
+      List<?> objects = calciteSearch.executeQuery(query);
+      assertThat(objects).isNotNull();
+
+      LOG.info("NUM_TABLES " + NUM_TABLES + " - NUM_ROWS " + NUM_ROWS + " - " + lastProfile() + " <<count>> - " + objects);
+   }
+
+   @Test
+   public void joins_prepared() throws Exception {
+      PreparedQuery query = calciteSearch.prepare(joinQuery("count(*)") + "?");
+      long hits = calciteSearch.planCache().hits();
+
+      for (int bound = 10; bound <= 50; bound += 10) {
+         List<?> objects = query.execute(bound);
+         assertThat(objects).hasSize(1);
+
+         LOG.info("NUM_TABLES " + NUM_TABLES + " - NUM_ROWS " + NUM_ROWS + " - bound " + bound
+               + " - " + lastProfile() + " <<prepared>> - " + objects);
+      }
+      assertThat(calciteSearch.planCache().hits() - hits).isEqualTo(5);
+   }
+
+   /**
+    * @return the phases of the last query, e.g. {@code parse 1.234 ms, validate ...}
+    */
+   private static String lastProfile() {
+      return profiles.get(profiles.size() - 1).summary();
+   }
+
+   /**
+    * @return the chain join of all the tables, up to the bound of {@code WHERE t1.id <= }
+    */
+   private static String joinQuery(String projection) {
+      StringBuilder query = new StringBuilder("SELECT " + projection + " FROM table_1 AS t1 ");
       for (int i = 2; i <= NUM_TABLES; i++) {
          // INNER JOIN table_2 AS t2 ON t1.id = t2.table_1_id
          String tableAlias = "t" + i;
@@ -198,41 +236,29 @@ public class JoinQueryTests {
          query.append("table_" + (i - 1) + "_id ");
       }
       query.append("WHERE t1.id <= ");
-      query.append(10);
-
-      long a = System.currentTimeMillis();
-
-      List<?> objects = calciteSearch.executeQuery(this::defineViews, query.toString());
-      assertThat(objects).isNotNull();
-
-      long b = System.currentTimeMillis();
-
-      long duration = b - a;
-      LOG.info("NUM_TABLES " + NUM_TABLES + " - NUM_ROWS " + NUM_ROWS + " - duration " + duration + " ms <<count>> - " + objects);
+      return query.toString();
    }
 
-   public void defineViews(SchemaPlus root) {
-      String viewSql = "select"
-            + " cast(_MAP['id'] AS integer) AS \"id\""
-            + " from  \"elastic\".\"table_1\"";
+   public static void defineViews(SchemaPlus root) {
+      // the columns of the typed schema are typed after the mappings, no cast is needed
+      String viewSql = "select \"id\" from \"typed\".\"table_1\"";
 
       root.add("table_1",
             ViewTable.viewMacro(root, viewSql,
-                  Collections.singletonList("elastic"),
-                  Arrays.asList("elastic", "view"), false));
+                  Collections.singletonList("typed"),
+                  Arrays.asList("typed", "view"), false));
 
       for (int i = 2; i <= NUM_TABLES; i++) {
          String tableName = "table_" + i;
          String foreignKeyName = "table_" + (i - 1) + "_id";
 
-         viewSql = "select cast(_MAP['" + foreignKeyName + "'] AS integer) AS \"" + foreignKeyName + "\" ,"
-               + " cast(_MAP['id'] AS integer) AS \"id\""
-               + " from \"elastic\".\"" + tableName + "\"";
+         viewSql = "select \"" + foreignKeyName + "\", \"id\""
+               + " from \"typed\".\"" + tableName + "\"";
 
          root.add(tableName,
                ViewTable.viewMacro(root, viewSql,
-                     Collections.singletonList("elastic"),
-                     Arrays.asList("elastic", "view"), false));
+                     Collections.singletonList("typed"),
+                     Arrays.asList("typed", "view"), false));
       }
    }
 }
@@ -0,0 +1,93 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.calcite.adapter.java.ReflectiveSchema;
+import org.apache.calcite.jdbc.CalciteConnection;
+import org.junit.jupiter.api.Test;
+
+import fax.play.service.CachingDriver;
+import fax.play.service.CalciteSearch;
+import fax.play.service.PlanCache;
+
+public class PlanCacheTests {
+
+   public static class Item {
+      public final int id;
+      public final int parentId;
+
+      public Item(int id, int parentId) {
+         this.id = id;
+         this.parentId = parentId;
+      }
+   }
+
+   public static class Catalog {
+      public final Item[] items = {new Item(1, 0), new Item(2, 1), new Item(3, 1), new Item(4, 3)};
+   }
+
+   @Test
+   public void sharedAcrossConnections() throws Exception {
+      PlanCache planCache = new PlanCache(10);
+      CachingDriver driver = new CachingDriver(planCache, 0);
+
+      String sql = "select i.id from catalog.items as i where i.parentId <= ? order by i.id";
+      assertThat(query(driver, sql, 0)).containsExactly(1);
+      assertThat(planCache.misses()).isEqualTo(1);
+      assertThat(planCache.size()).isEqualTo(1);
+
+      // formatting differences must not defeat the cache
+      assertThat(query(driver, "select i.id from catalog.items  as i\n where i.parentId <= ?\torder by i.id;", 1))
+            .containsExactly(1, 2, 3);
+      assertThat(planCache.hits()).isEqualTo(1);
+      assertThat(planCache.size()).isEqualTo(1);
+
+      // a different schema version does not see the previous plans
+      assertThat(query(new CachingDriver(planCache, 1), sql, 3)).containsExactly(1, 2, 3, 4);
+      assertThat(planCache.size()).isEqualTo(2);
+      planCache.retainSchemaVersion(1);
+      assertThat(planCache.size()).isEqualTo(1);
+   }
+
+   @Test
+   public void bounded() throws Exception {
+      PlanCache planCache = new PlanCache(2);
+      CachingDriver driver = new CachingDriver(planCache, 0);
+      for (int i = 0; i < 4; i++) {
+         query(driver, "select i.id from catalog.items as i where i.id > ? and i.parentId <> " + i, 0);
+      }
+      assertThat(planCache.size()).isEqualTo(2);
+   }
+
+   @Test
+   public void normalize() {
+      assertThat(PlanCache.normalize("  select  *\n from t where name = 'a  b'  ; "))
+            .isEqualTo("select * from t where name = 'a  b'");
+
+      // the line break ending a comment is kept, the rest of the line is not commented out
+      assertThat(PlanCache.normalize("select * from t -- c\n  where id = 1"))
+            .isEqualTo("select * from t -- c\nwhere id = 1")
+            .isNotEqualTo(PlanCache.normalize("select * from t -- c where id = 1"));
+      assertThat(PlanCache.normalize("select /* a  b */  * from t -- c"))
+            .isEqualTo("select /* a  b */ * from t -- c");
+   }
+
+   private static List<Object> query(CachingDriver driver, String sql, int parameter) throws Exception {
+      try (Connection connection = driver.connect("jdbc:calcite:lex=JAVA", new Properties())) {
+         connection.unwrap(CalciteConnection.class).getRootSchema()
+               .add("catalog", new ReflectiveSchema(new Catalog()));
+         try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, parameter);
+            try (ResultSet resultSet = statement.executeQuery()) {
+               return CalciteSearch.singleColumnExtraction(resultSet);
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,82 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fax.play.service.CheckedSQLSupplier;
+import fax.play.service.QueryScheduler;
+import fax.play.service.QueryScheduler.Priority;
+
+public class QuerySchedulerTests {
+
+   @Test
+   public void priorities() {
+      QueryScheduler scheduler = new QueryScheduler(config(1, Duration.ofSeconds(1)));
+      assertThat(scheduler.priority(10)).isEqualTo(Priority.CHEAP);
+      assertThat(scheduler.priority(500)).isEqualTo(Priority.MEDIUM);
+      assertThat(scheduler.priority(5_000)).isEqualTo(Priority.HEAVY);
+      assertThat(scheduler.priority(Double.NaN)).isEqualTo(Priority.HEAVY);
+   }
+
+   @Test
+   public void cheapFirst() throws Exception {
+      QueryScheduler scheduler = new QueryScheduler(config(1, Duration.ofSeconds(10)));
+      QueryScheduler.Permit running = scheduler.admit(5_000);
+
+      CompletableFuture<QueryScheduler.Permit> heavy = async(() -> scheduler.admit(5_000));
+      awaitQueued(scheduler, Priority.HEAVY);
+      CompletableFuture<QueryScheduler.Permit> cheap = async(() -> scheduler.admit(10));
+      awaitQueued(scheduler, Priority.CHEAP);
+
+      // the cheap query overtakes the heavy one queued before it
+      running.close();
+      cheap.get(10, TimeUnit.SECONDS).close();
+      heavy.get(10, TimeUnit.SECONDS).close();
+
+      assertThat(scheduler.running()).isZero();
+      QueryScheduler.Metrics metrics = scheduler.metrics().get(Priority.HEAVY);
+      assertThat(metrics.queued()).isZero();
+      assertThat(metrics.admitted()).isEqualTo(2);
+      assertThat(metrics.maxWait()).isPositive();
+      assertThat(scheduler.metrics().get(Priority.CHEAP).admitted()).isEqualTo(1);
+   }
+
+   @Test
+   public void rejected() throws Exception {
+      QueryScheduler scheduler = new QueryScheduler(config(1, Duration.ofMillis(50)));
+      try (QueryScheduler.Permit ignored = scheduler.admit(10)) {
+         assertThatThrownBy(() -> scheduler.admit(500)).isInstanceOf(SQLTimeoutException.class);
+      }
+      assertThat(scheduler.metrics().get(Priority.MEDIUM).rejected()).isEqualTo(1);
+      assertThat(scheduler.metrics().get(Priority.MEDIUM).queued()).isZero();
+      scheduler.admit(500).close();
+   }
+
+   private static QueryScheduler.Config config(int maxQueries, Duration maxWait) {
+      return new QueryScheduler.Config(maxQueries, 4, 2, 100, 1_000, maxWait);
+   }
+
+   private static <T> CompletableFuture<T> async(CheckedSQLSupplier<T> supplier) {
+      return CompletableFuture.supplyAsync(() -> {
+         try {
+            return supplier.get();
+         } catch (Exception e) {
+            throw new IllegalStateException(e);
+         }
+      });
+   }
+
+   private static void awaitQueued(QueryScheduler scheduler, Priority priority) throws InterruptedException {
+      for (int i = 0; i < 100 && scheduler.metrics().get(priority).queued() == 0; i++) {
+         Thread.sleep(10);
+      }
+      assertThat(scheduler.metrics().get(priority).queued()).isEqualTo(1);
+   }
+}
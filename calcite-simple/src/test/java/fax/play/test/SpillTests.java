@@ -0,0 +1,158 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.DataContexts;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fax.play.spill.ExternalSort;
+import fax.play.spill.GraceHashJoin;
+import fax.play.spill.MemoryBudget;
+
+public class SpillTests {
+
+   @TempDir
+   Path directory;
+
+   @Test
+   public void graceHashJoin() throws Exception {
+      List<Object[]> left = new ArrayList<>();
+      for (int i = 0; i < 2_000; i++) {
+         left.add(new Object[]{i % 10 == 0 ? null : i % 500, "left " + i});
+      }
+      List<Object[]> right = new ArrayList<>();
+      for (int i = 0; i < 1_000; i++) {
+         right.add(new Object[]{i % 700, new BigDecimal(i).movePointLeft(2), i % 3 == 0});
+      }
+
+      for (boolean outer : new boolean[]{false, true}) {
+         // a few rows of the table fit in the budget: both sides are partitioned, most partitions again
+         List<List<Object>> joined = rows(GraceHashJoin.join(null, Linq4j.asEnumerable(left),
+               Linq4j.asEnumerable(right), new int[]{0}, new int[]{0}, outer, 3, 4_096, 4, directory.toString()));
+         assertThat(joined).containsExactlyInAnyOrderElementsOf(nestedLoopJoin(left, right, outer));
+         assertThat(spillFiles()).isEmpty();
+      }
+
+      // within the budget, in the order of the left input
+      List<List<Object>> joined = rows(GraceHashJoin.join(null, Linq4j.asEnumerable(left),
+            Linq4j.asEnumerable(right), new int[]{0}, new int[]{0}, true, 3, 64L << 20, 4, directory.toString()));
+      assertThat(joined).containsExactlyElementsOf(nestedLoopJoin(left, right, true));
+   }
+
+   @Test
+   public void externalSort() throws Exception {
+      Random random = new Random(42);
+      List<Object[]> input = new ArrayList<>();
+      for (int i = 0; i < 5_000; i++) {
+         input.add(new Object[]{random.nextInt(100), (long) i, "row " + i});
+      }
+      Comparator<Object[]> byKey = Comparator.comparing(row -> (Integer) row[0]);
+
+      List<List<Object>> sorted = rows(ExternalSort.sort(null, Linq4j.asEnumerable(input), byKey, 16_384,
+            directory.toString()));
+      List<List<Object>> expected = input.stream().sorted(byKey).map(Arrays::asList).toList();
+      // stable: the rows with the same key keep the order of the input
+      assertThat(sorted).containsExactlyElementsOf(expected);
+      assertThat(spillFiles()).isEmpty();
+   }
+
+   @Test
+   public void externalSortWithoutBudget() throws Exception {
+      Random random = new Random(42);
+      List<Object[]> input = new ArrayList<>();
+      for (int i = 0; i < 5_000; i++) {
+         input.add(new Object[]{random.nextInt(100), (long) i, "row " + i});
+      }
+      Comparator<Object[]> byKey = Comparator.comparing(row -> (Integer) row[0]);
+
+      // the other operators of the query hold the whole budget before the sort starts
+      DataContext root = DataContexts.of(Map.of());
+      MemoryBudget budget = MemoryBudget.of(root, 16_384);
+      budget.reserve(16_384);
+
+      List<List<Object>> sorted = new ArrayList<>();
+      try (Enumerator<Object[]> enumerator = ExternalSort.sort(root, Linq4j.asEnumerable(input), byKey, 16_384,
+            directory.toString()).enumerator()) {
+         // runs of the budget at least, not of a row, merged a few at a time
+         assertThat(openSpillFiles()).isBetween(2L, 16L);
+         while (enumerator.moveNext()) {
+            sorted.add(Arrays.asList(enumerator.current()));
+         }
+      }
+      List<List<Object>> expected = input.stream().sorted(byKey).map(Arrays::asList).toList();
+      assertThat(sorted).containsExactlyElementsOf(expected);
+      assertThat(openSpillFiles()).isZero();
+      assertThat(budget.used()).isEqualTo(16_384);
+   }
+
+   private static List<List<Object>> rows(Enumerable<Object[]> enumerable) {
+      List<List<Object>> rows = new ArrayList<>();
+      try (Enumerator<Object[]> enumerator = enumerable.enumerator()) {
+         while (enumerator.moveNext()) {
+            rows.add(Arrays.asList(enumerator.current()));
+         }
+      }
+      return rows;
+   }
+
+   private static List<List<Object>> nestedLoopJoin(List<Object[]> left, List<Object[]> right, boolean outer) {
+      List<List<Object>> rows = new ArrayList<>();
+      for (Object[] l : left) {
+         boolean matched = false;
+         for (Object[] r : right) {
+            if (l[0] != null && l[0].equals(r[0])) {
+               matched = true;
+               rows.add(Stream.concat(Arrays.stream(l), Arrays.stream(r)).toList());
+            }
+         }
+         if (!matched && outer) {
+            rows.add(Arrays.asList(l[0], l[1], null, null, null));
+         }
+      }
+      return rows;
+   }
+
+   private List<Path> spillFiles() throws Exception {
+      try (Stream<Path> files = Files.list(directory)) {
+         return files.toList();
+      }
+   }
+
+   /**
+    * @return the spill files open, deleted from the directory once open where the system allows it
+    */
+   private long openSpillFiles() throws Exception {
+      Path descriptors = Path.of("/proc/self/fd");
+      assumeTrue(Files.isDirectory(descriptors));
+      try (Stream<Path> files = Files.list(descriptors)) {
+         return files.map(SpillTests::target).filter(target -> target.startsWith(directory.toString())).count();
+      }
+   }
+
+   private static String target(Path descriptor) {
+      try {
+         return Files.readSymbolicLink(descriptor).toString();
+      } catch (IOException e) {
+         // closed meanwhile
+         return "";
+      }
+   }
+}
@@ -0,0 +1,811 @@
+package fax.play.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.apache.calcite.schema.impl.ViewTable;
+import org.apache.calcite.util.Closer;
+import org.infinispan.commons.dataconversion.internal.Json;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import fax.play.metrics.RequestTracer;
+import fax.play.resource.StubSearchServer;
+import fax.play.search.QueryMemory;
+import fax.play.search.SearchOptions;
+import fax.play.service.BulkIndexer;
+import fax.play.service.CalciteSearch;
+import fax.play.service.CalciteSearchConfig;
+import fax.play.service.HistogramMetrics;
+import fax.play.service.PreparedQuery;
+import fax.play.service.QueryProfile;
+import fax.play.service.QueryScheduler;
+import fax.play.service.ResultCache;
+import fax.play.service.SearchService;
+import fax.play.spill.Spilling;
+
+public class TypedSchemaTests {
+
+   private static final int NUM_ROWS = 100;
+   private static final ObjectMapper MAPPER = new ObjectMapper();
+
+   private static Closer closer = new Closer();
+   private static StubSearchServer stub;
+   private static SearchService searchService;
+   private static CalciteSearch calciteSearch;
+
+   @BeforeAll
+   public static void beforeAll() throws Exception {
+      stub = closer.add(StubSearchServer.start());
+
+      ObjectNode properties = MAPPER.createObjectNode();
+      properties.putObject("id").put("type", "integer");
+      stub.createIndex("table_1", properties);
+
+      properties = MAPPER.createObjectNode();
+      properties.putObject("id").put("type", "integer");
+      properties.putObject("table_1_id").put("type", "integer");
+      stub.createIndex("table_2", properties);
+
+      properties = MAPPER.createObjectNode();
+      properties.putObject("name").put("type", "keyword");
+      properties.putObject("bio").put("type", "text");
+      properties.putObject("age").put("type", "long");
+      properties.putObject("height").put("type", "double").put("doc_values", false);
+      properties.putObject("address").putObject("properties").putObject("city").put("type", "keyword");
+      stub.createIndex("people", properties);
+
+      for (int id = 1; id <= NUM_ROWS; id++) {
+         stub.index("table_1", id + "", MAPPER.createObjectNode().put("id", id));
+         stub.index("table_2", id + "", MAPPER.createObjectNode().put("id", id).put("table_1_id", NUM_ROWS + 1 - id));
+      }
+      stub.index("people", "1", person("fax", "the author", 40, 1.8, "Rome"));
+      stub.index("people", "2", person("ada", "the first programmer", 36, 1.65, "London"));
+      stub.index("people", "3", MAPPER.createObjectNode().put("name", "anonymous"));
+
+      searchService = closer.add(new SearchService("admin", "admin", stub.host()));
+      calciteSearch = closer.add(new CalciteSearch(searchService.getRestClient()));
+   }
+
+   @AfterAll
+   public static void afterAll() {
+      closer.close();
+   }
+
+   @BeforeEach
+   public void clearRequests() {
+      stub.clearRequests();
+   }
+
+   @Test
+   public void typedColumns() throws Exception {
+      List<List<Object>> rows = calciteSearch.executeQuery(
+            "select name, age, `address.city` from typed.people order by name",
+            CalciteSearch::multipleColumnExtraction);
+
+      assertThat(rows).containsExactly(
+            List.of("ada", 36L, "London"),
+            Arrays.asList("anonymous", null, null),
+            List.of("fax", 40L, "Rome"));
+   }
+
+   @Test
+   public void filterPushdown() throws Exception {
+      List<Object> ids = calciteSearch.executeQuery("select id from typed.table_1 where id <= 10",
+            CalciteSearch::singleColumnExtraction);
+      assertThat(ids).containsExactlyInAnyOrder(IntStream.rangeClosed(1, 10).boxed().toArray());
+
+      JsonNode body = lastSearch();
+      assertThat(body.path("query").path("range").path("id").path("lte").asInt()).isEqualTo(10);
+      assertThat(body.path("_source").asBoolean()).isFalse();
+      assertThat(body.path("docvalue_fields").findValuesAsText("field")).containsExactly("id");
+
+      assertThat(plan("select id from typed.table_1 where id <= 10"))
+            .contains("SearchTableScan")
+            .doesNotContain("EnumerableFilter");
+   }
+
+   @Test
+   public void disjunctionPushdown() throws Exception {
+      List<Object> ids = calciteSearch.executeQuery("select id from typed.table_1 where id in (1, 3, 5) or id > 98",
+            CalciteSearch::singleColumnExtraction);
+      assertThat(ids).containsExactlyInAnyOrder(1, 3, 5, 99, 100);
+      assertThat(lastSearch().path("query").toString()).contains("\"range\"");
+   }
+
+   @Test
+   public void parameters() throws Exception {
+      PreparedQuery query = calciteSearch.prepare("select id from typed.table_1 where id <= ?");
+      assertThat(query.execute(5)).hasSize(5);
+      assertThat(query.execute(7)).hasSize(7);
+      assertThat(lastSearch().path("query").path("range").path("id").path("lte").asInt()).isEqualTo(7);
+   }
+
+   @Test
+   public void nullParameters() throws Exception {
+      // a comparison with null matches no row, the index would ignore the bound or reject the term
+      for (String operator : new String[]{"=", ">=", "<>"}) {
+         PreparedQuery query = calciteSearch.prepare("select id from typed.table_1 where id " + operator + " ?");
+         stub.clearRequests();
+         assertThat(query.execute(new Object[]{null})).isEmpty();
+         assertThat(lastSearch().path("query").has("match_none")).isTrue();
+         assertThat(query.execute(98)).isNotEmpty();
+      }
+
+      // the nulls of a list are not compared
+      PreparedQuery query = calciteSearch.prepare("select id from typed.table_1 where id in (?, ?)");
+      assertThat(query.execute(CalciteSearch::singleColumnExtraction, null, 7)).containsExactly(7);
+   }
+
+   @Test
+   public void textIsNotPushed() throws Exception {
+      List<Object> names = calciteSearch.executeQuery(
+            "select name from typed.people where bio = 'the author' and age > 30",
+            CalciteSearch::singleColumnExtraction);
+      assertThat(names).containsExactly("fax");
+
+      JsonNode query = lastSearch().path("query");
+      assertThat(query.toString()).doesNotContain("bio");
+      assertThat(query.path("range").path("age").path("gt").asInt()).isEqualTo(30);
+
+      names = calciteSearch.executeQuery("select name from typed.people where age is null",
+            CalciteSearch::singleColumnExtraction);
+      assertThat(names).containsExactly("anonymous");
+   }
+
+   @Test
+   public void narrowingCastIsNotPushed() throws Exception {
+      // both heights are cast to 1, while a term query on the double field matches neither
+      List<Object> names = calciteSearch.executeQuery(
+            "select name from typed.people where cast(height as integer) = 1",
+            CalciteSearch::singleColumnExtraction);
+      assertThat(names).containsExactlyInAnyOrder("fax", "ada");
+      assertThat(lastSearch().path("query").toString()).doesNotContain("height");
+
+      // a widening one is
+      List<Object> ids = calciteSearch.executeQuery("select id from typed.table_1 where cast(id as bigint) < 3",
+            CalciteSearch::singleColumnExtraction);
+      assertThat(ids).containsExactlyInAnyOrder(1, 2);
+      assertThat(lastSearch().path("query").path("range").path("id").path("lt").asInt()).isEqualTo(3);
+   }
+
+   @Test
+   public void fetchedFields() throws Exception {
+      List<List<Object>> rows = calciteSearch.executeQuery(
+            "select name, age, height, `address.city` from typed.people where age > 30",
+            CalciteSearch::multipleColumnExtraction);
+      assertThat(rows).containsExactlyInAnyOrder(List.of("fax", 40L, 1.8, "Rome"), List.of("ada", 36L, 1.65, "London"));
+
+      // the numbers are read from the doc values, unless they are disabled in the mapping
+      JsonNode body = lastSearch();
+      assertThat(body.path("docvalue_fields").findValuesAsText("field")).containsExactly("age");
+      assertThat(body.path("_source")).extracting(JsonNode::asText).containsExactly("name", "height", "address.city");
+   }
+
+   @Test
+   public void sortAndLimit() throws Exception {
+      List<Object> ids = calciteSearch.executeQuery("select id from typed.table_2 order by id desc limit 3",
+            CalciteSearch::singleColumnExtraction);
+      assertThat(ids).containsExactly(100, 99, 98);
+
+      StubSearchServer.Request request = stub.requests("/_search").get(0);
+      assertThat(request.query()).isNull();
+      assertThat(request.body().path("size").asInt()).isEqualTo(3);
+      assertThat(request.body().path("sort").get(0).path("id").path("order").asText()).isEqualTo("desc");
+   }
+
+   @Test
+   public void viewSortAndLimit() throws Exception {
+      try (Connection connection = calciteSearch.createConnectionWith(root -> root.add("table_2",
+            ViewTable.viewMacro(root, "select \"table_1_id\", \"id\" from \"typed\".\"table_2\"",
+                  List.of("typed"), List.of("typed", "view"), false)));
+           Statement statement = connection.createStatement();
+           ResultSet resultSet = statement.executeQuery("select * from table_2 order by table_1_id desc limit 2")) {
+         assertThat(resultSet.next()).isTrue();
+         assertThat(resultSet.getInt(1)).isEqualTo(NUM_ROWS);
+         assertThat(resultSet.next()).isTrue();
+         assertThat(resultSet.getInt(1)).isEqualTo(NUM_ROWS - 1);
+         assertThat(resultSet.next()).isFalse();
+      }
+
+      // the sort and the fetch are pushed through the projection of the view
+      JsonNode body = lastSearch();
+      assertThat(body.path("size").asInt()).isEqualTo(2);
+      assertThat(body.path("sort").get(0).path("table_1_id").path("order").asText()).isEqualTo("desc");
+   }
+
+   @Test
+   public void topN() throws Exception {
+      // the index cannot sort on the fields without doc values
+      String sql = "select name from typed.people order by height limit 1";
+      assertThat(calciteSearch.executeQuery(sql, CalciteSearch::singleColumnExtraction)).containsExactly("ada");
+      assertThat(plan(sql))
+            .contains("EnumerableLimitSort")
+            .doesNotContain("EnumerableSort");
+
+      // nor on the rows of a join
+      sql = "select t1.id, t2.id from typed.table_1 as t1 inner join typed.table_2 as t2 on t1.id = t2.table_1_id "
+            + "order by t2.id limit 3";
+      assertThat(calciteSearch.executeQuery(sql, CalciteSearch::multipleColumnExtraction))
+            .containsExactly(List.of(100, 1), List.of(99, 2), List.of(98, 3));
+      assertThat(plan(sql))
+            .contains("EnumerableLimitSort")
+            .doesNotContain("EnumerableSort");
+   }
+
+   @Test
+   public void scroll() throws Exception {
+      List<List<Object>> rows = calciteSearch.executeQuery("select * from typed.table_2",
+            CalciteSearch::multipleColumnExtraction);
+      assertThat(rows).hasSize(NUM_ROWS);
+      assertThat(stub.requests("/_search").get(0).query()).contains("scroll=");
+      assertThat(stub.openScrolls()).isZero();
+   }
+
+   @Test
+   public void slicedScan() throws Exception {
+      SearchOptions options = SearchOptions.defaults().scanSlices("table_2", 4);
+      try (CalciteSearch sliced = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().search(options))) {
+         List<List<Object>> rows = sliced.executeQuery("select * from typed.table_2",
+               CalciteSearch::multipleColumnExtraction);
+         assertThat(rows).hasSize(NUM_ROWS).doesNotHaveDuplicates();
+
+         List<StubSearchServer.Request> searches = stub.requests("/_search");
+         assertThat(searches).extracting(request -> request.body().path("slice").path("id").asInt())
+               .containsExactlyInAnyOrder(0, 1, 2, 3);
+         assertThat(stub.openScrolls()).isZero();
+
+         // the order of a sorted scan is the one of a single scroll
+         stub.clearRequests();
+         assertThat(sliced.executeQuery("select id from typed.table_2 order by id desc limit 3",
+               CalciteSearch::singleColumnExtraction))
+               .containsExactly(100, 99, 98);
+         assertThat(lastSearch().has("slice")).isFalse();
+      }
+   }
+
+   @Test
+   public void prefetchedScan() throws Exception {
+      SearchOptions options = SearchOptions.defaults().fetchSize(10).prefetchPages(2);
+      try (CalciteSearch prefetching = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().search(options));
+           Connection connection = prefetching.createConnection()) {
+         try (Statement statement = connection.createStatement();
+              ResultSet resultSet = statement.executeQuery("select id from typed.table_2 order by id")) {
+            assertThat(resultSet.next()).isTrue();
+            assertThat(resultSet.getInt(1)).isEqualTo(1);
+
+            // the first page is consumed, two are buffered and the fourth one waits for room
+            awaitRequests(4);
+            Thread.sleep(200);
+            assertThat(searchRequests()).isEqualTo(4);
+
+            List<Integer> ids = new ArrayList<>(List.of(1));
+            while (resultSet.next()) {
+               ids.add(resultSet.getInt(1));
+            }
+            assertThat(ids).containsExactlyElementsOf(IntStream.rangeClosed(1, NUM_ROWS).boxed().toList());
+         }
+         assertThat(stub.openScrolls()).isZero();
+
+         // closing a scan stops the prefetching and clears its scroll
+         stub.clearRequests();
+         try (Statement statement = connection.createStatement();
+              ResultSet resultSet = statement.executeQuery("select id from typed.table_2")) {
+            assertThat(resultSet.next()).isTrue();
+            awaitRequests(4);
+         }
+         for (int i = 0; i < 50 && stub.openScrolls() > 0; i++) {
+            Thread.sleep(20);
+         }
+         assertThat(stub.openScrolls()).isZero();
+         assertThat(searchRequests()).isEqualTo(4);
+      }
+   }
+
+   @Test
+   public void idLookup() throws Exception {
+      String sql = "select id, table_1_id from typed.table_2 where id in (3, 1, 200)";
+      // the lookups are enabled by the column holding the ids
+      assertThat(plan(sql)).doesNotContain("lookup");
+
+      SearchOptions options = SearchOptions.defaults().defaultIdField("id");
+      try (CalciteSearch lookups = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().search(options))) {
+         List<List<Object>> rows = lookups.executeQuery(sql, CalciteSearch::multipleColumnExtraction);
+         assertThat(rows).containsExactly(List.of(1, 100), List.of(3, 98));
+
+         // a single round trip, without any search
+         List<StubSearchServer.Request> requests = stub.requests("/table_2/_mget");
+         assertThat(requests).hasSize(1);
+         assertThat(requests.get(0).body().path("ids")).extracting(JsonNode::asText).containsExactly("1", "3", "200");
+         assertThat(requests.get(0).query()).isEqualTo("_source_includes=id,table_1_id");
+         assertThat(stub.requests("/_search")).isEmpty();
+         assertThat(plan(lookups, sql)).contains("lookup=[true]");
+
+         stub.clearRequests();
+         PreparedQuery query = lookups.prepare("select table_1_id from typed.table_2 where id = ?");
+         assertThat(query.execute(CalciteSearch::singleColumnExtraction, 7)).containsExactly(94);
+         assertThat(query.execute(1_000)).isEmpty();
+         assertThat(stub.requests("/_mget")).extracting(request -> request.body().path("ids").get(0).asText())
+               .containsExactly("7", "1000");
+
+         // the other conditions are searched
+         assertThat(plan(lookups, "select id from typed.table_2 where id = 1 or table_1_id = 1"))
+               .doesNotContain("lookup");
+      }
+   }
+
+   @Test
+   public void batchedLookup() throws Exception {
+      SearchOptions options = SearchOptions.defaults().defaultIdField("id").fetchSize(2);
+      try (CalciteSearch batching = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().search(options))) {
+         List<Object> ids = batching.executeQuery("select id from typed.table_1 where id in (5, 4, 3, 2, 1)",
+               CalciteSearch::singleColumnExtraction);
+         assertThat(ids).containsExactly(1, 2, 3, 4, 5);
+         assertThat(stub.requests("/_mget")).hasSize(3);
+      }
+   }
+
+   @Test
+   public void countPushdown() throws Exception {
+      List<Object> counts = calciteSearch.executeQuery("select count(*) from typed.table_1 where id <= 10",
+            CalciteSearch::singleColumnExtraction);
+      assertThat(counts).containsExactly(10L);
+
+      List<StubSearchServer.Request> requests = stub.requests("/table_1/_count");
+      assertThat(requests).hasSize(1);
+      assertThat(requests.get(0).body().path("query").path("range").path("id").path("lte").asInt()).isEqualTo(10);
+      assertThat(stub.requests("/_search")).isEmpty();
+   }
+
+   @Test
+   public void aggregationPushdown() throws Exception {
+      List<List<Object>> rows = calciteSearch.executeQuery(
+            "select `address.city`, count(*), count(age), sum(age), min(age), max(age) from typed.people "
+                  + "group by `address.city`",
+            CalciteSearch::multipleColumnExtraction);
+      assertThat(rows).containsExactlyInAnyOrder(
+            List.of("London", 1L, 1L, 36L, 36L, 36L),
+            List.of("Rome", 1L, 1L, 40L, 40L, 40L),
+            Arrays.asList(null, 1L, 0L, null, null, null));
+
+      // only the buckets are returned
+      JsonNode body = lastSearch();
+      assertThat(body.path("size").asInt()).isZero();
+      assertThat(body.path("aggs").path("groups").path("composite").path("sources").findValuesAsText("field"))
+            .containsExactly("address.city");
+
+      rows = calciteSearch.executeQuery("select count(*), sum(age), min(age) from typed.people where age > 30",
+            CalciteSearch::multipleColumnExtraction);
+      assertThat(rows).containsExactly(List.of(2L, 76L, 36L));
+      assertThat(lastSearch().path("track_total_hits").asBoolean()).isTrue();
+
+      assertThat(plan("select name, count(*) from typed.people group by name"))
+            .contains("aggregation")
+            .doesNotContain("EnumerableAggregate");
+      // the index does not aggregate the fields without doc values
+      assertThat(plan("select max(height) from typed.people"))
+            .contains("EnumerableAggregate");
+   }
+
+   @Test
+   public void compositePaging() throws Exception {
+      SearchOptions options = SearchOptions.defaults().fetchSize(10);
+      try (CalciteSearch paging = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().search(options))) {
+         List<List<Object>> rows = paging.executeQuery(
+               "select table_1_id, count(*) from typed.table_2 group by table_1_id",
+               CalciteSearch::multipleColumnExtraction);
+         assertThat(rows).hasSize(NUM_ROWS).allSatisfy(row -> assertThat(row.get(1)).isEqualTo(1L));
+         assertThat(rows).extracting(row -> row.get(0)).doesNotHaveDuplicates();
+
+         // a page after the key of the last bucket of the previous one, the last page is empty
+         List<StubSearchServer.Request> searches = stub.requests("/_search");
+         assertThat(searches).hasSize(NUM_ROWS / 10 + 1);
+         assertThat(searches.get(1).body().path("aggs").path("groups").path("composite").path("after")
+               .path("g0").asInt()).isEqualTo(10);
+      }
+   }
+
+   @Test
+   public void statistics() throws Exception {
+      String sql = "explain plan including all attributes for select id from typed.table_1 where id <= 10";
+      // the guess of a range on an unknown number of rows
+      assertThat(calciteSearch.executeQuery(sql, CalciteSearch::singleColumnExtraction).toString())
+            .contains("rowcount = 50.0");
+
+      SearchOptions options = SearchOptions.defaults().statisticsTtl(Duration.ofMinutes(10));
+      try (CalciteSearch estimating = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().search(options))) {
+         // 100 documents with ids from 1 to 100
+         String plan = estimating.executeQuery(sql, CalciteSearch::singleColumnExtraction).toString();
+         assertThat(plan).contains("rowcount = 10.09");
+
+         // planned again, not with the statistics fetched again
+         estimating.executeQuery(sql.replace("10", "20"), CalciteSearch::singleColumnExtraction);
+         List<StubSearchServer.Request> searches = stub.requests("/table_1/_search");
+         assertThat(searches).hasSize(1);
+         assertThat(searches.get(0).body().path("aggs").path("distinct_0").path("cardinality").path("field").asText())
+               .isEqualTo("id");
+      }
+
+      options = SearchOptions.defaults().statisticsTtl(Duration.ofMillis(50));
+      try (CalciteSearch expiring = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().search(options))) {
+         expiring.executeQuery(sql, CalciteSearch::singleColumnExtraction);
+         int fetched = stub.requests("/table_1/_search").size();
+         Thread.sleep(100);
+         expiring.executeQuery(sql.replace("10", "20"), CalciteSearch::singleColumnExtraction);
+         assertThat(stub.requests("/table_1/_search").size()).isGreaterThan(fetched);
+      }
+   }
+
+   @Test
+   public void replicatedJoin() throws Exception {
+      ObjectNode properties = MAPPER.createObjectNode();
+      properties.putObject("id").put("type", "integer");
+      properties.putObject("color").put("type", "keyword");
+      stub.createIndex("colors", properties);
+      stub.index("colors", "1", MAPPER.createObjectNode().put("id", 1).put("color", "red"));
+      stub.index("colors", "2", MAPPER.createObjectNode().put("id", 2).put("color", "green"));
+
+      SearchOptions options = SearchOptions.defaults().replicated("colors", true)
+            .replicaRefreshInterval(Duration.ofMillis(50));
+      String sql = "select t2.id, c.color from typed.table_2 as t2 left join typed.colors as c on t2.id = c.id "
+            + "where t2.id <= 3";
+      try (CalciteSearch replicating = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().search(options))) {
+         assertThat(replicating.executeQuery("explain plan for " + sql, CalciteSearch::singleColumnExtraction)
+               .toString()).contains("SearchReplicaJoin");
+
+         List<List<Object>> rows = replicating.executeQuery(sql, CalciteSearch::multipleColumnExtraction);
+         assertThat(rows).containsExactlyInAnyOrder(List.of(1, "red"), List.of(2, "green"), Arrays.asList(3, null));
+         assertThat(stub.requests("/colors/_search")).hasSize(1);
+
+         // probed locally
+         stub.clearRequests();
+         replicating.executeQuery(sql, CalciteSearch::multipleColumnExtraction);
+         assertThat(stub.requests()).noneMatch(request -> request.path().startsWith("/colors/_search"));
+
+         // loaded again in the background once the index changed
+         stub.index("colors", "3", MAPPER.createObjectNode().put("id", 3).put("color", "blue"));
+         for (int i = 0; i < 100 && !rows.contains(List.of(3, "blue")); i++) {
+            Thread.sleep(20);
+            rows = replicating.executeQuery(sql, CalciteSearch::multipleColumnExtraction);
+         }
+         assertThat(rows).contains(List.of(3, "blue"));
+         assertThat(stub.requests("/colors/_search")).hasSize(1);
+
+         // a write is loaded once the index is refreshed, not before
+         stub.clearRequests();
+         stub.indexWithoutRefresh("colors", "1", MAPPER.createObjectNode().put("id", 1).put("color", "yellow"));
+         Thread.sleep(200);
+         assertThat(stub.requests("/colors/_search")).isEmpty();
+         stub.refresh("colors");
+         for (int i = 0; i < 100 && !rows.contains(List.of(1, "yellow")); i++) {
+            Thread.sleep(20);
+            rows = replicating.executeQuery(sql, CalciteSearch::multipleColumnExtraction);
+         }
+         assertThat(rows).contains(List.of(1, "yellow"));
+      }
+   }
+
+   @Test
+   public void resultCache() throws Exception {
+      ObjectNode properties = MAPPER.createObjectNode();
+      properties.putObject("id").put("type", "integer");
+      stub.createIndex("cached", properties);
+      stub.index("cached", "1", MAPPER.createObjectNode().put("id", 1));
+      stub.index("cached", "2", MAPPER.createObjectNode().put("id", 2));
+
+      String sql = "select id from typed.cached where id >= ? order by id";
+      CalciteSearchConfig config = CalciteSearchConfig.defaults().resultCache(ResultCache.Config.defaults());
+      try (CalciteSearch caching = new CalciteSearch(searchService.getRestClient(), null, config)) {
+         PreparedQuery query = caching.prepare(sql);
+         assertThat(query.execute(CalciteSearch::singleColumnExtraction, 1)).containsExactly(1, 2);
+         assertThat(query.execute(CalciteSearch::singleColumnExtraction, 1)).containsExactly(1, 2);
+         assertThat(stub.requests("/cached/_search")).hasSize(1);
+         assertThat(caching.resultCache().hits()).isEqualTo(1);
+
+         // the parameters are part of the key
+         assertThat(query.execute(CalciteSearch::singleColumnExtraction, 2)).containsExactly(2);
+         assertThat(stub.requests("/cached/_search")).hasSize(2);
+
+         // a bulk write through the same client invalidates the results reading the index right away
+         searchService.bulkIndexing("cached", Map.of("3", Json.object("id", 3)));
+         assertThat(query.execute(CalciteSearch::singleColumnExtraction, 1)).containsExactly(1, 2, 3);
+         assertThat(stub.requests("/cached/_search")).hasSize(3);
+
+         // not the ones reading other indices
+         List<Object> ids = caching.executeQuery("select id from typed.table_1 where id <= 2 order by id",
+               CalciteSearch::singleColumnExtraction);
+         searchService.bulkIndexing("cached", Map.of("4", Json.object("id", 4)));
+         assertThat(caching.executeQuery("select id from typed.table_1 where id <= 2 order by id",
+               CalciteSearch::singleColumnExtraction)).isEqualTo(ids);
+         assertThat(stub.requests("/table_1/_search")).hasSize(1);
+
+         // the results of an index written without refresh are not cached, until it is refreshed
+         BulkIndexer.Config unrefreshed = new BulkIndexer.Config(10, 1L << 20, 1, null, BulkIndexer.Refresh.FALSE, 0,
+               Duration.ofMillis(10));
+         try (BulkIndexer indexer = searchService.bulkIndexer(unrefreshed)) {
+            indexer.add("cached", "5", Json.object("id", 5));
+            indexer.flush();
+            stub.clearRequests();
+            query.execute(1);
+            query.execute(1);
+            assertThat(stub.requests("/cached/_search")).hasSize(2);
+
+            indexer.refresh();
+            assertThat(stub.requests("/cached/_refresh")).hasSize(1);
+            assertThat(query.execute(CalciteSearch::singleColumnExtraction, 1)).containsExactly(1, 2, 3, 4, 5);
+            assertThat(query.execute(CalciteSearch::singleColumnExtraction, 1)).containsExactly(1, 2, 3, 4, 5);
+            assertThat(stub.requests("/cached/_search")).hasSize(3);
+         }
+      }
+   }
+
+   @Test
+   public void asyncQueries() throws Exception {
+      List<CompletableFuture<List<Object>>> futures = IntStream.rangeClosed(1, 4)
+            .mapToObj(id -> calciteSearch.executeQueryAsync("select id from typed.table_1 where id = " + id,
+                  CalciteSearch::singleColumnExtraction))
+            .toList();
+      assertThat(futures).extracting(CompletableFuture::join)
+            .containsExactly(List.of(1), List.of(2), List.of(3), List.of(4));
+
+      assertThat(calciteSearch.executeQueryAsync("select id from typed.missing"))
+            .failsWithin(Duration.ofSeconds(10))
+            .withThrowableOfType(ExecutionException.class)
+            .withCauseInstanceOf(SQLException.class);
+
+      AtomicInteger tasks = new AtomicInteger();
+      Executor executor = task -> {
+         tasks.incrementAndGet();
+         new Thread(task).start();
+      };
+      try (CalciteSearch executing = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().executor(executor))) {
+         PreparedQuery query = executing.prepare("select id from typed.table_2 where id <= ? order by id");
+         assertThat(query.executeAsync(CalciteSearch::singleColumnExtraction, 2).get(10, TimeUnit.SECONDS))
+               .containsExactly(1, 2);
+         assertThat(tasks).hasValue(1);
+      }
+   }
+
+   @Test
+   public void scheduledQueries() throws Exception {
+      QueryScheduler.Config scheduling = new QueryScheduler.Config(2, 4, 2, 100, 5_000, Duration.ofSeconds(10));
+      try (CalciteSearch scheduled = new CalciteSearch(searchService.getRestClient(), null,
+            CalciteSearchConfig.defaults().scheduler(scheduling))) {
+         assertThat(scheduled.executeQuery("select id from typed.table_1 where id = 1",
+               CalciteSearch::singleColumnExtraction)).containsExactly(1);
+         assertThat(scheduled.executeQuery("select count(*) from typed.table_1 as t1, typed.table_2 as t2",
+               CalciteSearch::singleColumnExtraction)).containsExactly((long) NUM_ROWS * NUM_ROWS);
+
+         Map<QueryScheduler.Priority, QueryScheduler.Metrics> metrics = scheduled.scheduler().metrics();
+         assertThat(metrics.get(QueryScheduler.Priority.CHEAP).admitted()).isEqualTo(1);
+         assertThat(metrics.get(QueryScheduler.Priority.HEAVY).admitted()).isEqualTo(1);
+         assertThat(scheduled.scheduler().running()).isZero();
+         assertThat(scheduled.scheduler().limiter().inFlight()).isZero();
+      }
+   }
+
+   @Test
+   public void spilledJoin() throws Exception {
+      SearchOptions options = SearchOptions.defaults().bindJoinMaxOuterRows(0);
+      CalciteSearchConfig config = CalciteSearchConfig.defaults().search(options)
+            .spill(new Spilling.Config(4_096, 4, Path.of(System.getProperty("java.io.tmpdir"))));
+      // the scans sorted by the join keys would be merged instead, not the groups of the aggregation
+      String sql = "select t1.id, t2.c from typed.table_1 as t1 inner join "
+            + "(select table_1_id, count(*) as c from typed.table_2 group by table_1_id) as t2 "
+            + "on t1.id = t2.table_1_id order by t1.id desc";
+      try (CalciteSearch spilling = new CalciteSearch(searchService.getRestClient(), null, config)) {
+         assertThat(spilling.executeQuery("explain plan for " + sql, CalciteSearch::singleColumnExtraction).toString())
+               .contains("SpillingHashJoin", "SpillingSort");
+
+         List<List<Object>> rows = spilling.executeQuery(sql, CalciteSearch::multipleColumnExtraction);
+         assertThat(rows).hasSize(NUM_ROWS);
+         for (int i = 0; i < NUM_ROWS; i++) {
+            assertThat(rows.get(i)).containsExactly(NUM_ROWS - i, 1L);
+         }
+      }
+   }
+
+   @Test
+   public void queryMemoryLimit() throws Exception {
+      List<QueryMemory> queries = new CopyOnWriteArrayList<>();
+      SearchOptions options = SearchOptions.defaults().bindJoinMaxOuterRows(0);
+      CalciteSearchConfig config = CalciteSearchConfig.defaults().search(options)
+            .queryMemoryLimit(1L << 20).queryMemoryListener(queries::add);
+      String sql = "select t1.id, t2.c from typed.table_1 as t1 inner join "
+            + "(select table_1_id, count(*) as c from typed.table_2 group by table_1_id) as t2 "
+            + "on t1.id = t2.table_1_id";
+      try (CalciteSearch limited = new CalciteSearch(searchService.getRestClient(), null, config)) {
+         // the hash join holding its rows in memory, to allocate them
+         assertThat(limited.executeQuery("explain plan for " + sql, CalciteSearch::singleColumnExtraction).toString())
+               .contains("SpillingHashJoin");
+         queries.clear();
+
+         assertThat(limited.executeQuery(sql, CalciteSearch::multipleColumnExtraction)).hasSize(NUM_ROWS);
+         assertThat(queries).singleElement().satisfies(memory -> {
+            assertThat(memory.query()).isEqualTo(sql);
+            assertThat(memory.peak()).isPositive().isLessThanOrEqualTo(1L << 20);
+         });
+      }
+
+      config.queryMemoryLimit(4_096);
+      try (CalciteSearch limited = new CalciteSearch(searchService.getRestClient(), null, config)) {
+         assertThatThrownBy(() -> limited.executeQuery("select * from typed.table_2"))
+               .isInstanceOf(SQLException.class)
+               .hasMessageStartingWith("The query exceeded its memory limit of 4096 bytes");
+         // the next query is not affected
+         assertThat(limited.executeQuery("select id from typed.table_1 where id = 1",
+               CalciteSearch::singleColumnExtraction)).containsExactly(1);
+      }
+
+      config.search(SearchOptions.defaults().defaultIdField("id")).queryMemoryLimit(1_024);
+      try (CalciteSearch limited = new CalciteSearch(searchService.getRestClient(), null, config)) {
+         // the documents looked up by id
+         assertThatThrownBy(() -> limited.executeQuery("select * from typed.table_2 where id in "
+               + "(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19)"))
+               .isInstanceOf(SQLException.class)
+               .hasMessageContaining("a page of the documents of table_2 looked up by id");
+      }
+   }
+
+   @Test
+   public void queryProfiles() throws Exception {
+      List<QueryProfile> profiles = new CopyOnWriteArrayList<>();
+      HistogramMetrics histograms = new HistogramMetrics();
+      CalciteSearchConfig config = CalciteSearchConfig.defaults()
+            .metrics(profile -> {
+               profiles.add(profile);
+               histograms.record(profile);
+            })
+            .slowQueryThreshold(Duration.ZERO);
+      String sql = "select id from typed.table_1 where id <= 10";
+      try (CalciteSearch profiled = new CalciteSearch(searchService.getRestClient(), null, config)) {
+         assertThat(profiled.executeQuery(sql)).hasSize(10);
+         assertThat(profiled.executeQuery(sql)).hasSize(10);
+      }
+
+      assertThat(profiles).hasSize(2);
+      QueryProfile prepared = profiles.get(0);
+      assertThat(prepared.planCached()).isFalse();
+      for (QueryProfile.Phase phase : List.of(QueryProfile.Phase.PARSE, QueryProfile.Phase.VALIDATE,
+            QueryProfile.Phase.OPTIMIZE, QueryProfile.Phase.CODEGEN, QueryProfile.Phase.FETCH)) {
+         assertThat(prepared.nanos(phase)).as(phase.name()).isPositive();
+      }
+      assertThat(prepared.rows()).isEqualTo(10);
+      assertThat(prepared.backendRequests()).isPositive();
+      assertThat(prepared.backendBytes()).isPositive();
+      assertThat(prepared.plan()).contains("SearchTableScan");
+
+      QueryProfile cached = profiles.get(1);
+      assertThat(cached.planCached()).isTrue();
+      assertThat(cached.nanos(QueryProfile.Phase.PARSE)).isZero();
+      assertThat(cached.nanos(QueryProfile.Phase.FETCH)).isPositive();
+      assertThat(cached.plan()).isEqualTo(prepared.plan());
+
+      assertThat(histograms.queries()).isEqualTo(2);
+      assertThat(histograms.cachedPlans()).isEqualTo(1);
+      assertThat(histograms.rows()).isEqualTo(20);
+      assertThat(histograms.histogram(QueryProfile.Phase.OPTIMIZE).count()).isEqualTo(1);
+      assertThat(histograms.histogram(QueryProfile.Phase.FETCH).count()).isEqualTo(2);
+      assertThat(histograms.total().percentile(1)).isEqualTo(histograms.total().max());
+   }
+
+   @Test
+   public void requestTracing() throws Exception {
+      RequestTracer tracer = new RequestTracer();
+      List<QueryProfile> profiles = new CopyOnWriteArrayList<>();
+      try (SearchService traced = new SearchService("admin", "admin", stub.host(), tracer);
+           CalciteSearch tracing = new CalciteSearch(traced.getRestClient(), null,
+                 CalciteSearchConfig.defaults().metrics(profiles::add))) {
+         assertThat(RequestTracer.of(traced.getRestClient())).isSameAs(tracer);
+         assertThat(tracing.executeQuery("select id from typed.table_1 where id <= 10")).hasSize(10);
+         try (RequestTracer.Trace window = tracer.window()) {
+            traced.bulkIndexing("traced", Map.of("1", Json.object("id", 1)));
+            // the requests of no query
+            assertThat(window.queryId()).isNull();
+            assertThat(window.calls()).extracting(RequestTracer.Call::operation)
+                  .containsExactly(RequestTracer.Operation.BULK);
+         }
+      }
+
+      assertThat(profiles).hasSize(1);
+      QueryProfile profile = profiles.get(0);
+      assertThat(profile.queryId()).isNotNull();
+      // the search, then the request clearing its scroll
+      assertThat(profile.requests()).hasSize((int) profile.backendRequests());
+      RequestTracer.Call search = profile.requests().get(0);
+      assertThat(search.operation()).isEqualTo(RequestTracer.Operation.SEARCH);
+      assertThat(search.index()).isEqualTo("table_1");
+      assertThat(search.status()).isEqualTo(200);
+      assertThat(search.nanos()).isPositive();
+      assertThat(search.requestBytes()).isPositive();
+      assertThat(search.responseBytes()).isPositive();
+
+      RequestTracer.Stats searches = tracer.stats("table_1", RequestTracer.Operation.SEARCH);
+      assertThat(searches.nanos().count()).isEqualTo(1);
+      assertThat(searches.responseBytes().total()).isEqualTo(search.responseBytes());
+      assertThat(searches.statuses()).isEqualTo(Map.of(200, 1L));
+      // the documents of a bulk request name their index
+      assertThat(tracer.stats(null, RequestTracer.Operation.BULK).nanos().count()).isEqualTo(1);
+      assertThat(tracer.stats("traced", RequestTracer.Operation.BULK)).isNull();
+   }
+
+   @Test
+   public void join() throws Exception {
+      List<List<Object>> rows = calciteSearch.executeQuery(
+            "select t1.id, t2.id from typed.table_1 as t1 inner join typed.table_2 as t2 on t1.id = t2.table_1_id "
+                  + "where t1.id <= 3",
+            CalciteSearch::multipleColumnExtraction);
+      assertThat(rows).containsExactlyInAnyOrder(List.of(1, 100), List.of(2, 99), List.of(3, 98));
+   }
+
+   private static JsonNode lastSearch() {
+      List<StubSearchServer.Request> searches = stub.requests("/_search");
+      assertThat(searches).isNotEmpty();
+      return searches.get(searches.size() - 1).body();
+   }
+
+   /**
+    * @return the searches and the scroll requests fetching a page, not the ones clearing a scroll
+    */
+   private static long searchRequests() {
+      return stub.requests().stream()
+            .filter(request -> !request.method().equals("DELETE"))
+            .filter(request -> request.path().endsWith("/_search") || request.path().endsWith("/_search/scroll"))
+            .count();
+   }
+
+   private static void awaitRequests(int count) throws InterruptedException {
+      for (int i = 0; i < 50 && searchRequests() < count; i++) {
+         Thread.sleep(20);
+      }
+      assertThat(searchRequests()).isEqualTo(count);
+   }
+
+   private static String plan(String sql) throws Exception {
+      return plan(calciteSearch, sql);
+   }
+
+   private static String plan(CalciteSearch calciteSearch, String sql) throws Exception {
+      return calciteSearch.executeQuery("explain plan for " + sql, CalciteSearch::singleColumnExtraction).toString();
+   }
+
+   private static ObjectNode person(String name, String bio, int age, double height, String city) {
+      ObjectNode person = MAPPER.createObjectNode().put("name", name).put("bio", bio).put("age", age)
+            .put("height", height);
+      person.putObject("address").put("city", city);
+      return person;
+   }
+}